@@ -221,6 +221,33 @@ JNIEXPORT jlong JNICALL Java_edu_stanford_nlp_mt_lm_KenLM_scoreNGramSeq
   env->ReleasePrimitiveArrayCritical(jint_ngram, ngram_array, JNI_ABORT);
   return result;
 }
+
+/*
+ * Class:     edu_stanford_nlp_more_lm_KenLM
+ * Method:    scoreNGramSeqBatch
+ * Signature: (J[I[I[I[J)V
+ */
+JNIEXPORT void JNICALL Java_edu_stanford_nlp_mt_lm_KenLM_scoreNGramSeqBatch
+(JNIEnv *env, jobject this_jobj, jlong kenLM_ptr, jintArray jint_ngrams, jintArray jint_offsets, jintArray jint_start_indices, jlongArray jlong_results) {
+  const WrapAbstract *kenLM = reinterpret_cast<WrapAbstract*>(kenLM_ptr);
+  jint num_seqs = env->GetArrayLength(jlong_results);
+
+  // One critical section for the whole batch. No JNI calls are allowed until the
+  // arrays are released.
+  jint* ngram_array = (jint*) env->GetPrimitiveArrayCritical(jint_ngrams, 0);
+  jint* offsets = (jint*) env->GetPrimitiveArrayCritical(jint_offsets, 0);
+  jint* start_indices = (jint*) env->GetPrimitiveArrayCritical(jint_start_indices, 0);
+  jlong* results = (jlong*) env->GetPrimitiveArrayCritical(jlong_results, 0);
+  for (jint i = 0; i < num_seqs; ++i) {
+    const lm::WordIndex *begin = (const lm::WordIndex*)&ngram_array[offsets[i]];
+    const lm::WordIndex *end = (const lm::WordIndex*)&ngram_array[offsets[i + 1]];
+    results[i] = kenLM->QuerySequence(begin, begin + start_indices[i], end);
+  }
+  env->ReleasePrimitiveArrayCritical(jlong_results, results, 0);
+  env->ReleasePrimitiveArrayCritical(jint_start_indices, start_indices, JNI_ABORT);
+  env->ReleasePrimitiveArrayCritical(jint_offsets, offsets, JNI_ABORT);
+  env->ReleasePrimitiveArrayCritical(jint_ngrams, ngram_array, JNI_ABORT);
+}
   
 /*
  * Class:     edu_stanford_nlp_more_lm_KenLM
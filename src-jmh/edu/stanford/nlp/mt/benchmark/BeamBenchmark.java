@@ -0,0 +1,85 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
+import edu.stanford.nlp.mt.decoder.util.Beam;
+import edu.stanford.nlp.mt.decoder.util.BeamFactory;
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.util.IString;
+
+/**
+ * Beam inserts per second for two-rule derivations of a bundled source sentence.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BeamBenchmark {
+
+  private static final int NUM_DERIVATIONS = 8192;
+
+  @Param({"treebeam", "sloppybeam", "heapbeam"})
+  public BeamFactory.BeamType beamType;
+
+  @Param({"200", "1000"})
+  public int capacity;
+
+  /**
+   * Keeps all derivations distinct, so that every insert exercises the beam.
+   */
+  private static class DistinctFilter implements RecombinationFilter<Derivation<IString, String>> {
+    @Override
+    public boolean combinable(Derivation<IString, String> hypA, Derivation<IString, String> hypB) {
+      return hypA == hypB;
+    }
+
+    @Override
+    public long recombinationHashCode(Derivation<IString, String> hyp) {
+      return hyp.id;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      return super.clone();
+    }
+  }
+
+  private RecombinationFilter<Derivation<IString, String>> filter;
+  private List<Derivation<IString, String>> derivations;
+
+  @Setup
+  public void setup() throws IOException {
+    Phrasal decoder = BenchmarkModels.decoder();
+    List<Featurizer<IString, String>> featurizers = BenchmarkModels.featurizers(decoder);
+    filter = new DistinctFilter();
+    derivations = BenchmarkModels.derivations(decoder, featurizers, NUM_DERIVATIONS);
+    if (derivations.size() != NUM_DERIVATIONS) {
+      throw new IllegalStateException("Too few derivations: " + derivations.size());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_DERIVATIONS)
+  public int put() {
+    Beam<Derivation<IString, String>> beam = BeamFactory.factory(beamType, filter, capacity);
+    for (Derivation<IString, String> derivation : derivations) {
+      beam.put(derivation);
+    }
+    return beam.size();
+  }
+}
@@ -0,0 +1,181 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.feat.base.LinearFutureCostFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.base.NGramLanguageModelFeaturizer;
+import edu.stanford.nlp.mt.decoder.h.NullHeuristic;
+import edu.stanford.nlp.mt.decoder.h.SearchHeuristic;
+import edu.stanford.nlp.mt.decoder.util.DenseScorer;
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.CompiledPhraseTable;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Small models bundled in test-resources for the benchmarks. Paths are
+ * relative to the root of the source tree.
+ *
+ */
+final class BenchmarkModels {
+
+  public static final String PHRASE_TABLE = "test-resources/inputs/dev12tune.phrase-table.gz";
+  public static final String ARPA_LM = "test-resources/inputs/mt06.flt_giga.lm.gz";
+  public static final String KENLM_LM = "test-resources/inputs/kenlm.bin";
+
+  /**
+   * Source sentences covered by the bundled phrase table.
+   */
+  public static final String[] SOURCES = {
+    "就 是 不 知道 , 的 事 必须 做到 。",
+    "社会 的 法律 是 为了 权力 ?",
+    "不 , 就 是 多少 事 , 全 有 了 。",
+    "和 使 社会 的 事 行 不 行 ?"
+  };
+
+  private static final Pattern FIELD_SPLITTER = Pattern.compile(Pattern.quote(CompiledPhraseTable.FIELD_DELIM));
+
+  private BenchmarkModels() {}
+
+  /**
+   * Tokenized source sentences.
+   *
+   * @return
+   */
+  public static List<Sequence<IString>> sources() {
+    return Arrays.stream(SOURCES).map(IStrings::tokenize).collect(Collectors.toList());
+  }
+
+  /**
+   * Dense weights for the bundled models.
+   *
+   * @return
+   */
+  public static Counter<String> weights() {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("LM", 0.5);
+    weights.setCount("LinearDistortion", -0.1);
+    weights.setCount("WordPenalty", -0.2);
+    weights.setCount("PhrasePenalty", 0.1);
+    double[] tmWeights = { 0.2, 0.1, 0.2, 0.1, -0.3, 0.05, 0.1 };
+    for (int i = 0; i < tmWeights.length; ++i) {
+      weights.setCount("TM:FPT." + i, tmWeights[i]);
+    }
+    return weights;
+  }
+
+  /**
+   * A bitext with one sentence pair per phrase table entry.
+   *
+   * @return
+   * @throws IOException
+   */
+  public static ParallelCorpus phraseTableBitext() throws IOException {
+    ParallelCorpus corpus = new ParallelCorpus();
+    try (LineNumberReader reader = IOTools.getReaderFromFile(PHRASE_TABLE)) {
+      for (String line; (line = reader.readLine()) != null;) {
+        String[] fields = FIELD_SPLITTER.split(line);
+        String[] f2e = fields[2].trim().split("\\s+");
+        List<String> links = new ArrayList<>();
+        for (int i = 0; i < f2e.length; ++i) {
+          String targets = f2e[i].substring(1, f2e[i].length() - 1);
+          if (targets.isEmpty()) continue;
+          for (String j : targets.split(",")) links.add(i + "-" + j);
+        }
+        corpus.add(fields[0].trim(), fields[1].trim(), String.join(" ", links));
+      }
+    }
+    return corpus;
+  }
+
+  /**
+   * Load a single-threaded decoder for the bundled models.
+   *
+   * @return
+   * @throws IOException
+   */
+  public static Phrasal decoder() throws IOException {
+    File weightsFile = File.createTempFile("benchmark", ".binwts");
+    weightsFile.deleteOnExit();
+    IOTools.writeWeights(weightsFile.getPath(), weights());
+    Map<String,List<String>> config = new HashMap<>();
+    config.put(Phrasal.TRANSLATION_TABLE_OPT, Arrays.asList(PHRASE_TABLE));
+    config.put(Phrasal.LANGUAGE_MODEL_OPT, Arrays.asList(ARPA_LM));
+    config.put(Phrasal.WEIGHTS_FILE, Arrays.asList(weightsFile.getPath()));
+    config.put(Phrasal.OPTION_LIMIT_OPT, Arrays.asList("20"));
+    config.put(Phrasal.DISTORTION_LIMIT, Arrays.asList("5"));
+    config.put(Phrasal.BEAM_SIZE, Arrays.asList("200"));
+    config.put(Phrasal.NUM_THREADS, Arrays.asList("1"));
+    return Phrasal.loadDecoder(config);
+  }
+
+  /**
+   * The language model and distortion featurizers of the decoder.
+   *
+   * @param decoder
+   * @return
+   */
+  public static List<Featurizer<IString, String>> featurizers(Phrasal decoder) {
+    return Arrays.asList(new NGramLanguageModelFeaturizer(decoder.getLanguageModel()),
+        new LinearFutureCostFeaturizer());
+  }
+
+  /**
+   * One- and two-rule derivations of the first source sentence.
+   *
+   * @param decoder
+   * @param featurizers
+   * @param maxDerivations
+   * @return
+   */
+  public static List<Derivation<IString, String>> derivations(Phrasal decoder,
+      List<Featurizer<IString, String>> featurizers, int maxDerivations) {
+    FeatureExtractor<IString, String> featurizer = new FeatureExtractor<>(featurizers);
+    Scorer<String> scorer = new DenseScorer(weights());
+    SearchHeuristic<IString, String> heuristic = new NullHeuristic<>();
+
+    final int sourceInputId = 0;
+    final Sequence<IString> source = sources().get(sourceInputId);
+    final InputProperties inputProperties = new InputProperties();
+    List<ConcreteRule<IString, String>> rules = decoder.getTranslationModel().getRules(source,
+        inputProperties, sourceInputId, scorer);
+    featurizer.initialize(sourceInputId, source);
+
+    Derivation<IString, String> root = new Derivation<>(sourceInputId, source, inputProperties,
+        heuristic, scorer, Collections.emptyList(), null);
+    List<Derivation<IString, String>> derivations = new ArrayList<>(maxDerivations);
+    for (ConcreteRule<IString, String> first : rules) {
+      Derivation<IString, String> d = new Derivation<>(sourceInputId, first, 0, root, featurizer,
+          scorer, heuristic, null);
+      derivations.add(d);
+      for (ConcreteRule<IString, String> second : rules) {
+        if (derivations.size() == maxDerivations) return derivations;
+        if (d.sourceCoverage.intersects(second.sourceCoverage)) continue;
+        derivations.add(new Derivation<>(sourceInputId, second, d.length, d, featurizer,
+            scorer, heuristic, null));
+      }
+    }
+    return derivations;
+  }
+}
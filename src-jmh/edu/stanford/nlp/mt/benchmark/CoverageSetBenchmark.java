@@ -0,0 +1,98 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.mt.util.CoverageSet;
+
+/**
+ * Source coverage operations performed for each derivation expansion.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CoverageSetBenchmark {
+
+  private static final int NUM_SETS = 256;
+
+  @Param({"20", "60", "120"})
+  public int sourceLength;
+
+  private CoverageSet[] coverages;
+  private CoverageSet[] rules;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    coverages = new CoverageSet[NUM_SETS];
+    rules = new CoverageSet[NUM_SETS];
+    for (int i = 0; i < NUM_SETS; ++i) {
+      coverages[i] = new CoverageSet(sourceLength);
+      for (int j = 0; j < sourceLength; ++j) {
+        if (random.nextBoolean()) coverages[i].set(j);
+      }
+      rules[i] = new CoverageSet(sourceLength);
+      int start = random.nextInt(sourceLength);
+      rules[i].set(start, Math.min(sourceLength, start + 1 + random.nextInt(4)));
+    }
+  }
+
+  /**
+   * The coverage update in the Derivation constructor.
+   */
+  @Benchmark
+  public void cloneAndOr(Blackhole bh) {
+    for (int i = 0; i < NUM_SETS; ++i) {
+      CoverageSet coverage = coverages[i].clone();
+      coverage.or(rules[i]);
+      bh.consume(coverage);
+    }
+  }
+
+  @Benchmark
+  public void intersects(Blackhole bh) {
+    for (int i = 0; i < NUM_SETS; ++i) {
+      bh.consume(coverages[i].intersects(rules[(i + 1) % NUM_SETS]));
+    }
+  }
+
+  @Benchmark
+  public void cardinality(Blackhole bh) {
+    for (int i = 0; i < NUM_SETS; ++i) {
+      bh.consume(coverages[i].cardinality());
+    }
+  }
+
+  @Benchmark
+  public void nextClearBit(Blackhole bh) {
+    for (int i = 0; i < NUM_SETS; ++i) {
+      bh.consume(coverages[i].nextClearBit(0));
+    }
+  }
+
+  @Benchmark
+  public void isContiguous(Blackhole bh) {
+    for (int i = 0; i < NUM_SETS; ++i) {
+      bh.consume(coverages[i].isContiguous());
+    }
+  }
+
+  @Benchmark
+  public void hashCodeAndEquals(Blackhole bh) {
+    for (int i = 0; i < NUM_SETS; ++i) {
+      bh.consume(coverages[i].hashCode());
+      bh.consume(coverages[i].equals(coverages[(i + 1) % NUM_SETS]));
+    }
+  }
+}
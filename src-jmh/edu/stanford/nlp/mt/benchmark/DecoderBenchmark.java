@@ -0,0 +1,49 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * End-to-end cube pruning decoding of the bundled source sentences.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecoderBenchmark {
+
+  @Param({"1", "100"})
+  public int nbestSize;
+
+  private Phrasal decoder;
+  private List<Sequence<IString>> sources;
+
+  @Setup
+  public void setup() throws IOException {
+    decoder = BenchmarkModels.decoder();
+    sources = BenchmarkModels.sources();
+  }
+
+  @Benchmark
+  public void decode(Blackhole bh) {
+    for (int i = 0; i < sources.size(); ++i) {
+      bh.consume(decoder.decode(sources.get(i), i, 0, nbestSize, null, new InputProperties()));
+    }
+  }
+}
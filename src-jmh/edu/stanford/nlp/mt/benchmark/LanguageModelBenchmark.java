@@ -0,0 +1,79 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.mt.lm.LMState;
+import edu.stanford.nlp.mt.lm.LanguageModel;
+import edu.stanford.nlp.mt.lm.LanguageModelFactory;
+import edu.stanford.nlp.mt.util.AlignedSentence;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Language model queries for target phrases that extend a prior state, which
+ * is the query pattern of the decoder.
+ *
+ * The KenLM model requires the native library in src-cc. The benchmark fails for
+ * that parameter if the library has not been compiled.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LanguageModelBenchmark {
+
+  private static final int NUM_QUERIES = 1024;
+
+  @Param({LanguageModelFactory.KEN_LM_TAG + BenchmarkModels.KENLM_LM,
+    BenchmarkModels.ARPA_LM,
+    LanguageModelFactory.TRIE_LM_TAG + BenchmarkModels.ARPA_LM})
+  public String model;
+
+  private LanguageModel<IString> lm;
+  private List<Sequence<IString>> phrases;
+  private LMState[] priorStates;
+  private int[] startIndices;
+
+  @Setup
+  public void setup() throws IOException {
+    lm = LanguageModelFactory.load(model);
+    ParallelCorpus bitext = BenchmarkModels.phraseTableBitext();
+    Random random = new Random(42);
+    phrases = new ArrayList<>(NUM_QUERIES);
+    priorStates = new LMState[NUM_QUERIES];
+    startIndices = new int[NUM_QUERIES];
+    for (int i = 0; i < NUM_QUERIES; ++i) {
+      AlignedSentence prior = bitext.get(random.nextInt(bitext.size()));
+      AlignedSentence phrase = bitext.get(random.nextInt(bitext.size()));
+      priorStates[i] = lm.score(prior.getTarget(bitext.getVocabulary()), 0, null);
+      phrases.add(phrase.getTarget(bitext.getVocabulary()));
+    }
+  }
+
+  @Benchmark
+  public void score(Blackhole bh) {
+    for (int i = 0; i < NUM_QUERIES; ++i) {
+      bh.consume(lm.score(phrases.get(i), startIndices[i], priorStates[i]));
+    }
+  }
+
+  @Benchmark
+  public LMState[] scoreBatch() {
+    return lm.scoreBatch(phrases, startIndices, priorStates);
+  }
+}
@@ -0,0 +1,54 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilterFactory;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHash;
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.util.IString;
+
+/**
+ * Recombination of two-rule derivations of a bundled source sentence.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecombinationHashBenchmark {
+
+  private static final int MAX_DERIVATIONS = 8192;
+
+  private RecombinationFilter<Derivation<IString, String>> filter;
+  private List<Derivation<IString, String>> derivations;
+
+  @Setup
+  public void setup() throws IOException {
+    Phrasal decoder = BenchmarkModels.decoder();
+    List<Featurizer<IString, String>> featurizers = BenchmarkModels.featurizers(decoder);
+    filter = RecombinationFilterFactory.factory(RecombinationFilterFactory.PHAROAH_RECOMBINATION,
+        featurizers);
+    derivations = BenchmarkModels.derivations(decoder, featurizers, MAX_DERIVATIONS);
+  }
+
+  @Benchmark
+  public int update() {
+    RecombinationHash<Derivation<IString, String>> hash = new RecombinationHash<>(filter);
+    for (Derivation<IString, String> derivation : derivations) {
+      hash.update(derivation);
+    }
+    return hash.size();
+  }
+}
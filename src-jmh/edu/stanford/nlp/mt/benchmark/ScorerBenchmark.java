@@ -0,0 +1,81 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.stanford.nlp.mt.decoder.feat.FeatureBuffer;
+import edu.stanford.nlp.mt.decoder.util.DenseScorer;
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Incremental scoring of the features of one derivation.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScorerBenchmark {
+
+  /**
+   * Number of sparse features in addition to the dense features.
+   */
+  @Param({"0", "20"})
+  public int numSparseFeatures;
+
+  private DenseScorer denseScorer;
+  private SparseScorer sparseScorer;
+  private List<FeatureValue<String>> features;
+  private FeatureBuffer buffer;
+
+  @Setup
+  public void setup() {
+    Counter<String> weights = BenchmarkModels.weights();
+    Random random = new Random(42);
+    features = new ArrayList<>();
+    for (String feature : weights.keySet()) {
+      features.add(new FeatureValue<>(feature, random.nextGaussian(), true));
+    }
+    for (int i = 0; i < numSparseFeatures; ++i) {
+      String feature = "Sparse:" + i;
+      weights.setCount(feature, random.nextGaussian());
+      features.add(new FeatureValue<>(feature, 1.0));
+    }
+    denseScorer = new DenseScorer(weights);
+    sparseScorer = new SparseScorer(weights);
+    buffer = new FeatureBuffer();
+    buffer.addAll(features);
+  }
+
+  @Benchmark
+  public double denseNamed() {
+    return denseScorer.getIncrementalScore(features);
+  }
+
+  @Benchmark
+  public double denseIds() {
+    return denseScorer.getIncrementalScore(buffer.featureIds(), buffer.featureValues(), buffer.size());
+  }
+
+  @Benchmark
+  public double sparseNamed() {
+    return sparseScorer.getIncrementalScore(features);
+  }
+
+  @Benchmark
+  public double sparseIds() {
+    return sparseScorer.getIncrementalScore(buffer.featureIds(), buffer.featureValues(), buffer.size());
+  }
+}
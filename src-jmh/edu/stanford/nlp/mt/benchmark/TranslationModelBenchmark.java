@@ -0,0 +1,87 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
+import edu.stanford.nlp.mt.util.AlignedSentence;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Suffix array sampling and rule extraction for the dynamic translation model. The bitext
+ * is built from the bundled phrase table.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TranslationModelBenchmark {
+
+  private static final int NUM_QUERIES = 256;
+  private static final int SAMPLE_SIZE = 100;
+
+  private ParallelSuffixArray suffixArray;
+  private List<int[]> queries;
+  private DynamicTranslationModel<String> tm;
+  private List<Sequence<IString>> sources;
+  private InputProperties inputProperties;
+
+  @Setup
+  public void setup() throws IOException {
+    ParallelCorpus bitext = BenchmarkModels.phraseTableBitext();
+    suffixArray = new ParallelSuffixArray(bitext);
+    suffixArray.build();
+
+    // Source n-grams of the bitext
+    Random random = new Random(42);
+    queries = new ArrayList<>(NUM_QUERIES);
+    for (int i = 0; i < NUM_QUERIES; ++i) {
+      AlignedSentence sentence = bitext.get(random.nextInt(bitext.size()));
+      int start = random.nextInt(sentence.source.length);
+      int end = start + 1 + random.nextInt(sentence.source.length - start);
+      int[] query = new int[end - start];
+      System.arraycopy(sentence.source, start, query, 0, query.length);
+      queries.add(query);
+    }
+
+    // Load the TM through the memory-mapped format
+    File tmFile = File.createTempFile("benchmark", ParallelSuffixArray.MAPPED_EXTENSION);
+    tmFile.deleteOnExit();
+    new File(tmFile.getPath() + DynamicTranslationModel.COOC_EXTENSION).deleteOnExit();
+    new DynamicTranslationModel<String>(suffixArray).writeMapped(tmFile.getPath());
+    tm = DynamicTranslationModel.load(tmFile.getPath(), true, "benchmark");
+    sources = BenchmarkModels.sources();
+    inputProperties = new InputProperties();
+  }
+
+  @Benchmark
+  public void sample(Blackhole bh) {
+    for (int[] query : queries) {
+      bh.consume(suffixArray.sample(query, SAMPLE_SIZE));
+    }
+  }
+
+  @Benchmark
+  public void getRules(Blackhole bh) {
+    for (int i = 0; i < sources.size(); ++i) {
+      bh.consume(tm.getRules(sources.get(i), inputProperties, i, null));
+    }
+  }
+}
@@ -25,6 +25,7 @@ import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.decoder.AbstractBeamInferer;
 import edu.stanford.nlp.mt.decoder.AbstractBeamInfererBuilder;
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder.CubePruningDecoderBuilder;
 import edu.stanford.nlp.mt.decoder.DTUDecoder;
 import edu.stanford.nlp.mt.decoder.Inferer;
 import edu.stanford.nlp.mt.decoder.Inferer.NbestMode;
@@ -47,6 +48,7 @@ import edu.stanford.nlp.mt.decoder.util.OutputSpace;
 import edu.stanford.nlp.mt.decoder.util.OutputSpaceFactory;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.decoder.util.ScorerFactory;
+import edu.stanford.nlp.mt.lm.CachingLanguageModel;
 import edu.stanford.nlp.mt.lm.LanguageModel;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
 import edu.stanford.nlp.mt.process.Postprocessor;
@@ -60,6 +62,7 @@ import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
 import edu.stanford.nlp.mt.tm.ExtendedLexicalReorderingTable;
 import edu.stanford.nlp.mt.tm.LexicalReorderingTable;
 import edu.stanford.nlp.mt.tm.PhraseTable;
+import edu.stanford.nlp.mt.tm.QueryScheduler;
 import edu.stanford.nlp.mt.tm.TranslationModel;
 import edu.stanford.nlp.mt.tm.TranslationModelFactory;
 import edu.stanford.nlp.mt.tm.UnknownWordPhraseGenerator;
@@ -136,6 +139,14 @@ public class Phrasal {
         .append(ADDITIONAL_FEATURIZERS).append(" class [class] : List of additional feature functions.").append(nl)
         .append("  -").append(DISABLED_FEATURIZERS).append(" class [class] : List of baseline featurizers to disable.")
         .append(nl).append("  -").append(NUM_THREADS).append(" num : Number of decoding threads (default: 1)")
+        .append(nl).append("  -").append(QUERY_THREADS).append(" num : Number of dynamic TM query threads in addition to the decoding threads (default: #cores - #threads)")
+        .append(nl).append("  -").append(LM_CACHE_SIZE).append(" num : Number of cached language model queries per decoding thread (default: 0)")
+        .append(nl).append("  -").append(SEARCH_THREADS).append(" num : Number of threads that fill each beam of the cube pruning decoder (default: 1)")
+        .append(nl).append("  -").append(LAZY_FEATURIZATION).append(" boolean : Featurize cube pruning successors when they are popped (default: false)")
+        .append(nl).append("  -").append(POP_LIMIT).append(" num : Maximum number of pops per beam with lazy featurization (default: unlimited)")
+        .append(nl).append("  -").append(BEAM_TYPE).append(" [treebeam|sloppybeam|heapbeam] : Beam type (multibeam search only) (default: sloppybeam)")
+        .append(nl).append("  -").append(BEAM_THRESHOLD).append(" num : Prune hypotheses that score more than num below the best in a beam (heapbeam only) (default: none)")
+        .append(nl).append("  -").append(EARLY_PRUNING).append(" boolean : Prune successors by the score estimate of their antecedent before featurization. Can change the output for heuristics that are not admissible (multibeam search only) (default: false)")
         .append(nl).append("  -").append(USE_ITG_CONSTRAINTS)
         .append(" boolean : Use ITG constraints for decoding (multibeam search only)").append(nl).append("  -")
         .append(RECOMBINATION_MODE).append(" name : Recombination mode [pharoah,exact,dtu] (default: exact).")
@@ -194,6 +205,14 @@ public class Phrasal {
   public static final String ADDITIONAL_FEATURIZERS = "additional-featurizers";
   public static final String DISABLED_FEATURIZERS = "disabled-featurizers";
   public static final String NUM_THREADS = "threads";
+  public static final String QUERY_THREADS = "query-threads";
+  public static final String LM_CACHE_SIZE = "lm-cache-size";
+  public static final String SEARCH_THREADS = "search-threads";
+  public static final String LAZY_FEATURIZATION = "lazy-featurization";
+  public static final String POP_LIMIT = "pop-limit";
+  public static final String BEAM_TYPE = "beam-type";
+  public static final String BEAM_THRESHOLD = "beam-threshold";
+  public static final String EARLY_PRUNING = "early-pruning";
   public static final String USE_ITG_CONSTRAINTS = "use-itg-constraints";
   public static final String RECOMBINATION_MODE = "recombination-mode";
   public static final String GAPS_OPT = "gaps";
@@ -227,7 +246,7 @@ public class Phrasal {
     OPTIONAL_FIELDS.addAll(Arrays.asList(INPUT_FILE_OPT,WEIGHTS_FILE, REORDERING_MODEL, DISTORTION_LIMIT, ADDITIONAL_FEATURIZERS,
         DISABLED_FEATURIZERS, OPTION_LIMIT_OPT, NBEST_LIST_OPT, DISTINCT_NBEST_LIST_OPT, 
         FORCE_DECODE, PREFIX_ALIGN_COMPOUNDS, RECOMBINATION_MODE, SEARCH_ALGORITHM, BEAM_SIZE, WEIGHTS_FILE, MAX_SENTENCE_LENGTH, MIN_SENTENCE_LENGTH,
-        USE_ITG_CONSTRAINTS, NUM_THREADS, GAPS_OPT, GAPS_IN_FUTURE_COST_OPT, LINEAR_DISTORTION_OPT,
+        USE_ITG_CONSTRAINTS, NUM_THREADS, QUERY_THREADS, LM_CACHE_SIZE, SEARCH_THREADS, LAZY_FEATURIZATION, POP_LIMIT, BEAM_TYPE, BEAM_THRESHOLD, EARLY_PRUNING, GAPS_OPT, GAPS_IN_FUTURE_COST_OPT, LINEAR_DISTORTION_OPT,
         MAX_PENDING_PHRASES_OPT, DROP_UNKNOWN_WORDS, INDEPENDENT_PHRASE_TABLES, FOREGROUND_TM, TERMBASE, LANGUAGE_MODEL_OPT,
         ALIGNMENT_OUTPUT_FILE, PREPROCESSOR_FILTER, POSTPROCESSOR_FILTER, SOURCE_CLASS_MAP, TARGET_CLASS_MAP,
         PRINT_MODEL_SCORES, INPUT_PROPERTIES, FEATURE_AUGMENTATION, WRAP_BOUNDARY, KSR_NBEST_SIZE, WPA_NBEST_SIZE, ORACLE_NBEST_SIZE, REFERENCE));
@@ -406,6 +425,16 @@ public class Phrasal {
     return numThreads;
   }
 
+  /**
+   * Access the inferer of a decoding thread.
+   *
+   * @param threadId
+   * @return
+   */
+  public Inferer<IString, String> getInferer(int threadId) {
+    return inferers.get(threadId);
+  }
+
   /**
    * Access the decoder's phrase table.
    *
@@ -492,6 +521,11 @@ public class Phrasal {
       throw new RuntimeException();
     }
     logger.info("Number of threads: {}", numThreads);
+    
+    // Decoder threads run their own TM queries, so only add workers for the idle cores.
+    final int numQueryThreads = config.containsKey(QUERY_THREADS) ? Integer.parseInt(config.get(QUERY_THREADS).get(0)) :
+      Math.max(1, Runtime.getRuntime().availableProcessors() - numThreads);
+    QueryScheduler.configure(numQueryThreads, QueryScheduler.DEFAULT_MAX_QUEUED);
 
     if (withGaps) {
       recombinationMode = RecombinationFilterFactory.DTU_RECOMBINATION;
@@ -777,7 +811,14 @@ public class Phrasal {
     }
     else if (lgModel != null) {
       logger.info("Language model: {}", lgModel);
-      languageModel = FeaturizerFactory.makeLM(lgModel);
+      final int lmCacheSize = config.containsKey(LM_CACHE_SIZE) ? 
+          Integer.parseInt(config.get(LM_CACHE_SIZE).get(0)) : 0;
+      if (lmCacheSize > 0) {
+        logger.info("Language model cache size: {}", lmCacheSize);
+        languageModel = new CachingLanguageModel<>(FeaturizerFactory.makeLM(lgModel), lmCacheSize);
+      } else {
+        languageModel = FeaturizerFactory.makeLM(lgModel);
+      }
       featurizer = FeaturizerFactory.factory(FeaturizerFactory.MOSES_DENSE_FEATURES, withGaps, languageModel,
           FactoryUtil.makePair(FeaturizerFactory.GAP_PARAMETER, gapType),
           FactoryUtil.makePair(FeaturizerFactory.LINEAR_DISTORTION_COST, String.valueOf(distortionCost)));
@@ -865,6 +906,55 @@ public class Phrasal {
 
     final AbstractBeamInfererBuilder<IString, String> infererBuilder = (AbstractBeamInfererBuilder<IString, String>) InfererBuilderFactory
         .factory(searchAlgorithm);
+    if (config.containsKey(SEARCH_THREADS)) {
+      final int numSearchThreads = Integer.parseInt(config.get(SEARCH_THREADS).get(0));
+      if (infererBuilder instanceof CubePruningDecoderBuilder) {
+        logger.info("Search threads per decoder: {}", numSearchThreads);
+        ((CubePruningDecoderBuilder<IString, String>) infererBuilder).setSearchThreads(numSearchThreads);
+      } else {
+        logger.warn("Search threads are only supported by cube pruning. Ignoring {}", SEARCH_THREADS);
+      }
+    }
+    if (config.containsKey(LAZY_FEATURIZATION)) {
+      final boolean lazyFeaturization = Boolean.parseBoolean(config.get(LAZY_FEATURIZATION).get(0));
+      if (infererBuilder instanceof CubePruningDecoderBuilder) {
+        logger.info("Lazy featurization: {}", lazyFeaturization);
+        ((CubePruningDecoderBuilder<IString, String>) infererBuilder).setLazyFeaturization(lazyFeaturization);
+      } else {
+        logger.warn("Lazy featurization is only supported by cube pruning. Ignoring {}", LAZY_FEATURIZATION);
+      }
+    }
+    if (config.containsKey(POP_LIMIT)) {
+      final int popLimit = Integer.parseInt(config.get(POP_LIMIT).get(0));
+      if (infererBuilder instanceof CubePruningDecoderBuilder) {
+        logger.info("Pop limit: {}", popLimit);
+        ((CubePruningDecoderBuilder<IString, String>) infererBuilder).setPopLimit(popLimit);
+      } else {
+        logger.warn("The pop limit is only supported by cube pruning. Ignoring {}", POP_LIMIT);
+      }
+    }
+    final BeamFactory.BeamType beamType = config.containsKey(BEAM_TYPE) ? 
+        BeamFactory.BeamType.valueOf(config.get(BEAM_TYPE).get(0)) : BeamFactory.BeamType.sloppybeam;
+    logger.info("Beam type: {}", beamType);
+    if (config.containsKey(BEAM_THRESHOLD)) {
+      final double beamThreshold = Double.parseDouble(config.get(BEAM_THRESHOLD).get(0));
+      if (beamType == BeamFactory.BeamType.heapbeam && ! (infererBuilder instanceof CubePruningDecoderBuilder)) {
+        logger.info("Beam threshold: {}", beamThreshold);
+        infererBuilder.setBeamThreshold(beamThreshold);
+      } else {
+        logger.warn("The beam threshold is only supported by multibeam search with {}. Ignoring {}", 
+            BeamFactory.BeamType.heapbeam, BEAM_THRESHOLD);
+      }
+    }
+    if (config.containsKey(EARLY_PRUNING)) {
+      final boolean earlyPruning = Boolean.parseBoolean(config.get(EARLY_PRUNING).get(0));
+      if ( ! (infererBuilder instanceof CubePruningDecoderBuilder)) {
+        logger.info("Early pruning: {}", earlyPruning);
+        infererBuilder.setEarlyPruning(earlyPruning);
+      } else {
+        logger.warn("Early pruning is not supported by cube pruning. Ignoring {}", EARLY_PRUNING);
+      }
+    }
 
     // Create the decoders, one per thread
     for (int i = 0; i < numThreads; i++) {
@@ -886,8 +976,7 @@ public class Phrasal {
       }
 
       // Silently ignored by the cube pruning decoder
-      // TODO(spenceg) set this explicitly for each search procedure.
-      infererBuilder.setBeamType(BeamFactory.BeamType.sloppybeam);
+      infererBuilder.setBeamType(beamType);
 
       if (distortionLimit != -1) {
         infererBuilder.setMaxDistortion(distortionLimit);
@@ -1508,6 +1597,8 @@ public class Phrasal {
    * Free resources and cleanup.
    */
   private void shutdown() {
+    for (Inferer<IString, String> inferer : inferers) inferer.close();
+
     if (nbestListWriter != null) {
       logger.info("Closing n-best writer");
       nbestListWriter.close();
@@ -1517,6 +1608,15 @@ public class Phrasal {
       logger.info("Closing alignment writer");
       alignmentWriter.close();
     }
+    
+    if (translationModel instanceof DynamicTranslationModel 
+        && ((DynamicTranslationModel<String>) translationModel).getRuleCache() != null) {
+      logger.info("Rule cache: {}", ((DynamicTranslationModel<String>) translationModel).getRuleCache());
+    }
+    logger.info("Query scheduler: {}", QueryScheduler.get());
+    if (languageModel instanceof CachingLanguageModel) {
+      logger.info("Language model cache: {}", languageModel);
+    }
   }
 
   /**
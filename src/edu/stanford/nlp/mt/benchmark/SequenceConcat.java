@@ -3,6 +3,7 @@ package edu.stanford.nlp.mt.benchmark;
 import edu.stanford.nlp.mt.util.ArraySequence;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.PersistentSequence;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
 import edu.stanford.nlp.mt.util.TimingUtils;
@@ -30,6 +31,15 @@ public class SequenceConcat {
       c = c.concat(seq);
     }
     timer.mark(ArraySequence.class.getSimpleName());
+
+    c = PersistentSequence.empty();
+    for (int i = 0; i < numIters; ++i) {
+      if (((i+1) % 5) == 0) {
+        c = new PersistentSequence<>(seq);
+      }
+      c = c.concat(seq);
+    }
+    timer.mark(PersistentSequence.class.getSimpleName());
     
     System.out.println("Timing: " + timer.toString());
   }
@@ -4,12 +4,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
 import edu.stanford.nlp.mt.Phrasal;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
@@ -34,6 +39,7 @@ import edu.stanford.nlp.mt.util.FeatureValues;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.InputProperties;
 import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.MurmurHash2;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
@@ -66,6 +72,8 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
   // Members
   protected final int beamCapacity;
   protected final BeamFactory.BeamType beamType;
+  protected final double beamThreshold;
+  protected final boolean earlyPruning;
   private final Comparator<RichTranslation<TK,FV>> translationComparator;
   
   protected boolean prefixAlignCompounds = false;
@@ -79,6 +87,8 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     super(builder);
     this.beamCapacity = builder.beamSize;
     this.beamType = builder.beamType;
+    this.beamThreshold = builder.beamThreshold;
+    this.earlyPruning = builder.earlyPruning;
     this.translationComparator = new Comparator<RichTranslation<TK,FV>>() {
       @Override
       public int compare(RichTranslation<TK, FV> o1, RichTranslation<TK, FV> o2) {
@@ -246,7 +256,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     int nbestId = 0;
     for (Derivation<TK,FV> d : derivationList) {
       translationList.add(new RichTranslation<>(d.featurizable, d.score, 
-          FeatureValues.combine(d), nbestId++));
+          FeatureValues.combineLazily(d), nbestId++));
     }
     return translationList;
   }
@@ -278,111 +288,201 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
   private List<RichTranslation<TK, FV>> standardNbest(Beam<Derivation<TK, FV>> beam, 
       RecombinationHistory<Derivation<TK, FV>> recombinationHistory, InputProperties sourceInputProperties, 
       int sourceInputId, List<Sequence<TK>> targets, OutputSpace<TK, FV> outputSpace, int size, boolean distinct) {
-    // Configure n-best extractor from goal states in final beam.
-    List<Derivation<TK, FV>> goalStates = new ArrayList<>(beam.size());
-    for (Derivation<TK, FV> derivation : beam) goalStates.add(derivation);
-    final StateLatticeDecoder<Derivation<TK, FV>> latticeDecoder = new StateLatticeDecoder<>(
-        goalStates, recombinationHistory);
-
-    // Extract lattice paths
-    final boolean prefixDecoding = sourceInputProperties.containsKey(InputProperty.TargetPrefix);
-    final boolean prefixDiversity = distinct && prefixDecoding;
-    final Sequence<TK> prefix = prefixDecoding ? targets.get(0) : null;
-    final Set<Sequence<TK>> distinctSurfaceTranslations = distinct ? new HashSet<>(size) : null;
+    final NbestIterator iterator = new NbestIterator(beam, recombinationHistory, sourceInputProperties, 
+        sourceInputId, targets, outputSpace, distinct);
     final List<RichTranslation<TK, FV>> translations = new ArrayList<>(size);
-    int numExtracted = 0;
-    long nbestId = 0;    
-    for (List<Derivation<TK, FV>> latticePath : latticeDecoder) {
-//      System.err.println(numExtracted);
-//      System.err.println(printIds(latticePath));
-      ++numExtracted;
-      if (numExtracted > MAX_POPPED_ITEMS) break;
-
-      // Check for distinct n-best before building the Derivation and thus incurring the cost
-      // of running the LM.
-      // TODO(spenceg) Not sure if this works for DTU since derivations aren't built up
-      // left-to-right. Might need to move this check *after* building the DTUHypothesis
-      // below.
-      if (distinct) {
-        Sequence<TK> pathTarget = extractTarget(latticePath);
-        if(prefixDiversity) {
-          int start = prefix.size();
-          int end = Math.min(pathTarget.size(), prefix.size() + PREFIX_DIVERSITY_SIZE);
-          if (start < end) pathTarget = pathTarget.subsequence(start, end);
-        }
-        // Seen a higher-scoring derivation with this target string before
-        if (distinctSurfaceTranslations.contains(pathTarget)) continue;
-
-        distinctSurfaceTranslations.add(pathTarget);
-      }
-      
-      // This is very inefficient. But we need to reconstruct the Featurizable
-      // object for RichTranslation below, and there's not a good way to do that without
-      // building up the derivation from the list of rule applications in the lattice path.
-      boolean withDTUs = false;
-      final Set<Rule<TK>> seenOptions = new HashSet<>();
-      Derivation<TK, FV> goalHyp = null;
-      for (Derivation<TK, FV> node : latticePath) {
-        if (goalHyp == null) {
-          // Root node.
-          goalHyp = node;
-          continue;
-        }
-        withDTUs = withDTUs || node.rule.abstractRule instanceof DTURule;
-        goalHyp = withDTUs ? new DTUHypothesis<>(sourceInputId, node.rule, goalHyp.length, goalHyp, 
-            node, featurizer, scorer, heuristic, seenOptions, outputSpace)
-            : new Derivation<>(sourceInputId, node.rule, goalHyp.length, goalHyp, featurizer, scorer, 
-                heuristic, outputSpace);
-      }
-      
-      // Decoder failure in which the null hypothesis was returned.
-      if (goalHyp == null || goalHyp.featurizable == null) {
-        logger.warn("Input {}: null hypothesis encountered. Decoder failed.", sourceInputId);
-        return null;
-      }
-      
-      if (withDTUs) {
-        DTUHypothesis<TK, FV> dtuHyp = (DTUHypothesis<TK, FV>) goalHyp;
-        if (!dtuHyp.isDone() || dtuHyp.hasExpired())
-          logger.warn("Option not complete({},{}): {}", translations.size(), 
-              dtuHyp.hasExpired(), goalHyp);
-      }
-      
-      // Create the n-best item
-      RichTranslation<TK,FV> t = new RichTranslation<>(goalHyp.featurizable, goalHyp.score, 
-          FeatureValues.combine(goalHyp), nbestId++);
-      translations.add(t);
-      
-      // Book-keeping
-      if (translations.size() >= size) break;
+    while (translations.size() < size && iterator.hasNext()) {
+      translations.add(iterator.next());
     }
+    if (iterator.failed) return null;
 
     // If an inadmissible search heuristic is used, the hypothesis
     // scores predicted by the lattice may not actually correspond to their real
     // scores.
     Collections.sort(translations, translationComparator);    
-    logger.info("Input {}: nbest #extracted {} max-agenda-size {}", sourceInputId, numExtracted, 
-        latticeDecoder.maxAgendaSize);
+    logger.info("Input {}: nbest #extracted {} max-agenda-size {}", sourceInputId, iterator.numExtracted, 
+        iterator.latticeDecoder.maxAgendaSize);
     
     return translations;
   }
 
+  @Override
+  public Iterator<RichTranslation<TK, FV>> nbestIterator(Sequence<TK> source,
+      int sourceInputId, InputProperties sourceInputProperties,
+      OutputSpace<TK, FV> outputSpace, List<Sequence<TK>> targets, boolean distinct) {
+    return nbestIterator(scorer, source, sourceInputId, sourceInputProperties, outputSpace, 
+        targets, distinct);
+  }
+
+  @Override
+  public Iterator<RichTranslation<TK, FV>> nbestIterator(Scorer<FV> scorer,
+      Sequence<TK> source, int sourceInputId,
+      InputProperties sourceInputProperties,
+      OutputSpace<TK, FV> outputSpace, List<Sequence<TK>> targets, boolean distinct) {
+    if (outputSpace != null) outputSpace.setSourceSequence(source);
+    RecombinationHistory<Derivation<TK, FV>> recombinationHistory = new RecombinationHistory<>();
+    Beam<Derivation<TK, FV>> beam = decode(scorer, source, sourceInputId, sourceInputProperties,
+        recombinationHistory, outputSpace, targets, Phrasal.MAX_NBEST_SIZE);
+    if (beam == null) return null; // Decoder failure
+    return new NbestIterator(beam, recombinationHistory, sourceInputProperties, sourceInputId, 
+        targets, outputSpace, distinct);
+  }
+
   /**
-   * Extract the target sequence from the lattice path.
-   * 
-   * @param latticePath
-   * @return
+   * Extracts translations from the lattice one at a time, in the order of the lattice
+   * scores. Paths are checked for distinctness on a hash of their target before the
+   * derivation of the path is featurized, so duplicate paths cost little. Targets with
+   * the same hash are compared token by token.
    */
-  private Sequence<TK> extractTarget(List<Derivation<TK, FV>> latticePath) {
-    List<TK> tokens = new ArrayList<>(100);
-    for (Derivation<TK, FV> node : latticePath) {
-      if (node.rule != null) {
-        for (TK token : node.rule.abstractRule.target) {
-          tokens.add(token);
+  private class NbestIterator implements Iterator<RichTranslation<TK, FV>> {
+    final StateLatticeDecoder<Derivation<TK, FV>> latticeDecoder;
+    private final int sourceInputId;
+    private final OutputSpace<TK, FV> outputSpace;
+    
+    // Distinct targets by hash, or null if the translations need not be distinct
+    private final Long2ObjectMap<List<List<TK>>> distinctTargets;
+    // Start of the diversity window for prefix decoding, or -1
+    private final int prefixLength;
+    private final List<TK> targetTokens = new ArrayList<>();
+    private int[] targetBuffer = new int[100];
+    
+    int numExtracted = 0;
+    boolean failed = false;
+    // Set when the lattice is exhausted or the pop limit is reached
+    boolean done = false;
+    private long nbestId = 0;
+    private RichTranslation<TK, FV> next;
+
+    public NbestIterator(Beam<Derivation<TK, FV>> beam, 
+        RecombinationHistory<Derivation<TK, FV>> recombinationHistory, InputProperties sourceInputProperties, 
+        int sourceInputId, List<Sequence<TK>> targets, OutputSpace<TK, FV> outputSpace, boolean distinct) {
+      // Configure n-best extractor from goal states in final beam.
+      List<Derivation<TK, FV>> goalStates = new ArrayList<>(beam.size());
+      for (Derivation<TK, FV> derivation : beam) goalStates.add(derivation);
+      this.latticeDecoder = new StateLatticeDecoder<>(goalStates, recombinationHistory);
+      this.sourceInputId = sourceInputId;
+      this.outputSpace = outputSpace;
+      this.distinctTargets = distinct ? new Long2ObjectOpenHashMap<>() : null;
+      final boolean prefixDecoding = sourceInputProperties.containsKey(InputProperty.TargetPrefix);
+      this.prefixLength = distinct && prefixDecoding ? targets.get(0).size() : -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && ! failed && ! done) next = extractNext();
+      return next != null;
+    }
+
+    @Override
+    public RichTranslation<TK, FV> next() {
+      if ( ! hasNext()) throw new NoSuchElementException();
+      final RichTranslation<TK, FV> translation = next;
+      next = null;
+      return translation;
+    }
+
+    /**
+     * Returns the next translation, or null if the lattice is exhausted.
+     */
+    private RichTranslation<TK, FV> extractNext() {
+      while (latticeDecoder.hasNext()) {
+        final List<Derivation<TK, FV>> latticePath = latticeDecoder.next();
+        ++numExtracted;
+        if (numExtracted > MAX_POPPED_ITEMS) {
+          done = true;
+          return null;
+        }
+
+        // Check for distinct n-best before building the Derivation and thus incurring the cost
+        // of running the LM.
+        // TODO(spenceg) Not sure if this works for DTU since derivations aren't built up
+        // left-to-right. Might need to move this check *after* building the DTUHypothesis
+        // below.
+        if (distinctTargets != null && ! addDistinct(latticePath)) {
+          // Seen a higher-scoring derivation with this target string before
+          continue;
+        }
+
+        // This is very inefficient. But we need to reconstruct the Featurizable
+        // object for RichTranslation below, and there's not a good way to do that without
+        // building up the derivation from the list of rule applications in the lattice path.
+        boolean withDTUs = false;
+        final Set<Rule<TK>> seenOptions = new HashSet<>();
+        Derivation<TK, FV> goalHyp = null;
+        for (Derivation<TK, FV> node : latticePath) {
+          if (goalHyp == null) {
+            // Root node.
+            goalHyp = node;
+            continue;
+          }
+          withDTUs = withDTUs || node.rule.abstractRule instanceof DTURule;
+          goalHyp = withDTUs ? new DTUHypothesis<>(sourceInputId, node.rule, goalHyp.length, goalHyp, 
+              node, featurizer, scorer, heuristic, seenOptions, outputSpace)
+              : new Derivation<>(sourceInputId, node.rule, goalHyp.length, goalHyp, featurizer, scorer, 
+                  heuristic, outputSpace);
         }
+
+        // Decoder failure in which the null hypothesis was returned.
+        if (goalHyp == null || goalHyp.featurizable == null) {
+          logger.warn("Input {}: null hypothesis encountered. Decoder failed.", sourceInputId);
+          failed = true;
+          return null;
+        }
+
+        if (withDTUs) {
+          DTUHypothesis<TK, FV> dtuHyp = (DTUHypothesis<TK, FV>) goalHyp;
+          if (!dtuHyp.isDone() || dtuHyp.hasExpired())
+            logger.warn("Option not complete({},{}): {}", nbestId, 
+                dtuHyp.hasExpired(), goalHyp);
+        }
+
+        // Create the n-best item
+        return new RichTranslation<>(goalHyp.featurizable, goalHyp.score, 
+            FeatureValues.combineLazily(goalHyp), nbestId++);
+      }
+      done = true;
+      return null;
+    }
+
+    /**
+     * Record the target of a lattice path. Returns false if the target was seen before.
+     */
+    private boolean addDistinct(List<Derivation<TK, FV>> latticePath) {
+      final List<TK> target = targetWindow(latticePath);
+      final int length = target.size();
+      if (length > targetBuffer.length) targetBuffer = new int[Math.max(length, 2 * targetBuffer.length)];
+      for (int i = 0; i < length; ++i) targetBuffer[i] = target.get(i).hashCode();
+      final long hash = MurmurHash2.hash64(targetBuffer, length, 0);
+
+      List<List<TK>> candidates = distinctTargets.get(hash);
+      if (candidates == null) {
+        candidates = new ArrayList<>(1);
+        distinctTargets.put(hash, candidates);
+      } else {
+        for (List<TK> candidate : candidates) {
+          if (candidate.equals(target)) return false;
+        }
+      }
+      candidates.add(new ArrayList<>(target));
+      return true;
+    }
+
+    /**
+     * The target of a lattice path. For prefix decoding, only the tokens in the diversity
+     * window after the prefix are compared. The returned list is reused.
+     */
+    private List<TK> targetWindow(List<Derivation<TK, FV>> latticePath) {
+      targetTokens.clear();
+      for (Derivation<TK, FV> node : latticePath) {
+        if (node.rule == null) continue;
+        for (TK token : node.rule.abstractRule.target) targetTokens.add(token);
+      }
+      if (prefixLength >= 0) {
+        final int end = Math.min(targetTokens.size(), prefixLength + PREFIX_DIVERSITY_SIZE);
+        if (prefixLength < end) return targetTokens.subList(prefixLength, end);
       }
+      return targetTokens;
     }
-    return new ArraySequence<>(tokens);
   }
 
   @Override
@@ -403,7 +503,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
         null, outputSpace, targets, nbestSize);
     if (beam == null) return null; // Decoder failure
     final Derivation<TK, FV> best = beam.iterator().next();
-    return new RichTranslation<>(best.featurizable, best.score, FeatureValues.combine(best), 0);
+    return new RichTranslation<>(best.featurizable, best.score, FeatureValues.combineLazily(best), 0);
   }
 
   /**
@@ -470,7 +570,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     Beam<Derivation<TK, FV>>[] beams = new Beam[beamCnt];
     for (int i = 0; i < beams.length; i++) {
       beams[i] = BeamFactory.factory(beamType, filter, capacity,
-          recombinationHistory);
+          recombinationHistory, beamThreshold);
     }
     return beams;
   }
@@ -16,6 +16,8 @@ abstract public class AbstractBeamInfererBuilder<TK, FV> extends
 
   protected int beamSize;
   protected BeamFactory.BeamType beamType;
+  protected double beamThreshold = Double.POSITIVE_INFINITY;
+  protected boolean earlyPruning = false;
 
   /**
    * Constructor.
@@ -38,6 +40,37 @@ abstract public class AbstractBeamInfererBuilder<TK, FV> extends
     this.beamType = beamType;
   }
 
+  /**
+   * Set the threshold for pruning relative to the best hypothesis in a beam. Only
+   * supported by {@link BeamFactory.BeamType#heapbeam}.
+   * 
+   * @param beamThreshold
+   * @return
+   */
+  public AbstractBeamInfererBuilder<TK, FV> setBeamThreshold(double beamThreshold) {
+    if ( ! (beamThreshold > 0.0)) {
+      throw new RuntimeException(String.format(
+          "Invalid beam threshold, %f. Beam threshold must be > 0", beamThreshold));
+    }
+    this.beamThreshold = beamThreshold;
+    return this;
+  }
+
+  /**
+   * Reject a successor before it is featurized if the score estimate of its antecedent
+   * cannot enter the successor's beam. The antecedent's estimate is an upper bound for the
+   * successor only if the future cost heuristic is admissible. The isolated phrase heuristic
+   * is not, since language model context can raise the score of a successor, so this
+   * option can change the search output. Off by default.
+   * 
+   * @param earlyPruning
+   * @return
+   */
+  public AbstractBeamInfererBuilder<TK, FV> setEarlyPruning(boolean earlyPruning) {
+    this.earlyPruning = earlyPruning;
+    return this;
+  }
+
   /**
    * Set the beam size.
    * 
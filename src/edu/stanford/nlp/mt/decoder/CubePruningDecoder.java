@@ -2,13 +2,22 @@ package edu.stanford.nlp.mt.decoder;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
 import edu.stanford.nlp.mt.decoder.util.Beam;
 import edu.stanford.nlp.mt.decoder.util.BundleBeam;
@@ -44,11 +53,34 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
   public static final int DEFAULT_BEAM_SIZE = 1200;
   public static final int DEFAULT_MAX_DISTORTION = -1;
 
+  // Pops that a worker expands ahead of the merge, per bundle
+  private static final int MIN_CHUNK_SIZE = 4;
+  private static final int MAX_CHUNK_SIZE = 64;
+
   // TODO(spenceg) May need to cap the number of popped items to keep it from running forever.
   
   protected int maxDistortion;
   protected final int defaultDistortion;
   
+  // Workers for intra-sentence parallel search. null for sequential search.
+  protected final SearchPool searchPool;
+
+  // Featurizers keep per-sentence state, so each search task borrows its own copy.
+  // The copies are kept for the lifetime of the decoder.
+  private final Deque<WorkerFeaturizer> workerFeaturizers = new ConcurrentLinkedDeque<>();
+  private int numParallelSentences = 0;
+  private boolean closed = false;
+  
+  // Featurize items when they are popped instead of when they are pushed
+  protected final boolean lazyFeaturization;
+  
+  // Maximum number of pops per beam with lazy featurization
+  protected final int popLimit;
+
+  // Search statistics over all inputs decoded by this decoder
+  private long totalSearchErrors = 0;
+  private long totalPopLimitHits = 0;
+  
   static public <TK, FV> CubePruningDecoderBuilder<TK, FV> builder() {
     return new CubePruningDecoderBuilder<TK, FV>();
   }
@@ -57,6 +89,17 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     super(builder);
     maxDistortion = builder.maxDistortion;
     defaultDistortion = builder.maxDistortion;
+    lazyFeaturization = builder.lazyFeaturization;
+    popLimit = builder.popLimit;
+    if ( ! lazyFeaturization && popLimit != Integer.MAX_VALUE) {
+      logger.warn("Cube pruning decoder {}. The pop limit only applies to lazy featurization. Ignoring it.", 
+          builder.decoderId);
+    }
+    if (lazyFeaturization && builder.searchThreads > 1) {
+      logger.warn("Cube pruning decoder {}. Lazy featurization is sequential. Ignoring search threads.", 
+          builder.decoderId);
+    }
+    searchPool = lazyFeaturization ? null : builder.acquireSearchPool();
 
     if (maxDistortion != -1) {
       logger.info("Cube pruning decoder {}. Distortion limit: {}", builder.decoderId, 
@@ -66,9 +109,39 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     }    
   }
 
+  /**
+   * Search threads shared by the decoders of a builder. The threads are shut down when
+   * the last decoder is closed.
+   */
+  protected static class SearchPool {
+    final ForkJoinPool pool;
+    private int numDecoders = 0;
+
+    SearchPool(int numThreads) {
+      pool = new ForkJoinPool(numThreads);
+    }
+
+    /**
+     * Register a decoder. Returns false if the pool has been shut down.
+     */
+    synchronized boolean acquire() {
+      if (pool.isShutdown()) return false;
+      ++numDecoders;
+      return true;
+    }
+
+    synchronized void release() {
+      if (--numDecoders == 0) pool.shutdown();
+    }
+  }
+
   public static class CubePruningDecoderBuilder<TK, FV> extends AbstractBeamInfererBuilder<TK, FV> {
     int maxDistortion = DEFAULT_MAX_DISTORTION;
     int decoderId = -1;
+    int searchThreads = 1;
+    SearchPool searchPool = null;
+    boolean lazyFeaturization = false;
+    int popLimit = Integer.MAX_VALUE;
 
     @Override
     public AbstractBeamInfererBuilder<TK, FV> setMaxDistortion(int maxDistortion) {
@@ -76,6 +149,64 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       return this;
     }
 
+    /**
+     * Fill each beam with this many threads. The output is identical to sequential
+     * search. The threads are shared by all decoders created by this builder, and are
+     * shut down when the last of them is closed.
+     * 
+     * @param numThreads
+     * @return
+     */
+    public CubePruningDecoderBuilder<TK, FV> setSearchThreads(int numThreads) {
+      if (numThreads < 1) {
+        throw new IllegalArgumentException("Invalid number of search threads: " + numThreads);
+      }
+      if (numThreads != searchThreads) searchPool = null;
+      searchThreads = numThreads;
+      return this;
+    }
+
+    /**
+     * The search threads for a new decoder, or null for sequential search.
+     */
+    SearchPool acquireSearchPool() {
+      if (searchThreads == 1) return null;
+      if (searchPool == null || ! searchPool.acquire()) {
+        searchPool = new SearchPool(searchThreads);
+        searchPool.acquire();
+      }
+      return searchPool;
+    }
+
+    /**
+     * Push successors into the priority queue with a score estimate, and build their
+     * derivations when they are popped. Fewer derivations are featurized, but the
+     * derivations enter the beam in the order of the estimates.
+     * 
+     * @param lazyFeaturization
+     * @return
+     */
+    public CubePruningDecoderBuilder<TK, FV> setLazyFeaturization(boolean lazyFeaturization) {
+      this.lazyFeaturization = lazyFeaturization;
+      return this;
+    }
+
+    /**
+     * Stop filling a beam with lazy featurization after this many pops. Both the pops
+     * that featurize an item and the pops that insert it into the beam count. The beam
+     * size still limits the number of derivations in the beam. Default: no limit.
+     * 
+     * @param popLimit
+     * @return
+     */
+    public CubePruningDecoderBuilder<TK, FV> setPopLimit(int popLimit) {
+      if (popLimit < 1) {
+        throw new IllegalArgumentException("Invalid pop limit: " + popLimit);
+      }
+      this.popLimit = popLimit;
+      return this;
+    }
+
     public CubePruningDecoderBuilder() {
       super(DEFAULT_BEAM_SIZE, null);
     }
@@ -92,6 +223,35 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     }
   }
 
+  /**
+   * The number of derivations that entered a beam after a worse derivation, summed
+   * over the inputs decoded so far.
+   * 
+   * @return
+   */
+  public long getSearchErrors() {
+    return totalSearchErrors;
+  }
+
+  /**
+   * The number of beams cut by the pop limit, summed over the inputs decoded so far.
+   * 
+   * @return
+   */
+  public long getPopLimitHits() {
+    return totalPopLimitHits;
+  }
+
+  /**
+   * Release the search threads.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) return;
+    closed = true;
+    if (searchPool != null) searchPool.release();
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   protected Beam<Derivation<TK, FV>> decode(Scorer<FV> scorer,
@@ -189,10 +349,15 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       timer.mark("Prefix Decoding");
     }
   
+    // The worker featurizers are initialized for this sentence when they are borrowed
+    final int sentence = searchPool == null ? -1 : ++numParallelSentences;
+
     //System.err.println("start main translation loop");
     // main translation loop---beam expansion
     final int maxPhraseLength = phraseGenerator.maxLengthSource();
     int totalHypothesesGenerated = 1, numRecombined = 0, numPruned = 0;
+    // Search errors are derivations that enter a beam after a worse derivation
+    int numFeaturized = 0, numSearchErrors = 0, numPopLimitHits = 0;
     for (int i = startOfDecoding; i <= sourceLength; i++) {
       int rootBeam = prefilledBeams ? minSourceCoverage : 0;
       int minCoverage = i - maxPhraseLength;
@@ -200,20 +365,37 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
 
       // Initialize the priority queue
       Queue<Item> pq = new PriorityQueue<>(2*localBeamCapacity);
+      List<Consequent<TK,FV>> successors = new ArrayList<>();
       for (int j = startBeam; j < i; ++j) {
         BundleBeam<TK,FV> bundleBeam = (BundleBeam<TK,FV>) beams.get(j);
         for (HyperedgeBundle<TK,FV> bundle : bundleBeam.getBundlesForConsequentSize(i)) {
-          for(Item consequent : generateConsequentsFrom(null, bundle, sourceInputId, outputSpace, false)) {
-            ++totalHypothesesGenerated;
-            if (consequent.derivation == null) ++numPruned;
-            pq.add(consequent);
-          }
+          successors.addAll(bundle.nextSuccessors(null));
         }
       }
+      BundleBeam<TK,FV> newBeam = (BundleBeam<TK, FV>) beams.get(i);
+      if (searchPool != null || lazyFeaturization) {
+        int[] counts = lazyFeaturization ? 
+            fillBeamLazy(newBeam, successors, localBeamCapacity, sourceInputId, outputSpace) :
+              fillBeamParallel(newBeam, successors, localBeamCapacity, sourceInputId, 
+                  source, sentence, outputSpace);
+        totalHypothesesGenerated += counts[0];
+        numPruned += counts[1];
+        numFeaturized += counts[2];
+        numSearchErrors += counts[3];
+        numPopLimitHits += counts[4];
+        numRecombined += newBeam.recombined();
+        continue;
+      }
+      for(Item consequent : generateConsequents(successors, sourceInputId, outputSpace, false)) {
+        ++totalHypothesesGenerated;
+        if (consequent.derivation == null) ++numPruned;
+        else ++numFeaturized;
+        pq.add(consequent);
+      }
 
       // Beam-filling
-      BundleBeam<TK,FV> newBeam = (BundleBeam<TK, FV>) beams.get(i);
       int numPoppedItems = newBeam.size();
+      double lastScore = Double.POSITIVE_INFINITY;
       while (numPoppedItems < localBeamCapacity && ! pq.isEmpty()) {
         final Item item = pq.poll();
 
@@ -227,6 +409,8 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
         } else if (item.derivation != null) {
           newBeam.put(item.derivation);
           ++numPoppedItems;
+          if (item.derivation.finalScoreEstimate() > lastScore) ++numSearchErrors;
+          lastScore = item.derivation.finalScoreEstimate();
         }
         // else pruned items don't count against the pop limit
 
@@ -235,6 +419,7 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
             sourceInputId, outputSpace, false)) {
           ++totalHypothesesGenerated;
           if (consequent.derivation == null) ++numPruned;
+          else ++numFeaturized;
           pq.add(consequent);
         }
       }
@@ -251,6 +436,13 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     logger.info("input {}: Decoding time: {}", sourceInputId, timer);
     logger.info("input {}: #derivations generated: {}  pruned: {}  recombined: {}", sourceInputId, 
         totalHypothesesGenerated, numPruned, numRecombined);
+    logger.info("input {}: #derivations featurized: {}  search errors: {}", sourceInputId, 
+        numFeaturized, numSearchErrors);
+    if (lazyFeaturization) {
+      logger.info("input {}: #beams cut by the pop limit: {}", sourceInputId, numPopLimitHits);
+    }
+    totalSearchErrors += numSearchErrors;
+    totalPopLimitHits += numPopLimitHits;
 
     // Return the best beam, which should be the goal beam
     boolean isGoalBeam = true;
@@ -298,19 +490,57 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
   private List<Item> generateConsequentsFrom(Consequent<TK, FV> antecedent, 
       HyperedgeBundle<TK, FV> bundle, int sourceInputId, OutputSpace<TK, FV> outputSpace, 
       boolean checkSourceCoverage) {
-    List<Item> successors = new ArrayList<>(2);
-    for(Consequent<TK, FV> successor : bundle.nextSuccessors(antecedent)) {
-      boolean buildDerivation = outputSpace.allowableContinuation(successor.antecedent.featurizable, successor.rule)
+    return generateConsequents(bundle.nextSuccessors(antecedent), sourceInputId, outputSpace, 
+        checkSourceCoverage);
+  }
+
+  /**
+   * Build derivations for a list of successors. The rule applications are prefetched by the
+   * featurizer in one batch before the derivations are constructed.
+   * 
+   * @param successors
+   * @param sourceInputId
+   * @param outputSpace
+   * @param checkSourceCoverage
+   * @return
+   */
+  private List<Item> generateConsequents(List<Consequent<TK, FV>> successors, int sourceInputId, 
+      OutputSpace<TK, FV> outputSpace, boolean checkSourceCoverage) {
+    return generateConsequents(successors, sourceInputId, outputSpace, checkSourceCoverage, featurizer);
+  }
+
+  /**
+   * Build derivations for a list of successors with the given featurizer.
+   */
+  private List<Item> generateConsequents(List<Consequent<TK, FV>> successors, int sourceInputId, 
+      OutputSpace<TK, FV> outputSpace, boolean checkSourceCoverage, FeatureExtractor<TK,FV> featurizer) {
+    final int numSuccessors = successors.size();
+    final boolean[] buildDerivation = new boolean[numSuccessors];
+    final List<Derivation<TK,FV>> antecedents = new ArrayList<>(numSuccessors);
+    final List<ConcreteRule<TK,FV>> rules = new ArrayList<>(numSuccessors);
+    for (int i = 0; i < numSuccessors; ++i) {
+      Consequent<TK, FV> successor = successors.get(i);
+      buildDerivation[i] = outputSpace.allowableContinuation(successor.antecedent.featurizable, successor.rule)
           && (!checkSourceCoverage || (!successor.antecedent.sourceCoverage.intersects(successor.rule.sourceCoverage) ));
-      Derivation<TK, FV> derivation = buildDerivation ? new Derivation<>(sourceInputId,
+      if (buildDerivation[i]) {
+        antecedents.add(successor.antecedent);
+        rules.add(successor.rule);
+      }
+    }
+    if (rules.size() > 0) featurizer.prefetch(antecedents, rules);
+    
+    List<Item> items = new ArrayList<>(numSuccessors);
+    for (int i = 0; i < numSuccessors; ++i) {
+      Consequent<TK, FV> successor = successors.get(i);
+      Derivation<TK, FV> derivation = buildDerivation[i] ? new Derivation<>(sourceInputId,
           successor.rule, successor.antecedent.length, successor.antecedent, featurizer, scorer, 
           heuristic, outputSpace) : null;
-      successors.add(new Item(derivation, successor));
+      items.add(new Item(derivation, successor));
     }
-    return successors;
+    return items;
   }
   
-  private int itemId = 0;
+  private final AtomicInteger itemId = new AtomicInteger();
   
   /**
    * Wrapper for class for the priority queue that organizes successors.
@@ -324,7 +554,9 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     
     public final Derivation<TK, FV> derivation;
     public final Consequent<TK, FV> consequent;
-    public int id = itemId++;
+    public int id = itemId.getAndIncrement();
+    // Order of creation within the hyperedge bundle
+    int seq;
 
     public Item(Derivation<TK,FV> derivation, Consequent<TK,FV> consequent) {
       this.derivation = derivation;
@@ -344,12 +576,385 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       }
     }
     
+    /**
+     * Same order as {@link #compareTo(Item)} for two items of the same bundle, without
+     * the ids. The order of creation in a bundle is also the order of the ids.
+     */
+    int compareInBundle(Item o) {
+      if (derivation == null && o.derivation == null) {
+        return Integer.compare(seq, o.seq);
+      } else if (derivation == null) {
+        return 1;
+      } else if (o.derivation == null) {
+        return -1;
+      } else {
+        final int cmp = (int) Math.signum(o.derivation.finalScoreEstimate() - derivation.finalScoreEstimate());
+        return cmp == 0 ? Integer.compare(seq, o.seq) : cmp;
+      }
+    }
+
+    /**
+     * Assign the ids in the order of the sequential search.
+     */
+    void renumber() {
+      id = itemId.getAndIncrement();
+      if (derivation != null) derivation.renumber();
+    }
+    
     @Override
     public String toString() {
       return String.format("%d: %s", id, derivation);
     }
   }
 
+  /**
+   * Item of lazy cube pruning. The item is ordered by an estimate of its score until
+   * the derivation is built.
+   */
+  private class LazyItem implements Comparable<LazyItem> {
+    final Consequent<TK,FV> consequent;
+    final int id = itemId.getAndIncrement();
+    Derivation<TK,FV> derivation;
+    double score = Double.NEGATIVE_INFINITY;
+    // Pruned by the output space
+    boolean pruned = false;
+    boolean expanded = false;
+
+    LazyItem(Consequent<TK,FV> consequent) {
+      this.consequent = consequent;
+    }
+
+    @Override
+    public int compareTo(LazyItem o) {
+      final int cmp = Double.compare(o.score, score);
+      return cmp == 0 ? id - o.id : cmp;
+    }
+  }
+
+  /**
+   * A copy of the featurizer for the search tasks, and the sentence that it was
+   * last initialized for.
+   */
+  private class WorkerFeaturizer {
+    final FeatureExtractor<TK,FV> featurizer;
+    int sentence = -1;
+
+    @SuppressWarnings("unchecked")
+    WorkerFeaturizer() {
+      try {
+        featurizer = (FeatureExtractor<TK,FV>) CubePruningDecoder.this.featurizer.clone();
+      } catch (CloneNotSupportedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Run a search task with a worker featurizer that is initialized for the sentence.
+   * The featurizer is returned to the decoder when the task finishes.
+   */
+  private <T> T withWorkerFeaturizer(int sentence, int sourceInputId, Sequence<TK> source,
+      Function<FeatureExtractor<TK,FV>,T> task) {
+    WorkerFeaturizer worker = workerFeaturizers.pollFirst();
+    if (worker == null) worker = new WorkerFeaturizer();
+    try {
+      if (worker.sentence != sentence) {
+        worker.featurizer.initialize(sourceInputId, source);
+        worker.sentence = sentence;
+      }
+      return task.apply(worker.featurizer);
+    } finally {
+      workerFeaturizers.addFirst(worker);
+    }
+  }
+
+  /**
+   * An item popped from a bundle, and its successors.
+   */
+  private class Pop {
+    final Item item;
+    final List<Item> successors;
+
+    Pop(Item item, List<Item> successors) {
+      this.item = item;
+      this.successors = successors;
+    }
+  }
+
+  /**
+   * Cube pruning in a single hyperedge bundle. Successors only depend on the items popped
+   * from the same bundle, so workers expand the bundles independently, and the calling
+   * thread merges the pops in the order of the sequential search.
+   */
+  private class BundleSearch {
+    private final Queue<Item> queue = new PriorityQueue<>(16, (a, b) -> a.compareInBundle(b));
+    private final int sourceInputId;
+    private final Sequence<TK> source;
+    private final int sentence;
+    private final OutputSpace<TK,FV> outputSpace;
+    private int seq = 0;
+
+    // Merge state. Only accessed by the calling thread.
+    private final List<Pop> pops = new ArrayList<>();
+    private int next = 0;
+    private int chunkSize = MIN_CHUNK_SIZE;
+    private ForkJoinTask<List<Pop>> pending;
+    private int pendingSize;
+    private boolean exhausted = false;
+
+    BundleSearch(Item root, int sourceInputId, Sequence<TK> source, int sentence,
+        OutputSpace<TK,FV> outputSpace) {
+      this.sourceInputId = sourceInputId;
+      this.source = source;
+      this.sentence = sentence;
+      this.outputSpace = outputSpace;
+      queue.add(root);
+    }
+
+    /**
+     * Pop and expand up to n items. Runs on a worker.
+     */
+    private List<Pop> expand(int n, FeatureExtractor<TK,FV> workerFeaturizer) {
+      final List<Pop> chunk = new ArrayList<>(n);
+      while (chunk.size() < n && ! queue.isEmpty()) {
+        final Item item = queue.poll();
+        final List<Item> successors = generateConsequents(item.consequent.bundle.nextSuccessors(item.consequent),
+            sourceInputId, outputSpace, false, workerFeaturizer);
+        for (Item successor : successors) {
+          successor.seq = ++seq;
+          queue.add(successor);
+        }
+        chunk.add(new Pop(item, successors));
+      }
+      return chunk;
+    }
+
+    /**
+     * Start expanding the next chunk if the merge is halfway through the current one.
+     */
+    void prefetch() {
+      if (pending == null && ! exhausted && pops.size() - next <= chunkSize / 2) {
+        final int n = chunkSize;
+        pending = searchPool.pool.submit(() -> withWorkerFeaturizer(sentence, sourceInputId, source, 
+            workerFeaturizer -> expand(n, workerFeaturizer)));
+        pendingSize = n;
+        chunkSize = Math.min(2 * chunkSize, MAX_CHUNK_SIZE);
+      }
+    }
+
+    /**
+     * True if there is a next pop, waiting for the worker if necessary.
+     */
+    boolean hasNext() {
+      if (next == pops.size()) {
+        prefetch();
+        await();
+      }
+      return next < pops.size();
+    }
+
+    Item peek() {
+      return pops.get(next).item;
+    }
+
+    Pop next() {
+      return pops.get(next++);
+    }
+
+    /**
+     * Wait for the pending expansion.
+     */
+    void await() {
+      if (pending != null) {
+        final List<Pop> chunk = pending.join();
+        pending = null;
+        // The queue is empty once a worker returns a partial chunk
+        exhausted = chunk.size() < pendingSize;
+        pops.addAll(chunk);
+      }
+    }
+  }
+
+  /**
+   * Fill a beam with cube pruning on the search threads. The beam receives the same
+   * derivations in the same order as sequential search.
+   * 
+   * @return The number of items generated and pruned, the number of derivations featurized,
+   * the number of search errors, and 0 since there is no pop limit.
+   */
+  private int[] fillBeamParallel(BundleBeam<TK,FV> newBeam, List<Consequent<TK,FV>> successors,
+      int localBeamCapacity, int sourceInputId, Sequence<TK> source, int sentence, 
+      OutputSpace<TK,FV> outputSpace) {
+    // Build the top-left corners of the bundles
+    final int numBundles = successors.size();
+    final List<ForkJoinTask<List<Item>>> roots = new ArrayList<>();
+    final int rootsPerTask = Math.max(1, numBundles / (4 * searchPool.pool.getParallelism()));
+    for (int start = 0; start < numBundles; start += rootsPerTask) {
+      final List<Consequent<TK,FV>> rootSuccessors = successors.subList(start, Math.min(numBundles, start + rootsPerTask));
+      roots.add(searchPool.pool.submit(() -> withWorkerFeaturizer(sentence, sourceInputId, source, 
+          workerFeaturizer -> generateConsequents(rootSuccessors, sourceInputId, outputSpace, false, 
+              workerFeaturizer))));
+    }
+    int numGenerated = 0, numPruned = 0, numSearchErrors = 0;
+    final List<BundleSearch> searches = new ArrayList<>(numBundles);
+    for (ForkJoinTask<List<Item>> task : roots) {
+      for (Item root : task.join()) {
+        root.renumber();
+        ++numGenerated;
+        if (root.derivation == null) ++numPruned;
+        BundleSearch search = new BundleSearch(root, sourceInputId, source, sentence, outputSpace);
+        search.prefetch();
+        searches.add(search);
+      }
+    }
+
+    // Merge the bundles. The head of each bundle is the item that sequential search
+    // would have in its priority queue for that bundle.
+    final Queue<BundleSearch> heads = new PriorityQueue<>(Math.max(1, searches.size()), 
+        (a, b) -> a.peek().compareTo(b.peek()));
+    for (BundleSearch search : searches) {
+      if (search.hasNext()) heads.add(search);
+    }
+    int numPoppedItems = newBeam.size();
+    double lastScore = Double.POSITIVE_INFINITY;
+    while (numPoppedItems < localBeamCapacity && ! heads.isEmpty()) {
+      final BundleSearch search = heads.poll();
+      final Pop pop = search.next();
+      final Item item = pop.item;
+      if (item.derivation != null && (Double.isInfinite(item.derivation.score) || Double.isNaN(item.derivation.score))) {
+        logger.warn("Generated derivation with invalid score: {}", item.derivation);
+        ++numPoppedItems;
+      } else if (item.derivation != null) {
+        newBeam.put(item.derivation);
+        ++numPoppedItems;
+        if (item.derivation.finalScoreEstimate() > lastScore) ++numSearchErrors;
+        lastScore = item.derivation.finalScoreEstimate();
+      }
+      for (Item successor : pop.successors) {
+        successor.renumber();
+        ++numGenerated;
+        if (successor.derivation == null) ++numPruned;
+      }
+      search.prefetch();
+      if (search.hasNext()) heads.add(search);
+    }
+
+    // Let the workers finish before the bundles are discarded
+    for (BundleSearch search : searches) search.await();
+    return new int[] { numGenerated, numPruned, numGenerated - numPruned, numSearchErrors, 0 };
+  }
+
+  /**
+   * Fill a beam with lazy cube pruning. Successors enter the priority queue with an
+   * estimate of their score: the score of the antecedent, the isolation score of the rule,
+   * and the future cost of the coverage of the bundle. The derivation is only built when
+   * the item is popped for the first time. Then the item returns to the queue with the
+   * score of the derivation, and enters the beam when it is popped again.
+   * 
+   * The future cost is the same for all successors in a bundle. It is taken from the first
+   * derivation that is built in the bundle, so successors are featurized immediately until
+   * the bundle has a derivation.
+   * 
+   * The beam is full after beam size derivations have been popped for the second time, or
+   * after the pop limit is reached.
+   * 
+   * @return The number of items generated and pruned, the number of derivations featurized,
+   * the number of search errors, and 1 if the pop limit was reached.
+   */
+  private int[] fillBeamLazy(BundleBeam<TK,FV> newBeam, List<Consequent<TK,FV>> successors,
+      int localBeamCapacity, int sourceInputId, OutputSpace<TK,FV> outputSpace) {
+    final Map<HyperedgeBundle<TK,FV>,Double> bundleHeuristics = new HashMap<>();
+    final Queue<LazyItem> pq = new PriorityQueue<>(2*localBeamCapacity);
+    final int[] counts = new int[5];
+    addLazyItems(pq, successors, bundleHeuristics, sourceInputId, outputSpace, counts);
+
+    int numPoppedItems = newBeam.size();
+    int numPops = 0;
+    double lastScore = Double.POSITIVE_INFINITY;
+    while (numPoppedItems < localBeamCapacity && ! pq.isEmpty()) {
+      if (numPops++ == popLimit) {
+        counts[4] = 1;
+        break;
+      }
+      final LazyItem item = pq.poll();
+      if (item.derivation == null && ! item.pruned) {
+        // First pop. Build the derivation and return the item to the queue.
+        item.derivation = generateConsequents(Collections.singletonList(item.consequent), 
+            sourceInputId, outputSpace, false).get(0).derivation;
+        ++counts[2];
+        if (Double.isInfinite(item.derivation.score) || Double.isNaN(item.derivation.score)) {
+          logger.warn("Generated derivation with invalid score: {}", item.derivation);
+          ++numPoppedItems;
+        } else {
+          item.score = item.derivation.finalScoreEstimate();
+          pq.add(item);
+        }
+
+      } else if (item.derivation != null) {
+        if (Double.isInfinite(item.derivation.score) || Double.isNaN(item.derivation.score)) {
+          logger.warn("Generated derivation with invalid score: {}", item.derivation);
+        } else {
+          newBeam.put(item.derivation);
+          if (item.score > lastScore) ++counts[3];
+          lastScore = item.score;
+        }
+        ++numPoppedItems;
+      }
+      // else pruned items don't count against the pop limit
+
+      // Successors are generated on the first pop
+      if ( ! item.expanded) {
+        item.expanded = true;
+        addLazyItems(pq, item.consequent.bundle.nextSuccessors(item.consequent), bundleHeuristics, 
+            sourceInputId, outputSpace, counts);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Add successors to the queue of lazy cube pruning.
+   */
+  private void addLazyItems(Queue<LazyItem> pq, List<Consequent<TK,FV>> successors, 
+      Map<HyperedgeBundle<TK,FV>,Double> bundleHeuristics, int sourceInputId, 
+      OutputSpace<TK,FV> outputSpace, int[] counts) {
+    // Featurize the successors of bundles without a derivation
+    final List<Consequent<TK,FV>> unknown = new ArrayList<>(successors.size());
+    for (Consequent<TK,FV> successor : successors) {
+      if ( ! bundleHeuristics.containsKey(successor.bundle)) unknown.add(successor);
+    }
+    if (unknown.size() < successors.size()) {
+      for (Consequent<TK,FV> successor : successors) {
+        final Double h = bundleHeuristics.get(successor.bundle);
+        if (h == null) continue;
+        final LazyItem item = new LazyItem(successor);
+        if (outputSpace.allowableContinuation(successor.antecedent.featurizable, successor.rule)) {
+          item.score = successor.antecedent.score + successor.rule.isolationScore + h;
+        } else {
+          item.pruned = true;
+          ++counts[1];
+        }
+        pq.add(item);
+        ++counts[0];
+      }
+    }
+    if (unknown.isEmpty()) return;
+    for (Item built : generateConsequents(unknown, sourceInputId, outputSpace, false)) {
+      final LazyItem item = new LazyItem(built.consequent);
+      item.derivation = built.derivation;
+      if (item.derivation == null) {
+        item.pruned = true;
+        ++counts[1];
+      } else {
+        item.score = item.derivation.finalScoreEstimate();
+        bundleHeuristics.putIfAbsent(built.consequent.bundle, item.derivation.h);
+        ++counts[2];
+      }
+      pq.add(item);
+      ++counts[0];
+    }
+  }
+
   @Override
   public void dump(Derivation<TK, FV> hyp) {
     throw new UnsupportedOperationException();
@@ -424,17 +1029,19 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
 
       // Initialize the priority queue
       Queue<Item> pq = new PriorityQueue<>(2*localBeamCapacity);
+      List<Consequent<TK,FV>> successors = new ArrayList<>();
       for (int j = startBeam; j < i; ++j) {
         BundleBeam<TK,FV> bundleBeam = (BundleBeam<TK,FV>) tgtBeams.get(j);
         //System.err.println("card " + j + " consequent size " + i);
         for (HyperedgeBundle<TK,FV> bundle : bundleBeam.getBundlesForConsequentSize(i)) {
-          for(Item consequent : generateConsequentsFrom(null, bundle, sourceInputId, outputSpace, true)) {
-            ++totalHypothesesGenerated;
-            if (consequent.derivation == null) ++numPruned;
-            pq.add(consequent);
-          }
+          successors.addAll(bundle.nextSuccessors(null));
         }
       }
+      for(Item consequent : generateConsequents(successors, sourceInputId, outputSpace, true)) {
+        ++totalHypothesesGenerated;
+        if (consequent.derivation == null) ++numPruned;
+        pq.add(consequent);
+      }
       
       // Beam-filling
       BundleBeam<TK,FV> newBeam = (BundleBeam<TK, FV>) tgtBeams.get(i);
@@ -1,5 +1,6 @@
 package edu.stanford.nlp.mt.decoder;
 
+import java.util.Iterator;
 import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
@@ -96,4 +97,44 @@ public interface Inferer<TK, FV> {
       int sourceInputId, InputProperties sourceInputProperties,
       OutputSpace<TK, FV> outputSpace, List<Sequence<TK>> targets,
       int size, boolean distinct, NbestMode nbestMode);
+
+  /**
+   * Produce n-best translations one at a time. The translations are featurized as they
+   * are requested, so callers that stop early do not pay for the rest of the list.
+   * Unlike {@link #nbest(Sequence, int, InputProperties, OutputSpace, List, int, boolean, NbestMode)},
+   * the translations are in the order of the lattice scores, which can differ from the
+   * order of the model scores if the search heuristic is inadmissible.
+   * 
+   * @param source
+   * @param sourceInputId
+   * @param sourceInputProperties
+   * @param constrainedOutputSpace
+   * @param targets
+   * @param distinct if true then return distinct nbest items
+   * @return null on decoder failure
+   */
+  public Iterator<RichTranslation<TK, FV>> nbestIterator(Sequence<TK> source, int sourceInputId,
+      InputProperties sourceInputProperties,
+      OutputSpace<TK, FV> constrainedOutputSpace, List<Sequence<TK>> targets, boolean distinct);
+
+  /**
+   * Produce n-best translations one at a time.
+   * 
+   * @param scorer
+   * @param source
+   * @param sourceInputId
+   * @param sourceInputProperties
+   * @param outputSpace
+   * @param targets
+   * @param distinct if true then return distinct nbest items
+   * @return null on decoder failure
+   */
+  public Iterator<RichTranslation<TK, FV>> nbestIterator(Scorer<FV> scorer, Sequence<TK> source,
+      int sourceInputId, InputProperties sourceInputProperties,
+      OutputSpace<TK, FV> outputSpace, List<Sequence<TK>> targets, boolean distinct);
+
+  /**
+   * Release the resources of this inferer. The inferer can't be used afterwards.
+   */
+  public default void close() {}
 }
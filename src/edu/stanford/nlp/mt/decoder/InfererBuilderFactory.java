@@ -21,6 +21,7 @@ public final class InfererBuilderFactory {
   public static final String DEFAULT_INFERER = CUBE_PRUNING_DECODER;
   public static final String BEAM_SIZE_OPT = "beamcapacity";
   public static final String BEAM_TYPE_OPT = "beamtype";
+  public static final String BEAM_THRESHOLD_OPT = "beamthreshold";
 
   // Static class
   private InfererBuilderFactory() {}
@@ -56,6 +57,18 @@ public final class InfererBuilderFactory {
       }
     }
 
+    double beamThreshold = Double.POSITIVE_INFINITY;
+    String beamThresholdStr = paramPairs.get(BEAM_THRESHOLD_OPT);
+    if (beamThresholdStr != null) {
+      try {
+        beamThreshold = Double.parseDouble(beamThresholdStr);
+      } catch (NumberFormatException e) {
+        throw new RuntimeException(
+            String.format("Error: given beam threshold, %s:%s, can not be converted into a number",
+                BEAM_THRESHOLD_OPT, beamThresholdStr));
+      }
+    }
+
     if (infererName.equals(MULTIBEAM_DECODER)) {
       MultiBeamDecoder.MultiBeamDecoderBuilder<IString, String> builder = MultiBeamDecoder
           .builder();
@@ -63,6 +76,8 @@ public final class InfererBuilderFactory {
         builder.setBeamSize(beamSize);
       if (beamType != null)
         builder.setBeamType(beamType);
+      if (beamThreshold != Double.POSITIVE_INFINITY)
+        builder.setBeamThreshold(beamThreshold);
       return builder;
     }
     
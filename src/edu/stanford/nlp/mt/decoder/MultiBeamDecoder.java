@@ -253,9 +253,10 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
               hyp.featurizable.targetPosition);
         }
         System.err.printf("\tCoverage: %s\n", hyp.sourceCoverage);
-        System.err.printf("\tFeatures: %s\n", hyp.features);
-        if (hyp.features != null) {
-          for (FeatureValue<FV> featureValue : hyp.features) {
+        List<FeatureValue<FV>> features = hyp.getFeatures();
+        System.err.printf("\tFeatures: %s\n", features);
+        if (features != null) {
+          for (FeatureValue<FV> featureValue : features) {
             finalFeatureVector.incrementCount(featureValue.name.toString(),
                 featureValue.value);
             allfeatures.add(featureValue);
@@ -371,6 +372,13 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
               continue;
             }
 
+            // The antecedent's score estimate stands in for the successor's until the
+            // successor is featurized. Only exact for an admissible heuristic.
+            if (earlyPruning && !beams[hyp.sourceCoverage.cardinality() + option.sourceCoverage.cardinality()]
+                .admits(hyp.finalScoreEstimate())) {
+              continue;
+            }
+
             Derivation<TK, FV> newHyp = new Derivation<TK, FV>(sourceInputId,
                 option, hyp.length, hyp, featurizer, scorer, heuristic, outputSpace);
 
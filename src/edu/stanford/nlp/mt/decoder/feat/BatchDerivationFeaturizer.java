@@ -0,0 +1,29 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import java.util.List;
+
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+
+/**
+ * A derivation featurizer that can extract features for many rule applications at
+ * once. When the decoder expands a beam, it calls prefetch() with the rule applications
+ * before it constructs the derivations in the same order. The featurizer may then answer
+ * the subsequent featurize() calls from a single batched query.
+ * 
+ * Implementations must fall back to unbatched extraction for derivations that do not
+ * match the prefetched rule applications.
+ * 
+ * @param <TK>
+ * @param <FV>
+ */
+public interface BatchDerivationFeaturizer<TK, FV> {
+
+  /**
+   * Prepare features for extending antecedents.get(i) with rules.get(i).
+   * 
+   * @param antecedents
+   * @param rules
+   */
+  public void prefetch(List<Derivation<TK, FV>> antecedents, List<ConcreteRule<TK, FV>> rules);
+}
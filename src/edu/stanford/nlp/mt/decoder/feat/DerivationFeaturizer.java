@@ -35,6 +35,20 @@ public abstract class DerivationFeaturizer<TK, FV> implements Featurizer<TK,FV>
    * @return a list of features or null.
    */
   public abstract List<FeatureValue<FV>> featurize(Featurizable<TK, FV> f);
+
+  /**
+   * Extract features into a buffer of (feature id, value) pairs. This is the method
+   * that the decoder calls. Featurizers with fixed feature names should resolve the
+   * names with <code>FeatureIndex</code> at construction and override this method.
+   * The default implementation calls featurize(f).
+   * 
+   * @param f
+   * @param buffer
+   */
+  public void featurize(Featurizable<TK, FV> f, FeatureBuffer buffer) {
+    List<FeatureValue<FV>> features = featurize(f);
+    if (features != null) buffer.addAll(features);
+  }
     
   /**
    * DO NOT MODIFY OR OVERRIDE ANYTHING BELOW THIS LINE. PHRASAL USES THESE
@@ -0,0 +1,142 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.FeatureValue;
+
+/**
+ * A growable buffer of (feature id, value) pairs. Ids come from <code>FeatureIndex</code>.
+ *
+ * The decoder featurizes each derivation into a buffer owned by the decoding thread, scores
+ * the buffer, and then copies out the features. Featurizers should not retain a reference
+ * to the buffer.
+ *
+ */
+public class FeatureBuffer {
+
+  private static final int INITIAL_CAPACITY = 32;
+
+  private static final ThreadLocal<FeatureBuffer> threadLocalBuffer =
+      ThreadLocal.withInitial(FeatureBuffer::new);
+
+  private int[] featureIds;
+  private double[] featureValues;
+  private int size = 0;
+
+  /**
+   * Constructor.
+   */
+  public FeatureBuffer() {
+    this(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param initialCapacity
+   */
+  public FeatureBuffer(int initialCapacity) {
+    featureIds = new int[initialCapacity];
+    featureValues = new double[initialCapacity];
+  }
+
+  /**
+   * Get the buffer for the current thread. The buffer is cleared.
+   *
+   * @return
+   */
+  public static FeatureBuffer threadLocalBuffer() {
+    FeatureBuffer buffer = threadLocalBuffer.get();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Add a feature.
+   *
+   * @param featureId
+   * @param value
+   */
+  public void add(int featureId, double value) {
+    if (size == featureIds.length) {
+      featureIds = Arrays.copyOf(featureIds, 2 * size);
+      featureValues = Arrays.copyOf(featureValues, 2 * size);
+    }
+    featureIds[size] = featureId;
+    featureValues[size++] = value;
+  }
+
+  /**
+   * Add a named feature. The name is resolved with <code>FeatureIndex</code>.
+   *
+   * @param feature
+   */
+  public void add(FeatureValue<?> feature) {
+    add(FeatureIndex.indexOf(feature.name.toString()), feature.value);
+  }
+
+  /**
+   * Add named features.
+   *
+   * @param features
+   */
+  public void addAll(Collection<? extends FeatureValue<?>> features) {
+    for (FeatureValue<?> feature : features) {
+      add(feature);
+    }
+  }
+
+  /**
+   * Add the features in parallel arrays.
+   *
+   * @param ids
+   * @param values
+   */
+  public void addAll(int[] ids, double[] values) {
+    for (int i = 0; i < ids.length; ++i) {
+      add(ids[i], values[i]);
+    }
+  }
+
+  /**
+   * Remove all features.
+   */
+  public void clear() { size = 0; }
+
+  /**
+   * Number of features in the buffer.
+   *
+   * @return
+   */
+  public int size() { return size; }
+
+  /**
+   * The backing array of feature ids. Only the first size() entries are valid.
+   *
+   * @return
+   */
+  public int[] featureIds() { return featureIds; }
+
+  /**
+   * The backing array of feature values. Only the first size() entries are valid.
+   *
+   * @return
+   */
+  public double[] featureValues() { return featureValues; }
+
+  /**
+   * Copy of the feature ids in the buffer.
+   *
+   * @return
+   */
+  public int[] toFeatureIds() { return Arrays.copyOf(featureIds, size); }
+
+  /**
+   * Copy of the feature values in the buffer.
+   *
+   * @return
+   */
+  public double[] toFeatureValues() { return Arrays.copyOf(featureValues, size); }
+}
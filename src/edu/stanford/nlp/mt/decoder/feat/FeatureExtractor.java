@@ -7,6 +7,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperty;
@@ -23,7 +24,7 @@ import edu.stanford.nlp.mt.util.Sequence;
  */
 public class FeatureExtractor<TK, FV> extends 
     DerivationFeaturizer<TK, FV> implements RuleFeaturizer<TK, FV>,
-    Cloneable {
+    BatchDerivationFeaturizer<TK, FV>, Cloneable {
   
   private List<Featurizer<TK, FV>> featurizers;
   private final int numDerivationFeaturizers;
@@ -183,6 +184,36 @@ public class FeatureExtractor<TK, FV> extends
     return featureValues;
   }
 
+  /**
+   * Extract derivation features into a buffer.
+   */
+  @Override
+  public void featurize(Featurizable<TK, FV> f, FeatureBuffer buffer) {
+    if (featureAugmentationMode >= 0) {
+      // Augmentation rewrites feature names
+      buffer.addAll(featurize(f));
+      return;
+    }
+    for (Featurizer<TK, FV> featurizer : featurizers) {
+      if (featurizer instanceof DerivationFeaturizer) {
+        ((DerivationFeaturizer<TK,FV>) featurizer).featurize(f, buffer);
+      }
+    }
+  }
+
+  /**
+   * Prefetch derivation features for featurizers that support batching.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void prefetch(List<Derivation<TK, FV>> antecedents, List<ConcreteRule<TK, FV>> rules) {
+    for (Featurizer<TK, FV> featurizer : featurizers) {
+      if (featurizer instanceof BatchDerivationFeaturizer) {
+        ((BatchDerivationFeaturizer<TK, FV>) featurizer).prefetch(antecedents, rules);
+      }
+    }
+  }
+
   /**
    * Extract rule features.
    */
@@ -4,8 +4,10 @@ import java.util.Collections;
 import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.FeatureBuffer;
 import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.util.FeatureIndex;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -20,6 +22,7 @@ import edu.stanford.nlp.mt.util.Sequence;
 public class LinearFutureCostFeaturizer extends DerivationFeaturizer<IString, String> {
 
   public static final String FEATURE_NAME = "LinearDistortion";
+  private static final int FEATURE_ID = FeatureIndex.indexOf(FEATURE_NAME);
 
   public static final boolean ADD_EOS = Boolean.parseBoolean(System
       .getProperty("addEOS", "false"));
@@ -71,6 +74,21 @@ public class LinearFutureCostFeaturizer extends DerivationFeaturizer<IString, St
   @Override
   public List<FeatureValue<String>> featurize(
       Featurizable<IString, String> f) {
+    return Collections.singletonList(new FeatureValue<String>(FEATURE_NAME, featureValue(f), true));
+  }
+
+  @Override
+  public void featurize(Featurizable<IString, String> f, FeatureBuffer buffer) {
+    buffer.add(FEATURE_ID, featureValue(f));
+  }
+
+  /**
+   * Compute the feature value and set the featurizer state.
+   * 
+   * @param f
+   * @return
+   */
+  private double featureValue(Featurizable<IString, String> f) {
     float oldFutureCost = f.prior != null ? ((FutureCostState) f.prior.getState(this)).f
         : 0.0f;
     float futureCost;
@@ -83,7 +101,7 @@ public class LinearFutureCostFeaturizer extends DerivationFeaturizer<IString, St
     int edge = lastOptionForeignEdge(f.derivation);
     f.setState(this, new FutureCostState(edge, futureCost));
     float deltaCost = futureCost - oldFutureCost;
-    return Collections.singletonList(new FeatureValue<String>(FEATURE_NAME, -1.0 * (cost(f) + deltaCost), true));
+    return -1.0 * (cost(f) + deltaCost);
   }
 
   @Override
@@ -1,18 +1,26 @@
 package edu.stanford.nlp.mt.decoder.feat.base;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
 
+import edu.stanford.nlp.mt.decoder.feat.BatchDerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.FeatureBuffer;
+import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
+import edu.stanford.nlp.mt.lm.CachingLanguageModel;
 import edu.stanford.nlp.mt.lm.LMState;
 import edu.stanford.nlp.mt.lm.LanguageModel;
 import edu.stanford.nlp.mt.lm.LanguageModelFactory;
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.util.AbstractWordClassMap;
+import edu.stanford.nlp.mt.util.FeatureIndex;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -25,15 +33,20 @@ import edu.stanford.nlp.util.PropertiesUtils;
 /**
  * Featurizer for n-gram language models.
  * 
+ * Rule applications that are prefetched by the decoder are scored with one batched
+ * language model query. The batch is consumed by the featurize() calls that follow, so
+ * the featurizer is cloned for each decoder thread.
+ * 
  * @author danielcer
  * @author Spence Green
  */
 public class NGramLanguageModelFeaturizer extends DerivationFeaturizer<IString, String> implements
-RuleFeaturizer<IString, String> {
+RuleFeaturizer<IString, String>, BatchDerivationFeaturizer<IString, String>, NeedsCloneable<IString, String> {
   private static final boolean DEBUG = false;
   public static final String DEFAULT_FEATURE_NAME = "LM";
 
   private final String featureName;
+  private final int featureId;
   private final LanguageModel<IString> lm;
   private final IString startToken;
   private final IString endToken;
@@ -43,6 +56,10 @@ RuleFeaturizer<IString, String> {
 
   private static final boolean wrapBoundary = System.getProperties().containsKey("wrapBoundary");
 
+  // Results of the last call to prefetch()
+  private List<Prefetched> prefetched = Collections.emptyList();
+  private int prefetchCursor = 0;
+
   /**
    * Constructor.
    * 
@@ -51,6 +68,7 @@ RuleFeaturizer<IString, String> {
   public NGramLanguageModelFeaturizer(LanguageModel<IString> lm) {
     this.lm = lm;
     featureName = DEFAULT_FEATURE_NAME;
+    featureId = FeatureIndex.indexOf(featureName);
     this.startToken = lm.getStartToken();
     this.endToken = lm.getEndToken();
     this.isClassBased = false;
@@ -64,23 +82,28 @@ RuleFeaturizer<IString, String> {
    * The first argument is always the language model filename and the second
    * argument is always the feature name.
    * 
-   * Additional arguments are named parameters.
+   * Additional arguments are named parameters. cacheSize=n adds a query cache
+   * of n entries per decoder thread.
    */
   public NGramLanguageModelFeaturizer(String...args) throws IOException {
     if (args.length < 2) {
       throw new RuntimeException(
           "At least two arguments are needed: LM file name and LM feature name");
     }
+    // Named parameters
+    Properties options = FeatureUtils.argsToProperties(args);
+
     // Load the LM
-    this.lm = LanguageModelFactory.load(args[0]);
+    final int cacheSize = PropertiesUtils.getInt(options, "cacheSize", 0);
+    this.lm = cacheSize > 0 ? new CachingLanguageModel<>(LanguageModelFactory.load(args[0]), cacheSize)
+        : LanguageModelFactory.load(args[0]);
     this.startToken = lm.getStartToken();
     this.endToken = lm.getEndToken();
 
     // Set the feature name
     this.featureName = args[1];
+    this.featureId = FeatureIndex.indexOf(featureName);
 
-    // Named parameters
-    Properties options = FeatureUtils.argsToProperties(args);
     this.isClassBased = PropertiesUtils.getBool(options, "classBased", false);
     if (isClassBased && options.containsKey("classMap")) {
       // A local class map that differs from the one specified by Phrasal.TARGET_CLASS_MAP
@@ -112,47 +135,138 @@ RuleFeaturizer<IString, String> {
     return new ArraySequence<IString>(true, array);
   }
 
-  @Override
-  public List<FeatureValue<String>> featurize(Featurizable<IString, String> f) {
-    if (DEBUG) {
-      System.err.printf("Sequence: %s%n\tNovel Phrase: %s%n",
-          f.targetSequence, f.targetPhrase);
-      System.err.printf("Untranslated tokens: %d%n", f.numUntranslatedSourceTokens);
-      System.err.println("ngram scoring:");
-    }
-    
-    LMState priorState = f.prior == null ? null : (LMState) f.prior.getState(this);
+  /**
+   * Make the language model query for extending a prior derivation with a target phrase.
+   * 
+   * @param prior
+   * @param targetPhrase
+   * @param done
+   * @return The query, or null if the phrase should not be scored.
+   */
+  private Query makeQuery(Featurizable<IString, String> prior, Sequence<IString> targetPhrase,
+      boolean done) {
+    LMState priorState = prior == null ? null : (LMState) prior.getState(this);
     
     Sequence<IString> partialTranslation = isClassBased ? 
-        toClassRepresentation(f.targetPhrase) : f.targetPhrase;
+        toClassRepresentation(targetPhrase) : targetPhrase;
     int startIndex = 0;
     if (! wrapBoundary) {
-      if (f.prior == null && f.done) {
+      if (prior == null && done) {
         partialTranslation = Sequences.wrapStartEnd(
             partialTranslation, startToken, endToken);
         startIndex = 1;
-      } else if (f.prior == null) {
+      } else if (prior == null) {
         partialTranslation = Sequences.wrapStart(partialTranslation, startToken);
         startIndex = 1;
-      } else if ( f.done) {
+      } else if (done) {
         partialTranslation = Sequences.wrapEnd(partialTranslation, endToken);
       } 
-    } else if (f.prior == null) {
+    } else if (prior == null) {
       if (partialTranslation.size() < 2) return null;
       startIndex = 1;
-    } else if (f.prior != null && priorState == null) {
-      partialTranslation = Sequences.wrapStart(partialTranslation, f.prior.targetSequence.get(0));
+    } else if (prior != null && priorState == null) {
+      partialTranslation = Sequences.wrapStart(partialTranslation, prior.targetSequence.get(0));
       startIndex = 1;
     }
+    return new Query(partialTranslation, startIndex, priorState);
+  }
+
+  @Override
+  public void prefetch(List<Derivation<IString, String>> antecedents,
+      List<ConcreteRule<IString, String>> rules) {
+    final int numRules = rules.size();
+    final List<Prefetched> batch = new ArrayList<>(numRules);
+    final List<Sequence<IString>> sequences = new ArrayList<>(numRules);
+    final int[] startIndices = new int[numRules];
+    final LMState[] priorStates = new LMState[numRules];
+    for (int i = 0; i < numRules; ++i) {
+      final Derivation<IString, String> antecedent = antecedents.get(i);
+      final ConcreteRule<IString, String> rule = rules.get(i);
+      // Rules in a beam expansion do not overlap the antecedent coverage
+      final boolean done = antecedent.untranslatedSourceTokens == rule.sourceCoverage.cardinality();
+      final Prefetched p = new Prefetched(antecedent.featurizable, rule, done);
+      final Query query = makeQuery(p.prior, rule.abstractRule.target, done);
+      if (query != null) {
+        p.queryId = sequences.size();
+        sequences.add(query.sequence);
+        startIndices[p.queryId] = query.startIndex;
+        priorStates[p.queryId] = query.priorState;
+      }
+      batch.add(p);
+    }
     
-    LMState state = lm.score(partialTranslation, startIndex, priorState);
+    final LMState[] states = lm.scoreBatch(sequences, startIndices, priorStates);
+    for (Prefetched p : batch) {
+      if (p.queryId >= 0) p.state = states[p.queryId];
+    }
+    prefetched = batch;
+    prefetchCursor = 0;
+  }
+
+  /**
+   * Return the prefetched query for f, or null if it was not prefetched.
+   * 
+   * @param f
+   * @return
+   */
+  private Prefetched nextPrefetched(Featurizable<IString, String> f) {
+    if (prefetchCursor < prefetched.size()) {
+      final Prefetched p = prefetched.get(prefetchCursor);
+      if (p.prior == f.prior && p.rule == f.rule && p.done == f.done && 
+          f.targetPhrase == p.rule.abstractRule.target) {
+        ++prefetchCursor;
+        return p;
+      }
+      // The decoder did not follow the batch
+      prefetched = Collections.emptyList();
+    }
+    return null;
+  }
+
+  @Override
+  public List<FeatureValue<String>> featurize(Featurizable<IString, String> f) {
+    final LMState state = scoreDerivation(f);
+    return state == null ? null : 
+      Collections.singletonList(new FeatureValue<>(featureName, state.getScore(), true));
+  }
+
+  @Override
+  public void featurize(Featurizable<IString, String> f, FeatureBuffer buffer) {
+    final LMState state = scoreDerivation(f);
+    if (state != null) buffer.add(featureId, state.getScore());
+  }
+
+  /**
+   * Score the target phrase of the last rule application and set the featurizer state.
+   * 
+   * @param f
+   * @return The language model state, or null if the derivation is not scored.
+   */
+  private LMState scoreDerivation(Featurizable<IString, String> f) {
+    if (DEBUG) {
+      System.err.printf("Sequence: %s%n\tNovel Phrase: %s%n",
+          f.targetSequence, f.targetPhrase);
+      System.err.printf("Untranslated tokens: %d%n", f.numUntranslatedSourceTokens);
+      System.err.println("ngram scoring:");
+    }
+    
+    LMState state;
+    final Prefetched p = nextPrefetched(f);
+    if (p != null) {
+      state = p.state;
+      if (state == null) return null;
+    } else {
+      final Query query = makeQuery(f.prior, f.targetPhrase, f.done);
+      if (query == null) return null;
+      state = lm.score(query.sequence, query.startIndex, query.priorState);
+    }
     f.setState(this, state);
     
     if (DEBUG) {
       System.err.printf("Final score: %f%n", state.getScore());
       System.err.println("===================");
     }
-    return Collections.singletonList(new FeatureValue<>(featureName, state.getScore(), true));
+    return state;
   }
 
   @Override
@@ -176,6 +290,45 @@ RuleFeaturizer<IString, String> {
     return true;
   }
   
+  @Override
+  public Object clone() throws CloneNotSupportedException {
+    NGramLanguageModelFeaturizer featurizer = (NGramLanguageModelFeaturizer) super.clone();
+    featurizer.prefetched = Collections.emptyList();
+    featurizer.prefetchCursor = 0;
+    return featurizer;
+  }
+
+  /**
+   * A language model query.
+   */
+  private static class Query {
+    public final Sequence<IString> sequence;
+    public final int startIndex;
+    public final LMState priorState;
+    public Query(Sequence<IString> sequence, int startIndex, LMState priorState) {
+      this.sequence = sequence;
+      this.startIndex = startIndex;
+      this.priorState = priorState;
+    }
+  }
+
+  /**
+   * A prefetched rule application and its language model state.
+   */
+  private static class Prefetched {
+    public final Featurizable<IString, String> prior;
+    public final ConcreteRule<IString, String> rule;
+    public final boolean done;
+    public int queryId = -1;
+    public LMState state;
+    public Prefetched(Featurizable<IString, String> prior, ConcreteRule<IString, String> rule,
+        boolean done) {
+      this.prior = prior;
+      this.rule = rule;
+      this.done = done;
+    }
+  }
+  
   private static class LocalTargetMap extends AbstractWordClassMap {
     public LocalTargetMap() {
       wordToClass = new HashMap<>();
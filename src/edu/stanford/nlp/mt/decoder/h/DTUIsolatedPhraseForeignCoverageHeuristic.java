@@ -12,7 +12,6 @@ import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperties;
 import edu.stanford.nlp.mt.util.Sequence;
-import edu.stanford.nlp.util.ErasureUtils;
 import edu.stanford.nlp.util.Pair;
 
 /**
@@ -68,10 +67,6 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       CoverageSet newCoverage) {
 
     double oldH = hyp.parent.h;
-    double newH = 0.0;
-
-    CoverageSet coverage = hyp.sourceCoverage;
-    int startEdge = coverage.nextClearBit(0);
 
     if (Double.isNaN(oldH)) {
       System.err.printf("getHeuristicDelta:\n");
@@ -79,37 +74,17 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       System.err.println("old H: " + oldH);
       throw new RuntimeException();
     }
+    if (Double.isInfinite(oldH))
+      return 0.0;
 
-    int foreignSize = hyp.sourceSequence.size();
-    for (int endEdge; startEdge < foreignSize; startEdge = coverage
-        .nextClearBit(endEdge)) {
-      endEdge = coverage.nextSetBit(startEdge);
-
-      if (endEdge == -1) {
-        endEdge = hyp.sourceSequence.size();
-      }
-
-      double localH = hSpanScores.getScore(startEdge, endEdge - 1);
-
-      if (Double.isNaN(localH)) {
-        System.err.printf("Bad retrieved score for %d:%d ==> %f\n", startEdge,
-            endEdge - 1, localH);
-        throw new RuntimeException();
-      }
-
-      newH += localH;
-      if (Double.isNaN(newH)) {
-        System.err.printf(
-            "Bad total retrieved score for %d:%d ==> %f (localH=%f)\n",
-            startEdge, endEdge - 1, newH, localH);
-        throw new RuntimeException();
-      }
+    // Only the gaps of the parent coverage that the new rule touches are rescored
+    double delta = hSpanScores.gapDelta(hyp.parent.sourceCoverage,
+        hyp.sourceCoverage, newCoverage, hyp.sourceSequence.size());
+    if (Double.isNaN(delta)) {
+      System.err.printf("Bad retrieved score for coverage %s ==> %f\n",
+          hyp.sourceCoverage, delta);
+      throw new RuntimeException();
     }
-    if ((Double.isInfinite(newH) || newH == MINUS_INF)
-        && (Double.isInfinite(oldH) || oldH == MINUS_INF))
-      return 0.0;
-    double delta = newH - oldH;
-    ErasureUtils.noop(delta);
     return delta;
   }
 
@@ -298,23 +273,4 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       }
     }
   }
-
-  protected static class SpanScores {
-    final double[] spanValues;
-    final int terminalPositions;
-
-    public SpanScores(int length) {
-      terminalPositions = length + 1;
-      spanValues = new double[terminalPositions * terminalPositions];
-      Arrays.fill(spanValues, Double.NEGATIVE_INFINITY);
-    }
-
-    public double getScore(int startPosition, int endPosition) {
-      return spanValues[startPosition * terminalPositions + endPosition];
-    }
-
-    public void setScore(int startPosition, int endPosition, double score) {
-      spanValues[startPosition * terminalPositions + endPosition] = score;
-    }
-  }
 }
@@ -1,6 +1,5 @@
 package edu.stanford.nlp.mt.decoder.h;
 
-import java.util.Arrays;
 import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.util.Derivation;
@@ -33,33 +32,14 @@ public class IsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
 
   public IsolatedPhraseForeignCoverageHeuristic() {}
 
+  /**
+   * Only the gaps of the parent coverage that the new rule touches are rescored.
+   */
   @Override
   public double getHeuristicDelta(Derivation<TK, FV> newHypothesis,
       CoverageSet newCoverage) {
-    double oldH = newHypothesis.parent.h;
-    double newH = 0;
-    CoverageSet coverage = newHypothesis.sourceCoverage;
-    int startEdge = coverage.nextClearBit(0);
-
-    // System.out.printf("getHeuristicDelta:\n");
-    // System.out.printf("coverage: %s", newHypothesis.foreignCoverage);
-
-    int foreignSize = newHypothesis.sourceSequence.size();
-    for (int endEdge; startEdge < foreignSize; startEdge = coverage
-        .nextClearBit(endEdge)) {
-      endEdge = coverage.nextSetBit(startEdge);
-
-      if (endEdge == -1) {
-        endEdge = newHypothesis.sourceSequence.size();
-      }
-      double localH = hSpanScores.getScore(startEdge, endEdge - 1);
-
-      // System.out.printf("retreiving score for %d:%d ==> %f", startEdge,
-      // endEdge-1, localH);
-
-      newH += localH;
-    }
-    return newH - oldH;
+    return hSpanScores.gapDelta(newHypothesis.parent.sourceCoverage,
+        newHypothesis.sourceCoverage, newCoverage, newHypothesis.sourceSequence.size());
   }
 
   @Override
@@ -157,23 +137,4 @@ public class IsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
     }
     return hCompleteSequence;
   }
-
-  private static class SpanScores {
-    final double[] spanValues;
-    final int terminalPositions;
-
-    public SpanScores(int length) {
-      terminalPositions = length + 1;
-      spanValues = new double[terminalPositions * terminalPositions];
-      Arrays.fill(spanValues, Double.NEGATIVE_INFINITY);
-    }
-
-    public double getScore(int startPosition, int endPosition) {
-      return spanValues[startPosition * terminalPositions + endPosition];
-    }
-
-    public void setScore(int startPosition, int endPosition, double score) {
-      spanValues[startPosition * terminalPositions + endPosition] = score;
-    }
-  }
 }
@@ -0,0 +1,84 @@
+package edu.stanford.nlp.mt.decoder.h;
+
+import java.util.Arrays;
+
+import edu.stanford.nlp.mt.util.CoverageSet;
+
+/**
+ * Dense table of future costs for the source spans of a sentence. The table is
+ * filled once per sentence, after which the heuristic change of a derivation
+ * only depends on the gaps that the new rule touches.
+ */
+class SpanScores {
+  final double[] spanValues;
+  final int terminalPositions;
+
+  public SpanScores(int length) {
+    terminalPositions = length + 1;
+    spanValues = new double[terminalPositions * terminalPositions];
+    Arrays.fill(spanValues, Double.NEGATIVE_INFINITY);
+  }
+
+  public double getScore(int startPosition, int endPosition) {
+    return spanValues[startPosition * terminalPositions + endPosition];
+  }
+
+  public void setScore(int startPosition, int endPosition, double score) {
+    spanValues[startPosition * terminalPositions + endPosition] = score;
+  }
+
+  /**
+   * Sum of the future costs of the gaps in a coverage set.
+   *
+   * @param coverage
+   * @param sourceLength
+   * @return
+   */
+  public double gapScore(CoverageSet coverage, int sourceLength) {
+    double h = 0.0;
+    for (int startEdge = coverage.nextClearBit(0), endEdge; startEdge < sourceLength;
+        startEdge = coverage.nextClearBit(endEdge)) {
+      endEdge = coverage.nextSetBit(startEdge);
+      if (endEdge < 0) endEdge = sourceLength;
+      h += getScore(startEdge, endEdge - 1);
+    }
+    return h;
+  }
+
+  /**
+   * Change in the future cost when the positions in newCoverage are added to
+   * parentCoverage. Only the gaps of parentCoverage that newCoverage touches are
+   * visited: the cost of each such gap is replaced by the costs of the gaps that
+   * remain of it in coverage.
+   *
+   * @param parentCoverage
+   * @param coverage The union of parentCoverage and newCoverage.
+   * @param newCoverage
+   * @param sourceLength
+   * @return
+   */
+  public double gapDelta(CoverageSet parentCoverage, CoverageSet coverage,
+      CoverageSet newCoverage, int sourceLength) {
+    double delta = 0.0;
+    for (int i = newCoverage.nextSetBit(0); i >= 0; ) {
+      if (parentCoverage.get(i)) {
+        // Discontinuous rules may span positions that were already covered
+        i = newCoverage.nextSetBit(i + 1);
+        continue;
+      }
+      final int gapStart = parentCoverage.previousSetBit(i) + 1;
+      int gapEnd = parentCoverage.nextSetBit(i);
+      if (gapEnd < 0) gapEnd = sourceLength;
+      delta -= getScore(gapStart, gapEnd - 1);
+
+      for (int startEdge = coverage.nextClearBit(gapStart), endEdge; startEdge < gapEnd;
+          startEdge = coverage.nextClearBit(endEdge)) {
+        endEdge = coverage.nextSetBit(startEdge);
+        if (endEdge < 0 || endEdge > gapEnd) endEdge = gapEnd;
+        delta += getScore(startEdge, endEdge - 1);
+      }
+      i = gapEnd < sourceLength ? newCoverage.nextSetBit(gapEnd) : -1;
+    }
+    return delta;
+  }
+}
@@ -1,11 +1,10 @@
 package edu.stanford.nlp.mt.decoder.recomb;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
+import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.State;
 
 
@@ -13,6 +12,10 @@ import edu.stanford.nlp.mt.decoder.util.State;
  * Implements hypothesis recombination according to the specified recombination
  * filter.
  * 
+ * Hypotheses are stored in an open-addressing table keyed by the 64-bit recombination
+ * signature of the filter. Derivations cache their signature, and the filter's
+ * <code>combinable()</code> check only runs when two signatures are equal.
+ * 
  * @author danielcer
  * @author Spence Green
  * 
@@ -20,9 +23,16 @@ import edu.stanford.nlp.mt.decoder.util.State;
  */
 public class RecombinationHash<S extends State<S>> {
 
-  private static final int INITIAL_CAPACITY = 1500;
-  
-  private final Map<FilterWrappedHypothesis, FilterWrappedHypothesis> recombinationHash;
+  private static final int INITIAL_CAPACITY = 2048;
+  private static final float LOAD_FACTOR = 0.5f;
+
+  // Parallel arrays. A null hypothesis marks an empty slot.
+  private long[] signatures;
+  private S[] hypotheses;
+  private int mask;
+  private int size;
+  private int maxSize;
+
   // private
   final RecombinationFilter<S> filter;
 
@@ -30,8 +40,16 @@ public class RecombinationHash<S extends State<S>> {
 	 * 
 	 */
   public RecombinationHash(RecombinationFilter<S> filter) {
-    this.recombinationHash = new HashMap<>(INITIAL_CAPACITY);
     this.filter = filter;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void allocate(int capacity) {
+    signatures = new long[capacity];
+    hypotheses = (S[]) new State<?>[capacity];
+    mask = capacity - 1;
+    maxSize = (int) (capacity * LOAD_FACTOR);
   }
 
   /**
@@ -47,17 +65,80 @@ public class RecombinationHash<S extends State<S>> {
   };
 
   public int size() {
-    return recombinationHash.size();
+    return size;
+  }
+
+  /**
+   * The recombination signature of a hypothesis.
+   */
+  private long signature(S hypothesis) {
+    return hypothesis instanceof Derivation ? ((Derivation<?,?>) hypothesis).recombinationSignature(filter)
+        : filter.recombinationHashCode(hypothesis);
+  }
+
+  private int slot(long signature) {
+    // Finalizer of MurmurHash3
+    signature ^= signature >>> 33;
+    signature *= 0xff51afd7ed558ccdL;
+    signature ^= signature >>> 33;
+    signature *= 0xc4ceb9fe1a85ec53L;
+    signature ^= signature >>> 33;
+    return (int) signature & mask;
+  }
+
+  /**
+   * The slot of the hypothesis that can be combined with <code>hypothesis</code>, or
+   * the empty slot where <code>hypothesis</code> should be inserted.
+   */
+  private int find(S hypothesis, long signature) {
+    int i = slot(signature);
+    for (S h; (h = hypotheses[i]) != null; i = (i + 1) & mask) {
+      if (h == hypothesis || (signatures[i] == signature && filter.combinable(hypothesis, h))) {
+        return i;
+      }
+    }
+    return i;
+  }
+
+  private void insert(int i, S hypothesis, long signature) {
+    signatures[i] = signature;
+    hypotheses[i] = hypothesis;
+    if (++size > maxSize) rehash();
+  }
+
+  private void rehash() {
+    final long[] oldSignatures = signatures;
+    final S[] oldHypotheses = hypotheses;
+    allocate(oldHypotheses.length * 2);
+    for (int j = 0; j < oldHypotheses.length; ++j) {
+      if (oldHypotheses[j] != null) {
+        int i = slot(oldSignatures[j]);
+        while (hypotheses[i] != null) i = (i + 1) & mask;
+        signatures[i] = oldSignatures[j];
+        hypotheses[i] = oldHypotheses[j];
+      }
+    }
+  }
+
+  /**
+   * Delete a slot, shifting back the entries of the probe sequence that follows it.
+   */
+  private void delete(int i) {
+    --size;
+    for (int j = (i + 1) & mask; hypotheses[j] != null; j = (j + 1) & mask) {
+      final int k = slot(signatures[j]);
+      // Move entry j to the hole if its home slot k is not cyclically in (i, j]
+      if (i <= j ? (i >= k || k > j) : (i >= k && k > j)) {
+        signatures[i] = signatures[j];
+        hypotheses[i] = hypotheses[j];
+        i = j;
+      }
+    }
+    hypotheses[i] = null;
   }
 
   public boolean isBest(S hypothesis) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(
-        hypothesis, filter);
-    FilterWrappedHypothesis filterEquivWrappedHyp = recombinationHash
-        .get(wrappedHyp);
-    if (filterEquivWrappedHyp == null)
-      return false;
-    return filterEquivWrappedHyp.hypothesis == hypothesis;
+    return hypotheses[find(hypothesis, signature(hypothesis))] == hypothesis;
   }
 
   /**
@@ -65,31 +146,30 @@ public class RecombinationHash<S extends State<S>> {
 	 * the re-combined hypothesis, if any.
 	 */
   public Status update(S hypothesis) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(
-        hypothesis, filter);
-    FilterWrappedHypothesis filterEquivWrappedHyp = recombinationHash
-        .get(wrappedHyp);
+    final long signature = signature(hypothesis);
+    final int i = find(hypothesis, signature);
+    final S filterEquivHypothesis = hypotheses[i];
 
-    if (filterEquivWrappedHyp == null) {
+    if (filterEquivHypothesis == null) {
       lastBestOnQuery = hypothesis;
       lastRedundantOnQuery = null;
-      recombinationHash.put(wrappedHyp, wrappedHyp);
+      insert(i, hypothesis, signature);
       return Status.NOVEL;
     
-    } else if (hypothesis == filterEquivWrappedHyp.hypothesis) {
+    } else if (hypothesis == filterEquivHypothesis) {
       lastBestOnQuery = hypothesis;
       lastRedundantOnQuery = null;
       return Status.SELF;
     
-    } else if (hypothesis.score() > filterEquivWrappedHyp.hypothesis.score()) {
-      lastRedundantOnQuery = filterEquivWrappedHyp.hypothesis;
+    } else if (hypothesis.score() > filterEquivHypothesis.score()) {
+      lastRedundantOnQuery = filterEquivHypothesis;
       lastBestOnQuery = hypothesis;
-      filterEquivWrappedHyp.hypothesis = hypothesis;
+      hypotheses[i] = hypothesis;
       return Status.BETTER;
     
     } else {
       lastRedundantOnQuery = hypothesis;
-      lastBestOnQuery = filterEquivWrappedHyp.hypothesis;
+      lastBestOnQuery = filterEquivHypothesis;
       return Status.COMBINABLE;
     }
   }
@@ -109,8 +189,13 @@ public class RecombinationHash<S extends State<S>> {
 	 * 
 	 */
   public void put(S hypothesis) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(hypothesis, filter);
-    recombinationHash.put(wrappedHyp, wrappedHyp);
+    final long signature = signature(hypothesis);
+    final int i = find(hypothesis, signature);
+    if (hypotheses[i] == null) {
+      insert(i, hypothesis, signature);
+    } else {
+      hypotheses[i] = hypothesis;
+    }
   }
 
   public void remove(S hypothesis) {
@@ -118,61 +203,14 @@ public class RecombinationHash<S extends State<S>> {
   }
 
   public void remove(S hypothesis, boolean missingOkay) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(
-        hypothesis, filter);
-    FilterWrappedHypothesis filterEquivWrappedHyp = recombinationHash
-        .get(wrappedHyp);
-    if (filterEquivWrappedHyp == null) {
+    final int i = find(hypothesis, signature(hypothesis));
+    if (hypotheses[i] == null) {
       if (missingOkay)
         return;
       throw new RuntimeException("hypothesis not found in recombination hash");
     }
-    if (hypothesis == filterEquivWrappedHyp.hypothesis)
-      recombinationHash.remove(wrappedHyp);
-  }
-
-  public class FilterWrappedHypothesis {
-    public S hypothesis;
-    public final RecombinationFilter<S> filter;
-    private final long hashCode;
-
-    public FilterWrappedHypothesis(S hyp, RecombinationFilter<S> filter) {
-      this.hypothesis = hyp;
-      this.filter = filter;
-      hashCode = filter.recombinationHashCode(hypothesis);
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      
-      } else if (!(o instanceof RecombinationHash.FilterWrappedHypothesis)) {
-        return false;
-
-      } else {
-        FilterWrappedHypothesis wrappedHyp = (FilterWrappedHypothesis) o;
-        if (wrappedHyp.hypothesis == this.hypothesis) {
-          return true;
-        } else if (hashCode != wrappedHyp.hashCode) {
-          return false;
-        } else {
-          boolean isCombinable = filter.combinable(this.hypothesis, wrappedHyp.hypothesis);
-          return isCombinable;
-        }
-      }
-    }
-
-    @Override
-    public String toString() {
-      return hypothesis.toString();
-    }
-    
-    @Override
-    public int hashCode() {
-      return ((int) (hashCode >> 32)) ^ ((int) (hashCode & 0xffffffff));
-    }
+    if (hypothesis == hypotheses[i])
+      delete(i);
   }
 
   /**
@@ -181,8 +219,10 @@ public class RecombinationHash<S extends State<S>> {
    * @return
    */
   public List<S> derivations() {
-    final List<S> derivations = new ArrayList<>(recombinationHash.size());
-    for (FilterWrappedHypothesis hyp : recombinationHash.keySet()) derivations.add(hyp.hypothesis);
+    final List<S> derivations = new ArrayList<>(size);
+    for (S hypothesis : hypotheses) {
+      if (hypothesis != null) derivations.add(hypothesis);
+    }
     return derivations;
   }
   
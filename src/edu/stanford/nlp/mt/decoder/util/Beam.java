@@ -12,6 +12,15 @@ public interface Beam<S extends State<S>> extends Iterable<S> {
 	 */
   S put(S state);
 
+  /**
+   * True if a hypothesis with this score estimate could enter the beam. Decoders
+   * check the estimate before a hypothesis is featurized. Beams that do not prune
+   * by score admit everything.
+   */
+  default boolean admits(double score) {
+    return true;
+  }
+
   /**
 	 * 
 	 */
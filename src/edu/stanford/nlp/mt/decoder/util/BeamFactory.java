@@ -13,7 +13,7 @@ import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
 public final class BeamFactory {
 
   static public enum BeamType {
-    treebeam, sloppybeam
+    treebeam, sloppybeam, heapbeam
   }
 
   /**
@@ -33,12 +33,34 @@ public final class BeamFactory {
   public static <TK, FV> Beam<Derivation<TK, FV>> factory(BeamType beamType,
       RecombinationFilter<Derivation<TK, FV>> filter, int capacity,
       RecombinationHistory<Derivation<TK, FV>> recombinationHistory) {
+    return factory(beamType, filter, capacity, recombinationHistory, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Get a new Beam instance with threshold pruning. Only the heap beam supports a
+   * finite threshold.
+   * 
+   * @param beamType
+   * @param filter
+   * @param capacity
+   * @param recombinationHistory
+   * @param threshold Discard hypotheses that score more than threshold below the best hypothesis.
+   * @return
+   */
+  public static <TK, FV> Beam<Derivation<TK, FV>> factory(BeamType beamType,
+      RecombinationFilter<Derivation<TK, FV>> filter, int capacity,
+      RecombinationHistory<Derivation<TK, FV>> recombinationHistory, double threshold) {
+    if (threshold != Double.POSITIVE_INFINITY && beamType != BeamType.heapbeam) {
+      throw new IllegalArgumentException("Beam threshold is not supported by beam type: " + beamType.toString());
+    }
 
     switch (beamType) {
     case treebeam:
       return new TreeBeam<>(capacity, filter, recombinationHistory);
     case sloppybeam:
       return new SloppyBeam<>(capacity, filter, recombinationHistory);
+    case heapbeam:
+      return new HeapBeam<>(capacity, threshold, filter, recombinationHistory);
     default:
       throw new IllegalArgumentException("Unsupported beam type: " + beamType.toString());
     } 
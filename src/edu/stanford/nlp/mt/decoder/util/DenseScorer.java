@@ -25,6 +25,9 @@ public class DenseScorer implements Scorer<String> {
   private double[] weights;
   private final boolean sharedFeatureIndex;
 
+  // Weights indexed by FeatureIndex ids
+  private final FeatureIdWeights featureIdWeights = new FeatureIdWeights();
+
   public DenseScorer(String filename) {
     sharedFeatureIndex = false;
     featureIndex = new HashIndex<String>();
@@ -49,6 +52,11 @@ public class DenseScorer implements Scorer<String> {
         getIncrementalScoreHash(features);
   }
 
+  @Override
+  public double getIncrementalScore(int[] featureIds, double[] featureValues, int size) {
+    return featureIdWeights.score(featureIds, featureValues, size);
+  }
+
   private double getIncrementalScoreInnerProduct(
       DenseFeatureValueCollection<String> fva) {
     return ArrayMath.innerProduct(fva.toDoubleArray(), weights);
@@ -88,6 +96,7 @@ public class DenseScorer implements Scorer<String> {
       if (key == null) continue;
       weights[featureIndex.indexOf(key)] = featureWts.getCount(key);
     }
+    featureIdWeights.reset(featureWts);
   }
 
   @Override
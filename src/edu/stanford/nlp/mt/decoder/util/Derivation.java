@@ -1,20 +1,24 @@
 package edu.stanford.nlp.mt.decoder.util;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureBuffer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.h.SearchHeuristic;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
 import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.tm.Rule;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.DTUFeaturizable;
+import edu.stanford.nlp.mt.util.FeatureIndex;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.PersistentSequence;
 import edu.stanford.nlp.mt.util.PhraseAlignment;
 import edu.stanford.nlp.mt.util.Sequence;
-import edu.stanford.nlp.mt.util.Sequences;
 
 /**
  * A derivation that maps a source input to a target output.
@@ -32,6 +36,9 @@ State<Derivation<TK, FV>> {
 
   // primitives
   public final long id;
+  // Position in the order of the search, which breaks score ties. Equal to the id
+  // unless the decoder builds derivations out of order. See renumber().
+  public long seq;
   public final double h;
   public final int insertionPosition;
   public final int untranslatedSourceTokens;
@@ -65,12 +72,18 @@ State<Derivation<TK, FV>> {
   public final CoverageSet sourceCoverage;
   public Featurizable<TK, FV> featurizable;
 
-  // Features extracted to score this derivation
-  public List<FeatureValue<FV>> features;
+  // Features extracted to score this derivation as parallel arrays of
+  // FeatureIndex ids and values. See getFeatures().
+  public int[] featureIds;
+  public double[] featureValues;
 
   // Only used for diverse n-best extraction
   public Derivation<TK,FV> bestChild;
   public double completionScore;
+
+  // Recombination signature, cached for the filter that computed it
+  private long recombinationSignature;
+  private volatile RecombinationFilter<?> signatureFilter;
   
   /**
    * 
@@ -111,6 +124,7 @@ State<Derivation<TK, FV>> {
       List<List<ConcreteRule<TK,FV>>> ruleList,
       OutputSpace<TK, FV> outputSpace) {
     this.id = nextId.incrementAndGet();
+    this.seq = id;
     score = 0;
     h = heuristic.getInitialHeuristic(sourceSequence, sourceInputProperties, ruleList, scorer, sourceInputId);
     insertionPosition = 0;
@@ -124,10 +138,11 @@ State<Derivation<TK, FV>> {
     featurizable = null;
     untranslatedSourceTokens = sourceSequence.size();
     sourceCoverage = new CoverageSet(sourceSequence.size());
-    features = null;
+    featureIds = null;
+    featureValues = null;
     depth = 0;
     linearDistortion = 0;
-    targetSequence = Sequences.emptySequence();    
+    targetSequence = PersistentSequence.empty();
   }
 
   /**
@@ -148,12 +163,12 @@ State<Derivation<TK, FV>> {
       Scorer<FV> scorer, SearchHeuristic<TK, FV> heuristic,
       OutputSpace<TK, FV> outputSpace) {
     this.id = nextId.incrementAndGet();
+    this.seq = id;
     this.insertionPosition = insertionPosition;
     this.rule = rule;
     this.parent = base;
     this.sourceInputProperties = base.sourceInputProperties;
-    this.sourceCoverage = base.sourceCoverage.clone();
-    this.sourceCoverage.or(rule.sourceCoverage);
+    this.sourceCoverage = base.sourceCoverage.union(rule.sourceCoverage);
     assert insertionPosition >= base.length : String.format("Invalid insertion position %d %d", insertionPosition, base.length);
     this.length = insertionPosition + rule.abstractRule.target.size();
     this.prefixCompleted = outputSpace == null ? true : (this.length >= outputSpace.getPrefixLength());
@@ -167,13 +182,7 @@ State<Derivation<TK, FV>> {
     
     featurizable = new Featurizable<>(this, sourceInputId, featurizer.getNumDerivationFeaturizers());
     
-    features = featurizer.featurize(featurizable);
-    features.addAll(rule.cachedFeatureList);
-    
-    List<FeatureValue<FV>> nonLocalRuleAugments = featurizer.nonLocalAugmentRuleFeatures(rule.cachedFeatureList, this);
-    if(nonLocalRuleAugments != null) features.addAll(nonLocalRuleAugments);
-    
-    score = base.score + scorer.getIncrementalScore(features);
+    score = base.score + featurize(featurizer, scorer);
     h = (Double.isInfinite(base.h)) ? base.h : base.h
         + heuristic.getHeuristicDelta(this, rule.sourceCoverage);
     // System.err.printf("h: %f %f %d %s\n", baseHyp.h,
@@ -207,12 +216,12 @@ State<Derivation<TK, FV>> {
       Sequence<TK> targetPhrase, boolean hasPendingPhrases, int segmentIdx,
       OutputSpace<TK, FV> outputSpace) {
     this.id = nextId.incrementAndGet();
+    this.seq = id;
     this.insertionPosition = insertionPosition;
     this.rule = rule;
     this.parent = base;
     this.sourceInputProperties = base.sourceInputProperties;
-    this.sourceCoverage = base.sourceCoverage.clone();
-    this.sourceCoverage.or(rule.sourceCoverage);
+    this.sourceCoverage = base.sourceCoverage.union(rule.sourceCoverage);
     this.length = (insertionPosition < base.length) ? base.length
         : insertionPosition + targetPhrase.size();
     sourceSequence = base.sourceSequence;
@@ -226,13 +235,7 @@ State<Derivation<TK, FV>> {
         sourceInputId, featurizer.getNumDerivationFeaturizers(), targetPhrase,
         hasPendingPhrases, segmentIdx);
 
-    features = featurizer.featurize(featurizable);
-    features.addAll(rule.cachedFeatureList);
-    
-    List<FeatureValue<FV>> nonLocalRuleAugments = featurizer.nonLocalAugmentRuleFeatures(rule.cachedFeatureList, this);
-    if(nonLocalRuleAugments != null) features.addAll(nonLocalRuleAugments);
-    
-    score = base.score + scorer.getIncrementalScore(features);
+    score = base.score + featurize(featurizer, scorer);
     depth = base.depth + 1;
     h = (Double.isInfinite(base.h)) ? base.h : base.h
         + heuristic.getHeuristicDelta(this, rule.sourceCoverage);
@@ -264,15 +267,47 @@ State<Derivation<TK, FV>> {
     this.length = length + targetSpan.size();
     this.prefixCompleted = (this.length >= this.prefixLength);
     targetSequence = targetSequence.concat(targetSpan);
+    signatureFilter = null;
     featurizable = new Featurizable<>(this, sourceInputId, featurizer.getNumDerivationFeaturizers());
-    features = featurizer.featurize(featurizable);
-    features.addAll(rule.cachedFeatureList);
+    double baseScore = parent == null ? 0.0 : parent.score;
+    score = baseScore + featurize(featurizer, scorer);
+  }
+
+  /**
+   * Extract the features of the last rule application into the feature buffer of
+   * the current thread, and retain them in primitive form.
+   * 
+   * @param featurizer
+   * @param scorer
+   * @return The incremental score of this derivation.
+   */
+  private double featurize(FeatureExtractor<TK, FV> featurizer, Scorer<FV> scorer) {
+    final FeatureBuffer buffer = FeatureBuffer.threadLocalBuffer();
+    featurizer.featurize(featurizable, buffer);
+    buffer.addAll(rule.cachedFeatureIds, rule.cachedFeatureValues);
     
     List<FeatureValue<FV>> nonLocalRuleAugments = featurizer.nonLocalAugmentRuleFeatures(rule.cachedFeatureList, this);
-    if(nonLocalRuleAugments != null) features.addAll(nonLocalRuleAugments);
+    if(nonLocalRuleAugments != null) buffer.addAll(nonLocalRuleAugments);
     
-    double baseScore = parent == null ? 0.0 : parent.score;
-    score = baseScore + scorer.getIncrementalScore(features);    
+    featureIds = buffer.toFeatureIds();
+    featureValues = buffer.toFeatureValues();
+    return scorer.getIncrementalScore(featureIds, featureValues, featureIds.length);
+  }
+
+  /**
+   * The features extracted to score this derivation. Names are resolved
+   * from <code>FeatureIndex</code>.
+   * 
+   * @return The features, or null for the root derivation.
+   */
+  @SuppressWarnings("unchecked")
+  public List<FeatureValue<FV>> getFeatures() {
+    if (featureIds == null) return null;
+    List<FeatureValue<FV>> features = new ArrayList<>(featureIds.length);
+    for (int i = 0; i < featureIds.length; ++i) {
+      features.add(new FeatureValue<>((FV) FeatureIndex.get(featureIds[i]), featureValues[i]));
+    }
+    return features;
   }
   
   @Override
@@ -284,7 +319,7 @@ State<Derivation<TK, FV>> {
   @Override
   public int compareTo(Derivation<TK, FV> competitor) {
     final int cmp = (int) Math.signum(competitor.finalScoreEstimate() - finalScoreEstimate());
-    return cmp == 0 ? (int) (id - competitor.id) : cmp;
+    return cmp == 0 ? Long.compare(seq, competitor.seq) : cmp;
   }
 
   @Override
@@ -307,6 +342,32 @@ State<Derivation<TK, FV>> {
     return (int) id;
   }
 
+  /**
+   * Move this derivation to the end of the search order. Derivations are ordered by
+   * sequence number when their scores tie, so a decoder that builds derivations out
+   * of order renumbers them in the order of the sequential search. Must be called
+   * before the derivation is inserted into a beam. The id does not change.
+   */
+  public void renumber() {
+    seq = nextId.incrementAndGet();
+  }
+
+  /**
+   * The 64-bit recombination signature of this derivation. The signature is
+   * computed once per filter.
+   * 
+   * @param filter
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  public long recombinationSignature(RecombinationFilter<?> filter) {
+    if (signatureFilter != filter) {
+      recombinationSignature = ((RecombinationFilter<Derivation<TK,FV>>) filter).recombinationHashCode(this);
+      signatureFilter = filter;
+    }
+    return recombinationSignature;
+  }
+
   public String historyString() {
     StringBuilder sb = new StringBuilder();
     String nl = System.getProperty("line.separator");
@@ -70,8 +70,8 @@ public class DiverseNbestDecoder<TK,FV> {
         new Comparator<Derivation<TK,FV>>() {
       @Override
       public int compare(Derivation<TK,FV> o1, Derivation<TK,FV> o2) {
-        // Descending order of ids, so goal nodes are processed first.
-        return (int) (o2.id - o1.id);
+        // Descending search order, so goal nodes are processed first.
+        return Long.compare(o2.seq, o1.seq);
       }
     });
     for (Derivation<TK,FV> d : goalBeam) {
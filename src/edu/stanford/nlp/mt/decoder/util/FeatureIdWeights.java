@@ -0,0 +1,97 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.Arrays;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Weights indexed by {@link FeatureIndex} id. A weight is looked up by name the first
+ * time its id is scored after a weight update, so updates do not copy the weight vector
+ * and only the features that are actually scored are resolved.
+ *
+ * Each thread resolves weights into its own table, so lookups are threadsafe. The search
+ * threads of a decoder score with the scorer of the decoder. Updates must not run
+ * concurrently with lookups.
+ *
+ */
+class FeatureIdWeights {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // Written by reset() before the weights are read. The epoch is written last.
+  private volatile Counter<String> weights;
+  private volatile int epoch = 0;
+
+  private final ThreadLocal<Table> tables = ThreadLocal.withInitial(Table::new);
+
+  /**
+   * Resolve subsequent lookups against a new weight vector.
+   *
+   * @param weights
+   */
+  public void reset(Counter<String> weights) {
+    this.weights = weights;
+    // Epoch 0 marks a table that has not been reset
+    final int next = epoch + 1;
+    epoch = next == 0 ? 1 : next;
+  }
+
+  /**
+   * The inner product of the weights with features in parallel arrays.
+   *
+   * @param featureIds
+   * @param featureValues
+   * @param size
+   * @return
+   */
+  public double score(int[] featureIds, double[] featureValues, int size) {
+    final Table table = table();
+    double score = 0.0;
+    for (int i = 0; i < size; ++i) {
+      score += featureValues[i] * table.get(featureIds[i]);
+    }
+    return score;
+  }
+
+  private Table table() {
+    final Table table = tables.get();
+    final int epoch = this.epoch;
+    if (table.sharedEpoch != epoch) table.reset(weights, epoch);
+    return table;
+  }
+
+  /**
+   * Weights resolved by one thread.
+   */
+  private static class Table {
+    private Counter<String> weights;
+    private int sharedEpoch = 0;
+    private double[] values = new double[INITIAL_CAPACITY];
+    // An entry is valid if its epoch equals the current epoch
+    private int[] epochs = new int[INITIAL_CAPACITY];
+    private int epoch = 0;
+
+    void reset(Counter<String> weights, int sharedEpoch) {
+      this.weights = weights;
+      this.sharedEpoch = sharedEpoch;
+      if (++epoch == 0) {
+        Arrays.fill(epochs, 0);
+        epoch = 1;
+      }
+    }
+
+    double get(int featureId) {
+      if (featureId >= values.length) {
+        final int newLength = Math.max(featureId + 1, 2 * values.length);
+        values = Arrays.copyOf(values, newLength);
+        epochs = Arrays.copyOf(epochs, newLength);
+      }
+      if (epochs[featureId] != epoch) {
+        values[featureId] = weights.getCount(FeatureIndex.get(featureId));
+        epochs[featureId] = epoch;
+      }
+      return values[featureId];
+    }
+  }
+}
@@ -0,0 +1,394 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHash;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
+
+/**
+ * A beam backed by an array-based min-max heap, so that both the best and the worst
+ * hypothesis are available in O(1), and insertions and removals are O(log n) without
+ * allocation. The heap array is allocated once at the capacity of the beam.
+ *
+ * The beam applies histogram pruning (the capacity) and, optionally, threshold pruning
+ * relative to the best hypothesis. Callers can check {@link #admits(double)} with a
+ * score estimate to reject a hypothesis before it is built.
+ *
+ * Hypotheses are ordered by their natural ordering, where smaller is better.
+ *
+ * @param <S>
+ */
+public class HeapBeam<S extends State<S>> implements Beam<S> {
+
+  private final RecombinationHash<S> recombinationHash;
+  private final RecombinationHistory<S> recombinationHistory;
+  private final int capacity;
+  private final double threshold;
+
+  // Min-max heap. Even levels are worst-levels, odd levels are best-levels.
+  private final S[] heap;
+  private int size = 0;
+
+  // Heap index of each hypothesis in an open-addressing identity table, so that
+  // a recombined hypothesis can be removed without scanning the heap.
+  private final S[] slotKeys;
+  private final int[] slotIndices;
+  private final int slotMask;
+
+  private int recombined = 0;
+  private int preinsertionDiscarded = 0;
+  private int pruned = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity
+   * @param filter
+   */
+  public HeapBeam(int capacity, RecombinationFilter<S> filter) {
+    this(capacity, filter, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity
+   * @param filter
+   * @param recombinationHistory
+   */
+  public HeapBeam(int capacity, RecombinationFilter<S> filter,
+      RecombinationHistory<S> recombinationHistory) {
+    this(capacity, Double.POSITIVE_INFINITY, filter, recombinationHistory);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity
+   * @param threshold Discard hypotheses that score more than threshold below the best hypothesis.
+   * @param filter
+   * @param recombinationHistory
+   */
+  @SuppressWarnings("unchecked")
+  public HeapBeam(int capacity, double threshold, RecombinationFilter<S> filter,
+      RecombinationHistory<S> recombinationHistory) {
+    if (capacity <= 0) throw new IllegalArgumentException("Invalid beam capacity: " + capacity);
+    if ( ! (threshold > 0.0)) throw new IllegalArgumentException("Invalid beam threshold: " + threshold);
+    this.capacity = capacity;
+    this.threshold = threshold;
+    this.heap = (S[]) new State<?>[capacity];
+    final int numSlots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+    this.slotKeys = (S[]) new State<?>[numSlots];
+    this.slotIndices = new int[numSlots];
+    this.slotMask = numSlots - 1;
+    this.recombinationHash = new RecombinationHash<>(filter);
+    this.recombinationHistory = recombinationHistory;
+  }
+
+  /**
+   * True if a hypothesis with this score could enter the beam.
+   *
+   * @param score
+   * @return
+   */
+  @Override
+  public boolean admits(double score) {
+    if (size == 0) return true;
+    if (size == capacity && score < heap[0].score()) return false;
+    return score >= heap[bestIndex()].score() - threshold;
+  }
+
+  @Override
+  synchronized public S put(S hypothesis) {
+    if ( ! admits(hypothesis.score())) {
+      preinsertionDiscarded++;
+      return hypothesis;
+    }
+
+    RecombinationHash.Status status = recombinationHash.update(hypothesis);
+    if (recombinationHistory != null) {
+      recombinationHistory.log(recombinationHash.getLastBestOnQuery(),
+          recombinationHash.getLastRedundant());
+    }
+
+    if (status == RecombinationHash.Status.COMBINABLE) {
+      recombined++;
+      return hypothesis;
+
+    } else if (status == RecombinationHash.Status.BETTER) {
+      recombined++;
+      S redundant = recombinationHash.getLastRedundant();
+      final int i = indexOf(redundant);
+      if (i >= 0) removeAt(i);
+      insert(hypothesis);
+      pruneToThreshold();
+      return redundant;
+    }
+
+    assert status == RecombinationHash.Status.NOVEL;
+    if (size < capacity) {
+      insert(hypothesis);
+      pruneToThreshold();
+      return null;
+    }
+
+    final S worst = heap[0];
+    if (hypothesis.compareTo(worst) < 0) {
+      removeAt(0);
+      discard(worst);
+      pruned++;
+      insert(hypothesis);
+      pruneToThreshold();
+      return worst;
+
+    } else {
+      recombinationHash.remove(hypothesis);
+      preinsertionDiscarded++;
+      return hypothesis;
+    }
+  }
+
+  /**
+   * Remove the hypotheses that fell below the threshold of the best hypothesis.
+   */
+  private void pruneToThreshold() {
+    if (threshold == Double.POSITIVE_INFINITY) return;
+    final double minScore = heap[bestIndex()].score() - threshold;
+    while (size > 1 && heap[0].score() < minScore) {
+      discard(heap[0]);
+      removeAt(0);
+      pruned++;
+    }
+  }
+
+  private void discard(S hypothesis) {
+    recombinationHash.remove(hypothesis);
+    if (recombinationHistory != null) {
+      recombinationHistory.remove(hypothesis);
+    }
+  }
+
+  @Override
+  public S remove() {
+    if (size == 0) return null;
+    final int i = bestIndex();
+    final S best = heap[i];
+    removeAt(i);
+    recombinationHash.remove(best, true);
+    return best;
+  }
+
+  @Override
+  public S removeWorst() {
+    if (size == 0) return null;
+    final S worst = heap[0];
+    removeAt(0);
+    recombinationHash.remove(worst, true);
+    return worst;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int capacity() {
+    return capacity;
+  }
+
+  @Override
+  public double bestScore() {
+    return size == 0 ? Double.NaN : heap[bestIndex()].score();
+  }
+
+  /**
+   * Iterates over the hypotheses from best to worst.
+   */
+  @Override
+  public Iterator<S> iterator() {
+    List<S> hypotheses = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) hypotheses.add(heap[i]);
+    Collections.sort(hypotheses);
+    return hypotheses.iterator();
+  }
+
+  @Override
+  public int recombined() {
+    return recombined;
+  }
+
+  @Override
+  public int preinsertionDiscarded() {
+    return preinsertionDiscarded;
+  }
+
+  @Override
+  public int pruned() {
+    return pruned;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("HeapBeam\n");
+    sb.append("Capacity: ").append(capacity());
+    sb.append(" Size: ").append(size()).append("\n");
+    for (S hypothesis : this) {
+      sb.append(hypothesis).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /*
+   * Min-max heap operations.
+   */
+
+  private static boolean isWorstLevel(int i) {
+    // Level of i is floor(log2(i + 1))
+    return ((31 - Integer.numberOfLeadingZeros(i + 1)) & 1) == 0;
+  }
+
+  private boolean worse(int i, int j) {
+    return heap[i].compareTo(heap[j]) > 0;
+  }
+
+  private void swap(int i, int j) {
+    final S tmp = heap[i];
+    place(i, heap[j]);
+    place(j, tmp);
+  }
+
+  /**
+   * Store a hypothesis at a heap index.
+   */
+  private void place(int i, S hypothesis) {
+    heap[i] = hypothesis;
+    final int slot = slot(hypothesis);
+    slotKeys[slot] = hypothesis;
+    slotIndices[slot] = i;
+  }
+
+  private int bestIndex() {
+    if (size < 3) return size - 1;
+    return worse(1, 2) ? 2 : 1;
+  }
+
+  private void insert(S hypothesis) {
+    place(size, hypothesis);
+    bubbleUp(size++);
+  }
+
+  private void removeAt(int i) {
+    unindex(heap[i]);
+    final int last = --size;
+    final S moved = heap[last];
+    heap[last] = null;
+    if (i == last) return;
+    place(i, moved);
+    trickleDown(i);
+    if (heap[i] == moved) bubbleUp(i);
+  }
+
+  private void bubbleUp(int i) {
+    if (i == 0) return;
+    final int parent = (i - 1) / 2;
+    if (isWorstLevel(i)) {
+      if (worse(parent, i)) {
+        swap(i, parent);
+        bubbleUp(parent, false);
+      } else {
+        bubbleUp(i, true);
+      }
+    } else {
+      if (worse(i, parent)) {
+        swap(i, parent);
+        bubbleUp(parent, true);
+      } else {
+        bubbleUp(i, false);
+      }
+    }
+  }
+
+  /**
+   * Bubble up through the grandparents on the worst (or best) levels.
+   */
+  private void bubbleUp(int i, boolean worstLevel) {
+    for (int g; i > 2; i = g) {
+      g = ((i - 1) / 2 - 1) / 2;
+      if (worstLevel ? worse(i, g) : worse(g, i)) {
+        swap(i, g);
+      } else {
+        break;
+      }
+    }
+  }
+
+  private void trickleDown(int i) {
+    final boolean worstLevel = isWorstLevel(i);
+    while (2 * i + 1 < size) {
+      // Extreme element among the children and grandchildren
+      final int firstChild = 2 * i + 1;
+      int m = firstChild;
+      if (firstChild + 1 < size && (worstLevel ? worse(firstChild + 1, m) : worse(m, firstChild + 1))) {
+        m = firstChild + 1;
+      }
+      for (int j = 4 * i + 3, end = Math.min(4 * i + 6, size - 1); j <= end; ++j) {
+        if (worstLevel ? worse(j, m) : worse(m, j)) m = j;
+      }
+      if ( ! (worstLevel ? worse(m, i) : worse(i, m))) break;
+      swap(m, i);
+      if (m <= firstChild + 1) break;
+      // m is a grandchild
+      final int parent = (m - 1) / 2;
+      if (worstLevel ? worse(parent, m) : worse(m, parent)) swap(m, parent);
+      i = m;
+    }
+  }
+
+  /*
+   * Identity table operations. The table is at least twice the capacity, so probes are short.
+   */
+
+  private int home(S hypothesis) {
+    final int h = System.identityHashCode(hypothesis) * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & slotMask;
+  }
+
+  private int slot(S hypothesis) {
+    int i = home(hypothesis);
+    while (slotKeys[i] != null && slotKeys[i] != hypothesis) i = (i + 1) & slotMask;
+    return i;
+  }
+
+  /**
+   * The heap index of a hypothesis, or -1 if it is not in the heap.
+   */
+  private int indexOf(S hypothesis) {
+    final int slot = slot(hypothesis);
+    return slotKeys[slot] == null ? -1 : slotIndices[slot];
+  }
+
+  /**
+   * Remove a hypothesis from the table, shifting back the entries in its probe sequence.
+   */
+  private void unindex(S hypothesis) {
+    int i = slot(hypothesis);
+    if (slotKeys[i] == null) return;
+    for (int j = (i + 1) & slotMask; slotKeys[j] != null; j = (j + 1) & slotMask) {
+      final int k = home(slotKeys[j]);
+      // Entry j can fill the hole at i unless its home lies cyclically in (i, j]
+      final boolean reachable = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+      if ( ! reachable) {
+        slotKeys[i] = slotKeys[j];
+        slotIndices[i] = slotIndices[j];
+        i = j;
+      }
+    }
+    slotKeys[i] = null;
+  }
+}
@@ -1,8 +1,11 @@
 package edu.stanford.nlp.mt.decoder.util;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import edu.stanford.nlp.mt.util.FeatureIndex;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.stats.Counter;
 
@@ -16,6 +19,24 @@ public interface Scorer<FV> {
    * @return a score under the current weights for the specified set of features.
    */
   public double getIncrementalScore(Collection<FeatureValue<FV>> features);
+
+  /**
+   * Score features in parallel arrays. Feature ids come from <code>FeatureIndex</code>.
+   * The default implementation resolves the feature names.
+   * 
+   * @param featureIds
+   * @param featureValues
+   * @param size Number of features in the arrays
+   * @return a score under the current weights for the specified set of features.
+   */
+  @SuppressWarnings("unchecked")
+  public default double getIncrementalScore(int[] featureIds, double[] featureValues, int size) {
+    List<FeatureValue<FV>> features = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) {
+      features.add(new FeatureValue<>((FV) FeatureIndex.get(featureIds[i]), featureValues[i]));
+    }
+    return getIncrementalScore(features);
+  }
   
   /**
    * Update the scorer weights.
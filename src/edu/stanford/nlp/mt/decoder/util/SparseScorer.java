@@ -11,8 +11,12 @@ import edu.stanford.nlp.util.Index;
 /**
  * A sparse scorer for high dimensional models.
  * 
- * NOTE: This class is not threadsafe, which is okay for the current implementation
- * in which each Inferer has its own scorer.
+ * NOTE: updateWeights() is not threadsafe, which is okay for the current implementation
+ * in which each Inferer has its own scorer. The search threads of an Inferer may score
+ * concurrently.
+ * 
+ * Features in id form are scored against weights that are resolved by id on first
+ * use after updateWeights(), separately on each thread.
  * 
  * @author Spence Green
  *
@@ -20,6 +24,9 @@ import edu.stanford.nlp.util.Index;
 public class SparseScorer implements Scorer<String> {
 
   private Counter<String> weights;
+
+  // Weights indexed by FeatureIndex ids
+  private final FeatureIdWeights featureIdWeights = new FeatureIdWeights();
   
   public SparseScorer(Counter<String> featureWts) {
     this(featureWts, null);
@@ -44,10 +51,17 @@ public class SparseScorer implements Scorer<String> {
     return score;
   }
 
+  @Override
+  public double getIncrementalScore(int[] featureIds, double[] featureValues, int size) {
+    return featureIdWeights.score(featureIds, featureValues, size);
+  }
+
   @Override
   public void updateWeights(Counter<String> weights) {
-    // Do not copy the weights vector.
+    // Do not copy the weights vector. Changes to it are visible to the
+    // named feature path, but not to feature ids that were already scored.
     this.weights = weights;
+    featureIdWeights.reset(weights);
   }
 
   @Override
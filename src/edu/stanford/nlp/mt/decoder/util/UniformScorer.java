@@ -28,6 +28,15 @@ public class UniformScorer<T> implements Scorer<T> {
     return score;
   }
 
+  @Override
+  public double getIncrementalScore(int[] featureIds, double[] featureValues, int size) {
+    double score = 0.0;
+    for (int i = 0; i < size; ++i) {
+      score += featureValues[i];
+    }
+    return score;
+  }
+
   @Override
   public void saveWeights(String filename) throws IOException {
     throw new UnsupportedOperationException();
@@ -2,12 +2,10 @@ package edu.stanford.nlp.mt.lm;
 
 import java.io.IOException;
 import java.io.LineNumberReader;
-import java.util.StringTokenizer;
+import java.util.List;
 
-import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IntegerArrayRawIndex;
-import edu.stanford.nlp.mt.util.ProbingIntegerArrayRawIndex;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
 import edu.stanford.nlp.mt.util.TokenUtils;
@@ -60,6 +58,7 @@ public class ARPALanguageModel implements LanguageModel<IString> {
 
   protected static final int MAX_GRAM = 10; // highest order ngram possible
   protected static final float LOAD_MULTIPLIER = (float) 1.7;
+  protected static final int NUM_LOADER_THREADS = Runtime.getRuntime().availableProcessors();
 
   public ARPALanguageModel(String filename) throws IOException {
     name = String.format("APRA(%s)", filename);
@@ -71,76 +70,11 @@ public class ARPALanguageModel implements LanguageModel<IString> {
     long preLMLoadMemUsed = rt.totalMemory() - rt.freeMemory();
     long startTimeMillis = System.currentTimeMillis();
 
-    LineNumberReader reader = IOTools.getReaderFromFile(filename);
-    
-    // skip everything until the line that begins with '\data\'
-    while (!readLineNonNull(reader).startsWith("\\data\\")) {
-    }
-
-    // read in ngram counts
-    int[] ngramCounts = new int[MAX_GRAM];
-    String inline;
-    int maxOrder = 0;
-    while ((inline = readLineNonNull(reader)).startsWith("ngram")) {
-      inline = inline.replaceFirst("ngram\\s+", "");
-      String[] fields = inline.split("=");
-      int ngramOrder = Integer.parseInt(fields[0]);
-      if (ngramOrder > MAX_GRAM) {
-        throw new RuntimeException(String.format("Max n-gram order: %d\n",
-            MAX_GRAM));
-      }
-      ngramCounts[ngramOrder - 1] = Integer.parseInt(fields[1].replaceAll(
-          "[^0-9]", ""));
-      if (maxOrder < ngramOrder)
-        maxOrder = ngramOrder;
-    }
-
-    tables = new ProbingIntegerArrayRawIndex[maxOrder];
-    probs = new float[maxOrder][];
-    bows = new float[maxOrder - 1][];
-    for (int i = 0; i < maxOrder; i++) {
-      int tableSz = Integer
-          .highestOneBit((int) (ngramCounts[i] * LOAD_MULTIPLIER)) << 1;
-      tables[i] = new ProbingIntegerArrayRawIndex();
-      probs[i] = new float[tableSz];
-      if (i + 1 < maxOrder)
-        bows[i] = new float[tableSz];
-    }
-
-    float log10LogConstant = (float) Math.log(10);
-
-    // read in the n-gram tables one by one
-    for (int order = 0; order < maxOrder; order++) {
-      System.err.printf("Reading %d %d-grams...\n", probs[order].length,
-          order + 1);
-      String nextOrderHeader = String.format("\\%d-grams:", order + 1);
-      IString[] ngram = new IString[order + 1];
-      int[] ngramInts = new int[order + 1];
-
-      // skip all material upto the next n-gram table header
-      while (!readLineNonNull(reader).startsWith(nextOrderHeader)) {
-      }
-
-      // read in table
-      while (!(inline = readLineNonNull(reader)).equals("") && !(inline.equals("\\end\\"))) {
-        // during profiling, 'split' turned out to be a bottle neck
-        // and using StringTokenizer is about twice as fast
-        StringTokenizer tok = new StringTokenizer(inline);
-        float prob = strToFloat(tok.nextToken()) * log10LogConstant;
-
-        for (int i = 0; i <= order; i++) {
-          ngram[i] = new IString(tok.nextToken());
-          ngramInts[i] = ngram[i].getId();
-        }
-
-        float bow = (tok.hasMoreElements() ? Float.parseFloat(tok.nextToken())
-            * log10LogConstant : Float.NaN);
-        int index = tables[order].insertIntoIndex(ngramInts);
-        probs[order][index] = prob;
-        if (order < bows.length)
-          bows[order][index] = bow;
-      }
-    }
+    ARPALoader loader = new ARPALoader(filename, NUM_LOADER_THREADS);
+    loader.load();
+    tables = loader.tables;
+    probs = loader.probs;
+    bows = loader.bows;
 
     // print some status information
     long postLMLoadMemUsed = rt.totalMemory() - rt.freeMemory();
@@ -148,14 +82,8 @@ public class ARPALanguageModel implements LanguageModel<IString> {
     System.err
         .printf(
             "Done loading arpa lm: %s (order: %d) (mem used: %d MiB time: %.3f s)\n",
-            filename, maxOrder, (postLMLoadMemUsed - preLMLoadMemUsed)
+            filename, loader.order(), (postLMLoadMemUsed - preLMLoadMemUsed)
                 / (1024 * 1024), loadTimeMillis / 1000.0);
-    reader.close();
-  }
-
-  private static float strToFloat(String token) {
-    // Escape for KenLM
-    return token.equals("-inf") ? Float.NEGATIVE_INFINITY : Float.parseFloat(token);
   }
 
   @Override
@@ -251,6 +179,124 @@ public class ARPALanguageModel implements LanguageModel<IString> {
     return new ARPALMState(lmSumScore, state);
   }
 
+  @Override
+  public LMState[] scoreBatch(List<Sequence<IString>> sequences, int[] startOffsetIndices, 
+      LMState[] priorStates) {
+    final int numSequences = sequences.size();
+    final LMState[] states = new LMState[numSequences];
+
+    // Pack the (state, sequence) pairs into one buffer of word ids. Special cases
+    // are answered directly.
+    final int[] offsets = new int[numSequences + 1];
+    final int[] queryIds = new int[numSequences];
+    int numQueries = 0;
+    int bufferSize = 0;
+    for (int i = 0; i < numSequences; ++i) {
+      final Sequence<IString> sequence = sequences.get(i);
+      if (sequence.size() == 0 || (sequence.size() == 1 && priorStates[i] == null && 
+          sequence.get(0).equals(TokenUtils.START_TOKEN))) {
+        states[i] = score(sequence, startOffsetIndices[i], priorStates[i]);
+      } else {
+        queryIds[numQueries++] = i;
+        bufferSize += sequence.size() + stateOf(priorStates[i]).size();
+      }
+    }
+    if (numQueries == 0) return states;
+    
+    final int[] ngramIds = new int[bufferSize];
+    final int[] startIndices = new int[numQueries];
+    for (int j = 0; j < numQueries; ++j) {
+      final int i = queryIds[j];
+      final Sequence<IString> state = stateOf(priorStates[i]);
+      final Sequence<IString> sequence = sequences.get(i);
+      int pos = offsets[j];
+      for (IString token : state) ngramIds[pos++] = token.id;
+      for (IString token : sequence) ngramIds[pos++] = token.id;
+      offsets[j + 1] = pos;
+      startIndices[j] = state.size() + startOffsetIndices[i];
+    }
+    
+    final double[] scores = new double[numQueries];
+    final int[] stateLengths = new int[numQueries];
+    scoreBatch(ngramIds, offsets, startIndices, scores, stateLengths);
+    for (int j = 0; j < numQueries; ++j) {
+      final int i = queryIds[j];
+      Sequence<IString> sequence = sequences.get(i);
+      if (stateLengths[j] > sequence.size()) sequence = stateOf(priorStates[i]).concat(sequence);
+      states[i] = new ARPALMState(scores[j], 
+          sequence.subsequence(sequence.size() - stateLengths[j], sequence.size()));
+    }
+    return states;
+  }
+
+  private static Sequence<IString> stateOf(LMState priorState) {
+    return priorState instanceof ARPALMState ? ((ARPALMState) priorState).getState() : 
+      Sequences.emptySequence();
+  }
+  
+  /**
+   * Score a batch of sequences of word ids. Sequence i occupies
+   * ngramIds[offsets[i]..offsets[i+1]-1], and scoring begins at position startIndices[i]
+   * relative to offsets[i]. The score and the length of the right state are written to
+   * scores[i] and stateLengths[i]. Scores are exactly equal to those of score().
+   * 
+   * @param ngramIds
+   * @param offsets
+   * @param startIndices
+   * @param scores
+   * @param stateLengths
+   */
+  protected void scoreBatch(int[] ngramIds, int[] offsets, int[] startIndices, double[] scores,
+      int[] stateLengths) {
+    final int order = order();
+    // Lookup keys by n-gram length
+    final int[][] keys = new int[order + 1][];
+    for (int n = 1; n <= order; ++n) keys[n] = new int[n];
+    final double[] backoffs = new double[order];
+    final int unkIndex = tables[0].getIndex(UNK_QUERY);
+    final double unkScore = unkIndex >= 0 ? probs[0][unkIndex] : UNKNOWN_WORD_SCORE;
+    
+    for (int i = 0; i < scores.length; ++i) {
+      final int start = offsets[i];
+      final int limit = offsets[i + 1];
+      double lmSumScore = 0.0;
+      int stateLength = 0;
+      for (int pos = start + startIndices[i]; pos < limit; ++pos) {
+        final int end = pos + 1;
+        // Back off from the longest n-gram ending at pos. Same semantics as scoreNgram().
+        int numBackoffs = 0;
+        double p;
+        for (int ngramStart = Math.max(start, pos - order + 1); ; ++ngramStart) {
+          final int n = end - ngramStart;
+          final int index = lookup(ngramIds, ngramStart, n, keys);
+          if (index >= 0) {
+            p = probs[n - 1][index];
+            stateLength = n - 1;
+            break;
+          } else if (n == 1) {
+            p = unkScore;
+            stateLength = 0;
+            break;
+          }
+          final int prefixIndex = lookup(ngramIds, ngramStart, n - 1, keys);
+          double bow = prefixIndex >= 0 ? bows[n - 2][prefixIndex] : 0.0;
+          backoffs[numBackoffs++] = Double.isNaN(bow) ? 0.0 : bow;
+        }
+        // Same order of addition as the recursion in scoreNgram()
+        while (numBackoffs > 0) p = backoffs[--numBackoffs] + p;
+        lmSumScore += p;
+      }
+      scores[i] = lmSumScore;
+      stateLengths[i] = stateLength;
+    }
+  }
+
+  private int lookup(int[] ngramIds, int start, int length, int[][] keys) {
+    final int[] key = keys[length];
+    System.arraycopy(ngramIds, start, key, 0, length);
+    return tables[length - 1].getIndex(key);
+  }
+
   @Override
   public int order() {
     return probs.length;
@@ -0,0 +1,478 @@
+package edu.stanford.nlp.mt.lm;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.ProbingIntegerArrayRawIndex;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.Vocabulary;
+
+/**
+ * Pipelined ARPA file loader for {@link ARPALanguageModel}.
+ *
+ * The calling thread reads large blocks through NIO and splits them into segments of
+ * complete n-gram lines. Worker threads parse the segments with allocation-free number and
+ * token parsing, and hash the n-grams. The calling thread then inserts the pre-hashed n-grams
+ * into the per-order tables. Unigrams are interned into the system vocabulary once; higher
+ * order tokens are resolved through a byte-level map of the unigrams.
+ *
+ */
+class ARPALoader {
+
+  private static final Logger logger = LogManager.getLogger(ARPALoader.class);
+
+  private static final int BLOCK_SIZE = 1 << 23;
+  private static final int MAX_PENDING_SEGMENTS = 64;
+  private static final long PROGRESS_INTERVAL = 10000000;
+  private static final float LOG10_LOG_CONSTANT = (float) Math.log(10);
+  private static final int NO_ORDER = 0;
+  private static final int END_ORDER = -1;
+
+  private final String filename;
+  private final int numThreads;
+
+  // Result
+  ProbingIntegerArrayRawIndex[] tables;
+  float[][] probs;
+  float[][] bows;
+
+  private int[] ngramCounts = new int[ARPALanguageModel.MAX_GRAM + 1];
+  private int maxOrder = 0;
+  private int[] loaded;
+  private final ByteVocabulary vocab = new ByteVocabulary();
+  private long numLoaded = 0;
+  private long lastProgress = 0;
+  private long startTime;
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   * @param numThreads
+   */
+  public ARPALoader(String filename, int numThreads) {
+    this.filename = filename;
+    this.numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Load the file.
+   *
+   * @throws IOException
+   */
+  public void load() throws IOException {
+    startTime = System.nanoTime();
+    final ExecutorService workers = Executors.newFixedThreadPool(numThreads, r -> {
+      Thread t = new Thread(r, "arpa-loader");
+      t.setDaemon(true);
+      return t;
+    });
+    final Deque<Future<Segment>> pending = new ArrayDeque<>();
+    try (ReadableByteChannel channel = open(filename)) {
+      int order = NO_ORDER;
+      boolean inData = false;
+      byte[] carry = new byte[0];
+      boolean eof = false;
+      while ( ! eof) {
+        // Fill the next block after the partial line from the previous block
+        byte[] block = new byte[Math.max(BLOCK_SIZE, carry.length * 2)];
+        System.arraycopy(carry, 0, block, 0, carry.length);
+        int length = carry.length;
+        final ByteBuffer buffer = ByteBuffer.wrap(block, length, block.length - length);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            eof = true;
+            break;
+          }
+        }
+        length = buffer.position();
+        int end = length;
+        if ( ! eof) {
+          while (end > 0 && block[end - 1] != '\n') --end;
+          if (end == 0) {
+            // Line longer than the block
+            carry = Arrays.copyOf(block, length);
+            continue;
+          }
+        }
+        carry = Arrays.copyOfRange(block, end, length);
+
+        // Split the block at section headers
+        int segmentStart = 0;
+        for (int pos = 0; pos < end; pos = nextLine(block, pos, end)) {
+          if (block[pos] != '\\' && ! (inData && order == NO_ORDER)) continue;
+          if (order > 0 && pos > segmentStart) {
+            submit(workers, pending, new Segment(block, segmentStart, pos, order));
+          }
+          final int lineEnd = lineEnd(block, pos, end);
+          final String line = new String(block, pos, lineEnd - pos, StandardCharsets.UTF_8).trim();
+          if (line.startsWith("\\data\\")) {
+            inData = true;
+          } else if (line.startsWith("\\end\\")) {
+            order = END_ORDER;
+          } else if (line.startsWith("\\") && line.endsWith("-grams:")) {
+            final int nextOrder = Integer.parseInt(line.substring(1, line.indexOf('-')));
+            if (nextOrder == 1) allocateTables();
+            if (nextOrder != order) {
+              // Higher order tokens are resolved through the complete unigram vocabulary
+              drain(pending);
+              if (order > 0) logProgress(order, true);
+            }
+            order = nextOrder;
+          } else if (inData && order == NO_ORDER && line.startsWith("ngram")) {
+            String[] fields = line.replaceFirst("ngram\\s+", "").split("=");
+            int ngramOrder = Integer.parseInt(fields[0].trim());
+            if (ngramOrder > ARPALanguageModel.MAX_GRAM) {
+              throw new RuntimeException(String.format("Max n-gram order: %d%n", ARPALanguageModel.MAX_GRAM));
+            }
+            ngramCounts[ngramOrder] = Integer.parseInt(fields[1].replaceAll("[^0-9]", ""));
+            maxOrder = Math.max(maxOrder, ngramOrder);
+          }
+          segmentStart = nextLine(block, pos, end);
+        }
+        if (order > 0 && end > segmentStart) {
+          submit(workers, pending, new Segment(block, segmentStart, end, order));
+        }
+      }
+      drain(pending);
+      if (order != END_ORDER) throw new RuntimeException("premature end of file");
+      logProgress(maxOrder, true);
+
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException("ARPA loading failed: " + filename, e);
+
+    } finally {
+      workers.shutdownNow();
+    }
+    for (int i = 0; i < maxOrder; ++i) {
+      if (loaded[i] < probs[i].length) probs[i] = Arrays.copyOf(probs[i], loaded[i]);
+      if (i < bows.length && loaded[i] < bows[i].length) bows[i] = Arrays.copyOf(bows[i], loaded[i]);
+    }
+  }
+
+  /**
+   * Number of n-gram orders.
+   *
+   * @return
+   */
+  public int order() { return maxOrder; }
+
+  private static ReadableByteChannel open(String filename) throws IOException {
+    if (filename.endsWith(IOTools.GZ_EXTENSION)) {
+      return Channels.newChannel(new GZIPInputStream(new FileInputStream(filename), 1 << 16));
+    }
+    return FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+  }
+
+  private void allocateTables() {
+    if (maxOrder == 0) throw new RuntimeException("No n-gram counts in header: " + filename);
+    tables = new ProbingIntegerArrayRawIndex[maxOrder];
+    probs = new float[maxOrder][];
+    bows = new float[maxOrder - 1][];
+    loaded = new int[maxOrder];
+    for (int i = 0; i < maxOrder; i++) {
+      final int count = ngramCounts[i + 1];
+      tables[i] = new ProbingIntegerArrayRawIndex(count);
+      probs[i] = new float[count];
+      if (i + 1 < maxOrder) bows[i] = new float[count];
+    }
+  }
+
+  private void submit(ExecutorService workers, Deque<Future<Segment>> pending, Segment segment)
+      throws InterruptedException, ExecutionException {
+    pending.add(workers.submit(() -> segment.parse(vocab)));
+    // Back-pressure: bounds the number of blocks in memory
+    while (pending.size() > MAX_PENDING_SEGMENTS) insert(pending.poll().get());
+  }
+
+  private void drain(Deque<Future<Segment>> pending) throws InterruptedException, ExecutionException {
+    while ( ! pending.isEmpty()) insert(pending.poll().get());
+  }
+
+  /**
+   * Insert a parsed segment into the tables.
+   */
+  private void insert(Segment segment) {
+    final int o = segment.order - 1;
+    if (o >= maxOrder) throw new RuntimeException("N-gram order not in header: " + segment.order);
+    if (segment.order == 1) {
+      // Intern the unigrams in file order so that system ids are deterministic.
+      final int[] key = new int[1];
+      for (int i = 0; i < segment.size; ++i) {
+        final int start = segment.wordStarts[i];
+        final int end = segment.wordEnds[i];
+        key[0] = Vocabulary.systemAdd(new String(segment.block, start, end - start, StandardCharsets.UTF_8));
+        vocab.add(segment.block, start, end, key[0]);
+        segment.hashes[i] = ProbingIntegerArrayRawIndex.hash(key, 1);
+      }
+    }
+    for (int i = 0; i < segment.size; ++i) {
+      final int index = tables[o].findOrInsertHashed(segment.hashes[i]);
+      if (index >= probs[o].length) {
+        // More n-grams than the header count
+        probs[o] = Arrays.copyOf(probs[o], Math.max(16, probs[o].length * 2));
+        if (o < bows.length) bows[o] = Arrays.copyOf(bows[o], probs[o].length);
+      }
+      probs[o][index] = segment.probs[i];
+      if (o < bows.length) bows[o][index] = segment.bows[i];
+    }
+    loaded[o] = tables[o].size();
+    numLoaded += segment.size;
+    if (numLoaded - lastProgress >= PROGRESS_INTERVAL) logProgress(segment.order, false);
+  }
+
+  private void logProgress(int order, boolean done) {
+    lastProgress = numLoaded;
+    double seconds = TimingUtils.elapsedSeconds(startTime);
+    if (done) {
+      logger.info("Loaded {} {}-grams ({} n-grams/sec)", loaded[order - 1], order,
+          String.format("%.0f", numLoaded / seconds));
+    } else {
+      logger.info("Loading {}-grams: {} / {} ({} n-grams/sec)", order, loaded[order - 1],
+          ngramCounts[order], String.format("%.0f", numLoaded / seconds));
+    }
+  }
+
+  private static int lineEnd(byte[] block, int pos, int end) {
+    while (pos < end && block[pos] != '\n') ++pos;
+    return pos;
+  }
+
+  private static int nextLine(byte[] block, int pos, int end) {
+    return Math.min(end, lineEnd(block, pos, end) + 1);
+  }
+
+  /**
+   * A range of n-gram lines of one order, and the parse result.
+   */
+  private static class Segment {
+    final byte[] block;
+    final int start;
+    final int end;
+    final int order;
+
+    int size = 0;
+    long[] hashes;
+    float[] probs;
+    float[] bows;
+    // Unigrams only
+    int[] wordStarts;
+    int[] wordEnds;
+
+    Segment(byte[] block, int start, int end, int order) {
+      this.block = block;
+      this.start = start;
+      this.end = end;
+      this.order = order;
+    }
+
+    Segment parse(ByteVocabulary vocab) {
+      int numLines = 0;
+      for (int i = start; i < end; ++i) if (block[i] == '\n') ++numLines;
+      ++numLines;
+      hashes = new long[numLines];
+      probs = new float[numLines];
+      bows = new float[numLines];
+      if (order == 1) {
+        wordStarts = new int[numLines];
+        wordEnds = new int[numLines];
+      }
+      final int[] key = new int[order];
+      int pos = start;
+      while (pos < end) {
+        final int lineStart = pos;
+        final int lineEnd = lineEnd(block, pos, end);
+        pos = skipSpace(block, pos, lineEnd);
+        if (pos == lineEnd) {
+          pos = lineEnd + 1;
+          continue;
+        }
+        int tokenEnd = tokenEnd(block, pos, lineEnd);
+        probs[size] = parseFloat(block, pos, tokenEnd) * LOG10_LOG_CONSTANT;
+        for (int j = 0; j < order; ++j) {
+          pos = skipSpace(block, tokenEnd, lineEnd);
+          tokenEnd = tokenEnd(block, pos, lineEnd);
+          if (pos == tokenEnd) {
+            throw new RuntimeException("Malformed n-gram: " + new String(block, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+          }
+          if (order == 1) {
+            // Interned when the segment is inserted
+            wordStarts[size] = pos;
+            wordEnds[size] = tokenEnd;
+          } else {
+            key[j] = vocab.get(block, pos, tokenEnd);
+            if (key[j] < 0) {
+              // Not in the unigrams
+              key[j] = Vocabulary.systemAdd(new String(block, pos, tokenEnd - pos, StandardCharsets.UTF_8));
+            }
+          }
+        }
+        pos = skipSpace(block, tokenEnd, lineEnd);
+        bows[size] = pos < lineEnd ? parseFloat(block, pos, tokenEnd(block, pos, lineEnd)) * LOG10_LOG_CONSTANT
+            : Float.NaN;
+        if (order > 1) hashes[size] = ProbingIntegerArrayRawIndex.hash(key, order);
+        ++size;
+        pos = lineEnd + 1;
+      }
+      return this;
+    }
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r';
+  }
+
+  private static int skipSpace(byte[] block, int pos, int end) {
+    while (pos < end && isSpace(block[pos])) ++pos;
+    return pos;
+  }
+
+  private static int tokenEnd(byte[] block, int pos, int end) {
+    while (pos < end && ! isSpace(block[pos])) ++pos;
+    return pos;
+  }
+
+  private static final double[] POWERS_OF_TEN = new double[19];
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; ++i) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+  }
+
+  // Double significand bits below float precision, and their pattern at a float midpoint
+  private static final long FLOAT_ROUNDING_BITS = (1L << 29) - 1;
+  private static final long FLOAT_MIDPOINT_BITS = 1L << 28;
+
+  /**
+   * Parse a decimal number without allocation. Falls back to Float.parseFloat for
+   * forms that cannot be parsed exactly.
+   */
+  static float parseFloat(byte[] block, int start, int end) {
+    int pos = start;
+    boolean negative = false;
+    if (pos < end && (block[pos] == '-' || block[pos] == '+')) {
+      negative = block[pos] == '-';
+      ++pos;
+    }
+    if (end - pos == 3 && block[pos] == 'i' && block[pos + 1] == 'n' && block[pos + 2] == 'f') {
+      // Escape for KenLM
+      return negative ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+    }
+    long mantissa = 0;
+    int numDigits = 0;
+    int fractionDigits = 0;
+    boolean fraction = false;
+    for (; pos < end; ++pos) {
+      final byte b = block[pos];
+      if (b >= '0' && b <= '9') {
+        mantissa = mantissa * 10 + (b - '0');
+        if (fraction) ++fractionDigits;
+        if (mantissa > 0 || fraction) ++numDigits;
+      } else if (b == '.' && ! fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (pos < end || numDigits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+      // Exponent or too many digits
+      return Float.parseFloat(new String(block, start, end - start, StandardCharsets.US_ASCII));
+    }
+    // Both operands are exact, so the quotient is rounded once to double. Rounding that
+    // to float matches Float.parseFloat unless it lies exactly between two floats.
+    final double value = mantissa / POWERS_OF_TEN[fractionDigits];
+    if ((Double.doubleToRawLongBits(value) & FLOAT_ROUNDING_BITS) == FLOAT_MIDPOINT_BITS) {
+      return Float.parseFloat(new String(block, start, end - start, StandardCharsets.US_ASCII));
+    }
+    return (float) (negative ? -value : value);
+  }
+
+  /**
+   * Map from UTF-8 encoded words to system ids. Not thread-safe for writes.
+   */
+  private static class ByteVocabulary {
+    private byte[] pool = new byte[1 << 16];
+    private int poolSize = 0;
+    private int[] offsets = new int[1 << 10];
+    private int[] lengths = new int[1 << 10];
+    private int[] ids = new int[1 << 10];
+    // Bucket -> entry + 1
+    private int[] buckets = new int[1 << 11];
+    private int size = 0;
+
+    void add(byte[] src, int start, int end, int id) {
+      if (get(src, start, end) >= 0) return;
+      final int length = end - start;
+      if (poolSize + length > pool.length) pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+      System.arraycopy(src, start, pool, poolSize, length);
+      if (size == ids.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      offsets[size] = poolSize;
+      lengths[size] = length;
+      ids[size] = id;
+      poolSize += length;
+      insertBucket(size++);
+      if (size * 2 > buckets.length) rehash();
+    }
+
+    int get(byte[] src, int start, int end) {
+      final int mask = buckets.length - 1;
+      for (int b = hash(src, start, end) & mask; ; b = (b + 1) & mask) {
+        final int entry = buckets[b] - 1;
+        if (entry < 0) return -1;
+        if (equals(entry, src, start, end)) return ids[entry];
+      }
+    }
+
+    private boolean equals(int entry, byte[] src, int start, int end) {
+      if (lengths[entry] != end - start) return false;
+      for (int i = 0, offset = offsets[entry]; i < lengths[entry]; ++i) {
+        if (pool[offset + i] != src[start + i]) return false;
+      }
+      return true;
+    }
+
+    private void insertBucket(int entry) {
+      final int mask = buckets.length - 1;
+      int b = hash(pool, offsets[entry], offsets[entry] + lengths[entry]) & mask;
+      while (buckets[b] != 0) b = (b + 1) & mask;
+      buckets[b] = entry + 1;
+    }
+
+    private void rehash() {
+      buckets = new int[buckets.length * 2];
+      for (int i = 0; i < size; ++i) insertBucket(i);
+    }
+
+    private static int hash(byte[] src, int start, int end) {
+      // FNV-1a
+      int h = 0x811c9dc5;
+      for (int i = start; i < end; ++i) {
+        h ^= src[i];
+        h *= 0x01000193;
+      }
+      return h ^ (h >>> 16);
+    }
+  }
+}
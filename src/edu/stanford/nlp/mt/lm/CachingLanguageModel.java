@@ -0,0 +1,201 @@
+package edu.stanford.nlp.mt.lm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * A query cache in front of a language model.
+ *
+ * Each thread has a direct-mapped cache of (prior state, sequence, start index) queries. Recombined
+ * derivations issue the same queries many times. A lookup does not allocate, and a hit is only
+ * returned if the query is equal to the cached query, so cached scores are exactly equal to
+ * uncached scores. A slot is overwritten by the most recent query that maps to it. Empty
+ * sequences are not cached since language models return the prior state for them.
+ *
+ * @param <T>
+ */
+public class CachingLanguageModel<T> implements LanguageModel<T> {
+
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private final LanguageModel<T> lm;
+  private final int capacity;
+  private final ThreadLocal<QueryCache<T>> threadLocalCache;
+  // Statistics across all threads. The caches of threads that have exited can be collected.
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder lookups = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param lm
+   */
+  public CachingLanguageModel(LanguageModel<T> lm) {
+    this(lm, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param lm
+   * @param capacity Number of cached queries per thread. Rounded up to a power of two.
+   */
+  public CachingLanguageModel(LanguageModel<T> lm, int capacity) {
+    if (capacity <= 0) throw new IllegalArgumentException("Invalid cache capacity: " + capacity);
+    this.lm = Objects.requireNonNull(lm);
+    this.capacity = capacity > (1 << 30) ? 1 << 30
+        : capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.threadLocalCache = ThreadLocal.withInitial(() -> new QueryCache<>(this.capacity, hits, lookups));
+  }
+
+  /**
+   * The underlying language model.
+   *
+   * @return
+   */
+  public LanguageModel<T> getModel() { return lm; }
+
+  @Override
+  public LMState score(Sequence<T> sequence, int startOffsetIndex, LMState priorState) {
+    final QueryCache<T> cache = threadLocalCache.get();
+    final long key = key(sequence, startOffsetIndex, priorState);
+    LMState state = cache.get(key, sequence, startOffsetIndex, priorState);
+    if (state == null) {
+      state = lm.score(sequence, startOffsetIndex, priorState);
+      cache.put(key, sequence, startOffsetIndex, priorState, state);
+    }
+    return state;
+  }
+
+  @Override
+  public LMState[] scoreBatch(List<Sequence<T>> sequences, int[] startOffsetIndices,
+      LMState[] priorStates) {
+    final QueryCache<T> cache = threadLocalCache.get();
+    final int numSequences = sequences.size();
+    final LMState[] states = new LMState[numSequences];
+    final long[] keys = new long[numSequences];
+    int numMisses = 0;
+    for (int i = 0; i < numSequences; ++i) {
+      keys[i] = key(sequences.get(i), startOffsetIndices[i], priorStates[i]);
+      states[i] = cache.get(keys[i], sequences.get(i), startOffsetIndices[i], priorStates[i]);
+      if (states[i] == null) ++numMisses;
+    }
+    if (numMisses == 0) return states;
+
+    // Score the misses as one batch
+    final int[] missIds = new int[numMisses];
+    final List<Sequence<T>> missSequences = new ArrayList<>(numMisses);
+    final int[] missStartIndices = new int[numMisses];
+    final LMState[] missPriorStates = new LMState[numMisses];
+    for (int i = 0, j = 0; i < numSequences; ++i) {
+      if (states[i] != null) continue;
+      missIds[j] = i;
+      missSequences.add(sequences.get(i));
+      missStartIndices[j] = startOffsetIndices[i];
+      missPriorStates[j++] = priorStates[i];
+    }
+    final LMState[] missStates = lm.scoreBatch(missSequences, missStartIndices, missPriorStates);
+    for (int j = 0; j < numMisses; ++j) {
+      final int i = missIds[j];
+      states[i] = missStates[j];
+      cache.put(keys[i], sequences.get(i), startOffsetIndices[i], priorStates[i], states[i]);
+    }
+    return states;
+  }
+
+  private static <T> long key(Sequence<T> sequence, int startOffsetIndex, LMState priorState) {
+    long key = ((long) sequence.hashCode() << 32) ^ (priorState == null ? 0 : priorState.hashCode() & 0xffffffffL);
+    key = (key + startOffsetIndex) * 0x9E3779B97F4A7C15L;
+    return key ^ (key >>> 32);
+  }
+
+  @Override
+  public T getStartToken() {
+    return lm.getStartToken();
+  }
+
+  @Override
+  public T getEndToken() {
+    return lm.getEndToken();
+  }
+
+  @Override
+  public String getName() {
+    return lm.getName();
+  }
+
+  @Override
+  public int order() {
+    return lm.order();
+  }
+
+  /**
+   * Fraction of queries answered by the cache across all threads.
+   *
+   * @return
+   */
+  public double hitRate() {
+    final long numLookups = lookups.sum();
+    return numLookups == 0 ? 0.0 : hits.sum() / (double) numLookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("capacity: %d hits: %d/%d hit rate: %.3f", capacity, hits.sum(), 
+        lookups.sum(), hitRate());
+  }
+
+  /**
+   * Direct-mapped cache. Only accessed by its owner thread, except for the shared counters.
+   *
+   * @param <T>
+   */
+  private static class QueryCache<T> {
+    private final long[] keys;
+    private final Sequence<T>[] sequences;
+    private final int[] startIndices;
+    private final LMState[] priorStates;
+    private final LMState[] values;
+    private final int mask;
+    private final LongAdder hits;
+    private final LongAdder lookups;
+
+    @SuppressWarnings("unchecked")
+    public QueryCache(int size, LongAdder hits, LongAdder lookups) {
+      this.keys = new long[size];
+      this.sequences = (Sequence<T>[]) new Sequence<?>[size];
+      this.startIndices = new int[size];
+      this.priorStates = new LMState[size];
+      this.values = new LMState[size];
+      this.mask = size - 1;
+      this.hits = hits;
+      this.lookups = lookups;
+    }
+
+    public LMState get(long key, Sequence<T> sequence, int startIndex, LMState priorState) {
+      if (sequence.size() == 0) return null;
+      lookups.increment();
+      final int k = ((int) key) & mask;
+      if (values[k] != null && keys[k] == key && startIndices[k] == startIndex
+          && Objects.equals(priorStates[k], priorState) && sequences[k].equals(sequence)) {
+        hits.increment();
+        return values[k];
+      }
+      return null;
+    }
+
+    public void put(long key, Sequence<T> sequence, int startIndex, LMState priorState, LMState value) {
+      if (sequence.size() == 0) return;
+      final int k = ((int) key) & mask;
+      keys[k] = key;
+      sequences[k] = sequence;
+      startIndices[k] = startIndex;
+      priorStates[k] = priorState;
+      values[k] = value;
+    }
+  }
+}
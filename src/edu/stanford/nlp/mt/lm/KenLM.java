@@ -41,6 +41,7 @@ public class KenLM {
   private native long readKenLM(String filename, long nplm_cache_size, int loadMethod);
   private native long scoreNGramSeq(long kenLMPtr, int[] ngram, int startIndex);
   private native long scoreNGram(long kenLMPtr, int[] ngram);
+  private native void scoreNGramSeqBatch(long kenLMPtr, int[] ngrams, int[] offsets, int[] startIndices, long[] results);
   private native int getLMId(long kenLMPtr, String token);
   private native int getOrder(long kenLMPtr);
 
@@ -136,6 +137,17 @@ public class KenLM {
     return scoreNGramSeq(kenLMPtr, words, startIndex);
   }
 
+  /**
+   * Score a batch of sequences with a single JNI call. Sequence i occupies
+   * words[offsets[i]..offsets[i+1]-1] in the same reversed layout as scoreSeqMarshalled,
+   * and startIndices[i] is relative to offsets[i]. The marshalled result for sequence i is
+   * written to results[i].
+   */
+  public void scoreSeqMarshalledBatch(int words[], int offsets[], int startIndices[], long results[]) {
+    assert offsets.length > results.length && startIndices.length >= results.length;
+    scoreNGramSeqBatch(kenLMPtr, words, offsets, startIndices, results);
+  }
+
   /**
    * Just get the score of a sequence if you don't care about right state length
    */
@@ -1,5 +1,7 @@
 package edu.stanford.nlp.mt.lm;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -148,7 +150,7 @@ public class KenLanguageModel implements LanguageModel<IString> {
     }
 
     // Extract prior state
-    final int[] state = priorState == null ? EMPTY_INT_ARRAY : ((KenLMState) priorState).getState();
+    final int[] state = stateOf(priorState);
     final int[] ngramIds = makeKenLMInput(sequence, state);
 
     if (sequence.size() == 1 && priorState == null && sequence.get(0).equals(TokenUtils.START_TOKEN)) {
@@ -167,6 +169,56 @@ public class KenLanguageModel implements LanguageModel<IString> {
     return new KenLMState(KenLM.scoreFromMarshalled(got), ngramIds, KenLM.rightStateFromMarshalled(got));
   }
 
+  @Override
+  public LMState[] scoreBatch(List<Sequence<IString>> sequences, int[] startIndices, 
+      LMState[] priorStates) {
+    final int numSequences = sequences.size();
+    final LMState[] states = new LMState[numSequences];
+
+    // Pack the queries into one buffer. Special cases are answered directly.
+    final int[] offsets = new int[numSequences + 1];
+    final int[] queryIds = new int[numSequences];
+    int numQueries = 0;
+    int bufferSize = 0;
+    for (int i = 0; i < numSequences; ++i) {
+      final Sequence<IString> sequence = sequences.get(i);
+      if (sequence.size() == 0 || (sequence.size() == 1 && priorStates[i] == null && 
+          sequence.get(0).equals(TokenUtils.START_TOKEN))) {
+        states[i] = score(sequence, startIndices[i], priorStates[i]);
+      } else {
+        queryIds[numQueries++] = i;
+        bufferSize += sequence.size() + stateOf(priorStates[i]).length;
+      }
+    }
+    if (numQueries == 0) return states;
+    
+    final int[] ngramIds = new int[bufferSize];
+    final int[] kenLMStartIndices = new int[numQueries];
+    for (int j = 0; j < numQueries; ++j) {
+      final int i = queryIds[j];
+      final int[] state = stateOf(priorStates[i]);
+      final int length = fillKenLMInput(sequences.get(i), state, ngramIds, offsets[j]);
+      offsets[j + 1] = offsets[j] + length;
+      // Reverse the start index for KenLM
+      kenLMStartIndices[j] = length - state.length - startIndices[i] - 1;
+      assert kenLMStartIndices[j] >= 0;
+    }
+    
+    // Execute the queries (via JNI) and construct the return states
+    final long[] got = new long[numQueries];
+    model.scoreSeqMarshalledBatch(ngramIds, offsets, kenLMStartIndices, got);
+    for (int j = 0; j < numQueries; ++j) {
+      final int rightState = KenLM.rightStateFromMarshalled(got[j]);
+      states[queryIds[j]] = new KenLMState(KenLM.scoreFromMarshalled(got[j]), 
+          Arrays.copyOfRange(ngramIds, offsets[j], offsets[j] + rightState), rightState);
+    }
+    return states;
+  }
+
+  private static int[] stateOf(LMState priorState) {
+    return priorState == null ? EMPTY_INT_ARRAY : ((KenLMState) priorState).getState();
+  }
+  
   /**
    * Convert a Sequence and an optional state to an input for KenLM.
    *
@@ -175,46 +227,29 @@ public class KenLanguageModel implements LanguageModel<IString> {
    * @return
    */
   private int[] makeKenLMInput(Sequence<IString> sequence, int[] priorState) {
+    int[] ngramIds = new int[sequence.size() + priorState.length];
+    fillKenLMInput(sequence, priorState, ngramIds, 0);
+    return ngramIds;
+  }
+
+  /**
+   * Write the KenLM input for a Sequence and an optional state to a buffer.
+   *
+   * @param sequence
+   * @param priorState
+   * @param buffer
+   * @param offset
+   * @return The length of the input.
+   */
+  private int fillKenLMInput(Sequence<IString> sequence, int[] priorState, int[] buffer, int offset) {
     final int sequenceSize = sequence.size();
-    int[] ngramIds = new int[sequenceSize + priorState.length];
     if (priorState.length > 0) {
-      System.arraycopy(priorState, 0, ngramIds, sequenceSize, priorState.length);
+      System.arraycopy(priorState, 0, buffer, offset + sequenceSize, priorState.length);
     }
     for (int i = 0; i < sequenceSize; i++) {
       // Notice: ngramids are in reverse order vv. the Sequence
-      ngramIds[sequenceSize-1-i] = toKenLMId(sequence.get(i));
+      buffer[offset + sequenceSize-1-i] = toKenLMId(sequence.get(i));
     }
-    return ngramIds;
+    return sequenceSize + priorState.length;
   }
-  
-// TODO(spenceg) This never yielded an improvement....
-//  private static final int DEFAULT_CACHE_SIZE = 10000;
-//  private static final ThreadLocal<KenLMCache> threadLocalCache =
-//      new ThreadLocal<KenLMCache>();
-//  
-//  private static class KenLMCache {
-//    private final long[] keys;
-//    private final long[] values;
-//    private final int mask;
-//    public KenLMCache(int size) {
-//      this.keys = new long[size];
-//      this.values = new long[size];
-//      this.mask = size - 1;
-//    }
-//    
-//    public Long get(int[] kenLMInput, int startIndex) {
-//      long hashValue = MurmurHash2.hash64(kenLMInput, kenLMInput.length, startIndex);
-//      int k = ideal(hashValue);
-//      return keys[k] == hashValue ? values[k] : null;
-//    }
-//    private int ideal(long hashed) {
-//      return ((int)hashed) & mask;
-//    }
-//    public void insert(int[] kenLMInput, int startIndex, long value) {
-//      long hashValue = MurmurHash2.hash64(kenLMInput, kenLMInput.length, startIndex);
-//      int k = ideal(hashValue);
-//      keys[k] = hashValue;
-//      values[k] = value;
-//    }
-//  }
 }
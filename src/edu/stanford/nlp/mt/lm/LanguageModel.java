@@ -1,5 +1,7 @@
 package edu.stanford.nlp.mt.lm;
 
+import java.util.List;
+
 import edu.stanford.nlp.mt.util.Sequence;
 
 /**
@@ -27,6 +29,26 @@ public interface LanguageModel<T> {
    * @return the language model state and the score of the sequence
    */
   LMState score(Sequence<T> sequence, int startOffsetIndex, LMState priorState);
+
+  /**
+   * Score a batch of sequences. Element i of the result is the state returned by
+   * <code>score(sequences.get(i), startOffsetIndices[i], priorStates[i])</code>, but
+   * implementations may answer the whole batch with a single query.
+   * 
+   * @param sequences The sequences to score
+   * @param startOffsetIndices index in each sequence to start scoring.
+   * @param priorStates States from prior calls to score(). Elements could be null.
+   * 
+   * @return the language model states and the scores of the sequences
+   */
+  default LMState[] scoreBatch(List<Sequence<T>> sequences, int[] startOffsetIndices, 
+      LMState[] priorStates) {
+    final LMState[] states = new LMState[sequences.size()];
+    for (int i = 0; i < states.length; ++i) {
+      states[i] = score(sequences.get(i), startOffsetIndices[i], priorStates[i]);
+    }
+    return states;
+  }
   
   /**
 	 * @return the LM-specific start token.
@@ -0,0 +1,61 @@
+package edu.stanford.nlp.mt.lm;
+
+import java.util.Arrays;
+
+import edu.stanford.nlp.mt.util.MurmurHash2;
+
+/**
+ * Result of a TrieLanguageModel query. The state is the longest suffix of the
+ * history that occurs in the model, in model word ids.
+ *
+ */
+public class TrieLMState extends LMState {
+
+  private final int[] state;
+  private final int hashCode;
+
+  /**
+   * Constructor.
+   *
+   * @param score
+   * @param state
+   */
+  public TrieLMState(double score, int[] state) {
+    this.score = score;
+    this.state = state;
+    this.hashCode = MurmurHash2.hash32(state, state.length, 1);
+  }
+
+  /**
+   * The history in model word ids.
+   *
+   * @return
+   */
+  public int[] getState() { return state; }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if ( ! (other instanceof TrieLMState)) {
+      return false;
+    } else {
+      return Arrays.equals(state, ((TrieLMState) other).state);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public int length() {
+    return state.length;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%.6f (%s)", score, Arrays.toString(state));
+  }
+}
@@ -0,0 +1,749 @@
+package edu.stanford.nlp.mt.lm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IntArray;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.mt.util.TokenUtils;
+import edu.stanford.nlp.mt.util.Vocabulary;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * A pure Java n-gram language model stored as a sorted-array trie, like the
+ * KenLM trie data structure.
+ *
+ * Each n-gram order is an array of bit-packed records sorted by (parent index, word id).
+ * A record holds the word id, the probability, the backoff weight, and the index of the first
+ * child in the next order. Children are found by binary search in the range of the parent.
+ * Word ids and child indices use the minimum number of bits. Probabilities and backoffs
+ * above the unigram order are quantized into 2^b bins of equal size (b=32 disables quantization).
+ *
+ * The trie is built from an ARPA file, and can be saved in a binary format that is
+ * memory-mapped at load time. See the main method.
+ *
+ * Reference: K. Heafield. 2011. KenLM: Faster and smaller language model queries. In WMT.
+ *
+ */
+public class TrieLanguageModel implements LanguageModel<IString> {
+
+  private static final Logger logger = LogManager.getLogger(TrieLanguageModel.class);
+
+  public static final int DEFAULT_PROB_BITS = 8;
+  public static final int DEFAULT_BOW_BITS = 8;
+  public static final int NO_QUANTIZATION = 32;
+
+  private static final long MAGIC = 0x5048524C4D545249L;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 4096;
+
+  private static final int[] EMPTY_HISTORY = new int[0];
+  private static final TrieLMState EMPTY_STATE = new TrieLMState(0.0, EMPTY_HISTORY);
+
+  private final String name;
+  private int order;
+  private String[] words;
+  private int[] sys2LM;
+  private float unkProb;
+
+  // Unigrams are indexed by word id
+  private IntArray unigramProbs;
+  private IntArray unigramBows;
+  private IntArray unigramPointers;
+
+  // Higher orders, indexed by order
+  private int[] counts;
+  private IntArray[] records;
+  private int[] wordBits;
+  private int[] probBits;
+  private int[] bowBits;
+  private int[] pointerBits;
+  private int[] recordBits;
+  private float[][] probCenters;
+  private float[][] bowCenters;
+
+  private TrieLanguageModel(String filename) {
+    this.name = String.format("TrieLM(%s)", filename);
+  }
+
+  /**
+   * Load a language model. Binary files are memory-mapped, and ARPA files are converted
+   * with the default quantization.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static TrieLanguageModel load(String filename) throws IOException {
+    return isBinary(filename) ? loadBinary(filename) :
+      fromARPA(filename, DEFAULT_PROB_BITS, DEFAULT_BOW_BITS);
+  }
+
+  /**
+   * True if the file was written by {@link #writeBinary(String)}.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static boolean isBinary(String filename) throws IOException {
+    try (InputStream input = Files.newInputStream(Paths.get(filename))) {
+      DataInputStream data = new DataInputStream(input);
+      return data.available() >= Long.BYTES && data.readLong() == MAGIC;
+    }
+  }
+
+  /**
+   * Build a language model from an ARPA file.
+   *
+   * @param filename
+   * @param probBits Bits per probability above the unigram order.
+   * @param bowBits Bits per backoff weight above the unigram order.
+   * @return
+   * @throws IOException
+   */
+  public static TrieLanguageModel fromARPA(String filename, int probBits, int bowBits) throws IOException {
+    if (probBits < 1 || probBits > NO_QUANTIZATION || bowBits < 1 || bowBits > NO_QUANTIZATION) {
+      throw new IllegalArgumentException(String.format("Invalid quantization: %d/%d", probBits, bowBits));
+    }
+    TimeKeeper timer = TimingUtils.start();
+    final TrieLanguageModel lm = new TrieLanguageModel(filename);
+    final float log10LogConstant = (float) Math.log(10);
+    try (LineNumberReader reader = IOTools.getReaderFromFile(filename)) {
+      // skip everything until the line that begins with '\data\'
+      while ( ! readLineNonNull(reader).startsWith("\\data\\"));
+
+      // read in ngram counts
+      int[] ngramCounts = new int[LanguageModelFactory.MAX_NGRAM_ORDER + 1];
+      String line;
+      while ((line = readLineNonNull(reader)).startsWith("ngram")) {
+        String[] fields = line.replaceFirst("ngram\\s+", "").split("=");
+        int ngramOrder = Integer.parseInt(fields[0].trim());
+        if (ngramOrder > LanguageModelFactory.MAX_NGRAM_ORDER) {
+          throw new RuntimeException("Max n-gram order: " + LanguageModelFactory.MAX_NGRAM_ORDER);
+        }
+        ngramCounts[ngramOrder] = Integer.parseInt(fields[1].replaceAll("[^0-9]", ""));
+        lm.order = Math.max(lm.order, ngramOrder);
+      }
+      lm.counts = Arrays.copyOf(ngramCounts, lm.order + 1);
+
+      // Unpacked trie. Pointers of order k index the records of order k+1.
+      final int[][] ngramWords = new int[lm.order + 1][];
+      final float[][] ngramProbs = new float[lm.order + 1][];
+      final float[][] ngramBows = new float[lm.order + 1][];
+      final int[][] pointers = new int[lm.order + 1][];
+
+      // Unigrams. The word id is the position in the file.
+      final int vocabSize = lm.counts[1];
+      final Object2IntMap<String> wordToId = new Object2IntOpenHashMap<>(vocabSize);
+      wordToId.defaultReturnValue(-1);
+      lm.words = new String[vocabSize];
+      ngramProbs[1] = new float[vocabSize];
+      ngramBows[1] = new float[vocabSize];
+      skipToHeader(reader, 1);
+      for (int i = 0; i < vocabSize; ++i) {
+        line = readLineNonNull(reader);
+        StringTokenizer tok = new StringTokenizer(line);
+        ngramProbs[1][i] = strToFloat(tok.nextToken()) * log10LogConstant;
+        String word = tok.nextToken();
+        if (wordToId.containsKey(word)) throw new RuntimeException("Duplicate unigram: " + line);
+        wordToId.put(word, i);
+        lm.words[i] = word;
+        ngramBows[1][i] = tok.hasMoreTokens() ? Float.parseFloat(tok.nextToken()) * log10LogConstant : 0.0f;
+      }
+      timer.mark("Order 1");
+
+      // Higher orders
+      for (int k = 2; k <= lm.order; ++k) {
+        final int n = lm.counts[k];
+        final int[] ngram = new int[k];
+        final long[] keys = new long[n];
+        final float[] probs = new float[n];
+        final float[] bows = new float[n];
+        skipToHeader(reader, k);
+        for (int i = 0; i < n; ++i) {
+          line = readLineNonNull(reader);
+          StringTokenizer tok = new StringTokenizer(line);
+          probs[i] = strToFloat(tok.nextToken()) * log10LogConstant;
+          for (int j = 0; j < k; ++j) {
+            ngram[j] = wordToId.getInt(tok.nextToken());
+            if (ngram[j] < 0) throw new RuntimeException("Word not in unigrams: " + line);
+          }
+          bows[i] = tok.hasMoreTokens() ? Float.parseFloat(tok.nextToken()) * log10LogConstant : 0.0f;
+          int parent = find(ngramWords, pointers, ngram, k - 1);
+          if (parent < 0) throw new RuntimeException("Missing n-gram prefix: " + line);
+          keys[i] = ((long) parent << 32) | ngram[k - 1];
+        }
+
+        // Sort by (parent, word)
+        final long[] sortedKeys = keys.clone();
+        Arrays.parallelSort(sortedKeys);
+        ngramWords[k] = new int[n];
+        ngramProbs[k] = new float[n];
+        ngramBows[k] = new float[n];
+        pointers[k - 1] = new int[lm.counts[k - 1] + 1];
+        for (int i = 0; i < n; ++i) {
+          int pos = Arrays.binarySearch(sortedKeys, keys[i]);
+          if (i > 0 && sortedKeys[i] == sortedKeys[i - 1]) {
+            throw new RuntimeException("Duplicate n-gram in order " + k);
+          }
+          ngramWords[k][pos] = (int) keys[i];
+          ngramProbs[k][pos] = probs[i];
+          ngramBows[k][pos] = bows[i];
+          pointers[k - 1][(int) (keys[i] >>> 32) + 1]++;
+        }
+        for (int i = 1; i < pointers[k - 1].length; ++i) pointers[k - 1][i] += pointers[k - 1][i - 1];
+        timer.mark("Order " + k);
+      }
+
+      lm.pack(ngramWords, ngramProbs, ngramBows, pointers, probBits, bowBits);
+      timer.mark("Packing");
+    }
+    lm.initialize();
+    logger.info("Built {} (order: {}): {}", lm.name, lm.order, timer);
+    return lm;
+  }
+
+  /**
+   * Find an n-gram in the unpacked trie.
+   *
+   * @return The index of the n-gram in its order, or -1 if it is not found.
+   */
+  private static int find(int[][] ngramWords, int[][] pointers, int[] ngram, int length) {
+    int node = ngram[0];
+    for (int j = 1; j < length && node >= 0; ++j) {
+      int lo = pointers[j][node];
+      int hi = pointers[j][node + 1];
+      node = Arrays.binarySearch(ngramWords[j + 1], lo, hi, ngram[j]);
+    }
+    return node < 0 ? -1 : node;
+  }
+
+  /**
+   * Quantize and bit-pack the unpacked trie.
+   */
+  private void pack(int[][] ngramWords, float[][] ngramProbs, float[][] ngramBows, int[][] pointers,
+      int probQuantBits, int bowQuantBits) {
+    final int vocabSize = counts[1];
+    int[] uProbs = new int[vocabSize];
+    int[] uBows = new int[vocabSize];
+    for (int i = 0; i < vocabSize; ++i) {
+      uProbs[i] = Float.floatToIntBits(ngramProbs[1][i]);
+      uBows[i] = Float.floatToIntBits(ngramBows[1][i]);
+    }
+    unigramProbs = IntArray.wrap(uProbs);
+    unigramBows = IntArray.wrap(uBows);
+    unigramPointers = IntArray.wrap(order > 1 ? pointers[1] : new int[vocabSize + 1]);
+
+    records = new IntArray[order + 1];
+    wordBits = new int[order + 1];
+    probBits = new int[order + 1];
+    bowBits = new int[order + 1];
+    pointerBits = new int[order + 1];
+    recordBits = new int[order + 1];
+    probCenters = new float[order + 1][];
+    bowCenters = new float[order + 1][];
+    for (int k = 2; k <= order; ++k) {
+      final int n = counts[k];
+      final boolean hasChildren = k < order;
+      wordBits[k] = bitsFor(vocabSize - 1);
+      probBits[k] = probQuantBits;
+      bowBits[k] = hasChildren ? bowQuantBits : 0;
+      pointerBits[k] = hasChildren ? bitsFor(counts[k + 1]) : 0;
+      recordBits[k] = wordBits[k] + probBits[k] + bowBits[k] + pointerBits[k];
+      probCenters[k] = probBits[k] == NO_QUANTIZATION ? new float[0] : Quantizer.train(ngramProbs[k], probBits[k]);
+      bowCenters[k] = bowBits[k] == NO_QUANTIZATION || bowBits[k] == 0 ? new float[0] :
+        Quantizer.train(ngramBows[k], bowBits[k]);
+
+      // The last record only holds the end pointer of the preceding record.
+      final int numRecords = hasChildren ? n + 1 : n;
+      final long numInts = (((long) numRecords * recordBits[k]) >>> 5) + 2;
+      if (numInts > Integer.MAX_VALUE) throw new RuntimeException("Order too large: " + k);
+      final int[] packed = new int[(int) numInts];
+      for (int i = 0; i < numRecords; ++i) {
+        long bit = (long) i * recordBits[k];
+        if (i < n) {
+          put(packed, bit, wordBits[k], ngramWords[k][i]);
+          bit += wordBits[k];
+          put(packed, bit, probBits[k], encode(ngramProbs[k][i], probBits[k], probCenters[k]));
+          bit += probBits[k];
+          if (hasChildren) put(packed, bit, bowBits[k], encode(ngramBows[k][i], bowBits[k], bowCenters[k]));
+          bit += bowBits[k];
+        } else {
+          bit += wordBits[k] + probBits[k] + bowBits[k];
+        }
+        if (hasChildren) put(packed, bit, pointerBits[k], pointers[k][i]);
+      }
+      records[k] = IntArray.wrap(packed);
+      ngramWords[k] = null;
+      ngramProbs[k] = null;
+      ngramBows[k] = null;
+      pointers[k - 1] = null;
+    }
+  }
+
+  /**
+   * Create the mapping from system ids to model ids.
+   */
+  private void initialize() {
+    int[] sysIds = new int[words.length];
+    for (int i = 0; i < words.length; ++i) {
+      sysIds[i] = Vocabulary.systemAdd(words[i]);
+    }
+    // Words that are added to the system vocabulary later are not in the model.
+    sys2LM = new int[Vocabulary.systemSize()];
+    Arrays.fill(sys2LM, -1);
+    for (int i = 0; i < sysIds.length; ++i) sys2LM[sysIds[i]] = i;
+    int unkId = toLMId(TokenUtils.UNK_TOKEN);
+    unkProb = unkId < 0 ? (float) ARPALanguageModel.UNKNOWN_WORD_SCORE : Float.intBitsToFloat(unigramProbs.get(unkId));
+  }
+
+  /**
+   * Write the model in the binary format.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public void writeBinary(String filename) throws IOException {
+    logger.info("Writing binary language model to {}", filename);
+    TimeKeeper timer = TimingUtils.start();
+    final ByteOrder byteOrder = ByteOrder.nativeOrder();
+    final List<IntArray> arrays = binaryArrays();
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long[] offsets = new long[arrays.size()];
+      channel.position(HEADER_SIZE);
+      for (int i = 0; i < offsets.length; ++i) {
+        offsets[i] = channel.position();
+        arrays.get(i).write(channel, byteOrder);
+      }
+
+      final long vocabOffset = channel.position();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream output = new DataOutputStream(bytes)) {
+        for (String word : words) output.writeUTF(word);
+      }
+      ByteBuffer vocab = ByteBuffer.wrap(bytes.toByteArray());
+      while (vocab.hasRemaining()) channel.write(vocab);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(MAGIC).putInt(VERSION);
+      header.putInt(byteOrder == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+      header.putInt(order);
+      for (int k = 1; k <= order; ++k) header.putInt(counts[k]);
+      for (int k = 2; k <= order; ++k) {
+        header.putInt(wordBits[k]).putInt(probBits[k]).putInt(bowBits[k]).putInt(pointerBits[k]);
+      }
+      header.putInt(arrays.size());
+      for (int i = 0; i < offsets.length; ++i) {
+        header.putLong(offsets[i]).putInt(arrays.get(i).length());
+      }
+      header.putLong(vocabOffset).putInt(bytes.size());
+      header.rewind();
+      channel.position(0);
+      while (header.hasRemaining()) channel.write(header);
+    }
+    timer.mark("Write");
+    logger.info("Done writing binary language model: {}", timer);
+  }
+
+  /**
+   * Memory-map a model written by {@link #writeBinary(String)}.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static TrieLanguageModel loadBinary(String filename) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    TrieLanguageModel lm = new TrieLanguageModel(filename);
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0);
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+        throw new IOException("Not a binary language model: " + filename);
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported binary language model version %d: %s", version, filename));
+      }
+      final ByteOrder byteOrder = header.getInt() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+      lm.order = header.getInt();
+      lm.counts = new int[lm.order + 1];
+      for (int k = 1; k <= lm.order; ++k) lm.counts[k] = header.getInt();
+      lm.wordBits = new int[lm.order + 1];
+      lm.probBits = new int[lm.order + 1];
+      lm.bowBits = new int[lm.order + 1];
+      lm.pointerBits = new int[lm.order + 1];
+      lm.recordBits = new int[lm.order + 1];
+      for (int k = 2; k <= lm.order; ++k) {
+        lm.wordBits[k] = header.getInt();
+        lm.probBits[k] = header.getInt();
+        lm.bowBits[k] = header.getInt();
+        lm.pointerBits[k] = header.getInt();
+        lm.recordBits[k] = lm.wordBits[k] + lm.probBits[k] + lm.bowBits[k] + lm.pointerBits[k];
+      }
+      final int numArrays = header.getInt();
+      if (numArrays != 3 + 3 * (lm.order - 1)) throw new IOException("Corrupt header: " + filename);
+      List<IntArray> arrays = new ArrayList<>(numArrays);
+      for (int i = 0; i < numArrays; ++i) {
+        long offset = header.getLong();
+        int length = header.getInt();
+        arrays.add(IntArray.map(channel, offset, length, byteOrder));
+      }
+      lm.unigramProbs = arrays.get(0);
+      lm.unigramBows = arrays.get(1);
+      lm.unigramPointers = arrays.get(2);
+      lm.records = new IntArray[lm.order + 1];
+      lm.probCenters = new float[lm.order + 1][];
+      lm.bowCenters = new float[lm.order + 1][];
+      for (int k = 2, i = 3; k <= lm.order; ++k) {
+        lm.records[k] = arrays.get(i++);
+        lm.probCenters[k] = toFloats(arrays.get(i++));
+        lm.bowCenters[k] = toFloats(arrays.get(i++));
+      }
+
+      long vocabOffset = header.getLong();
+      int vocabLength = header.getInt();
+      ByteBuffer vocab = ByteBuffer.allocate(vocabLength);
+      while (vocab.hasRemaining() && channel.read(vocab, vocabOffset + vocab.position()) >= 0);
+      lm.words = new String[lm.counts[1]];
+      try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(vocab.array()))) {
+        for (int i = 0; i < lm.words.length; ++i) lm.words[i] = input.readUTF();
+      }
+    }
+    timer.mark("Map");
+    lm.initialize();
+    timer.mark("Vocabulary");
+    logger.info("Mapped {} (order: {}): {}", lm.name, lm.order, timer);
+    return lm;
+  }
+
+  /**
+   * The arrays in the order of the binary format.
+   *
+   * @return
+   */
+  private List<IntArray> binaryArrays() {
+    List<IntArray> arrays = new ArrayList<>();
+    arrays.add(unigramProbs);
+    arrays.add(unigramBows);
+    arrays.add(unigramPointers);
+    for (int k = 2; k <= order; ++k) {
+      arrays.add(records[k]);
+      arrays.add(IntArray.wrap(toInts(probCenters[k])));
+      arrays.add(IntArray.wrap(toInts(bowCenters[k])));
+    }
+    return arrays;
+  }
+
+  private static int[] toInts(float[] values) {
+    int[] ints = new int[values.length];
+    for (int i = 0; i < values.length; ++i) ints[i] = Float.floatToIntBits(values[i]);
+    return ints;
+  }
+
+  private static float[] toFloats(IntArray ints) {
+    float[] values = new float[ints.length()];
+    for (int i = 0; i < values.length; ++i) values[i] = Float.intBitsToFloat(ints.get(i));
+    return values;
+  }
+
+  private static String readLineNonNull(LineNumberReader reader) throws IOException {
+    String line = reader.readLine();
+    if (line == null) throw new RuntimeException("premature end of file");
+    return line;
+  }
+
+  private static void skipToHeader(LineNumberReader reader, int order) throws IOException {
+    final String header = String.format("\\%d-grams:", order);
+    while ( ! readLineNonNull(reader).startsWith(header));
+  }
+
+  private static float strToFloat(String token) {
+    // Escape for KenLM
+    return token.equals("-inf") ? Float.NEGATIVE_INFINITY : Float.parseFloat(token);
+  }
+
+  /**
+   * Number of bits needed to represent a non-negative value.
+   */
+  private static int bitsFor(int value) {
+    return Integer.SIZE - Integer.numberOfLeadingZeros(value);
+  }
+
+  private static long encode(float value, int bits, float[] centers) {
+    return bits == NO_QUANTIZATION ? Float.floatToIntBits(value) & 0xffffffffL : Quantizer.encode(value, centers);
+  }
+
+  private static float decode(long value, int bits, float[] centers) {
+    return bits == NO_QUANTIZATION ? Float.intBitsToFloat((int) value) : centers[(int) value];
+  }
+
+  /**
+   * Write a value of at most 32 bits at a bit offset. Bits are numbered from the most
+   * significant bit of the first int.
+   */
+  private static void put(int[] packed, long bit, int width, long value) {
+    if (width == 0) return;
+    final int i = (int) (bit >>> 5);
+    final long shifted = value << (64 - (int) (bit & 31) - width);
+    packed[i] |= (int) (shifted >>> 32);
+    packed[i + 1] |= (int) shifted;
+  }
+
+  /**
+   * Read a value of at most 32 bits from a record.
+   */
+  private long get(int k, int index, int offset, int width) {
+    if (width == 0) return 0;
+    final long bit = (long) index * recordBits[k] + offset;
+    final IntArray packed = records[k];
+    final int i = (int) (bit >>> 5);
+    final long window = ((long) packed.get(i) << 32) | (packed.get(i + 1) & 0xffffffffL);
+    return (window >>> (64 - (int) (bit & 31) - width)) & ((1L << width) - 1);
+  }
+
+  private int word(int k, int index) {
+    return (int) get(k, index, 0, wordBits[k]);
+  }
+
+  private float prob(int k, int index) {
+    return k == 1 ? Float.intBitsToFloat(unigramProbs.get(index)) :
+      decode(get(k, index, wordBits[k], probBits[k]), probBits[k], probCenters[k]);
+  }
+
+  private float bow(int k, int index) {
+    return k == 1 ? Float.intBitsToFloat(unigramBows.get(index)) :
+      decode(get(k, index, wordBits[k] + probBits[k], bowBits[k]), bowBits[k], bowCenters[k]);
+  }
+
+  /**
+   * Index of the first child of a record in order k+1.
+   */
+  private int pointer(int k, int index) {
+    return k == 1 ? unigramPointers.get(index) :
+      (int) get(k, index, wordBits[k] + probBits[k] + bowBits[k], pointerBits[k]);
+  }
+
+  /**
+   * Find the child of a record of order k.
+   *
+   * @return The index of the child in order k+1, or -1 if it is not found.
+   */
+  private int child(int k, int parent, int word) {
+    int lo = pointer(k, parent);
+    int hi = pointer(k, parent + 1) - 1;
+    final int childOrder = k + 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int midWord = word(childOrder, mid);
+      if (midWord < word) {
+        lo = mid + 1;
+      } else if (midWord > word) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Find the n-gram ids[start,end).
+   *
+   * @return The index of the n-gram in its order, or -1 if it is not found.
+   */
+  private int find(int[] ids, int start, int end) {
+    int node = ids[start];
+    for (int i = start + 1, k = 1; i < end && node >= 0; ++i, ++k) {
+      node = child(k, node, ids[i]);
+    }
+    return node;
+  }
+
+  /**
+   * Log probability of ids[pos] given the history ids[start,pos).
+   *
+   * From CMU language model headers:
+   * ------------------------------------------------------------------
+   * p(wd3|wd1,wd2)= if(trigram exists) p_3(wd1,wd2,wd3) else if(bigram w1,w2
+   * exists) bo_wt_2(w1,w2)*p(wd3|wd2) else p(wd3|w2)
+   */
+  private double scoreWord(int[] ids, int start, int pos) {
+    final int word = ids[pos];
+    double bowSum = 0.0;
+    for (int s = start; s < pos; ++s) {
+      final int history = find(ids, s, pos);
+      if (history < 0) continue;
+      final int k = pos - s;
+      final int ngram = child(k, history, word);
+      if (ngram >= 0) return bowSum + prob(k + 1, ngram);
+      bowSum += bow(k, history);
+    }
+    return bowSum + (word < 0 ? unkProb : prob(1, word));
+  }
+
+  /**
+   * Map a system word to a model id, or -1 if the word is not in the model.
+   */
+  private int toLMId(IString token) {
+    return token.id >= 0 && token.id < sys2LM.length ? sys2LM[token.id] : -1;
+  }
+
+  @Override
+  public LMState score(Sequence<IString> sequence, int startOffsetIndex, LMState priorState) {
+    if (sequence.size() == 0) {
+      // Source deletion rule
+      return priorState == null ? EMPTY_STATE : priorState;
+    }
+
+    // Concatenate the state onto the sequence.
+    final int[] history = priorState == null ? EMPTY_HISTORY : ((TrieLMState) priorState).getState();
+    final int[] ids = new int[history.length + sequence.size()];
+    System.arraycopy(history, 0, ids, 0, history.length);
+    for (int i = 0, sz = sequence.size(); i < sz; ++i) {
+      ids[history.length + i] = toLMId(sequence.get(i));
+    }
+
+    if (sequence.size() == 1 && priorState == null && sequence.get(0).equals(TokenUtils.START_TOKEN)) {
+      // Special case: Source deletion rule (e.g., from the OOV model) at the start of a string
+      return new TrieLMState(0.0, ids[0] < 0 ? EMPTY_HISTORY : ids);
+    }
+
+    // Score the sequence
+    double lmSumScore = 0.0;
+    for (int pos = startOffsetIndex + history.length; pos < ids.length; ++pos) {
+      lmSumScore += scoreWord(ids, Math.max(0, pos - order + 1), pos);
+    }
+
+    // The longest suffix that occurs in the model is sufficient for future queries.
+    for (int len = Math.min(order - 1, ids.length); len > 0; --len) {
+      if (find(ids, ids.length - len, ids.length) >= 0) {
+        return new TrieLMState(lmSumScore, Arrays.copyOfRange(ids, ids.length - len, ids.length));
+      }
+    }
+    return new TrieLMState(lmSumScore, EMPTY_HISTORY);
+  }
+
+  @Override
+  public IString getStartToken() {
+    return TokenUtils.START_TOKEN;
+  }
+
+  @Override
+  public IString getEndToken() {
+    return TokenUtils.END_TOKEN;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int order() {
+    return order;
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+  /**
+   * Quantization by binning. The sorted values are divided into bins of equal size, and each
+   * bin is represented by its mean.
+   */
+  private static class Quantizer {
+    private Quantizer() {}
+
+    /**
+     * Compute the bin centers.
+     *
+     * @param values
+     * @param bits
+     * @return Sorted bin centers.
+     */
+    public static float[] train(float[] values, int bits) {
+      final float[] sorted = new float[values.length];
+      for (int i = 0; i < values.length; ++i) sorted[i] = finite(values[i]);
+      Arrays.parallelSort(sorted);
+      final int numBins = Math.max(1, (int) Math.min(1L << bits, sorted.length));
+      final float[] centers = new float[numBins];
+      for (int b = 0; b < numBins; ++b) {
+        int start = (int) ((long) b * sorted.length / numBins);
+        int end = (int) ((long) (b + 1) * sorted.length / numBins);
+        double sum = 0.0;
+        for (int i = start; i < end; ++i) sum += sorted[i];
+        centers[b] = end > start ? (float) (sum / (end - start)) : 0.0f;
+      }
+      return centers;
+    }
+
+    /**
+     * Index of the nearest bin center.
+     *
+     * @param value
+     * @param centers
+     * @return
+     */
+    public static int encode(float value, float[] centers) {
+      value = finite(value);
+      int idx = Arrays.binarySearch(centers, value);
+      if (idx >= 0) return idx;
+      int insert = -idx - 1;
+      if (insert == 0) return 0;
+      if (insert == centers.length) return centers.length - 1;
+      return value - centers[insert - 1] <= centers[insert] - value ? insert - 1 : insert;
+    }
+
+    /**
+     * Negative infinity (e.g., the probability of the start symbol) is mapped to the unknown word score.
+     */
+    private static float finite(float value) {
+      return Float.isInfinite(value) ? (float) ARPALanguageModel.UNKNOWN_WORD_SCORE : value;
+    }
+  }
+
+  /**
+   * Convert an ARPA file to the binary format.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.printf("Usage: java %s arpa_file out_file [prob_bits bow_bits]%n", TrieLanguageModel.class.getName());
+      System.exit(-1);
+    }
+    int probBits = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PROB_BITS;
+    int bowBits = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BOW_BITS;
+    TrieLanguageModel lm = fromARPA(args[0], probBits, bowBits);
+    lm.writeBinary(args[1]);
+  }
+}
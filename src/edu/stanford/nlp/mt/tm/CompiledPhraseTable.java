@@ -2,7 +2,6 @@ package edu.stanford.nlp.mt.tm;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -20,10 +19,14 @@ import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
 import edu.stanford.nlp.mt.util.TimingUtils;
 import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.mt.util.Vocabulary;
 import edu.stanford.nlp.util.StringUtils;
 
 /**
  * A basic phrase table implementation. Does *not* support gappy rules.
+ * 
+ * The whole table is parsed onto the heap at load time. Large tables should
+ * be compiled to the binary format of {@link MappedPhraseTable}.
  *
  * @author Daniel Cer
  * @author Spence Green
@@ -39,7 +42,7 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
 
   // Static so that even when multiple phrase tables are loaded, each rule
   // is assured of received a unique, non-negative id.
-  private static final AtomicInteger ruleIdCounter = new AtomicInteger();
+  static final AtomicInteger ruleIdCounter = new AtomicInteger();
 
   protected final IntegerArrayRawIndex sourceToRuleIndex;
   protected final IntegerArrayIndex targetIndex;
@@ -99,8 +102,20 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
   protected void addEntry(Sequence<IString> sourceSequence,
       Sequence<IString> targetSequence, PhraseAlignment alignment,
       float[] scores) {
-    int[] sourceArray = Sequences.toIntArray(sourceSequence);
-    int[] targetArray = Sequences.toIntArray(targetSequence);
+    addEntry(Sequences.toIntArray(sourceSequence), Sequences.toIntArray(targetSequence),
+        alignment, scores);
+  }
+
+  /**
+   * Add a rule to the phrase table.
+   *
+   * @param sourceArray
+   * @param targetArray
+   * @param alignment
+   * @param scores
+   */
+  protected void addEntry(int[] sourceArray, int[] targetArray,
+      PhraseAlignment alignment, float[] scores) {
     int fIndex = sourceToRuleIndex.insertIntoIndex(sourceArray);
     int eIndex = this.targetIndex.indexOf(targetArray, true);
 
@@ -121,7 +136,57 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
   public List<String> getFeatureNames() { return Arrays.asList(scoreNames); }
 
   /**
-   * Load the phrase table from file.
+   * A phrase table line that has been parsed by a loader thread. Words that
+   * were not yet in the system vocabulary have id -1.
+   */
+  private static class ParsedRule {
+    final List<String> sourceWords;
+    final int[] source;
+    final List<String> targetWords;
+    final int[] target;
+    final PhraseAlignment alignment;
+    final float[] scores;
+
+    ParsedRule(String line) {
+      List<List<String>> fields = StringUtils.splitFieldsFast(line, CompiledPhraseTable.FIELD_DELIM);
+
+      // The standard format has five fields
+      assert fields.size() == 5 : String.format("phrase table line has %d fields: %s",
+          fields.size(), line);
+      sourceWords = fields.get(0);
+      source = lookup(sourceWords);
+      targetWords = fields.get(1);
+      target = lookup(targetWords);
+//      String sourceConstellation = fields[2];
+      String targetConstellation = StringUtils.join(fields.get(3));
+      alignment = targetConstellation.equals("") ? null :
+        PhraseAlignment.getPhraseAlignment(targetConstellation);
+      scores = IOTools.stringListToNumeric(fields.get(4));
+    }
+
+    private static int[] lookup(List<String> words) {
+      int[] ids = new int[words.size()];
+      for (int i = 0; i < ids.length; ++i) ids[i] = Vocabulary.systemIndexOf(words.get(i));
+      return ids;
+    }
+
+    /**
+     * Add the missing words to the system vocabulary. This happens on the calling
+     * thread in file order, so system ids do not depend on the thread schedule.
+     */
+    void resolve() {
+      for (int i = 0; i < source.length; ++i) {
+        if (source[i] < 0) source[i] = Vocabulary.systemAdd(sourceWords.get(i));
+      }
+      for (int i = 0; i < target.length; ++i) {
+        if (target[i] < 0) target[i] = Vocabulary.systemAdd(targetWords.get(i));
+      }
+    }
+  }
+
+  /**
+   * Load the phrase table from file. Lines are parsed in parallel, and
+   * rules are inserted in file order.
    *
    * @param f
    * @return
@@ -132,55 +197,31 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
     long prePhraseTableLoadMemUsed = rt.totalMemory() - rt.freeMemory();
     final long startTime = System.nanoTime();
 
-    LineNumberReader reader = IOTools.getReaderFromFile(f);
-    int numScores = -1;
-    for (String line; (line = reader.readLine()) != null;) {
-      List<List<String>> fields = StringUtils.splitFieldsFast(line, CompiledPhraseTable.FIELD_DELIM);
-
-      // The standard format has five fields
-      assert fields.size() == 5 : String.format("phrase table line %d has %d fields: %s",
-          reader.getLineNumber(), fields.size(), line);
-      Sequence<IString> source = IStrings.toIStringSequence(fields.get(0));
-      Sequence<IString> target = IStrings.toIStringSequence(fields.get(1));
-//      String sourceConstellation = fields[2];
-      String targetConstellation = StringUtils.join(fields.get(3));
-      List<String> scoreList = fields.get(4);
-
+    final int[] numScores = { -1 };
+    PhraseTableLoader<ParsedRule> loader = new PhraseTableLoader<>(f.getPath(),
+        PhraseTableLoader.DEFAULT_NUM_THREADS);
+    loader.load(ParsedRule::new, (rule, lineNumber) -> {
       // Ensure that all rules in the phrase table have the same number of scores
-      if (numScores < 0) {
-        numScores = scoreList.size();
-      } else if (numScores != scoreList.size()) {
+      if (numScores[0] < 0) {
+        numScores[0] = rule.scores.length;
+      } else if (numScores[0] != rule.scores.length) {
         throw new RuntimeException(
             String
                 .format(
                     "Error (line %d): Each entry must have exactly the same number of translation\n"
                         + "scores per line. Prior entries had %d, while the current entry has %d:",
-                    reader.getLineNumber(), numScores, scoreList.size()));
-      }
-      float[] scores;
-      try {
-        scores = IOTools.stringListToNumeric(scoreList);
-      } catch (NumberFormatException e) {
-        e.printStackTrace();
-        throw new RuntimeException(String.format("Number format error on line %d",
-            reader.getLineNumber()));
-      }
-
-      if (targetConstellation.equals("")) {
-        addEntry(source, target, null, scores);
-      } else {
-        addEntry(source, target,
-            PhraseAlignment.getPhraseAlignment(targetConstellation), scores);
+                    lineNumber, numScores[0], rule.scores.length));
       }
+      rule.resolve();
+      addEntry(rule.source, rule.target, rule.alignment, rule.scores);
 
-      if (source.size() > longestSourcePhrase) {
-        longestSourcePhrase = source.size();
+      if (rule.source.length > longestSourcePhrase) {
+        longestSourcePhrase = rule.source.length;
       }
-      if (target.size() > longestTargetPhrase) {
-        longestTargetPhrase = target.size();
+      if (rule.target.length > longestTargetPhrase) {
+        longestTargetPhrase = rule.target.length;
       }
-    }
-    reader.close();
+    });
     
     // print some status information
     long postPhraseTableLoadMemUsed = rt.totalMemory() - rt.freeMemory();
@@ -192,7 +233,7 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
             (postPhraseTableLoadMemUsed - prePhraseTableLoadMemUsed)
                 / (1024 * 1024), elapsedTime);
     System.err.println("Longest foreign phrase: " + longestSourcePhrase);
-    return numScores;
+    return numScores[0];
   }
 
   @Override
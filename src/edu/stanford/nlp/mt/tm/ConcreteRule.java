@@ -8,6 +8,7 @@ import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.DTUFeaturizable;
+import edu.stanford.nlp.mt.util.FeatureIndex;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperties;
@@ -52,6 +53,13 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
    */
   public List<FeatureValue<FV>> cachedFeatureList;
 
+  /**
+   * The cached features as parallel arrays of <code>FeatureIndex</code>
+   * ids and values.
+   */
+  public int[] cachedFeatureIds;
+  public double[] cachedFeatureValues;
+
   public enum LinearDistortionType {
     standard, first_contiguous_segment, last_contiguous_segment, closest_contiguous_segment, min_first_last_contiguous_segment, average_distance
   }
@@ -98,6 +106,7 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
       }
     }
     this.isolationScore = scorer == null ? -199.0 : scorer.getIncrementalScore(features);
+    cacheFeatureIds();
   }
 
   /**
@@ -159,6 +168,20 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
     this.isolationScore = totalScore;
     // System.err.printf("total isolation score for %s: %f\n", abstractOption,
     // this.isolationScore);
+    cacheFeatureIds();
+  }
+
+  /**
+   * Resolve the names of the cached features.
+   */
+  private void cacheFeatureIds() {
+    cachedFeatureIds = new int[cachedFeatureList.size()];
+    cachedFeatureValues = new double[cachedFeatureList.size()];
+    for (int i = 0; i < cachedFeatureIds.length; ++i) {
+      FeatureValue<FV> feature = cachedFeatureList.get(i);
+      cachedFeatureIds[i] = FeatureIndex.indexOf(feature.name.toString());
+      cachedFeatureValues[i] = feature.value;
+    }
   }
 
   @Override
@@ -3,20 +3,24 @@ package edu.stanford.nlp.mt.tm;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -38,6 +42,7 @@ import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.InputProperties;
 import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.IntArray;
 import edu.stanford.nlp.mt.util.MurmurHash2;
 import edu.stanford.nlp.mt.util.ParallelSuffixArrayEntry;
 import edu.stanford.nlp.mt.util.PhraseAlignment;
@@ -72,33 +77,11 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   public static final String DEFAULT_NAME = "dynamic-tm";
   public static final int DEFAULT_SAMPLE_SIZE = 100;
   public static final int DEFAULT_MAX_PHRASE_LEN = 12;
-  private static final int RULE_CACHE_THRESHOLD = 10000;
+  public static final String COOC_EXTENSION = ".cooc";
+  protected static final int RULE_CACHE_THRESHOLD = 10000;
   private static final double MIN_LEX_PROB = 1e-5;
   private static final int MAX_FERTILITY = 5;
   
-  /**
-   * Parallelize TM queries. 
-   */
-  private static final int WORK_QUEUE_SIZE = 4096;
-  private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-  private static final ThreadPoolExecutor threadPool = 
-      new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS, 0L, TimeUnit.MILLISECONDS,
-          new ArrayBlockingQueue<>(WORK_QUEUE_SIZE), new ThreadFactory() {
-        int threadId = 0;
-        @Override
-        public Thread newThread(Runnable r) {
-          Thread t = new Thread(r);
-          t.setName("dyntm-" + Integer.toString(threadId++));
-          t.setDaemon(true);
-          return t;
-        }
-      });
-  static {
-    // Get ready for action.
-    threadPool.prestartAllCoreThreads();
-    threadPool.allowCoreThreadTimeOut(false);
-  }
-  
   /**
    * Feature specification:
    * TODO(spenceg) Add additional dense features from Lin (2015) paper. There are also features
@@ -149,6 +132,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   // Caches
   public transient LexCoocTable coocTable;
   protected transient Map<Sequence<IString>,List<Rule<IString>>> ruleCache;
+  protected transient RuleCache spanCache;
   
   // Vocabulary translation arrays
   protected transient int[] sys2TM;
@@ -202,7 +186,8 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   }
 
   /**
-   * Load a translation model from a serialized file.
+   * Load a translation model from a serialized file. Files with the extension
+   * {@link ParallelSuffixArray#MAPPED_EXTENSION} are memory-mapped instead of deserialized.
    * 
    * @param filename
    * @param initializeSystemVocabulary
@@ -214,12 +199,24 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   public static <FV> DynamicTranslationModel<FV> load(String filename, boolean initializeSystemVocabulary,
       String name) throws IOException {
     TimeKeeper timer = TimingUtils.start();
-    DynamicTranslationModel<FV> tm = IOTools.deserialize(filename, DynamicTranslationModel.class);
-    if (tm == null) {
-      logger.error("File not found: {}", filename);
-      throw new IOException("File not found: " + filename);
+    final boolean isMapped = filename.endsWith(ParallelSuffixArray.MAPPED_EXTENSION);
+    DynamicTranslationModel<FV> tm;
+    if (isMapped) {
+      if ( ! Files.exists(Paths.get(filename))) {
+        logger.error("File not found: {}", filename);
+        throw new IOException("File not found: " + filename);
+      }
+      tm = new DynamicTranslationModel<>(ParallelSuffixArray.loadMapped(filename), name);
+      timer.mark("Mapping");
+
+    } else {
+      tm = IOTools.deserialize(filename, DynamicTranslationModel.class);
+      if (tm == null) {
+        logger.error("File not found: {}", filename);
+        throw new IOException("File not found: " + filename);
+      }
+      timer.mark("Deserialization");
     }
-    timer.mark("Deserialization");
     tm.maxSourcePhrase = DEFAULT_MAX_PHRASE_LEN;
     tm.maxTargetPhrase = DEFAULT_MAX_PHRASE_LEN;
     tm.sampleSize = DEFAULT_SAMPLE_SIZE;
@@ -233,13 +230,35 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     timer.mark("Vocabulary setup");
     
     // Lex cache must be created before any rules can be scored.
-    tm.createLexCoocTable(tm.sa.getVocabulary().size());
+    final String coocFile = filename + COOC_EXTENSION;
+    if (isMapped && Files.exists(Paths.get(coocFile))) {
+      tm.coocTable = LexCoocTable.loadMapped(coocFile);
+    } else {
+      tm.createLexCoocTable(tm.sa.getVocabulary().size());
+    }
     timer.mark("Cooc table");
 
     logger.info("Timing: {}", timer);
     return tm;
   }
   
+  /**
+   * Write this model in the memory-mapped format, which can be loaded with
+   * {@link #load(String, boolean)}. The lexical co-occurrence table is written to a separate file
+   * with the extension {@link #COOC_EXTENSION}.
+   * 
+   * @param filename
+   * @throws IOException
+   */
+  public void writeMapped(String filename) throws IOException {
+    if ( ! filename.endsWith(ParallelSuffixArray.MAPPED_EXTENSION)) {
+      throw new IllegalArgumentException("Mapped file names must end with " + ParallelSuffixArray.MAPPED_EXTENSION);
+    }
+    sa.writeMapped(filename);
+    if (coocTable == null) createLexCoocTable(sa.getVocabulary().size());
+    coocTable.writeMapped(filename + COOC_EXTENSION);
+  }
+  
   /**
    * Initialize the TM programmatically.
    * 
@@ -290,6 +309,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     
     this.name = name;
     setFeatureTemplate(t);
+    invalidateRuleCache();
     
     createIdArrays();
     timer.mark("Id arrays");
@@ -316,6 +336,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     name = name;
     reorderingEnabled = false;
     setFeatureTemplate(FeatureTemplate.DENSE);
+    invalidateRuleCache();
     
     createIdArrays();
     timer.mark("Id arrays");
@@ -436,7 +457,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * 
    * @return
    */
-  public int bitextSize() {
+  public long bitextSize() {
     return sa.numSentences();
   }
   
@@ -460,6 +481,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   public void setReorderingScores(boolean hierarchical) {
     this.reorderingEnabled = true;
     this.lexModel = hierarchical ? new HierarchicalReorderingModel() : new WordBasedReorderingModel();
+    invalidateRuleCache();
   }
   
   /**
@@ -487,6 +509,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public void setMaxTargetPhrase(int dim) {
     maxTargetPhrase = dim;
+    invalidateRuleCache();
   }
   
   /**
@@ -505,6 +528,34 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public void setFilterIncorrectNumeric(boolean flag) {
     this.filterIncorrectNumeric = flag;
+    invalidateRuleCache();
+  }
+
+  /**
+   * Cache the rules extracted for spans that are not in the query cache. The cache
+   * is bounded by the total number of rules, and is shared by all decoder threads.
+   * 
+   * @param capacity Maximum number of cached rules. Zero disables the cache.
+   */
+  public void setRuleCacheSize(long capacity) {
+    spanCache = capacity > 0 ? new RuleCache(capacity) : null;
+  }
+  
+  /**
+   * Get the rule cache, or null if the cache is disabled.
+   * 
+   * @return
+   */
+  public RuleCache getRuleCache() { return spanCache; }
+  
+  /**
+   * Discard rules cached with a previous configuration.
+   */
+  protected void invalidateRuleCache() {
+    if (spanCache != null) {
+      logger.info("Invalidating rule cache: {}", spanCache);
+      spanCache.invalidate();
+    }
   }
 
   
@@ -567,6 +618,9 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
         }
       }
     }
+    if (this.spanCache != null) {
+      spanCache.forEachRule(r -> r.phraseTableName = name);
+    }
   }
   
   @Override
@@ -597,15 +651,15 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     // Speed up higher-order queries with bounds from lower-order queries
     final int[][][] searchBounds = new int[source.size()][source.size()+1][];
     
-    final ExecutorCompletionService<QueryResult<FV>> workQueue = 
-        new ExecutorCompletionService<>(threadPool);
+    // Parallelize TM queries. The calling thread participates.
+    final QueryScheduler scheduler = QueryScheduler.get();
     
     // Iterate over source span lengths
 //    TimeKeeper timer = TimingUtils.start();
     for (int len = 1, longestSourcePhrase = Math.min(maxSourcePhrase, source.size()); 
         len <= longestSourcePhrase; len++) {
       // Filter higher-order ranges based on lower-order misses
-      int numTasks = 0;
+      final List<ExtractionTask> tasks = new ArrayList<>(source.size() - len + 1);
       for (int i = 0, sz = source.size() - len; i <= sz; ++i) {
         final int j = i + len;
         
@@ -618,22 +672,20 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
           misses[i][j] = true;
         } else {
           final int[] prefixBounds = (len > 1 && searchBounds[i][j-1] != null) ? searchBounds[i][j-1] : null;
-          workQueue.submit(new ExtractionTask(i, j, source, sourceInputProperties, 
+          tasks.add(new ExtractionTask(i, j, source, sourceInputProperties, 
               sourceInputId, scorer, sourceArray, prefixBounds));
-          ++numTasks;
         }
       }
-//      timer.mark(String.format("submit %d/%d", len, numTasks));
+//      timer.mark(String.format("submit %d/%d", len, tasks.size()));
             
-      if (numTasks == 0) {
+      if (tasks.isEmpty()) {
         // There can't be any higher order matches
         break;
       } 
       
       // Wait for results
       try {
-        for (int k = 0; k < numTasks; ++k) {
-          QueryResult<FV> result = workQueue.take().get();
+        for (QueryResult<FV> result : scheduler.invokeAll(tasks)) {
           if (result != null) {
             int i = result.i;
             int j = result.j;
@@ -647,7 +699,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
         logger.error("Rule extraction exception", e);
         return Collections.emptyList();
       }
-//      timer.mark(String.format("extract %d/%d", len, numTasks));      
+//      timer.mark(String.format("extract %d/%d", len, tasks.size()));      
     }
     
 //    logger.info("input {}: TM timing {}", sourceInputId, timer);
@@ -730,22 +782,31 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       final CoverageSet sourceCoverage = new CoverageSet(source.size());
       sourceCoverage.set(i, j);
       List<Rule<IString>> rules = ruleCache == null ? null : ruleCache.get(sourceSpan);
+      if (rules == null && spanCache != null) {
+        final RuleCache.Entry entry = spanCache.get(sourceSpan, featureTemplate, sampleSize);
+        if (entry != null) {
+          rules = entry.rules;
+          result.miss = entry.miss;
+          result.searchBounds = entry.bounds;
+        }
+      }
       if (rules == null) {
         // Sample from the suffix array
         final int[] sourcePhrase = Arrays.copyOfRange(sourceArray, i, j);
-        final SuffixArraySample corpusSample = prefixBounds == null ? sa.sample(sourcePhrase, sampleSize)
-            : sa.sample(sourcePhrase, sampleSize, prefixBounds[0], prefixBounds[1]);
-        if (corpusSample.size() == 0) {
+        final SpanSample corpusSample = sampleSpan(sourcePhrase, prefixBounds);
+        if (corpusSample.samples.size() == 0) {
           // This span is not present in the training data.
           rules = Collections.emptyList();
           result.miss = true;
           
         } else {
-          result.searchBounds = new int[]{corpusSample.lb, corpusSample.ub};
-          final int numHits = corpusSample.ub - corpusSample.lb + 1;
-          final double sampleRate = corpusSample.size() / (double) numHits;
+          result.searchBounds = corpusSample.bounds;
+          final double sampleRate = corpusSample.samples.size() / (double) corpusSample.numHits;
           rules = samplesToRules(corpusSample.samples, order, sampleRate, sourceSpan);
         }
+        if (spanCache != null) {
+          spanCache.put(sourceSpan, featureTemplate, sampleSize, rules, result.searchBounds, result.miss);
+        }
       }
       // Extract rules
       result.ruleList = new ArrayList<>(rules.size());
@@ -757,6 +818,38 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     }
   }
   
+  /**
+   * Sample a source span from the bitext.
+   * 
+   * @param sourcePhrase Source span in model ids.
+   * @param prefixBounds Search bounds returned for the prefix of this span, or null.
+   * @return
+   */
+  protected SpanSample sampleSpan(int[] sourcePhrase, int[] prefixBounds) {
+    final SuffixArraySample sample = prefixBounds == null ? sa.sample(sourcePhrase, sampleSize)
+        : sa.sample(sourcePhrase, sampleSize, prefixBounds[0], prefixBounds[1]);
+    return sample.size() == 0 ? new SpanSample(sample.samples, 0, null) :
+      new SpanSample(sample.samples, sample.ub - sample.lb + 1, new int[]{sample.lb, sample.ub});
+  }
+  
+  /**
+   * A sample of source span occurrences from the bitext.
+   * 
+   * @author Spence Green
+   *
+   */
+  protected static class SpanSample {
+    public final List<SentencePair> samples;
+    public final long numHits;
+    // Search bounds that can be used to speed up queries that extend this span.
+    public final int[] bounds;
+    public SpanSample(List<SentencePair> samples, long numHits, int[] bounds) {
+      this.samples = samples;
+      this.numHits = numHits;
+      this.bounds = bounds;
+    }
+  }
+  
   private static class QueryResult<FV> {
     public final int i;
     public final int j;
@@ -865,7 +958,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * @param word
    * @return
    */
-  private int toTMId(IString word) {
+  protected int toTMId(IString word) {
     return word.id < sys2TM.length ? sys2TM[word.id] : Vocabulary.UNKNOWN_ID;
   }
   
@@ -891,7 +984,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * @param tmTokens
    * @return
    */
-  private Sequence<IString> toSequence(int[] tmTokens) {
+  protected Sequence<IString> toSequence(int[] tmTokens) {
     final IString[] tokens = new IString[tmTokens.length];
     for (int i = 0; i < tmTokens.length; ++i) {
       assert tmTokens[i] < tm2Sys.length;
@@ -900,6 +993,39 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     }
     return new ArraySequence<>(true, tokens);
   }
+  
+  /**
+   * Convert an id from the vocabulary of the suffix array that contains the 
+   * sentence pair to a model id. The two are the same unless the model spans several
+   * suffix arrays.
+   * 
+   * @param sentencePair
+   * @param id
+   * @return
+   */
+  protected int toModelId(SentencePair sentencePair, int id) {
+    return id;
+  }
+  
+  /**
+   * The target side of a sampled rule in model ids.
+   * 
+   * @param rule
+   * @return
+   */
+  protected int[] targetIds(SampledRule rule) {
+    return rule.tgt;
+  }
+  
+  /**
+   * The number of occurrences of a target span in the bitext.
+   * 
+   * @param tgt Target span in model ids.
+   * @return
+   */
+  protected int targetCount(int[] tgt) {
+    return sa.count(tgt, false);
+  }
 
   /**
    * Note that these are abstract rules, so be sure to avoid:
@@ -910,7 +1036,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * @param sourceSpan
    * @return
    */
-  private List<Rule<IString>> samplesToRules(List<SentencePair> samples, final int order, 
+  protected List<Rule<IString>> samplesToRules(List<SentencePair> samples, final int order, 
       double sampleRate, Sequence<IString> sourceSpan) {
     // Extract the raw rules from sampled sentence pairs
     final List<SampledRule> rawRuleList = new ArrayList<>(2*samples.size());
@@ -928,11 +1054,13 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     }
     
     // Collect counts for raw rules
+    // The source side is fixed, so target spans identify rules.
     Map<TargetSpan,Counter<AlignmentTemplate>> tgtToTemplate = new HashMap<>(rawRuleList.size());
-    Map<SampledRule,ReorderingCounts> reorderingCounts = reorderingEnabled ? new HashMap<>(rawRuleList.size()) : null;
+    Map<TargetSpan,ReorderingCounts> reorderingCounts = reorderingEnabled ? new HashMap<>(rawRuleList.size()) : null;
     for (SampledRule rule : rawRuleList) {
+      final int[] tgtIds = targetIds(rule);
       if(filterIncorrectNumeric && numbers != null) {
-        Sequence<IString> tgt = toSequence(rule.tgt);
+        Sequence<IString> tgt = toSequence(tgtIds);
         boolean incorrect = false;
         for(IString num: numbers) {
           if(!tgt.contains(num)) {
@@ -943,7 +1071,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
         if(incorrect) continue;
       }
       
-      TargetSpan tgtSpan = new TargetSpan(rule.tgt);
+      TargetSpan tgtSpan = new TargetSpan(tgtIds);
       Counter<AlignmentTemplate> alTemps = tgtToTemplate.get(tgtSpan);
       if (alTemps == null) {
         alTemps = new ClassicCounter<>();
@@ -953,10 +1081,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       
       // Lexicalized reordering
       if (reorderingEnabled) {
-        ReorderingCounts counts = reorderingCounts.get(rule);
+        ReorderingCounts counts = reorderingCounts.get(tgtSpan);
         if (counts == null) {
           counts = new ReorderingCounts();
-          reorderingCounts.put(rule, counts);
+          reorderingCounts.put(tgtSpan, counts);
         }
         counts.incrementForward(lexModel.forwardOrientation(rule));
         counts.incrementBackward(lexModel.backwardOrientation(rule));
@@ -984,9 +1112,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     List<Rule<IString>> scoredRules = new ArrayList<>(maxRuleList.size());
     for (int r = 0, sz = maxRuleList.size(); r < sz; ++r) {
       final SampledRule rule = maxRuleList.get(r);
+      final TargetSpan tgtSpan = tgtSpanList.get(r);
       float[] scores = new float[featureTemplate.getNumFeatures()];
-      int eCnt = sa.count(rule.tgt, false);
-      assert eCnt > 0 : Arrays.toString(rule.tgt);
+      int eCnt = targetCount(tgtSpan.tgt);
+      assert eCnt > 0 : Arrays.toString(tgtSpan.tgt);
       int adjustedCount = (int) (histogram[r] / sampleRate);
       // Clip if the adjustedCount overshoots the number of occurrences of the target string in the
       // bitext.
@@ -1021,10 +1150,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       }
 
       // Create the rule
-      Rule<IString> scoredRule = convertRule(rule, scores, featureNames, sourceSpan, this.tm2Sys);
+      Rule<IString> scoredRule = convertRule(rule, tgtSpan.tgt, scores, featureNames, sourceSpan);
       
       if (reorderingEnabled) {
-        scoredRule.reoderingScores = reorderingCounts.get(rule).getFeatureVector();
+        scoredRule.reoderingScores = reorderingCounts.get(tgtSpan).getFeatureVector();
         scoredRule.forwardOrientation = lexModel.forwardOrientation(rule);
         scoredRule.backwardOrientation = lexModel.backwardOrientation(rule);
       }
@@ -1037,16 +1166,16 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * Convert a SampledRule to a Rule.
    * 
    * @param rule
+   * @param tgt
    * @param scores
    * @param featureNames
    * @param sourceSpan
-   * @param tm2Sys
    * @return
    */
-  private Rule<IString> convertRule(SampledRule rule, float[] scores, String[] featureNames,
-      Sequence<IString> sourceSpan, int[] tm2Sys) {
+  private Rule<IString> convertRule(SampledRule rule, int[] tgt, float[] scores, String[] featureNames,
+      Sequence<IString> sourceSpan) {
     PhraseAlignment alignment = new PhraseAlignment(rule.e2f());
-    Sequence<IString> tgtSeq = toSequence(rule.tgt);
+    Sequence<IString> tgtSeq = toSequence(tgt);
     return new Rule<>(scores, featureNames, tgtSeq, sourceSpan, alignment, name);
   }
   
@@ -1151,8 +1280,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     }
     @Override
     public String toString() {
-      return Arrays.stream(tgt).mapToObj(i -> sa.getVocabulary().get(i))
-          .collect(Collectors.joining(" "));
+      return toSequence(tgt).toString();
     }
   }
   
@@ -1165,8 +1293,9 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   private void scoreLex(SampledRule rule) {
     // Backward score p(f|e) -- Iterate over source
     double lex_f_e = 1.0;
+    final SentencePair sentencePair = rule.sentencePair;
     for (int i = rule.srcStartInclusive; i < rule.srcEndExclusive; ++i) {
-      final int srcId = rule.sentencePair.source(i);
+      final int srcId = toModelId(sentencePair, sentencePair.source(i));
       double feSum = 0.0;
       if (rule.sentencePair.isSourceUnaligned(i)) {
         int c_f_e = coocTable.getJointCount(srcId, LexCoocTable.NULL_ID);
@@ -1176,7 +1305,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       } else {
         int[] tgtAlign = rule.sentencePair.f2e(i);
         for (int j : tgtAlign) {
-          int tgtId = rule.sentencePair.target(j);
+          int tgtId = toModelId(sentencePair, sentencePair.target(j));
           int c_f_e = coocTable.getJointCount(srcId, tgtId);
           int c_e = coocTable.getTgtMarginal(tgtId);
           feSum += (c_f_e / (double) c_e);
@@ -1191,7 +1320,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     // Backward score p(e|f) -- Iterate over target
     double lex_e_f = 1.0;
     for (int i = rule.tgtStartInclusive; i < rule.tgtEndExclusive; ++i) {
-      final int tgtId = rule.sentencePair.target(i);
+      final int tgtId = toModelId(sentencePair, sentencePair.target(i));
       double efSum = 0.0;
       if (rule.sentencePair.isTargetUnaligned(i)) {
         int c_e_f = coocTable.getJointCount(LexCoocTable.NULL_ID, tgtId);
@@ -1201,7 +1330,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       } else {
         int[] srcAlign = rule.sentencePair.e2f(i);
         for (int j : srcAlign) {
-          final int srcId = rule.sentencePair.source(j);
+          final int srcId = toModelId(sentencePair, sentencePair.source(j));
           int c_e_f = coocTable.getJointCount(srcId, tgtId);
           int c_f = coocTable.getSrcMarginal(srcId);
           efSum += (c_e_f / (double) c_f);
@@ -1219,14 +1348,15 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   }
 
   /**
-   * A hash-based lexical co-occurrence table.
+   * A hash-based lexical co-occurrence table. A read-only table can also be
+   * memory-mapped from a sorted key file written by {@link #writeMapped(String)}.
    * 
    * NOTE: This class is not threadsafe.
    * 
    * @author Spence Green
    *
    */
-  private static class LexCoocTable {
+  static class LexCoocTable {
 
     public static final int NULL_ID = Integer.MIN_VALUE + 1;
     private static final int MARGINALIZE = Integer.MIN_VALUE;
@@ -1234,6 +1364,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     // Use primitive long->int map to avoid boxing/unboxing costs.
     private final Long2IntMap counts;
     
+    // Read-only mapped table: sorted keys and parallel counts
+    private final LongBuffer mappedKeys;
+    private final IntArray mappedCounts;
+    
     /**
      * Constructor.
      * 
@@ -1242,6 +1376,70 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     public LexCoocTable(int initialCapacity) {
       counts = new Long2IntOpenHashMap(initialCapacity);
       counts.defaultReturnValue(0);
+      mappedKeys = null;
+      mappedCounts = null;
+    }
+    
+    private LexCoocTable(LongBuffer mappedKeys, IntArray mappedCounts) {
+      this.counts = null;
+      this.mappedKeys = mappedKeys;
+      this.mappedCounts = mappedCounts;
+    }
+    
+    /**
+     * Map a table written by {@link #writeMapped(String)}.
+     * 
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    public static LexCoocTable loadMapped(String filename) throws IOException {
+      try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+        ByteBuffer header = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder());
+        while (header.hasRemaining() && channel.read(header) >= 0);
+        header.flip();
+        final int size = (int) header.getLong();
+        final long keysOffset = Long.BYTES;
+        LongBuffer keys = channel.map(MapMode.READ_ONLY, keysOffset, ((long) size) * Long.BYTES)
+            .order(ByteOrder.nativeOrder()).asLongBuffer();
+        IntArray counts = IntArray.map(channel, keysOffset + ((long) size) * Long.BYTES, size, 
+            ByteOrder.nativeOrder());
+        logger.info("Mapped lexical cooc table {} with {} entries", filename, size);
+        return new LexCoocTable(keys, counts);
+      }
+    }
+    
+    /**
+     * Write the table as sorted keys followed by counts in native byte order.
+     * 
+     * @param filename
+     * @throws IOException
+     */
+    public void writeMapped(String filename) throws IOException {
+      if (counts == null) throw new UnsupportedOperationException("Table is already mapped");
+      if (counts.size() > Integer.MAX_VALUE / Long.BYTES) {
+        throw new IOException("Cooc table is too large to map: " + counts.size());
+      }
+      final long[] keys = counts.keySet().toLongArray();
+      Arrays.parallelSort(keys);
+      final int[] values = new int[keys.length];
+      for (int i = 0; i < keys.length; ++i) values[i] = counts.get(keys[i]);
+      try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, 
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+        buffer.putLong(keys.length);
+        for (long key : keys) {
+          if (buffer.remaining() < Long.BYTES) {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+          }
+          buffer.putLong(key);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        IntArray.wrap(values).write(channel, ByteOrder.nativeOrder());
+      }
     }
     
     /**
@@ -1259,6 +1457,35 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     private void increment(long key) {
       counts.put(key, counts.get(key) + 1);
     }
+    
+    /**
+     * Add the counts in another table. The ids of the other table are converted
+     * with idMap.
+     * 
+     * @param other
+     * @param idMap
+     */
+    public void addAll(LexCoocTable other, IntUnaryOperator idMap) {
+      final int size = other.size();
+      if (other.counts != null) {
+        for (Long2IntMap.Entry entry : other.counts.long2IntEntrySet()) {
+          add(entry.getLongKey(), entry.getIntValue(), idMap);
+        }
+      } else {
+        for (int i = 0; i < size; ++i) {
+          add(other.mappedKeys.get(i), other.mappedCounts.get(i), idMap);
+        }
+      }
+    }
+    
+    private void add(long key, int count, IntUnaryOperator idMap) {
+      int srcId = (int) (key >>> 32);
+      int tgtId = (int) key;
+      if (srcId != NULL_ID && srcId != MARGINALIZE) srcId = idMap.applyAsInt(srcId);
+      if (tgtId != NULL_ID && tgtId != MARGINALIZE) tgtId = idMap.applyAsInt(tgtId);
+      final long newKey = pack(srcId, tgtId);
+      counts.put(newKey, counts.get(newKey) + count);
+    }
 
     /**
      * Source marginal count.
@@ -1284,7 +1511,22 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
      * @return
      */
     public int getJointCount(int srcId, int tgtId) { 
-      return counts.get(pack(srcId, tgtId));
+      final long key = pack(srcId, tgtId);
+      if (counts != null) return counts.get(key);
+      int low = 0;
+      int high = mappedCounts.length() - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final long midKey = mappedKeys.get(mid);
+        if (midKey < key) {
+          low = mid + 1;
+        } else if (midKey > key) {
+          high = mid - 1;
+        } else {
+          return mappedCounts.get(mid);
+        }
+      }
+      return 0;
     }
     
     /**
@@ -1292,7 +1534,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
      * 
      * @return
      */
-    public int size() { return counts.size(); }
+    public int size() { return counts != null ? counts.size() : mappedCounts.length(); }
     
     /**
      * Merge two interger ids into an unsigned long value. This is two unwrapped calls
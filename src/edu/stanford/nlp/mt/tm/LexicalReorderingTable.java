@@ -1,7 +1,6 @@
 package edu.stanford.nlp.mt.tm;
 
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -156,6 +155,44 @@ public class LexicalReorderingTable {
 
   }
 
+  /**
+   * A reordering table line and the id of its rule in the phrase table.
+   */
+  private static class ParsedEntry {
+    final float[] scores;
+    final int ruleId;
+
+    ParsedEntry(String line, PhraseTable<IString> phraseTable) {
+      final List<List<String>> fields = StringUtils.splitFieldsFast(line, AlignmentTemplate.DELIM);
+      
+      List<String> srcTokens;
+      List<String> tgtTokens = null;
+      List<String> scoreList;
+      if (fields.size() == 2) {
+        // TODO(spenceg): This format is not used anymore. Deprecate this condition.
+        srcTokens = fields.get(0);
+        scoreList = fields.get(1);
+        
+      } else if (fields.size() == 3) {
+        // Standard phrase table format without alignments
+        srcTokens = fields.get(0);
+        tgtTokens = fields.get(1);
+        scoreList = fields.get(2);
+        
+      } else if (fields.size() >= 5) {
+        // Standard phrase table format with alignments
+        srcTokens = fields.get(0);
+        tgtTokens = fields.get(1);
+        scoreList = fields.get(4);
+        
+      } else {
+        throw new RuntimeException("Invalid re-ordering table line: " + line);
+      }
+      ruleId = phraseTable.getId(IStrings.toIStringSequence(srcTokens), IStrings.toIStringSequence(tgtTokens));
+      scores = IOTools.stringListToNumeric(scoreList);
+    }
+  }
+
   private String init(String filename, String type) throws IOException {
     Runtime rt = Runtime.getRuntime();
     long preTableLoadMemUsed = rt.totalMemory() - rt.freeMemory();
@@ -187,68 +224,39 @@ public class LexicalReorderingTable {
           filename));
     }
 
-    LineNumberReader reader = IOTools.getReaderFromFile(filename);
-    for (String line; (line = reader.readLine()) != null; ) {
-      final List<List<String>> fields = StringUtils.splitFieldsFast(line, AlignmentTemplate.DELIM);
-      
-      List<String> srcTokens;
-      List<String> tgtTokens = null;
-      List<String> scoreList;
-      if (fields.size() == 2) {
-        // TODO(spenceg): This format is not used anymore. Deprecate this condition.
-        srcTokens = fields.get(0);
-        scoreList = fields.get(1);
-        
-      } else if (fields.size() == 3) {
-        // Standard phrase table format without alignments
-        srcTokens = fields.get(0);
-        tgtTokens = fields.get(1);
-        scoreList = fields.get(2);
-        
-      } else if (fields.size() >= 5) {
-        // Standard phrase table format with alignments
-        srcTokens = fields.get(0);
-        tgtTokens = fields.get(1);
-        scoreList = fields.get(4);
-        
-      } else {
-        throw new RuntimeException("Invalid re-ordering table line: " + String.valueOf(reader.getLineNumber()));
-      }
-      
-      if (scoreList.size() != positionalMapping.length) {
+    if (conditionType == ConditionTypes.e
+        || conditionType == ConditionTypes.f) {
+      //TODO(spenceg): This lookup is broken as of 2 July 2014. It broke sometime earlier, but I only
+      //discovered the bug today.
+      throw new RuntimeException("unidirectional conditioning is not implemented / broken");
+    }
+
+    // Lines are parsed and looked up in the phrase table in parallel. The scores
+    // are stored in file order.
+    final ReorderingTypes[] mapping = positionalMapping;
+    PhraseTableLoader<ParsedEntry> loader = new PhraseTableLoader<>(filename,
+        PhraseTableLoader.DEFAULT_NUM_THREADS);
+    loader.load(line -> new ParsedEntry(line, phraseTable), (entry, lineNumber) -> {
+      if (entry.scores.length != mapping.length) {
         throw new RuntimeException(
             String
                 .format(
                     "File type '%s' requires that %d scores be provided for each entry, however only %d were found (line %d)",
-                    filetype, positionalMapping.length, scoreList.size(),
-                    reader.getLineNumber()));
+                    filetype, mapping.length, entry.scores.length,
+                    lineNumber));
       }
-      
-      int idx = -1;
-      if (conditionType == ConditionTypes.e
-          || conditionType == ConditionTypes.f) {
-        IString[] tokens = IStrings.toIStringArray(srcTokens);
-        int[] indexInts = IStrings.toIntArray(tokens);
-        //TODO(spenceg): This lookup is broken as of 2 July 2014. It broke sometime earlier, but I only
-        //discovered the bug today.
-        throw new RuntimeException("unidirectional conditioning is not implemented / broken");
-      
-      } else {
-        idx = phraseTable.getId(IStrings.toIStringSequence(srcTokens), IStrings.toIStringSequence(tgtTokens));
-      }
-          
+
       // Lookup this rule in the phrase table
+      int idx = entry.ruleId;
       if (idx < 0) {
-        throw new RuntimeException(String.format("Phrase %d not in phrase table", reader.getLineNumber()));
+        throw new RuntimeException(String.format("Phrase %d not in phrase table", lineNumber));
       }
+      idx -= phraseTable.minRuleIndex();
       if (reorderingScores.get(idx) != null) {
-        throw new RuntimeException(String.format("Duplicate phrase %d in phrase table", reader.getLineNumber()));
+        throw new RuntimeException(String.format("Duplicate phrase %d in phrase table", lineNumber));
       }
-      float[] scores = IOTools.stringListToNumeric(scoreList);
-      idx -= phraseTable.minRuleIndex();
-      reorderingScores.set(idx, scores);
-    }
-    reader.close();
+      reorderingScores.set(idx, entry.scores);
+    });
     
     long postTableLoadMemUsed = rt.totalMemory() - rt.freeMemory();
     double elapsedTime = ((double) System.nanoTime() - startTime) / 1e9;
@@ -0,0 +1,733 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.BigIntList;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.IntArray;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.mt.util.Vocabulary;
+import edu.stanford.nlp.util.StringUtils;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * A phrase table in a compiled binary format that is memory-mapped at load time. Loading
+ * does not parse the table, and the rules stay in the page cache instead of the heap.
+ * {@link Rule} objects are only materialized for the source spans that are queried.
+ * Does *not* support gappy rules.
+ *
+ * The source phrases are stored as a sorted-array trie, so shared source prefixes
+ * are stored once. Level k of the trie holds the k-th word of each source prefix, sorted by
+ * (parent index, word id), along with the range of its children in level k+1 and the range
+ * of its rules. Target phrases are bit-packed word ids. The scores of each rule are
+ * quantized into 2^b bins of equal size per feature (b=32 disables quantization), and
+ * bit-packed with the index of the word alignment.
+ *
+ * A text phrase table is converted to the binary format offline with {@link #compile(String, String, int)}.
+ * See the main method. {@link TranslationModelFactory} loads binary tables automatically.
+ *
+ * @param <FV>
+ */
+public class MappedPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV>
+    implements PhraseTable<IString> {
+
+  private static final Logger logger = LogManager.getLogger(MappedPhraseTable.class);
+
+  public static final int DEFAULT_SCORE_BITS = 8;
+  public static final int NO_QUANTIZATION = 32;
+
+  private static final long MAGIC = 0x5048524C50544249L;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 4096;
+  // Rule ids are ints, and the trie arrays have one more entry than the number of rules
+  private static final int MAX_RULES = Integer.MAX_VALUE - 8;
+
+  protected String name;
+  protected final String[] scoreNames;
+  protected final int minRuleIndex;
+
+  private int numRules;
+  private int numScores;
+  private int longestSourcePhrase;
+  private int longestTargetPhrase;
+
+  // Vocabulary of the table, and the mappings to and from the system vocabulary
+  private int[] table2Sys;
+  private int[] sys2Table;
+
+  // Source trie, indexed by level
+  private IntArray[] levelWords;
+  private IntArray[] childStarts;
+  private IntArray[] ruleStarts;
+
+  // Rules
+  private IntArray targetStarts;
+  private IntArray targetWords;
+  private IntArray records;
+  private int wordBits;
+  private int alignmentBits;
+  private int scoreBits;
+  private int recordBits;
+  private float[][] scoreCenters;
+  private PhraseAlignment[] alignments;
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public MappedPhraseTable(String filename) throws IOException {
+    this(CompiledPhraseTable.DEFAULT_FEATURE_PREFIX, filename);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param featurePrefix
+   * @param filename
+   * @throws IOException
+   */
+  public MappedPhraseTable(String featurePrefix, String filename) throws IOException {
+    super(null);
+    name = String.format("%s:%s", this.getClass().getName(), new File(filename).getPath()).intern();
+    map(filename);
+    minRuleIndex = CompiledPhraseTable.ruleIdCounter.getAndAdd(numRules);
+    scoreNames = new String[numScores];
+    for (int i = 0; i < numScores; i++) {
+      scoreNames[i] = String.format("%s.%d", featurePrefix, i);
+    }
+  }
+
+  /**
+   * True if the file was written by {@link #compile(String, String, int)}.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static boolean isBinary(String filename) throws IOException {
+    try (InputStream input = Files.newInputStream(Paths.get(filename))) {
+      DataInputStream data = new DataInputStream(input);
+      return data.available() >= Long.BYTES && data.readLong() == MAGIC;
+    }
+  }
+
+  /**
+   * Memory-map the binary table.
+   */
+  private void map(String filename) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0);
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+        throw new IOException("Not a binary phrase table: " + filename);
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported binary phrase table version %d: %s", version, filename));
+      }
+      final ByteOrder byteOrder = header.getInt() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+      longestSourcePhrase = header.getInt();
+      longestTargetPhrase = header.getInt();
+      numRules = header.getInt();
+      numScores = header.getInt();
+      final int vocabSize = header.getInt();
+      final int numAlignments = header.getInt();
+      wordBits = header.getInt();
+      alignmentBits = header.getInt();
+      scoreBits = header.getInt();
+      recordBits = alignmentBits + numScores * scoreBits;
+
+      final int numArrays = header.getInt();
+      if (numArrays != 3 * longestSourcePhrase + 3 + numScores) {
+        throw new IOException("Corrupt header: " + filename);
+      }
+      List<IntArray> arrays = new ArrayList<>(numArrays);
+      for (int i = 0; i < numArrays; ++i) {
+        long offset = header.getLong();
+        int length = header.getInt();
+        arrays.add(IntArray.map(channel, offset, length, byteOrder));
+      }
+      levelWords = new IntArray[longestSourcePhrase + 1];
+      childStarts = new IntArray[longestSourcePhrase + 1];
+      ruleStarts = new IntArray[longestSourcePhrase + 1];
+      int i = 0;
+      for (int k = 1; k <= longestSourcePhrase; ++k) {
+        levelWords[k] = arrays.get(i++);
+        childStarts[k] = arrays.get(i++);
+        ruleStarts[k] = arrays.get(i++);
+      }
+      targetStarts = arrays.get(i++);
+      targetWords = arrays.get(i++);
+      records = arrays.get(i++);
+      scoreCenters = new float[numScores][];
+      for (int j = 0; j < numScores; ++j) {
+        IntArray centers = arrays.get(i++);
+        scoreCenters[j] = new float[centers.length()];
+        for (int b = 0; b < centers.length(); ++b) scoreCenters[j][b] = Float.intBitsToFloat(centers.get(b));
+      }
+
+      // Vocabulary and word alignments
+      long stringsOffset = header.getLong();
+      int stringsLength = header.getInt();
+      ByteBuffer strings = ByteBuffer.allocate(stringsLength);
+      while (strings.hasRemaining() && channel.read(strings, stringsOffset + strings.position()) >= 0);
+      table2Sys = new int[vocabSize];
+      alignments = new PhraseAlignment[numAlignments];
+      try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(strings.array()))) {
+        for (int j = 0; j < vocabSize; ++j) table2Sys[j] = Vocabulary.systemAdd(input.readUTF());
+        // The first alignment is the empty alignment
+        for (int j = 1; j < numAlignments; ++j) alignments[j] = PhraseAlignment.getPhraseAlignment(input.readUTF());
+      }
+    }
+    // Words that are added to the system vocabulary later are not in the table.
+    sys2Table = new int[Vocabulary.systemSize()];
+    Arrays.fill(sys2Table, -1);
+    for (int i = 0; i < table2Sys.length; ++i) sys2Table[table2Sys[i]] = i;
+    timer.mark("Map");
+    logger.info("Mapped {} (rules: {}): {}", name, numRules, timer);
+  }
+
+  /**
+   * Map a system word to a table id, or -1 if the word is not in the table.
+   */
+  private int toTableId(IString token) {
+    return token.id >= 0 && token.id < sys2Table.length ? sys2Table[token.id] : -1;
+  }
+
+  /**
+   * Find a source phrase in the trie.
+   *
+   * @return The index of the last word of the phrase in its level, or -1 if it is not found.
+   */
+  private int find(Sequence<IString> source) {
+    final int length = source.size();
+    if (length == 0 || length > longestSourcePhrase) return -1;
+    int lo = 0;
+    int hi = levelWords[1].length();
+    int node = -1;
+    for (int k = 1; k <= length; ++k) {
+      if (k > 1) {
+        lo = childStarts[k - 1].get(node);
+        hi = childStarts[k - 1].get(node + 1);
+      }
+      node = binarySearch(levelWords[k], lo, hi, toTableId(source.get(k - 1)));
+      if (node < 0) return -1;
+    }
+    return node;
+  }
+
+  private static int binarySearch(IntArray words, int fromIndex, int toIndex, int word) {
+    if (word < 0) return -1;
+    int lo = fromIndex;
+    int hi = toIndex - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int midWord = words.get(mid);
+      if (midWord < word) {
+        lo = mid + 1;
+      } else if (midWord > word) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Target word ids of a rule in the system vocabulary.
+   */
+  private int[] target(int rule) {
+    final int start = targetStarts.get(rule);
+    final int[] target = new int[targetStarts.get(rule + 1) - start];
+    for (int i = 0; i < target.length; ++i) {
+      target[i] = table2Sys[(int) get(targetWords, (long) (start + i) * wordBits, wordBits)];
+    }
+    return target;
+  }
+
+  /**
+   * Materialize a rule.
+   */
+  private Rule<IString> rule(int rule, Sequence<IString> source) {
+    final long bit = (long) rule * recordBits;
+    final PhraseAlignment alignment = alignments[(int) get(records, bit, alignmentBits)];
+    final float[] scores = new float[numScores];
+    for (int i = 0; i < numScores; ++i) {
+      long value = get(records, bit + alignmentBits + (long) i * scoreBits, scoreBits);
+      scores[i] = scoreBits == NO_QUANTIZATION ? Float.intBitsToFloat((int) value) : scoreCenters[i][(int) value];
+    }
+    return new Rule<IString>(minRuleIndex + rule, scores, scoreNames,
+        IStrings.toIStringSequence(target(rule)), source, alignment, name);
+  }
+
+  @Override
+  public List<Rule<IString>> query(Sequence<IString> sourceSequence) {
+    final int node = find(sourceSequence);
+    if (node < 0) return null;
+    final IntArray starts = ruleStarts[sourceSequence.size()];
+    final int start = starts.get(node);
+    final int end = starts.get(node + 1);
+    if (start == end) return null;
+    List<Rule<IString>> ruleList = new ArrayList<>(end - start);
+    for (int r = start; r < end; ++r) {
+      ruleList.add(rule(r, sourceSequence));
+    }
+    return ruleList;
+  }
+
+  @Override
+  public int getId(Sequence<IString> sourceSequence, Sequence<IString> targetSequence) {
+    final int node = find(sourceSequence);
+    if (node < 0) return -1;
+    final IntArray starts = ruleStarts[sourceSequence.size()];
+    final int[] targetArray = new int[targetSequence.size()];
+    for (int i = 0; i < targetArray.length; ++i) targetArray[i] = targetSequence.get(i).id;
+    for (int r = starts.get(node), end = starts.get(node + 1); r < end; ++r) {
+      if (Arrays.equals(targetArray, target(r))) {
+        return minRuleIndex + r;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int size() { return numRules; }
+
+  @Override
+  public List<String> getFeatureNames() { return Arrays.asList(scoreNames); }
+
+  @Override
+  public int maxLengthSource() {
+    return longestSourcePhrase;
+  }
+
+  @Override
+  public int maxLengthTarget() {
+    return longestTargetPhrase;
+  }
+
+  @Override
+  public Object clone() throws CloneNotSupportedException {
+    return super.clone();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+  @Override
+  public int minRuleIndex() {
+    return minRuleIndex;
+  }
+
+  @Override
+  public void setName(String name) { this.name = name; }
+
+  /**
+   * Compile a text phrase table to the binary format. The table is held in primitive
+   * arrays while it is compiled.
+   *
+   * @param textFile
+   * @param binaryFile
+   * @param scoreBits Bits per score.
+   * @throws IOException
+   */
+  public static void compile(String textFile, String binaryFile, int scoreBits) throws IOException {
+    compile(textFile, binaryFile, scoreBits, BigIntList.DEFAULT_CHUNK_SHIFT);
+  }
+
+  /**
+   * Compile a text phrase table to the binary format.
+   *
+   * @param textFile
+   * @param binaryFile
+   * @param scoreBits Bits per score.
+   * @param chunkShift Log2 of the chunk size of the word lists.
+   * @throws IOException
+   */
+  static void compile(String textFile, String binaryFile, int scoreBits, int chunkShift) throws IOException {
+    if (scoreBits < 1 || scoreBits > NO_QUANTIZATION) {
+      throw new IllegalArgumentException("Invalid quantization: " + scoreBits);
+    }
+    TimeKeeper timer = TimingUtils.start();
+
+    // Read the rules. The compiler uses its own word ids.
+    final Object2IntMap<String> wordToId = new Object2IntOpenHashMap<>();
+    wordToId.defaultReturnValue(-1);
+    final List<String> words = new ArrayList<>();
+    final Object2IntMap<String> alignmentToId = new Object2IntOpenHashMap<>();
+    alignmentToId.defaultReturnValue(-1);
+    final List<String> alignmentStrings = new ArrayList<>();
+    alignmentStrings.add(null);
+    // The words of all rules can exceed 2^31, so they are indexed by long. Everything
+    // else is indexed by rule.
+    final BigIntList sourceWords = new BigIntList(chunkShift);
+    final IntArrayList sourceLengths = new IntArrayList();
+    final BigIntList targetWords = new BigIntList(chunkShift);
+    final IntArrayList targetLengths = new IntArrayList();
+    final IntArrayList alignmentIds = new IntArrayList();
+    FloatArrayList[] scores = null;
+    int numScores = -1;
+    int longestSourcePhrase = 0;
+    int longestTargetPhrase = 0;
+    try (LineNumberReader reader = IOTools.getReaderFromFile(textFile)) {
+      for (String line; (line = reader.readLine()) != null;) {
+        List<List<String>> fields = StringUtils.splitFieldsFast(line, CompiledPhraseTable.FIELD_DELIM);
+        if (fields.size() != 5) {
+          throw new RuntimeException(String.format("Phrase table line %d has %d fields: %s",
+              reader.getLineNumber(), fields.size(), line));
+        }
+        if (alignmentIds.size() == MAX_RULES) {
+          throw new RuntimeException("Phrase table has more than " + MAX_RULES + " rules: " + textFile);
+        }
+        List<String> scoreList = fields.get(4);
+        if (numScores < 0) {
+          numScores = scoreList.size();
+          scores = new FloatArrayList[numScores];
+          for (int j = 0; j < numScores; ++j) scores[j] = new FloatArrayList();
+        } else if (numScores != scoreList.size()) {
+          throw new RuntimeException(String.format(
+              "Error (line %d): Each entry must have exactly the same number of translation\n"
+                  + "scores per line. Prior entries had %d, while the current entry has %d:",
+                  reader.getLineNumber(), numScores, scoreList.size()));
+        }
+        sourceLengths.add(fields.get(0).size());
+        for (String word : fields.get(0)) sourceWords.add(wordId(word, wordToId, words));
+        targetLengths.add(fields.get(1).size());
+        for (String word : fields.get(1)) targetWords.add(wordId(word, wordToId, words));
+        longestSourcePhrase = Math.max(longestSourcePhrase, fields.get(0).size());
+        longestTargetPhrase = Math.max(longestTargetPhrase, fields.get(1).size());
+
+        String targetConstellation = StringUtils.join(fields.get(3));
+        if (targetConstellation.equals("")) {
+          alignmentIds.add(0);
+        } else {
+          int alignmentId = alignmentToId.getInt(targetConstellation);
+          if (alignmentId < 0) {
+            alignmentId = alignmentStrings.size();
+            alignmentToId.put(targetConstellation, alignmentId);
+            alignmentStrings.add(targetConstellation);
+          }
+          alignmentIds.add(alignmentId);
+        }
+        try {
+          for (int j = 0; j < numScores; ++j) scores[j].add(Float.parseFloat(scoreList.get(j)));
+        } catch (NumberFormatException e) {
+          throw new RuntimeException(String.format("Number format error on line %d",
+              reader.getLineNumber()), e);
+        }
+      }
+    }
+    final int numRules = alignmentIds.size();
+    if (numRules == 0) throw new RuntimeException("Empty phrase table: " + textFile);
+    final long[] srcStarts = starts(sourceLengths);
+    final long[] tgtStarts = starts(targetLengths);
+    timer.mark("Read");
+
+    // Sort the rules by source. Rules with the same source keep the order of the file.
+    final int[] sortedRules = new int[numRules];
+    for (int i = 0; i < numRules; ++i) sortedRules[i] = i;
+    IntArrays.parallelQuickSort(sortedRules, new AbstractIntComparator() {
+      private static final long serialVersionUID = 1L;
+      @Override
+      public int compare(int r1, int r2) {
+        long i = srcStarts[r1], iEnd = srcStarts[r1 + 1];
+        long j = srcStarts[r2], jEnd = srcStarts[r2 + 1];
+        for (; i < iEnd && j < jEnd; ++i, ++j) {
+          final int w1 = sourceWords.get(i);
+          final int w2 = sourceWords.get(j);
+          if (w1 != w2) return Integer.compare(w1, w2);
+        }
+        int cmp = Long.compare(iEnd - srcStarts[r1], jEnd - srcStarts[r2]);
+        return cmp == 0 ? Integer.compare(r1, r2) : cmp;
+      }
+    });
+    timer.mark("Sort");
+
+    // Build the trie. In lexicographic order, the nodes of each level are created in
+    // (parent, word) order, and the rules of a node are contiguous.
+    final int numLevels = longestSourcePhrase;
+    final IntArrayList[] nodeWords = new IntArrayList[numLevels + 2];
+    final IntArrayList[] nodeChildStarts = new IntArrayList[numLevels + 1];
+    final IntArrayList[] nodeRuleStarts = new IntArrayList[numLevels + 1];
+    final IntArrayList[] levelRules = new IntArrayList[numLevels + 1];
+    for (int k = 1; k <= numLevels + 1; ++k) nodeWords[k] = new IntArrayList();
+    for (int k = 1; k <= numLevels; ++k) {
+      nodeChildStarts[k] = new IntArrayList();
+      nodeRuleStarts[k] = new IntArrayList();
+      levelRules[k] = new IntArrayList();
+    }
+    int prev = -1;
+    for (int rule : sortedRules) {
+      final long start = srcStarts[rule];
+      final int length = sourceLengths.getInt(rule);
+      // Length of the prefix shared with the previous source
+      int shared = 0;
+      if (prev >= 0) {
+        final long prevStart = srcStarts[prev];
+        final int prevLength = sourceLengths.getInt(prev);
+        while (shared < length && shared < prevLength
+            && sourceWords.get(start + shared) == sourceWords.get(prevStart + shared)) ++shared;
+      }
+      for (int k = shared + 1; k <= length; ++k) {
+        nodeWords[k].add(sourceWords.get(start + k - 1));
+        nodeChildStarts[k].add(nodeWords[k + 1].size());
+        nodeRuleStarts[k].add(levelRules[k].size());
+      }
+      levelRules[length].add(rule);
+      prev = rule;
+    }
+
+    // Rules are stored level by level
+    final int[] ruleOrder = new int[numRules];
+    final int[][] trieArrays = new int[3 * numLevels][];
+    for (int k = 1, base = 0; k <= numLevels; ++k) {
+      final int n = nodeWords[k].size();
+      nodeChildStarts[k].add(nodeWords[k + 1].size());
+      nodeRuleStarts[k].add(levelRules[k].size());
+      final int[] ruleStart = nodeRuleStarts[k].toIntArray();
+      for (int i = 0; i <= n; ++i) ruleStart[i] += base;
+      levelRules[k].getElements(0, ruleOrder, base, levelRules[k].size());
+      base += levelRules[k].size();
+      trieArrays[3 * (k - 1)] = nodeWords[k].toIntArray();
+      trieArrays[3 * (k - 1) + 1] = nodeChildStarts[k].toIntArray();
+      trieArrays[3 * (k - 1) + 2] = ruleStart;
+      nodeWords[k] = null;
+      nodeChildStarts[k] = null;
+      nodeRuleStarts[k] = null;
+      levelRules[k] = null;
+    }
+    timer.mark("Trie");
+
+    // Pack the rules
+    final int wordBits = Math.max(1, bitsFor(words.size() - 1));
+    final int alignmentBits = bitsFor(alignmentStrings.size() - 1);
+    final int recordBits = alignmentBits + numScores * scoreBits;
+    final float[][] centers = new float[numScores][];
+    final float[] column = new float[numRules];
+    for (int j = 0; j < numScores; ++j) {
+      scores[j].getElements(0, column, 0, numRules);
+      centers[j] = scoreBits == NO_QUANTIZATION ? new float[0] : trainCenters(column, scoreBits);
+    }
+    // Target offsets are stored as ints
+    if (targetWords.size() > Integer.MAX_VALUE) {
+      throw new RuntimeException("Phrase table has more than " + Integer.MAX_VALUE + " target words: " + textFile);
+    }
+    final int[] packedTargetStarts = new int[numRules + 1];
+    for (int r = 0; r < numRules; ++r) {
+      packedTargetStarts[r + 1] = packedTargetStarts[r] + targetLengths.getInt(ruleOrder[r]);
+    }
+    final int[] packedTargets = new int[packedArraySize((long) packedTargetStarts[numRules] * wordBits)];
+    final int[] packedRecords = new int[packedArraySize((long) numRules * recordBits)];
+    for (int r = 0; r < numRules; ++r) {
+      final int rule = ruleOrder[r];
+      long bit = (long) packedTargetStarts[r] * wordBits;
+      for (long i = tgtStarts[rule]; i < tgtStarts[rule + 1]; ++i, bit += wordBits) {
+        put(packedTargets, bit, wordBits, targetWords.get(i));
+      }
+      bit = (long) r * recordBits;
+      put(packedRecords, bit, alignmentBits, alignmentIds.getInt(rule));
+      bit += alignmentBits;
+      for (int j = 0; j < numScores; ++j, bit += scoreBits) {
+        float score = scores[j].getFloat(rule);
+        put(packedRecords, bit, scoreBits, scoreBits == NO_QUANTIZATION ?
+            Float.floatToIntBits(score) & 0xffffffffL : quantize(score, centers[j]));
+      }
+    }
+    timer.mark("Packing");
+
+    // Write
+    final List<IntArray> arrays = new ArrayList<>();
+    for (int[] a : trieArrays) arrays.add(IntArray.wrap(a));
+    arrays.add(IntArray.wrap(packedTargetStarts));
+    arrays.add(IntArray.wrap(packedTargets));
+    arrays.add(IntArray.wrap(packedRecords));
+    for (float[] c : centers) {
+      int[] ints = new int[c.length];
+      for (int i = 0; i < c.length; ++i) ints[i] = Float.floatToIntBits(c[i]);
+      arrays.add(IntArray.wrap(ints));
+    }
+    // magic + 12 ints + 1 entry per array + the strings entry
+    if (Long.BYTES + 12 * Integer.BYTES + (arrays.size() + 1) * (Long.BYTES + Integer.BYTES) > HEADER_SIZE) {
+      throw new RuntimeException("Too many arrays for the header: " + arrays.size());
+    }
+    final ByteOrder byteOrder = ByteOrder.nativeOrder();
+    try (FileChannel channel = FileChannel.open(Paths.get(binaryFile), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long[] offsets = new long[arrays.size()];
+      channel.position(HEADER_SIZE);
+      for (int i = 0; i < offsets.length; ++i) {
+        offsets[i] = channel.position();
+        arrays.get(i).write(channel, byteOrder);
+      }
+
+      final long stringsOffset = channel.position();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream output = new DataOutputStream(bytes)) {
+        for (String word : words) output.writeUTF(word);
+        for (int i = 1; i < alignmentStrings.size(); ++i) output.writeUTF(alignmentStrings.get(i));
+      }
+      ByteBuffer strings = ByteBuffer.wrap(bytes.toByteArray());
+      while (strings.hasRemaining()) channel.write(strings);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(MAGIC).putInt(VERSION);
+      header.putInt(byteOrder == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+      header.putInt(longestSourcePhrase).putInt(longestTargetPhrase);
+      header.putInt(numRules).putInt(numScores).putInt(words.size()).putInt(alignmentStrings.size());
+      header.putInt(wordBits).putInt(alignmentBits).putInt(scoreBits);
+      header.putInt(arrays.size());
+      for (int i = 0; i < offsets.length; ++i) {
+        header.putLong(offsets[i]).putInt(arrays.get(i).length());
+      }
+      header.putLong(stringsOffset).putInt(bytes.size());
+      header.rewind();
+      channel.position(0);
+      while (header.hasRemaining()) channel.write(header);
+    }
+    timer.mark("Write");
+    logger.info("Compiled {} to {} (rules: {}): {}", textFile, binaryFile, numRules, timer);
+  }
+
+  /**
+   * Offsets of the phrases in a word list, given the phrase lengths.
+   */
+  private static long[] starts(IntArrayList lengths) {
+    final long[] starts = new long[lengths.size() + 1];
+    for (int i = 0; i < lengths.size(); ++i) starts[i + 1] = starts[i] + lengths.getInt(i);
+    return starts;
+  }
+
+  private static int wordId(String word, Object2IntMap<String> wordToId, List<String> words) {
+    int id = wordToId.getInt(word);
+    if (id < 0) {
+      id = words.size();
+      wordToId.put(word, id);
+      words.add(word);
+    }
+    return id;
+  }
+
+  /**
+   * Number of bits needed to represent a non-negative value.
+   */
+  private static int bitsFor(int value) {
+    return Integer.SIZE - Integer.numberOfLeadingZeros(value);
+  }
+
+  private static int packedArraySize(long numBits) {
+    final long numInts = (numBits >>> 5) + 2;
+    if (numInts > Integer.MAX_VALUE) throw new RuntimeException("Phrase table too large: " + numBits + " bits");
+    return (int) numInts;
+  }
+
+  /**
+   * Write a value of at most 32 bits at a bit offset. Bits are numbered from the most
+   * significant bit of the first int.
+   */
+  private static void put(int[] packed, long bit, int width, long value) {
+    if (width == 0) return;
+    final int i = (int) (bit >>> 5);
+    final long shifted = value << (64 - (int) (bit & 31) - width);
+    packed[i] |= (int) (shifted >>> 32);
+    packed[i + 1] |= (int) shifted;
+  }
+
+  /**
+   * Read a value of at most 32 bits at a bit offset.
+   */
+  private static long get(IntArray packed, long bit, int width) {
+    if (width == 0) return 0;
+    final int i = (int) (bit >>> 5);
+    final long window = ((long) packed.get(i) << 32) | (packed.get(i + 1) & 0xffffffffL);
+    return (window >>> (64 - (int) (bit & 31) - width)) & ((1L << width) - 1);
+  }
+
+  /**
+   * Quantization by binning. The sorted values are divided into bins of equal size, and each
+   * bin is represented by its mean.
+   *
+   * @return Sorted bin centers.
+   */
+  private static float[] trainCenters(float[] values, int bits) {
+    final float[] sorted = values.clone();
+    Arrays.parallelSort(sorted);
+    final int numBins = Math.max(1, (int) Math.min(1L << bits, sorted.length));
+    final float[] centers = new float[numBins];
+    for (int b = 0; b < numBins; ++b) {
+      int start = (int) ((long) b * sorted.length / numBins);
+      int end = (int) ((long) (b + 1) * sorted.length / numBins);
+      double sum = 0.0;
+      for (int i = start; i < end; ++i) sum += sorted[i];
+      centers[b] = end > start ? (float) (sum / (end - start)) : 0.0f;
+    }
+    return centers;
+  }
+
+  /**
+   * Index of the nearest bin center.
+   */
+  private static int quantize(float value, float[] centers) {
+    int idx = Arrays.binarySearch(centers, value);
+    if (idx >= 0) return idx;
+    int insert = -idx - 1;
+    if (insert == 0) return 0;
+    if (insert == centers.length) return centers.length - 1;
+    return value - centers[insert - 1] <= centers[insert] - value ? insert - 1 : insert;
+  }
+
+  /**
+   * Compile a text phrase table to the binary format.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.printf("Usage: java %s pt_file out_file [score_bits]%n", MappedPhraseTable.class.getName());
+      System.exit(-1);
+    }
+    int scoreBits = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SCORE_BITS;
+    compile(args[0], args[1], scoreBits);
+  }
+}
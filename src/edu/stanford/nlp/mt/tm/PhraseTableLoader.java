@@ -0,0 +1,194 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import edu.stanford.nlp.mt.util.IOTools;
+
+/**
+ * Parallel loader for text phrase tables and lexicalized reordering tables.
+ *
+ * The calling thread reads the (optionally gzipped) file in large blocks through NIO and
+ * cuts them into chunks of complete lines. Worker threads decode the chunks and parse the
+ * lines. The parsed entries are then handed back to the calling thread in file order, so
+ * tables can assign ids deterministically while they insert the entries.
+ *
+ * @param <T> The type of a parsed line.
+ */
+class PhraseTableLoader<T> {
+
+  public static final int DEFAULT_NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static final int BLOCK_SIZE = 1 << 18;
+
+  /**
+   * Parses a line. Called concurrently by the worker threads.
+   */
+  @FunctionalInterface
+  public interface LineParser<T> {
+    T parse(String line);
+  }
+
+  /**
+   * Receives the parsed lines in file order on the calling thread.
+   */
+  @FunctionalInterface
+  public interface EntryHandler<T> {
+    void add(T entry, int lineNumber);
+  }
+
+  private final String filename;
+  private final int numThreads;
+  private final int maxPendingChunks;
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   * @param numThreads
+   */
+  public PhraseTableLoader(String filename, int numThreads) {
+    this.filename = filename;
+    this.numThreads = Math.max(1, numThreads);
+    this.maxPendingChunks = 4 * this.numThreads;
+  }
+
+  /**
+   * Load the file.
+   *
+   * @param parser
+   * @param handler
+   * @return The number of lines.
+   * @throws IOException
+   */
+  public int load(LineParser<T> parser, EntryHandler<T> handler) throws IOException {
+    // A single thread parses on the calling thread
+    final ExecutorService workers = numThreads == 1 ? null : Executors.newFixedThreadPool(numThreads, r -> {
+      Thread t = new Thread(r, "phrase-table-loader");
+      t.setDaemon(true);
+      return t;
+    });
+    final Deque<Future<Chunk<T>>> pending = new ArrayDeque<>();
+    int numLines = 0;
+    try (ReadableByteChannel channel = open(filename)) {
+      byte[] carry = new byte[0];
+      boolean eof = false;
+      while ( ! eof) {
+        // Fill the next block after the partial line from the previous block
+        byte[] block = new byte[Math.max(BLOCK_SIZE, carry.length * 2)];
+        System.arraycopy(carry, 0, block, 0, carry.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(block, carry.length, block.length - carry.length);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            eof = true;
+            break;
+          }
+        }
+        final int length = buffer.position();
+        int end = length;
+        if ( ! eof) {
+          while (end > 0 && block[end - 1] != '\n') --end;
+          if (end == 0) {
+            // Line longer than the block
+            carry = Arrays.copyOf(block, length);
+            continue;
+          }
+        }
+        carry = Arrays.copyOfRange(block, end, length);
+        if (end == 0) continue;
+
+        final Chunk<T> chunk = new Chunk<>(block, end);
+        if (workers == null) {
+          numLines = merge(chunk.parse(parser), numLines, handler);
+          continue;
+        }
+        pending.add(workers.submit(() -> chunk.parse(parser)));
+        // Back-pressure: bounds the number of blocks in memory
+        while (pending.size() > maxPendingChunks) numLines = merge(pending.poll().get(), numLines, handler);
+      }
+      while ( ! pending.isEmpty()) numLines = merge(pending.poll().get(), numLines, handler);
+
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException("Phrase table loading failed: " + filename, e);
+
+    } finally {
+      if (workers != null) workers.shutdownNow();
+    }
+    return numLines;
+  }
+
+  /**
+   * Hand the entries of a chunk to the handler.
+   *
+   * @return The number of lines read so far.
+   */
+  private int merge(Chunk<T> chunk, int numLines, EntryHandler<T> handler) {
+    for (int i = 0, sz = chunk.entries.size(); i < sz; ++i) {
+      handler.add(chunk.entries.get(i), numLines + i + 1);
+    }
+    if (chunk.error != null) {
+      throw new RuntimeException(String.format("Error on line %d of %s",
+          numLines + chunk.entries.size() + 1, filename), chunk.error);
+    }
+    return numLines + chunk.entries.size();
+  }
+
+  private static ReadableByteChannel open(String filename) throws IOException {
+    if (filename.endsWith(IOTools.GZ_EXTENSION)) {
+      return Channels.newChannel(new GZIPInputStream(new FileInputStream(filename), 1 << 16));
+    }
+    return FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+  }
+
+  /**
+   * A block of complete lines, and the parse result.
+   */
+  private static class Chunk<T> {
+    final byte[] block;
+    final int end;
+
+    List<T> entries;
+    // The entries stop at the line that caused the error
+    RuntimeException error;
+
+    Chunk(byte[] block, int end) {
+      this.block = block;
+      this.end = end;
+    }
+
+    Chunk<T> parse(LineParser<T> parser) {
+      entries = new ArrayList<>();
+      int pos = 0;
+      while (pos < end) {
+        int lineEnd = pos;
+        while (lineEnd < end && block[lineEnd] != '\n') ++lineEnd;
+        int contentEnd = lineEnd > pos && block[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+        try {
+          entries.add(parser.parse(new String(block, pos, contentEnd - pos, StandardCharsets.UTF_8)));
+        } catch (RuntimeException e) {
+          error = e;
+          break;
+        }
+        pos = lineEnd + 1;
+      }
+      return this;
+    }
+  }
+}
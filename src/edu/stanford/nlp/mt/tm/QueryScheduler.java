@@ -0,0 +1,193 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Work-stealing scheduler for translation model queries.
+ *
+ * The calling thread (usually a decoder thread) participates in its own batch: it
+ * executes every task that has not been claimed by a pool worker, and then waits only for
+ * tasks that are already running. The pool therefore only needs enough workers to fill
+ * the cores that the decoder threads leave idle. When the pool queue is full, the caller
+ * runs the whole batch (back-pressure) instead of rejecting work.
+ *
+ */
+public class QueryScheduler {
+
+  private static final Logger logger = LogManager.getLogger(QueryScheduler.class);
+
+  public static final int DEFAULT_MAX_QUEUED = 4096;
+
+  private static volatile QueryScheduler instance;
+
+  private final ForkJoinPool pool;
+  private final int maxQueued;
+
+  // Metrics
+  private final LongAdder numTasks = new LongAdder();
+  private final LongAdder numCallerRuns = new LongAdder();
+  private final LongAdder numRejected = new LongAdder();
+  private final LongAdder latencyNanos = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param parallelism Number of pool workers.
+   * @param maxQueued Maximum number of queued tasks before the caller runs new batches.
+   */
+  public QueryScheduler(int parallelism, int maxQueued) {
+    if (parallelism < 1) throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+    this.maxQueued = maxQueued;
+    this.pool = new ForkJoinPool(parallelism, p -> {
+      ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      t.setName("dyntm-" + t.getPoolIndex());
+      t.setDaemon(true);
+      return t;
+    }, null, true);
+  }
+
+  /**
+   * The shared scheduler. Uses all available processors unless {@link #configure(int, int)}
+   * has been called.
+   *
+   * @return
+   */
+  public static QueryScheduler get() {
+    if (instance == null) {
+      synchronized(QueryScheduler.class) {
+        if (instance == null) {
+          instance = new QueryScheduler(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_QUEUED);
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Replace the shared scheduler.
+   *
+   * @param parallelism
+   * @param maxQueued
+   */
+  public static synchronized void configure(int parallelism, int maxQueued) {
+    QueryScheduler old = instance;
+    instance = new QueryScheduler(parallelism, maxQueued);
+    if (old != null) old.pool.shutdown();
+    logger.info("Query scheduler parallelism: {} max queued: {}", parallelism, maxQueued);
+  }
+
+  /**
+   * Execute a batch of tasks and return the results in order.
+   *
+   * @param tasks
+   * @return
+   * @throws InterruptedException
+   * @throws ExecutionException
+   */
+  public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+    final int numBatchTasks = tasks.size();
+    final List<Task<T>> batch = new ArrayList<>(numBatchTasks);
+    for (Callable<T> c : tasks) batch.add(new Task<>(c));
+    numTasks.add(numBatchTasks);
+
+    // The caller always takes the last task, so only fork the others.
+    if (numBatchTasks > 1) {
+      if (queueDepth() + numBatchTasks <= maxQueued) {
+        int i = 0;
+        try {
+          for (; i < numBatchTasks - 1; ++i) pool.execute(batch.get(i));
+        } catch (RejectedExecutionException e) {
+          // The pool was shut down by configure(). Unclaimed tasks run below.
+          numRejected.add(numBatchTasks - 1 - i);
+        }
+      } else {
+        numRejected.add(numBatchTasks - 1);
+      }
+    }
+
+    // Workers take tasks from the front of the batch, the caller from the back.
+    for (int i = numBatchTasks - 1; i >= 0; --i) {
+      if (batch.get(i).tryRun()) numCallerRuns.increment();
+    }
+
+    final List<T> results = new ArrayList<>(numBatchTasks);
+    for (Task<T> task : batch) results.add(task.result.get());
+    return results;
+  }
+
+  /**
+   * Number of tasks waiting in the pool.
+   *
+   * @return
+   */
+  public long queueDepth() {
+    return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+  }
+
+  /**
+   * Mean time from submission to completion of a task in milliseconds.
+   *
+   * @return
+   */
+  public double meanLatency() {
+    long n = numTasks.sum();
+    return n == 0 ? 0.0 : latencyNanos.sum() / (n * 1e6);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("workers: %d active: %d queued: %d tasks: %d caller-runs: %d rejected: %d steals: %d latency: %.3fms",
+        pool.getParallelism(), pool.getActiveThreadCount(), queueDepth(), numTasks.sum(), numCallerRuns.sum(),
+        numRejected.sum(), pool.getStealCount(), meanLatency());
+  }
+
+  /**
+   * A task that runs exactly once, either in a pool worker or in the caller.
+   *
+   * @param <T>
+   */
+  private class Task<T> implements Runnable {
+    private final Callable<T> callable;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final long submitTime = System.nanoTime();
+
+    public Task(Callable<T> callable) {
+      this.callable = callable;
+    }
+
+    @Override
+    public void run() {
+      tryRun();
+    }
+
+    /**
+     * Run the task if it has not been claimed.
+     *
+     * @return True if the task was run by this thread.
+     */
+    public boolean tryRun() {
+      if ( ! claimed.compareAndSet(false, true)) return false;
+      try {
+        result.complete(callable.call());
+      } catch (Throwable e) {
+        result.completeExceptionally(e);
+      } finally {
+        latencyNanos.add(System.nanoTime() - submitTime);
+      }
+      return true;
+    }
+  }
+}
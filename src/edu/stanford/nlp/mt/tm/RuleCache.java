@@ -0,0 +1,221 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+
+import edu.stanford.nlp.mt.tm.DynamicTranslationModel.FeatureTemplate;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * A concurrent, size-bounded cache of rules extracted by {@link DynamicTranslationModel}.
+ * The cache is bounded by the total number of rules, and is shared by all decoder threads.
+ *
+ * Eviction is LRU. Admission is frequency-aware (TinyLFU): when the cache is full, a span
+ * is only admitted once a count-min sketch of recent queries has seen it at least
+ * <code>ADMIT_FREQUENCY</code> times. This keeps one-off spans from flushing the spans
+ * that recur across a document.
+ *
+ */
+public class RuleCache {
+
+  /**
+   * Suggested capacity for large bitexts. The cache is disabled unless the
+   * <code>dyn-cache</code> translation model option is set.
+   */
+  public static final long DEFAULT_CAPACITY = 1000000;
+
+  private static final int ADMIT_FREQUENCY = 2;
+  private static final int SKETCH_DEPTH = 4;
+  private static final int MAX_SKETCH_COUNT = 15;
+  private static final int[] SKETCH_SEEDS = { 0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+
+  private final Cache<Key,Entry> cache;
+  private final long capacity;
+  private final AtomicLong weight = new AtomicLong();
+  private final LongAdder rejections = new LongAdder();
+
+  // Count-min sketch of query frequencies
+  private final AtomicIntegerArray sketch;
+  private final int sketchMask;
+  private final int resetInterval;
+  private final AtomicLong sketchAdditions = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param capacity Maximum number of rules in the cache.
+   */
+  public RuleCache(long capacity) {
+    if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    this.capacity = capacity;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(capacity)
+        .weigher((Key k, Entry v) -> v.weight())
+        .removalListener(n -> {
+          if (n.getCause() != RemovalCause.REPLACED) weight.addAndGet(-n.getValue().weight());
+        })
+        .recordStats()
+        .build();
+    // Sketch width is the smallest power of 2 that is at least the number of cached spans (rules / 8)
+    int width = Integer.highestOneBit((int) Math.max(64, Math.min(1 << 24, capacity / 8)) - 1) << 1;
+    this.sketch = new AtomicIntegerArray(SKETCH_DEPTH * width);
+    this.sketchMask = width - 1;
+    this.resetInterval = 10 * width;
+  }
+
+  /**
+   * Get the cached extraction result for a span. Records a query in the frequency sketch.
+   *
+   * @param source
+   * @param template
+   * @param sampleSize
+   * @return The cache entry, or null if the span is not cached.
+   */
+  public Entry get(Sequence<IString> source, FeatureTemplate template, int sampleSize) {
+    Key key = new Key(source, template, sampleSize);
+    increment(key.hashCode);
+    return cache.getIfPresent(key);
+  }
+
+  /**
+   * Offer an extraction result to the cache. Only admitted if the cache has space or the span
+   * is frequent.
+   *
+   * @param source
+   * @param template
+   * @param sampleSize
+   * @param rules
+   * @param bounds Suffix array search bounds for the span. May be null.
+   * @param miss True if the span does not occur in the bitext.
+   */
+  public void put(Sequence<IString> source, FeatureTemplate template, int sampleSize,
+      List<Rule<IString>> rules, int[] bounds, boolean miss) {
+    Key key = new Key(source, template, sampleSize);
+    Entry entry = new Entry(rules, bounds, miss);
+    if (weight.get() + entry.weight() > capacity && frequency(key.hashCode) < ADMIT_FREQUENCY) {
+      rejections.increment();
+      return;
+    }
+    if (cache.asMap().putIfAbsent(key, entry) == null) weight.addAndGet(entry.weight());
+  }
+
+  /**
+   * Remove all entries. Call whenever the configuration of the translation model changes.
+   */
+  public void invalidate() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Apply a function to the rules of each cached span.
+   *
+   * @param fn
+   */
+  public void forEachRule(Consumer<Rule<IString>> fn) {
+    cache.asMap().values().forEach(e -> e.rules.forEach(fn));
+  }
+
+  /**
+   * Cache hit, miss, and eviction counts.
+   *
+   * @return
+   */
+  public CacheStats stats() { return cache.stats(); }
+
+  /**
+   * Number of spans not admitted to the cache.
+   *
+   * @return
+   */
+  public long rejectionCount() { return rejections.sum(); }
+
+  /**
+   * Number of cached spans.
+   *
+   * @return
+   */
+  public long size() { return cache.size(); }
+
+  @Override
+  public String toString() {
+    CacheStats stats = cache.stats();
+    return String.format("spans: %d rules: %d/%d hits: %d misses: %d hit-rate: %.3f evictions: %d rejections: %d",
+        cache.size(), weight.get(), capacity, stats.hitCount(), stats.missCount(), stats.hitRate(),
+        stats.evictionCount(), rejections.sum());
+  }
+
+  private int index(int hash, int row) {
+    int h = (hash ^ SKETCH_SEEDS[row]) * 0x9e3779b9;
+    h ^= h >>> 16;
+    return row * (sketchMask + 1) + (h & sketchMask);
+  }
+
+  private void increment(int hash) {
+    for (int row = 0; row < SKETCH_DEPTH; ++row) {
+      int i = index(hash, row);
+      int c;
+      while ((c = sketch.get(i)) < MAX_SKETCH_COUNT && ! sketch.compareAndSet(i, c, c + 1));
+    }
+    // Age the sketch so that frequencies reflect recent queries.
+    if (sketchAdditions.incrementAndGet() % resetInterval == 0) {
+      for (int i = 0, sz = sketch.length(); i < sz; ++i) {
+        int c;
+        while ( ! sketch.compareAndSet(i, c = sketch.get(i), c >>> 1));
+      }
+    }
+  }
+
+  private int frequency(int hash) {
+    int min = MAX_SKETCH_COUNT;
+    for (int row = 0; row < SKETCH_DEPTH; ++row) {
+      min = Math.min(min, sketch.get(index(hash, row)));
+    }
+    return min;
+  }
+
+  /**
+   * The result of rule extraction for a source span.
+   */
+  public static class Entry {
+    public final List<Rule<IString>> rules;
+    public final int[] bounds;
+    public final boolean miss;
+    private Entry(List<Rule<IString>> rules, int[] bounds, boolean miss) {
+      this.rules = rules;
+      this.bounds = bounds;
+      this.miss = miss;
+    }
+    private int weight() { return rules.size() + 1; }
+  }
+
+  private static class Key {
+    private final Sequence<IString> source;
+    private final FeatureTemplate template;
+    private final int sampleSize;
+    private final int hashCode;
+    public Key(Sequence<IString> source, FeatureTemplate template, int sampleSize) {
+      this.source = source;
+      this.template = template;
+      this.sampleSize = sampleSize;
+      this.hashCode = (source.hashCode() * 31 + template.ordinal()) * 31 + sampleSize;
+    }
+    @Override
+    public int hashCode() { return hashCode; }
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if ( ! (o instanceof Key)) return false;
+      Key other = (Key) o;
+      return sampleSize == other.sampleSize && template == other.template && source.equals(other.source);
+    }
+  }
+}
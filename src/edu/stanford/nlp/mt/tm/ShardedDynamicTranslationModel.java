@@ -0,0 +1,363 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SentencePair;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.Span;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SuffixArraySample;
+import edu.stanford.nlp.mt.util.ParallelSuffixArrayEntry;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.mt.util.Vocabulary;
+
+/**
+ * A dynamic translation model that is partitioned across independently built suffix
+ * arrays (shards). Each span is sampled from every shard in parallel, and the samples are
+ * merged in proportion to the number of matches in each shard. Target counts and lexical
+ * co-occurrences are summed over the shards, so the rule features are equal in expectation
+ * to the features of a single model built from the whole bitext.
+ *
+ * Shards can be rebuilt one at a time, and the bitext can grow past the position
+ * limit of a single suffix array.
+ *
+ * NOTE: The model ids of this translation model are system vocabulary ids.
+ *
+ */
+public class ShardedDynamicTranslationModel<FV> extends DynamicTranslationModel<FV> {
+
+  private static final long serialVersionUID = -2219378436306409826L;
+
+  private static final Logger logger = LogManager.getLogger(ShardedDynamicTranslationModel.class);
+
+  /**
+   * Separates shard file names in the translation model specification.
+   */
+  public static final String SHARD_SEPARATOR = ",";
+
+  protected final List<DynamicTranslationModel<FV>> shards;
+
+  // True if a system vocabulary id appears in at least one shard
+  private boolean[] inModel;
+
+  /**
+   * Constructor. The shards must be initialized.
+   *
+   * @param shards
+   * @param name
+   */
+  public ShardedDynamicTranslationModel(List<DynamicTranslationModel<FV>> shards, String name) {
+    super((ParallelSuffixArray) null, name);
+    if (shards.isEmpty()) throw new IllegalArgumentException("No shards");
+    this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    mergeShards();
+  }
+
+  /**
+   * Load a sharded translation model. Each shard is loaded with
+   * {@link DynamicTranslationModel#load(String, boolean, String)}.
+   *
+   * @param filenames
+   * @param initializeSystemVocabulary
+   * @param name
+   * @return
+   * @throws IOException
+   */
+  public static <FV> ShardedDynamicTranslationModel<FV> load(List<String> filenames,
+      boolean initializeSystemVocabulary, String name) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    List<DynamicTranslationModel<FV>> shards = new ArrayList<>(filenames.size());
+    for (String filename : filenames) {
+      shards.add(DynamicTranslationModel.load(filename, initializeSystemVocabulary, name));
+      timer.mark(filename);
+    }
+    ShardedDynamicTranslationModel<FV> tm = new ShardedDynamicTranslationModel<>(shards, name);
+    timer.mark("Merge");
+    logger.info("Timing: {}", timer);
+    return tm;
+  }
+
+  /**
+   * Merge the shard vocabularies and co-occurrence tables into the system id space.
+   */
+  private void mergeShards() {
+    logger.info("Merging {} shards", shards.size());
+    inModel = new boolean[Vocabulary.systemSize()];
+    int coocSize = 0;
+    for (DynamicTranslationModel<FV> shard : shards) {
+      for (int sysId : shard.tm2Sys) inModel[sysId] = true;
+      coocSize += shard.coocTable.size();
+    }
+    coocTable = new LexCoocTable(coocSize);
+    for (DynamicTranslationModel<FV> shard : shards) {
+      final int[] tm2Sys = shard.tm2Sys;
+      coocTable.addAll(shard.coocTable, id -> tm2Sys[id]);
+      // Only the merged table is queried.
+      shard.coocTable = null;
+    }
+  }
+
+  /**
+   * The number of shards.
+   *
+   * @return
+   */
+  public int numShards() { return shards.size(); }
+
+  @Override
+  public void write(Kryo kryo, Output output) {
+    throw new UnsupportedOperationException("Serialize the shards individually");
+  }
+
+  @Override
+  public void read(Kryo kryo, Input input) {
+    throw new UnsupportedOperationException("Load the shards individually");
+  }
+
+  @Override
+  public void writeMapped(String filename) throws IOException {
+    throw new UnsupportedOperationException("Write the shards individually");
+  }
+
+  @Override
+  public synchronized void configureAsForegroundTM(DynamicTranslationModel<FV> backgroundTM, FeatureTemplate t, String name) {
+    throw new UnsupportedOperationException("A sharded model cannot be a foreground model");
+  }
+
+  @Override
+  public synchronized void configureAsTerminologyModel(String name) {
+    throw new UnsupportedOperationException("A sharded model cannot be a terminology model");
+  }
+
+  @Override
+  public void initialize(boolean initializeSystemVocabulary) {
+    // The shards are initialized when they are loaded.
+  }
+
+  @Override
+  public ParallelSuffixArray getSuffixArray() {
+    throw new UnsupportedOperationException("Sharded model");
+  }
+
+  /**
+   * Create a query cache of the source n-grams that are frequent in any shard.
+   */
+  @Override
+  public void createQueryCache(FeatureTemplate t) {
+    setFeatureTemplate(t);
+    Map<Sequence<IString>,int[]> frequentSpans = new HashMap<>();
+    for (DynamicTranslationModel<FV> shard : shards) {
+      Map<Span,SuffixArraySample> queryCache = shard.sa.lookupFrequentSourceNgrams(sampleSize,
+          RULE_CACHE_THRESHOLD);
+      for (Span span : queryCache.keySet()) {
+        if (span.tokens.length == 0) continue;
+        int[] ids = new int[span.tokens.length];
+        for (int i = 0; i < ids.length; ++i) ids[i] = shard.tm2Sys[span.tokens[i]];
+        frequentSpans.put(toSequence(ids), ids);
+      }
+    }
+    ruleCache = new ConcurrentHashMap<>(frequentSpans.size());
+    logger.info("Extracting rules from query cache of size {}", frequentSpans.size());
+    frequentSpans.entrySet().parallelStream().forEach(entry -> {
+      Sequence<IString> sourceSpan = entry.getKey();
+      int[] ids = entry.getValue();
+      SpanSample sample = sampleSpan(ids, null);
+      if (sample.samples.size() > 0) {
+        double sampleRate = sample.samples.size() / (double) sample.numHits;
+        ruleCache.put(sourceSpan, samplesToRules(sample.samples, ids.length, sampleRate, sourceSpan));
+      }
+    });
+  }
+
+  /**
+   * Sample every shard in parallel and merge the samples in proportion to the number of
+   * matches in each shard. Search bounds are stored as (lb,ub) pairs per shard.
+   */
+  @Override
+  protected SpanSample sampleSpan(int[] sourcePhrase, int[] prefixBounds) {
+    final int numShards = shards.size();
+    final SuffixArraySample[] shardSamples = new SuffixArraySample[numShards];
+    IntStream.range(0, numShards).parallel().forEach(k -> {
+      if (prefixBounds != null && prefixBounds[2*k] < 0) return;
+      final DynamicTranslationModel<FV> shard = shards.get(k);
+      final int[] query = toShardArray(shard, sourcePhrase);
+      if (query == null) return;
+      shardSamples[k] = prefixBounds == null ? shard.sa.sample(query, sampleSize) :
+        shard.sa.sample(query, sampleSize, prefixBounds[2*k], prefixBounds[2*k+1]);
+    });
+
+    final int[] bounds = new int[2*numShards];
+    final long[] hits = new long[numShards];
+    long numHits = 0;
+    for (int k = 0; k < numShards; ++k) {
+      SuffixArraySample sample = shardSamples[k];
+      if (sample == null || sample.size() == 0) {
+        bounds[2*k] = bounds[2*k+1] = -1;
+      } else {
+        bounds[2*k] = sample.lb;
+        bounds[2*k+1] = sample.ub;
+        hits[k] = sample.ub - sample.lb + 1;
+        numHits += hits[k];
+      }
+    }
+    if (numHits == 0) return new SpanSample(Collections.emptyList(), 0, null);
+
+    // Proportional allocation of the sample budget with largest remainders
+    final int budget = (int) Math.min(sampleSize, numHits);
+    final int[] allocation = new int[numShards];
+    final double[] remainders = new double[numShards];
+    int allocated = 0;
+    for (int k = 0; k < numShards; ++k) {
+      double share = budget * (hits[k] / (double) numHits);
+      allocation[k] = (int) share;
+      remainders[k] = share - allocation[k];
+      allocated += allocation[k];
+    }
+    while (allocated < budget) {
+      int argmax = -1;
+      for (int k = 0; k < numShards; ++k) {
+        if (hits[k] > allocation[k] && (argmax < 0 || remainders[k] > remainders[argmax])) argmax = k;
+      }
+      if (argmax < 0) break;
+      allocation[argmax]++;
+      remainders[argmax] = -1.0;
+      ++allocated;
+    }
+
+    // Thin each stratified shard sample
+    final List<SentencePair> samples = new ArrayList<>(allocated);
+    for (int k = 0; k < numShards; ++k) {
+      if (allocation[k] == 0) continue;
+      final List<SentencePair> shardList = shardSamples[k].samples;
+      final int n = Math.min(allocation[k], shardList.size());
+      for (int i = 0; i < n; ++i) {
+        samples.add(shardList.get((int) ((i * (long) shardList.size()) / n)));
+      }
+    }
+    return new SpanSample(samples, numHits, bounds);
+  }
+
+  @Override
+  protected int targetCount(int[] tgt) {
+    long count = 0;
+    for (DynamicTranslationModel<FV> shard : shards) {
+      int[] query = toShardArray(shard, tgt);
+      if (query != null) count += shard.sa.count(query, false);
+    }
+    return (int) Math.min(count, Integer.MAX_VALUE);
+  }
+
+  @Override
+  protected int toModelId(SentencePair sentencePair, int id) {
+    return shardOf(sentencePair).tm2Sys[id];
+  }
+
+  @Override
+  protected int[] targetIds(SampledRule rule) {
+    final int[] tm2Sys = shardOf(rule.sentencePair).tm2Sys;
+    final int[] ids = new int[rule.tgt.length];
+    for (int i = 0; i < ids.length; ++i) ids[i] = tm2Sys[rule.tgt[i]];
+    return ids;
+  }
+
+  @Override
+  protected int toTMId(IString word) {
+    return word.id >= 0 && word.id < inModel.length && inModel[word.id] ? word.id : Vocabulary.UNKNOWN_ID;
+  }
+
+  @Override
+  protected Sequence<IString> toSequence(int[] tmTokens) {
+    final IString[] tokens = new IString[tmTokens.length];
+    for (int i = 0; i < tmTokens.length; ++i) {
+      tokens[i] = new IString(tmTokens[i]);
+    }
+    return new ArraySequence<>(true, tokens);
+  }
+
+  /**
+   * Find the shard that contains a sentence pair.
+   *
+   * @param sentencePair
+   * @return
+   */
+  private DynamicTranslationModel<FV> shardOf(SentencePair sentencePair) {
+    final ParallelSuffixArray sa = sentencePair.getSuffixArray();
+    for (DynamicTranslationModel<FV> shard : shards) {
+      if (shard.sa == sa) return shard;
+    }
+    throw new IllegalArgumentException("Sentence pair is not from this model");
+  }
+
+  /**
+   * Convert system ids to shard ids. Returns null if the shard does not contain
+   * one of the words.
+   *
+   * @param shard
+   * @param sysIds
+   * @return
+   */
+  private static int[] toShardArray(DynamicTranslationModel<?> shard, int[] sysIds) {
+    final int[] sys2TM = shard.sys2TM;
+    final int[] ids = new int[sysIds.length];
+    for (int i = 0; i < ids.length; ++i) {
+      final int sysId = sysIds[i];
+      ids[i] = sysId >= 0 && sysId < sys2TM.length ? sys2TM[sysId] : Vocabulary.UNKNOWN_ID;
+      if (ids[i] < 0) return null;
+    }
+    return ids;
+  }
+
+  @Override
+  public void printBitext(PrintWriter writer) {
+    for (DynamicTranslationModel<FV> shard : shards) shard.printBitext(writer);
+  }
+
+  @Override
+  public long bitextSize() {
+    return shards.stream().mapToLong(DynamicTranslationModel::bitextSize).sum();
+  }
+
+  @Override
+  public List<ParallelSuffixArrayEntry> lookupSource(String sourceQuery, int numResults, boolean exactMatch) {
+    List<ParallelSuffixArrayEntry> results = new ArrayList<>();
+    for (DynamicTranslationModel<FV> shard : shards) {
+      if (results.size() >= numResults) break;
+      results.addAll(shard.lookupSource(sourceQuery, numResults - results.size(), exactMatch));
+    }
+    return results;
+  }
+
+  @Override
+  public List<ParallelSuffixArrayEntry> lookupTarget(String targetQuery, int numResults) {
+    List<ParallelSuffixArrayEntry> results = new ArrayList<>();
+    for (DynamicTranslationModel<FV> shard : shards) {
+      if (results.size() >= numResults) break;
+      results.addAll(shard.lookupTarget(targetQuery, numResults - results.size()));
+    }
+    return results;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("shards: %d  bitext_size: %d  phraselen: %d/%d", shards.size(),
+        bitextSize(), maxSourcePhrase, maxTargetPhrase);
+  }
+}
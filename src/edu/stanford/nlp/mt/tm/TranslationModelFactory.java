@@ -1,6 +1,7 @@
 package edu.stanford.nlp.mt.tm;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,6 +25,7 @@ public class TranslationModelFactory {
   public static final String DYNAMIC_REORDERING = "dyn-reorder";
   public static final String DYNAMIC_IDENTITY = "dyn-ident";
   public static final String DYNAMIC_FILTER_INCORRECT_NUMERIC = "dyn-filterIncorrectNumericPhrases";
+  public static final String DYNAMIC_CACHE_SIZE = "dyn-cache";
   public static final String SEPARATOR = ":";
 
   public static final String DYNAMIC_TAG = "dyn:";
@@ -50,6 +52,7 @@ public class TranslationModelFactory {
     FeatureTemplate dynamicTemplate = FeatureTemplate.DENSE_EXT;
     int dynamicPhraseLength = DynamicTranslationModel.DEFAULT_MAX_PHRASE_LEN;
     String reorderingType = null;
+    long dynamicCacheSize = 0;
     for (final String option : options) {
       final String[] fields = option.split(SEPARATOR);
       final String key = fields[0];
@@ -70,6 +73,8 @@ public class TranslationModelFactory {
         addIdentityTranslations = Boolean.valueOf(value);
       } else if (key.equals(DYNAMIC_FILTER_INCORRECT_NUMERIC)) {
         filterIncorrectNumeric = Boolean.valueOf(value);
+      } else if (key.equals(DYNAMIC_CACHE_SIZE)) {
+        dynamicCacheSize = Long.valueOf(value);
       } else {
         logger.warn("Unknown key/value pair: {}", option);
       }
@@ -82,7 +87,10 @@ public class TranslationModelFactory {
 
     } else if (filename.startsWith(DYNAMIC_TAG)) {
       final String file = filename.substring(DYNAMIC_TAG.length());
-      translationModel = DynamicTranslationModel.load(file, setSystemIndex, DynamicTranslationModel.DEFAULT_NAME);
+      translationModel = file.contains(ShardedDynamicTranslationModel.SHARD_SEPARATOR) ?
+          ShardedDynamicTranslationModel.load(Arrays.asList(file.split(ShardedDynamicTranslationModel.SHARD_SEPARATOR)), 
+              setSystemIndex, DynamicTranslationModel.DEFAULT_NAME) :
+          DynamicTranslationModel.load(file, setSystemIndex, DynamicTranslationModel.DEFAULT_NAME);
       ((DynamicTranslationModel) translationModel).setSampleSize(dynamicSampleSize);
       ((DynamicTranslationModel) translationModel).setMaxSourcePhrase(dynamicPhraseLength);
       ((DynamicTranslationModel) translationModel).setMaxTargetPhrase(dynamicPhraseLength);
@@ -95,6 +103,11 @@ public class TranslationModelFactory {
         ((DynamicTranslationModel) translationModel).addPhraseGenerator(new IdentityPhraseGenerator());
       }
       ((DynamicTranslationModel) translationModel).setFilterIncorrectNumeric(filterIncorrectNumeric);
+      ((DynamicTranslationModel) translationModel).setRuleCacheSize(dynamicCacheSize);
+
+    } else if (MappedPhraseTable.isBinary(filename)) {
+      translationModel = featurePrefix == null ? new MappedPhraseTable<FV>(filename)
+          : new MappedPhraseTable<FV>(featurePrefix, filename);
 
     } else {
       translationModel = featurePrefix == null ? new CompiledPhraseTable<FV>(filename)
@@ -89,11 +89,11 @@ public class DTUInstance extends AlignmentTemplateInstance {
     return true;
   }
 
-  public BitSet getFAlignment() {
+  public CoverageSet getFAlignment() {
     return fSet;
   }
 
-  public BitSet getEAlignment() {
+  public CoverageSet getEAlignment() {
     return eSet;
   }
 }
@@ -168,7 +168,7 @@ public class DTUPhraseExtractor extends AbstractPhraseExtractor {
 
     final CoverageSet f, e;
 
-    boolean isContiguous(BitSet bitset) {
+    boolean isContiguous(CoverageSet bitset) {
       int i = bitset.nextSetBit(0);
       int j = bitset.nextClearBit(i + 1);
       return (bitset.nextSetBit(j + 1) == -1);
@@ -392,7 +392,7 @@ public class DTUPhraseExtractor extends AbstractPhraseExtractor {
       return unalignedGap;
     }
 
-    boolean hasUnalignedGap(WordAlignment sent, BitSet fs, boolean source) {
+    boolean hasUnalignedGap(WordAlignment sent, CoverageSet fs, boolean source) {
       if (fs.isEmpty())
         return false;
       int startIdx, endIdx = 0;
@@ -427,7 +427,7 @@ public class DTUPhraseExtractor extends AbstractPhraseExtractor {
           || hasUnalignedSubphrase(sent, e, false);
     }
 
-    boolean hasUnalignedSubphrase(WordAlignment sent, BitSet fs, boolean source) {
+    boolean hasUnalignedSubphrase(WordAlignment sent, CoverageSet fs, boolean source) {
       int startIdx, endIdx = 0;
       while (true) {
         startIdx = fs.nextSetBit(endIdx);
@@ -465,7 +465,7 @@ public class DTUPhraseExtractor extends AbstractPhraseExtractor {
       return hasLooseGap(sent, f, true);
     }
 
-    boolean hasLooseGap(WordAlignment sent, BitSet fs, boolean source) {
+    boolean hasLooseGap(WordAlignment sent, CoverageSet fs, boolean source) {
       if (fs.isEmpty())
         return false;
       int startIdx, endIdx = 0;
@@ -519,7 +519,7 @@ public class DTUPhraseExtractor extends AbstractPhraseExtractor {
       return true;
     }
 
-    BitSet adjacentWords(BitSet bitset, boolean growOutside) {
+    BitSet adjacentWords(CoverageSet bitset, boolean growOutside) {
       BitSet adjWords = new BitSet();
       int firstI = bitset.nextSetBit(0);
       int lastI = bitset.length() - 1;
@@ -540,7 +540,7 @@ public class DTUPhraseExtractor extends AbstractPhraseExtractor {
       return adjWords;
     }
 
-    BitSet candidateIdx(BitSet currentSet, boolean growOutside) {
+    BitSet candidateIdx(CoverageSet currentSet, boolean growOutside) {
       BitSet successors = adjacentWords(currentSet, growOutside);
       if (DEBUG) {
         System.err.printf("sent: %s\n", sent);
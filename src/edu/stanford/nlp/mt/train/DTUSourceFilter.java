@@ -1,5 +1,6 @@
 package edu.stanford.nlp.mt.train;
 
+import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.Sequence;
@@ -8,7 +9,6 @@ import edu.stanford.nlp.mt.util.ArraySequence;
 import edu.stanford.nlp.mt.util.TrieIntegerArrayIndex;
 
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -31,7 +31,7 @@ public class DTUSourceFilter extends AbstractSourceFilter {
 
     private static final int MAX_GAP = 2;
 
-    final BitSet bs;
+    final CoverageSet bs;
     int phraseStartPos, xStartPos, phraseEndPos;
     int xCount;
 
@@ -48,7 +48,7 @@ public class DTUSourceFilter extends AbstractSourceFilter {
     }
 
     PartialBitSet(int phraseStartPos) {
-      bs = new BitSet();
+      bs = new CoverageSet();
       bs.set(phraseStartPos);
       this.phraseStartPos = phraseStartPos;
       this.phraseEndPos = phraseStartPos;
@@ -57,7 +57,7 @@ public class DTUSourceFilter extends AbstractSourceFilter {
     }
 
     PartialBitSet(PartialBitSet o) {
-      bs = (BitSet) o.bs.clone();
+      bs = o.bs.clone();
       phraseStartPos = o.phraseStartPos;
       phraseEndPos = o.phraseEndPos;
       xStartPos = o.xStartPos;
@@ -1,11 +1,14 @@
 package edu.stanford.nlp.mt.train;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
@@ -14,12 +17,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
+import edu.stanford.nlp.mt.tm.ShardedDynamicTranslationModel;
 import edu.stanford.nlp.mt.train.AlignmentSymmetrizer.SymmetrizationType;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.ParallelCorpus;
 import edu.stanford.nlp.mt.util.ParallelSuffixArray;
 import edu.stanford.nlp.mt.util.TimingUtils;
 import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
 
 /**
@@ -78,10 +83,91 @@ public class DynamicTMBuilder {
    * @return
    */
   public DynamicTranslationModel<String> build() {
-    sa.build();
+    return build(false);
+  }
+  
+  /**
+   * Wrap the underlying data structure in a Phrasal TranslationModel.
+   * 
+   * @param verify Check the suffix arrays against the reference builder.
+   * @return
+   */
+  public DynamicTranslationModel<String> build(boolean verify) {
+    sa.build(verify);
     return new DynamicTranslationModel<>(sa);
   }
   
+  /**
+   * Partition a bitext into contiguous shards and build and write a translation model for
+   * each one. Only one shard is in memory at a time. The shards can be loaded together
+   * as a {@link ShardedDynamicTranslationModel}.
+   * 
+   * @param sourceFile
+   * @param targetFile
+   * @param alignFile
+   * @param numShards
+   * @param outputFileName
+   * @param verify
+   * @return The shard file names.
+   * @throws IOException
+   */
+  public static List<String> buildShards(String sourceFile, String targetFile, String alignFile, 
+      int numShards, String outputFileName, boolean verify) throws IOException {
+    if (numShards < 1) throw new IllegalArgumentException("Invalid number of shards: " + numShards);
+    int numLines = 0;
+    try (LineNumberReader reader = IOTools.getReaderFromFile(sourceFile)) {
+      while (reader.readLine() != null) ++numLines;
+    }
+    final int shardSize = (numLines + numShards - 1) / numShards;
+    List<String> shardFiles = new ArrayList<>(numShards);
+    try (LineNumberReader fReader = IOTools.getReaderFromFile(sourceFile);
+        LineNumberReader eReader = IOTools.getReaderFromFile(targetFile);
+        LineNumberReader aReader = IOTools.getReaderFromFile(alignFile)) {
+      for (int shard = 0; shard < numShards; ++shard) {
+        ParallelCorpus corpus = new ParallelCorpus(shardSize);
+        String fLine;
+        for (int i = 0; i < shardSize && (fLine = fReader.readLine()) != null; ++i) {
+          corpus.add(fLine, eReader.readLine(), aReader.readLine());
+        }
+        logger.info("Shard {}: {} segments", shard, corpus.size());
+        DynamicTranslationModel<String> tm = new DynamicTMBuilder(corpus).build(verify);
+        String shardFile = shardFileName(outputFileName, shard);
+        write(tm, shardFile);
+        shardFiles.add(shardFile);
+      }
+    }
+    return shardFiles;
+  }
+  
+  /**
+   * The file name of a shard. The shard number is inserted before the file extension.
+   * 
+   * @param fileName
+   * @param shard
+   * @return
+   */
+  public static String shardFileName(String fileName, int shard) {
+    int dot = fileName.indexOf('.', fileName.lastIndexOf(File.separatorChar) + 1);
+    return dot < 0 ? String.format("%s.%d", fileName, shard) : 
+      String.format("%s.%d%s", fileName.substring(0, dot), shard, fileName.substring(dot));
+  }
+  
+  /**
+   * Write a translation model. The format is selected by the file extension.
+   * 
+   * @param tm
+   * @param outputFileName
+   * @throws IOException
+   */
+  private static void write(DynamicTranslationModel<String> tm, String outputFileName) throws IOException {
+    logger.info("Serializing to: " + outputFileName);
+    if (outputFileName.endsWith(ParallelSuffixArray.MAPPED_EXTENSION)) {
+      tm.writeMapped(outputFileName);
+    } else {
+      IOTools.serialize(outputFileName, tm);
+    }
+  }
+  
   /**
    * Symmetrize the alignments and create a corpus.
    * 
@@ -168,6 +254,8 @@ public class DynamicTMBuilder {
     Map<String,Integer> optionDefs = new HashMap<>();
     optionDefs.put("o", 1);
     optionDefs.put("s", 1);
+    optionDefs.put("v", 0);
+    optionDefs.put("n", 1);
     return optionDefs;
   }  
 
@@ -176,8 +264,11 @@ public class DynamicTMBuilder {
     String nl = System.getProperty("line.separator");
     sb.append("Usage: java ").append(DynamicTMBuilder.class.getName()).append(" OPTS src target alignf2e [aligne2f]").append(nl);
     sb.append(nl).append(" Options:").append(nl)
-    .append("   -o file-name   : Output file name.").append(nl)
-    .append("   -s type        : Symmetrization type.").append(nl);
+    .append("   -o file-name   : Output file name. Use the extension ")
+    .append(ParallelSuffixArray.MAPPED_EXTENSION).append(" for the memory-mapped format.").append(nl)
+    .append("   -s type        : Symmetrization type.").append(nl)
+    .append("   -v             : Verify the suffix arrays (slow; small corpora only).").append(nl)
+    .append("   -n num         : Number of shards (default: 1).").append(nl);
     return sb.toString();
   }
   
@@ -198,6 +289,8 @@ public class DynamicTMBuilder {
     }
     
     String outputFileName = options.getProperty("o", "tm" + IOTools.BIN_EXTENSION);
+    boolean verify = PropertiesUtils.getBool(options, "v", false);
+    int numShards = PropertiesUtils.getInt(options, "n", 1);
     SymmetrizationType type = options.containsKey("s") ? SymmetrizationType.valueOf(options.getProperty("s"))
         : SymmetrizationType.valueOf("grow_diag_final_and");
     
@@ -213,18 +306,28 @@ public class DynamicTMBuilder {
     
     try {
       TimeKeeper timer = TimingUtils.start();
+      if (numShards > 1) {
+        String alignFile = alignEFfile == null ? alignFEfile : 
+          symmetrize(sourceFile, targetFile, alignFEfile, alignEFfile, type);
+        List<String> shardFiles = buildShards(sourceFile, targetFile, alignFile, numShards, 
+            outputFileName, verify);
+        timer.mark("Sharded model construction");
+        logger.info("Timing summary: {}", timer);
+        logger.info("Shards: {}", String.join(ShardedDynamicTranslationModel.SHARD_SEPARATOR, shardFiles));
+        return;
+      }
+      
       // Load corpus
       DynamicTMBuilder tmBuilder = alignEFfile == null ? new DynamicTMBuilder(sourceFile, targetFile, alignFEfile) :
         new DynamicTMBuilder(sourceFile, targetFile, alignFEfile, alignEFfile, type);
       timer.mark("Corpus Loading");
       
       // Build TM
-      DynamicTranslationModel<String> tm = tmBuilder.build();
+      DynamicTranslationModel<String> tm = tmBuilder.build(verify);
       timer.mark("Model construction");
           
       // Serialize
-      logger.info("Serializing to: " + outputFileName);
-      IOTools.serialize(outputFileName, tm);
+      write(tm, outputFileName);
       timer.mark("Serialization");
       
       logger.info("Timing summary: {}", timer);
@@ -0,0 +1,60 @@
+package edu.stanford.nlp.mt.train;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+
+/**
+ * Converts a serialized dynamic translation model (e.g., the output of {@link DynamicTMBuilder})
+ * to the memory-mapped format.
+ * 
+ */
+public final class DynamicTMConverter {
+
+  private static final Logger logger = LogManager.getLogger(DynamicTMConverter.class);
+
+  private DynamicTMConverter() {}
+  
+  /**
+   * Convert a serialized model to the memory-mapped format.
+   * 
+   * @param inputFile
+   * @param outputFile
+   * @throws IOException
+   */
+  @SuppressWarnings("unchecked")
+  public static void convert(String inputFile, String outputFile) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    DynamicTranslationModel<String> tm = IOTools.deserialize(inputFile, DynamicTranslationModel.class);
+    if (tm == null) throw new IOException("File not found: " + inputFile);
+    timer.mark("Deserialization");
+    tm.writeMapped(outputFile);
+    timer.mark("Conversion");
+    logger.info("Timing: {}", timer);
+  }
+  
+  /**
+   * 
+   * @param args
+   */
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.printf("Usage: java %s tm_file out_file%s%n", DynamicTMConverter.class.getName(),
+          ParallelSuffixArray.MAPPED_EXTENSION);
+      System.exit(-1);
+    }
+    try {
+      convert(args[0], args[1]);
+    } catch (Exception e) {
+      logger.fatal("Translation model conversion error!", e);
+      System.exit(-1);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.FeatureValues;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+import edu.stanford.nlp.mt.util.SparseVector;
+
+/**
+ * Pools of unique hypotheses for each tuning sentence that are accumulated
+ * across epochs, as in batch MERT and PRO. The pools can be rescored with new
+ * weights without decoding.
+ *
+ * Each pool is stored in a binary file in the pool directory. New hypotheses are
+ * appended to the file as a block with its own feature name table:
+ * <pre>
+ *   (numNames name^numNames numHypotheses (translation numFeatures (nameIndex value)^numFeatures)^numHypotheses)*
+ * </pre>
+ * The most recently used pools are kept in memory, up to <code>maxCachedHypotheses</code>
+ * hypotheses in total.
+ * Calls for different sentences may run concurrently, but calls for the same
+ * sentence must not.
+ *
+ */
+public class NbestPool {
+
+  private static final String FILE_EXTENSION = ".pool";
+
+  private final File directory;
+  private final long maxCachedHypotheses;
+  // Access-ordered, so the least recently used pool is evicted first
+  private final Map<Integer,List<Hypothesis>> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private long numCachedHypotheses = 0;
+
+  /**
+   * A unique hypothesis in a pool.
+   */
+  public static class Hypothesis {
+    public final Sequence<IString> translation;
+    public final SparseVector features;
+    public Hypothesis(Sequence<IString> translation, SparseVector features) {
+      this.translation = translation;
+      this.features = features;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * translation.hashCode() + features.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if ( ! (o instanceof Hypothesis)) {
+        return false;
+      } else {
+        Hypothesis other = (Hypothesis) o;
+        return translation.equals(other.translation) && features.equals(other.features);
+      }
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param directory Directory for the pool files, which is created if necessary.
+   * @param maxCachedHypotheses Maximum total number of hypotheses in the pools that are kept
+   * in memory. The most recently used pool is always kept.
+   */
+  public NbestPool(File directory, long maxCachedHypotheses) {
+    if ( ! directory.isDirectory() && ! directory.mkdirs()) {
+      throw new RuntimeException("Could not create n-best pool directory: " + directory.getPath());
+    }
+    this.directory = directory;
+    this.maxCachedHypotheses = maxCachedHypotheses;
+  }
+
+  /**
+   * Add the hypotheses in an n-best list to the pool of a sentence.
+   *
+   * @param sourceId
+   * @param nbestList
+   * @return The number of hypotheses that were not already in the pool.
+   */
+  public int add(int sourceId, List<RichTranslation<IString,String>> nbestList) {
+    final List<Hypothesis> oldPool = get(sourceId);
+    final Set<Hypothesis> seen = new HashSet<>(oldPool);
+    final List<Hypothesis> pool = new ArrayList<>(oldPool.size() + nbestList.size());
+    pool.addAll(oldPool);
+    for (RichTranslation<IString,String> translation : nbestList) {
+      Hypothesis hyp = new Hypothesis(translation.translation, translation.getFeatureVector());
+      if (seen.add(hyp)) pool.add(hyp);
+    }
+    final int numAdded = pool.size() - oldPool.size();
+    if (numAdded > 0) {
+      append(sourceId, pool.subList(oldPool.size(), pool.size()));
+      cache(sourceId, Collections.unmodifiableList(pool));
+    }
+    return numAdded;
+  }
+
+  /**
+   * The pool of a sentence.
+   *
+   * @param sourceId
+   * @return
+   */
+  public List<Hypothesis> get(int sourceId) {
+    List<Hypothesis> pool;
+    synchronized (cache) {
+      pool = cache.get(sourceId);
+    }
+    if (pool == null) {
+      pool = Collections.unmodifiableList(read(sourceId));
+      cache(sourceId, pool);
+    }
+    return pool;
+  }
+
+  /**
+   * Total number of hypotheses in the pools that are kept in memory.
+   *
+   * @return
+   */
+  public long numCachedHypotheses() {
+    synchronized (cache) {
+      return numCachedHypotheses;
+    }
+  }
+
+  private void cache(int sourceId, List<Hypothesis> pool) {
+    synchronized (cache) {
+      List<Hypothesis> oldPool = cache.put(sourceId, pool);
+      numCachedHypotheses += pool.size() - (oldPool == null ? 0 : oldPool.size());
+      Iterator<Map.Entry<Integer,List<Hypothesis>>> it = cache.entrySet().iterator();
+      while (numCachedHypotheses > maxCachedHypotheses && it.hasNext()) {
+        Map.Entry<Integer,List<Hypothesis>> entry = it.next();
+        if (entry.getKey() == sourceId) continue;
+        numCachedHypotheses -= entry.getValue().size();
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Score the pool of a sentence with a weight vector.
+   *
+   * @param sourceId
+   * @param weights
+   * @return The hypotheses in descending order by model score.
+   */
+  public List<RichTranslation<IString,String>> rescore(int sourceId, WeightVector weights) {
+    final List<Hypothesis> pool = get(sourceId);
+    List<RichTranslation<IString,String>> nbestList = new ArrayList<>(pool.size());
+    for (int i = 0, sz = pool.size(); i < sz; ++i) {
+      Hypothesis hyp = pool.get(i);
+      // The featurizable is not available for pooled hypotheses
+      RichTranslation<IString,String> translation = new RichTranslation<>(null, 
+          weights.dot(hyp.features), FeatureValues.fromSparseVector(hyp.features), i);
+      translation.translation = hyp.translation;
+      nbestList.add(translation);
+    }
+    Collections.sort(nbestList);
+    return nbestList;
+  }
+
+  private File file(int sourceId) {
+    return new File(directory, sourceId + FILE_EXTENSION);
+  }
+
+  private void append(int sourceId, List<Hypothesis> hypotheses) {
+    // Local name table so that the files do not depend on the feature ids of this process
+    Map<Integer,Integer> nameIndex = new HashMap<>();
+    List<String> names = new ArrayList<>();
+    for (Hypothesis hyp : hypotheses) {
+      for (int i = 0, sz = hyp.features.size(); i < sz; ++i) {
+        final int featureId = hyp.features.id(i);
+        if ( ! nameIndex.containsKey(featureId)) {
+          nameIndex.put(featureId, names.size());
+          names.add(FeatureIndex.get(featureId));
+        }
+      }
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file(sourceId), true)))) {
+      out.writeInt(names.size());
+      for (String name : names) IOTools.writeString(out, name);
+      out.writeInt(hypotheses.size());
+      for (Hypothesis hyp : hypotheses) {
+        IOTools.writeString(out, hyp.translation.toString());
+        out.writeInt(hyp.features.size());
+        for (int i = 0, sz = hyp.features.size(); i < sz; ++i) {
+          out.writeInt(nameIndex.get(hyp.features.id(i)));
+          out.writeDouble(hyp.features.value(i));
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not append to n-best pool for sentence " + sourceId, e);
+    }
+  }
+
+  private List<Hypothesis> read(int sourceId) {
+    final File file = file(sourceId);
+    if ( ! file.exists()) return new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)))) {
+      List<Hypothesis> pool = new ArrayList<>();
+      while (true) {
+        final int numNames;
+        try {
+          numNames = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        final int[] featureIds = new int[numNames];
+        for (int i = 0; i < featureIds.length; ++i) {
+          featureIds[i] = FeatureIndex.indexOf(IOTools.readString(in));
+        }
+        final int numHypotheses = in.readInt();
+        for (int i = 0; i < numHypotheses; ++i) {
+          final String translation = IOTools.readString(in);
+          final int numFeatures = in.readInt();
+          SparseVector.Builder builder = new SparseVector.Builder(numFeatures);
+          for (int j = 0; j < numFeatures; ++j) {
+            builder.add(featureIds[in.readInt()], in.readDouble());
+          }
+          pool.add(new Hypothesis(translation.isEmpty() ? Sequences.emptySequence() :
+            IStrings.tokenize(translation), builder.build()));
+        }
+      }
+      return pool;
+    } catch (IOException e) {
+      throw new RuntimeException("Could not read n-best pool for sentence " + sourceId, e);
+    }
+  }
+
+  /**
+   * Delete the pool files.
+   */
+  public void delete() {
+    synchronized (cache) {
+      cache.clear();
+      numCachedHypotheses = 0;
+    }
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+    if (files != null) {
+      for (File f : files) f.delete();
+    }
+    directory.delete();
+  }
+}
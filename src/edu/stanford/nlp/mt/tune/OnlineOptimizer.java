@@ -5,7 +5,7 @@ import java.util.List;
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
-import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.mt.util.SparseVector;
 
 /**
  * Loss functions with online update rules.
@@ -27,7 +27,7 @@ public interface OnlineOptimizer<TK,FV> {
    * @param featureWhitelist 
    * @return Updated weight vector.
    */
-  public Counter<FV> getGradient(Counter<FV> weights, 
+  public SparseVector getGradient(WeightVector weights, 
       Sequence<TK> source, 
       int sourceId,
       List<RichTranslation<TK, FV>> translations,
@@ -47,7 +47,7 @@ public interface OnlineOptimizer<TK,FV> {
    * @param scoreMetric
    * @return
    */
-  public Counter<FV> getBatchGradient(Counter<FV> weights, 
+  public SparseVector getBatchGradient(WeightVector weights, 
       List<Sequence<TK>> sources, 
       int[] sourceIds,
       List<List<RichTranslation<TK, FV>>> translations,
@@ -61,5 +61,5 @@ public interface OnlineOptimizer<TK,FV> {
    * 
    * @return
    */
-  public OnlineUpdateRule<FV> newUpdater();
+  public OnlineUpdateRule newUpdater();
 }
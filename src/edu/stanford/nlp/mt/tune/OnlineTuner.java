@@ -3,6 +3,8 @@ package edu.stanford.nlp.mt.tune;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -18,6 +20,8 @@ import java.util.TreeMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -37,12 +41,12 @@ import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetricFactory;
 import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
 import edu.stanford.nlp.mt.tm.DynamicTranslationModel.FeatureTemplate;
+import edu.stanford.nlp.mt.tm.ShardedDynamicTranslationModel;
 import edu.stanford.nlp.mt.tm.TranslationModel;
 import edu.stanford.nlp.mt.train.DynamicTMBuilder;
 import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule.UpdaterState;
 import edu.stanford.nlp.mt.tune.optimizers.OptimizerUtils;
-import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.FlatNBestList;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IOTools.SerializationMode;
@@ -55,6 +59,7 @@ import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
+import edu.stanford.nlp.mt.util.SparseVector;
 import edu.stanford.nlp.mt.util.TimingUtils;
 import edu.stanford.nlp.mt.util.TokenUtils;
 import edu.stanford.nlp.stats.ClassicCounter;
@@ -94,7 +99,8 @@ public final class OnlineTuner {
   
   private final boolean discardInitialWeightState;
   private final String initialWtsFileName;
-  private Counter<String> wtsAccumulator;
+  private Counter<String> initialWts;
+  private WeightVector wtsAccumulator;
  
   // The optimization algorithm
   private OnlineOptimizer<IString,String> optimizer;
@@ -113,6 +119,20 @@ public final class OnlineTuner {
   // sequetial optimization? i.e. no stale gradient!
   private boolean enforceStrictlySequential = false;
 
+  // Hogwild: the decoder threads update the shared weight vector in place.
+  private boolean hogwild = false;
+  private int maxStaleness = 0;
+  private final AtomicInteger hogwildUpdateStep = new AtomicInteger();
+
+  // Distributed tuning: serve the weights to worker processes on this port.
+  private int parameterServerPort = -1;
+
+  // Pools of unique hypotheses that are accumulated across epochs.
+  private static final long DEFAULT_MAX_CACHED_HYPOTHESES = 1000000;
+  private NbestPool nbestPool;
+  private int numPoolPasses = 0;
+  private int decodingEpochInterval = 1;
+
   // Train a local translation model.
   private boolean localTMTraining;
   private String localTMoutFile = "";
@@ -121,7 +141,7 @@ public final class OnlineTuner {
   // minimum number of times we need to see a feature 
   // before learning a decoding model weight for it 
   private int minFeatureCount;
-  private final Map<String,Set<Integer>> clippedFeatureIndex = new HashMap<>();
+  private final Map<Integer,Set<Integer>> clippedFeatureIndex = new HashMap<>();
   
   // Pseudo-reference selection
   private boolean createPseudoReferences = false;
@@ -162,10 +182,10 @@ public final class OnlineTuner {
     // Configure the initial weights
     this.initialWtsFileName = initialWtsFile;
     this.discardInitialWeightState = uniformStartWeights || randomizeStartWeights;
-    wtsAccumulator = OnlineTuner.loadWeights(initialWtsFile, uniformStartWeights, randomizeStartWeights, 
+    initialWts = OnlineTuner.loadWeights(initialWtsFile, uniformStartWeights, randomizeStartWeights, 
         decoder.getTranslationModel());
-    logger.info("Initial weights: '{}' {}", Counters.toBiggestValuesFirstString(wtsAccumulator, 20), 
-        (wtsAccumulator.size() > 20 ? "..." : ""));
+    logger.info("Initial weights: '{}' {}", Counters.toBiggestValuesFirstString(initialWts, 20), 
+        (initialWts.size() > 20 ? "..." : ""));
     this.outputWeightPrefix = experimentName + ".online";
     logger.info("Models will have the file prefix: {}", outputWeightPrefix);
 
@@ -180,7 +200,7 @@ public final class OnlineTuner {
     // Load the optimizer last since some optimizers depend on fields initialized
     // by OnlineTuner.
     optimizer = OnlineOptimizerFactory.configureOptimizer(optimizerAlg, optimizerFlags, tuneSource.size(), expectedNumFeatures);
-    if(normalizeInitialWeights) Counters.normalize(wtsAccumulator);
+    if(normalizeInitialWeights) Counters.normalize(initialWts);
     logger.info("Loaded optimizer: {}", optimizer);
   }
 
@@ -242,8 +262,8 @@ public final class OnlineTuner {
       Counter<String> weights = IOTools.readWeightsPlain(additionalFeatureWeightsFile);
       System.err.println("read weights: ");
       for(Entry<String,Double> entry : weights.entrySet()) {
-        if(!wtsAccumulator.containsKey(entry.getKey())) {
-          wtsAccumulator.setCount(entry.getKey(), entry.getValue());
+        if(!initialWts.containsKey(entry.getKey())) {
+          initialWts.setCount(entry.getKey(), entry.getValue());
           System.err.println("setting feature: " + entry.getKey() + " = " + entry.getValue());
         }
         else System.err.println("skipping feature: " + entry.getKey());
@@ -263,6 +283,14 @@ public final class OnlineTuner {
    * @param faDistortionLimit
    */
   private void trainLocalTM(boolean trainLocalTM, String localTMoutFile) { 
+    if (trainLocalTM) {
+      // Fail before tuning starts rather than on the first local TM
+      final TranslationModel<IString,String> tm = decoder.getTranslationModel();
+      if ( ! (tm instanceof DynamicTranslationModel) || tm instanceof ShardedDynamicTranslationModel) {
+        throw new RuntimeException("Local TM training requires a single-index dynamic translation model: " 
+            + tm.getClass().getName());
+      }
+    }
     this.localTMTraining = trainLocalTM;
     this.localTMoutFile = localTMoutFile;
   }
@@ -329,6 +357,50 @@ public final class OnlineTuner {
    * @param b
    */
   private void enforceStrictlySequential(boolean b) { this.enforceStrictlySequential = b; }
+
+  /**
+   * Hogwild-style asynchronous updates (Recht et al., 2011). The decoder threads read
+   * the shared weight vector and apply their own updates to it without locking.
+   * 
+   * @param b
+   * @param maxStaleness Discard gradients computed from weights that are more than this
+   * number of updates old. No bound if 0.
+   */
+  private void hogwild(boolean b, int maxStaleness) {
+    this.hogwild = b;
+    this.maxStaleness = maxStaleness;
+  }
+
+  /**
+   * Coordinate distributed tuning. Mini-batches are decoded by worker processes
+   * (see <code>runWorker()</code>) instead of local threads.
+   * 
+   * @param port The port for the parameter server, or 0 for any free port.
+   */
+  private void parameterServer(int port) { this.parameterServerPort = port; }
+
+  /**
+   * Accumulate the n-best lists of each sentence in a pool, and compute the gradients
+   * from the rescored pools. The optimizer can make several cheap passes over the
+   * pools between decoding passes.
+   * 
+   * @param numPasses Number of rescoring-only passes over the pools after each decoding pass.
+   * @param decodingInterval Only decode every decodingInterval epochs. The other epochs only
+   * rescore the pools.
+   * @param maxCachedHypotheses Maximum number of pooled hypotheses to keep in memory.
+   * @param tmpPath Directory for the pool files.
+   */
+  private void nbestPool(int numPasses, int decodingInterval, long maxCachedHypotheses, String tmpPath) {
+    this.numPoolPasses = numPasses;
+    this.decodingEpochInterval = Math.max(1, decodingInterval);
+    try {
+      File directory = Files.createTempDirectory(Paths.get(tmpPath), "nbest-pool.").toFile();
+      this.nbestPool = new NbestPool(directory, maxCachedHypotheses);
+      logger.info("N-best pool directory: {}", directory.getPath());
+    } catch (IOException e) {
+      throw new RuntimeException("Could not create n-best pool directory in " + tmpPath, e);
+    }
+  }
   
   /**
    * Output single best translation?
@@ -348,9 +420,9 @@ public final class OnlineTuner {
    * Determine whether a feature has been seen enough times
    * to learn a decoding model weight for it
    */ 
-  boolean hasMinFeatureCount(String feature) {
+  boolean hasMinFeatureCount(int featureId) {
      if (minFeatureCount == 0) return true;
-     Set<Integer> ids = clippedFeatureIndex.get(feature);
+     Set<Integer> ids = clippedFeatureIndex.get(featureId);
      if (ids == null) return false;
      return ids.size() >= minFeatureCount; 
   } 
@@ -361,18 +433,19 @@ public final class OnlineTuner {
    */
    void updateFeatureCounts(int[] translationIds, List<List<RichTranslation<IString,String>>> nbestLists) {
      for (int i = 0; i < translationIds.length; i++) {
-       Set<String> features = new HashSet<String>();
+       Set<Integer> features = new HashSet<Integer>();
        for (RichTranslation<IString,String> trans : nbestLists.get(i)) {
-         for (FeatureValue<String> f : trans.features) {
-           features.add(f.name);
+         SparseVector featureVector = trans.getFeatureVector();
+         for (int j = 0, sz = featureVector.size(); j < sz; ++j) {
+           features.add(featureVector.id(j));
          }
        }
        synchronized(clippedFeatureIndex) {
-         for (String fName : features) {
-           Set<Integer> ids = clippedFeatureIndex.get(fName);
+         for (int featureId : features) {
+           Set<Integer> ids = clippedFeatureIndex.get(featureId);
            if (ids == null) {
              ids = new TreeSet<Integer>();
-             clippedFeatureIndex.put(fName, ids); 
+             clippedFeatureIndex.put(featureId, ids); 
            }
            if (ids.size() < minFeatureCount) {
              ids.add(translationIds[i]);
@@ -392,26 +465,30 @@ public final class OnlineTuner {
     public final List<Sequence<IString>> source;
     public final List<List<Sequence<IString>>> references;
     public final int[] translationIds;
-    public final Counter<String> weights;
+    public final WeightVector weights;
     public final int inputId;
     public final TranslationModel<IString,String> localTM;
     public final boolean createForcedAlignment;
     public final boolean additionalPrefixDecoding;
+    public final boolean endOfEpoch;
+    public final boolean rescoreOnly;
     public ProcessorInput(List<Sequence<IString>> input, 
         List<List<Sequence<IString>>> references, 
-        Counter<String> weights, int[] translationIds, int inputId, 
+        WeightVector weights, boolean shareWeights, int[] translationIds, int inputId, 
         TranslationModel<IString,String> localTM, boolean createForcedAlignment,
-        boolean additionalPrefixDecoding) {
+        boolean additionalPrefixDecoding, boolean endOfEpoch, boolean rescoreOnly) {
       this.source = input;
       this.translationIds = translationIds;
       this.references = references;
       this.inputId = inputId;
       // Copy here for thread safety. DO NOT change this unless you know
       // what you're doing....
-      this.weights = new ClassicCounter<String>(weights);
+      this.weights = shareWeights ? weights : weights.copy();
       this.localTM = localTM;
       this.createForcedAlignment = createForcedAlignment;
       this.additionalPrefixDecoding = additionalPrefixDecoding;
+      this.endOfEpoch = endOfEpoch;
+      this.rescoreOnly = rescoreOnly;
     }
   }
 
@@ -422,13 +499,16 @@ public final class OnlineTuner {
    *
    */
   private static class ProcessorOutput {
-    public final Counter<String> gradient;
+    public final SparseVector gradient;
     public final int inputId;
     public final List<List<RichTranslation<IString, String>>> nbestLists;
     public final int[] translationIds;
     List<SymmetricalWordAlignment> wordAlignments;
     List<RichTranslation<IString, String>> prefixDecodingOutput;
-    public ProcessorOutput(Counter<String> gradient, 
+    // Hogwild: the number of updates between reading the weights and applying the gradient
+    int staleness = 0;
+    boolean discarded = false;
+    public ProcessorOutput(SparseVector gradient, 
         int inputId, 
         List<List<RichTranslation<IString, String>>> nbestLists, int[] translationIds, List<SymmetricalWordAlignment> wordAlignments,
         List<RichTranslation<IString, String>> prefixDecodingOutput) {
@@ -451,14 +531,17 @@ public final class OnlineTuner {
     private final OnlineOptimizer<IString, String> optimizer; 
     private final SentenceLevelMetric<IString, String> scoreMetric;
     private final int threadId;
+    // Hogwild: the shared update rule. null for synchronous updates.
+    private final OnlineUpdateRule updater;
 
     // Counter for the newInstance() method
     private int childThreadId;
 
     public GradientProcessor(OnlineOptimizer<IString, String> optimizer, 
-        SentenceLevelMetric<IString, String> scoreMetric, int firstThreadId) {
+        SentenceLevelMetric<IString, String> scoreMetric, OnlineUpdateRule updater, int firstThreadId) {
       this.optimizer = optimizer;
       this.scoreMetric = scoreMetric;
+      this.updater = updater;
       this.threadId = firstThreadId;
       this.childThreadId = firstThreadId+1;
     }
@@ -468,6 +551,9 @@ public final class OnlineTuner {
       Objects.requireNonNull(input.weights);
             
       final int batchSize = input.translationIds.length;
+      final int readStep = hogwildUpdateStep.get();
+      // The decoder scores with feature names
+      final Counter<String> decoderWeights = input.rescoreOnly ? null : input.weights.toCounter();
       List<List<RichTranslation<IString,String>>> nbestLists = new ArrayList<>(input.translationIds.length);
       List<SymmetricalWordAlignment> wordAlignments = input.createForcedAlignment ? 
                                                       new ArrayList<>(input.translationIds.length) : null;
@@ -475,13 +561,17 @@ public final class OnlineTuner {
                                                                    new ArrayList<>(input.translationIds.length) : null;
       for (int i = 0; i < batchSize; ++i) {
         final int sourceId = input.translationIds[i];
+        if (input.rescoreOnly) {
+          nbestLists.add(nbestPool.rescore(sourceId, input.weights));
+          continue;
+        }
         
         // Setup the parameters for decoding this segment
         InputProperties inputProperties = decoder.getInputProperties().size() > sourceId ?
           new InputProperties(decoder.getInputProperties().get(sourceId)) :
           new InputProperties();
 
-        inputProperties.put(InputProperty.ModelWeights, input.weights);
+        inputProperties.put(InputProperty.ModelWeights, decoderWeights);
         if (input.localTM != null) inputProperties.put(InputProperty.ForegroundTM, input.localTM);
         List<Sequence<IString>> targets = null;
         if (prefixes != null) {
@@ -522,11 +612,17 @@ public final class OnlineTuner {
           logger.info("Alignment: {}", wordAlignment.toString());
           
         }
+        if (nbestPool != null) {
+          // Optimize over the accumulated pool instead of the new n-best list
+          int numAdded = nbestPool.add(sourceId, nbestList);
+          nbestList = nbestPool.rescore(sourceId, input.weights);
+          logger.info("Input {}: {} new hypotheses in n-best pool of size {}", sourceId, numAdded, nbestList.size());
+        }
         nbestLists.add(nbestList);
       }
 
       // Compute gradient
-      Counter<String> gradient = batchSize == 1 ?
+      SparseVector gradient = batchSize == 1 ?
         optimizer.getGradient(input.weights, input.source.get(0), 
             input.translationIds[0], nbestLists.get(0), input.references.get(0), 
             referenceWeights, scoreMetric) :
@@ -536,28 +632,36 @@ public final class OnlineTuner {
 
       if (minFeatureCount > 0) {
         updateFeatureCounts(input.translationIds, nbestLists);
-        Set<String> features = new TreeSet<String>(gradient.keySet());
-        for (String feature : features) {
-           if (!hasMinFeatureCount(feature)) {
-              gradient.remove(feature);
-           }
-        } 
+        gradient = gradient.filter(featureId -> hasMinFeatureCount(featureId));
+      }
+      ProcessorOutput output = new ProcessorOutput(gradient, input.inputId, nbestLists, input.translationIds, wordAlignments, prefixDecodingResult);
+      
+      // Hogwild: update the shared weights in place
+      if (updater != null) {
+        output.staleness = hogwildUpdateStep.get() - readStep;
+        output.discarded = maxStaleness > 0 && output.staleness > maxStaleness;
+        if ( ! output.discarded) {
+          updater.update(input.weights, gradient, hogwildUpdateStep.getAndIncrement(), input.endOfEpoch);
+        } else if (input.endOfEpoch) {
+          // Still run the end of epoch step of the update rule
+          updater.update(input.weights, SparseVector.EMPTY, hogwildUpdateStep.getAndIncrement(), true);
+        }
       }
-      return new ProcessorOutput(gradient, input.inputId, nbestLists, input.translationIds, wordAlignments, prefixDecodingResult);
+      return output;
     }
 
     @Override
     public ThreadsafeProcessor<ProcessorInput, ProcessorOutput> newInstance() {
-      return new GradientProcessor(optimizer, scoreMetric, childThreadId++);
+      return new GradientProcessor(optimizer, scoreMetric, updater, childThreadId++);
     }
   }
 
   /**
    * Asynchronous template from Langford et al. (2009). Get gradients from the threadpool and update the weight vector.
    */
-  private int update(Counter<String> currentWts, 
+  private int update(WeightVector currentWts, 
       int updateStep, MulticoreWrapper<ProcessorInput,ProcessorOutput> threadpool, 
-      OnlineUpdateRule<String> updater, Map<Integer, Sequence<IString>> nbestLists, 
+      OnlineUpdateRule updater, Map<Integer, Sequence<IString>> nbestLists, 
       boolean endOfEpoch, ParallelCorpus localTmTrainingData,
       List<Sequence<IString>> prefixDecodingOutputs) {
     Objects.requireNonNull(threadpool);
@@ -569,21 +673,30 @@ public final class OnlineTuner {
       final ProcessorOutput result = threadpool.poll();
       boolean isEndOfEpoch = endOfEpoch && ! threadpool.peek();
 
-      logger.info("Update {} gradient cardinality: {}", updateStep, result.gradient.keySet().size());
+      logger.info("Update {} gradient cardinality: {}", updateStep, result.gradient.size());
       
-      // Update rule. 
-      updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      // Update rule. Hogwild updates were already applied by the decoder thread.
+      if (hogwild) {
+        if (result.discarded) {
+          logger.warn("Update {} discarded gradient from input step {} (staleness: {})", 
+              updateStep, result.inputId, result.staleness);
+        } else {
+          logger.info("Update {} applied asynchronously (staleness: {})", updateStep, result.staleness);
+        }
+      } else {
+        updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      }
 
       // Debug info
       logger.info("Update {} with gradient from input step {} (diff: {})", 
           updateStep, result.inputId, result.inputId - updateStep);
-      logger.info("Update {} approximate L2 ||w'-w|| {}", updateStep, Counters.L2Norm(result.gradient));
-      logger.info("Update {} cardinality: {}", updateStep, currentWts.keySet().size());
+      logger.info("Update {} approximate L2 ||w'-w|| {}", updateStep, result.gradient.l2Norm());
+      logger.info("Update {} cardinality: {}", updateStep, currentWts.cardinality());
       ++updateStep;
 
       // Accumulate intermediate weights for parameter averaging
       if (doParameterAveraging) {
-        wtsAccumulator.addAll(currentWts);
+        wtsAccumulator.add(currentWts);
       }
       
       // Do something with the n-best lists before dumping them?
@@ -640,14 +753,14 @@ public final class OnlineTuner {
     // Initialize weight vector(s) for the decoder
     // currentWts will be used in every round; wts will accumulate weight vectors
     final int numThreads = decoder.getNumThreads();
-    Counter<String> currentWts = new ClassicCounter<>(wtsAccumulator);
-    // Clear the accumulator, which we will use for parameter averaging.
-    wtsAccumulator.clear();
+    WeightVector currentWts = WeightVector.fromCounter(initialWts);
+    // The accumulator for parameter averaging.
+    wtsAccumulator = new WeightVector(currentWts.capacity());
     
     final int tuneSetSize = tuneSource.size();
     final int[] indices = ArrayMath.range(0, tuneSetSize);
     final int numBatches = (int) Math.ceil((double) indices.length / (double) batchSize);
-    final OnlineUpdateRule<String> updater = optimizer.newUpdater();
+    final OnlineUpdateRule updater = optimizer.newUpdater();
     final UpdaterState initialState = OnlineTuner.loadUpdaterState(initialWtsFileName);
     if (initialState != null && ! discardInitialWeightState) {
       updater.setState(initialState);
@@ -657,14 +770,21 @@ public final class OnlineTuner {
 
     // Threadpool for decoders. Create one per epoch so that we can wait for all jobs
     // to finish at the end of the epoch
-    final MulticoreWrapper<ProcessorInput,ProcessorOutput> wrapper = 
+    final MulticoreWrapper<ProcessorInput,ProcessorOutput> wrapper = parameterServerPort >= 0 ? null :
         new MulticoreWrapper<ProcessorInput,ProcessorOutput>(numThreads, 
-            new GradientProcessor(optimizer,scoreMetric,0), enforceStrictlySequential);
+            new GradientProcessor(optimizer, scoreMetric, hogwild ? updater : null, 0), enforceStrictlySequential);
+    final ParameterServer server;
+    try {
+      server = parameterServerPort >= 0 ? new ParameterServer(parameterServerPort, currentWts) : null;
+    } catch (IOException e) {
+      throw new RuntimeException("Could not start parameter server", e);
+    }
     
     logger.info("Start of online tuning");
     logger.info("Number of epochs: {}", numEpochs);
     logger.info("Number of threads: {}", numThreads);
     logger.info("Number of references: {}", numReferences);
+    if (hogwild) logger.info("Hogwild updates with max staleness: {}", maxStaleness);
     int updateId = 0;
     double maxObjectiveValue = Double.NEGATIVE_INFINITY;
     int maxObjectiveEpoch = -1;
@@ -686,40 +806,72 @@ public final class OnlineTuner {
       
       logger.info("Number of batches for epoch {}: {}", epoch, numBatches);
       ParallelCorpus corpus = localTMTraining ? new ParallelCorpus() : null;
-      for (int t = 0; t < numBatches; ++t) {
-        logger.info("Epoch {} batch {} memory free: {}  max: {}", epoch, t, runtime.freeMemory(), 
-            runtime.maxMemory());
-        int[] batch = makeBatch(indices, t, batchSize);
-        int inputId = (epoch*numBatches) + t;
-        TranslationModel<IString,String> localTM  = localTMTraining && t > 0 ? getLocalTM(corpus, (DynamicTranslationModel<String>) decoder.getTranslationModel()) : null;
+      if (server != null) {
+        // Distributed tuning: the workers take the mini-batches from the work queue
+        server.setWeights(currentWts);
+        for (int t = 0; t < numBatches; ++t) {
+          server.addBatch(makeBatch(indices, t, batchSize), (epoch*numBatches) + t);
+        }
+        for (int t = 0; t < numBatches; ++t) {
+          updateId = updateFromWorker(currentWts, updateId, server, updater, nbestLists, t+1 == numBatches);
+          if((t+1) % weightWriteOutInterval == 0) {
+            String filename = String.format("%s.%d.%d%s", outputWeightPrefix, epoch, t, IOTools.WEIGHTS_FILE_EXTENSION);
+            IOTools.writeWeights(filename, currentWts.toCounter());
+          }
+        }
+      } else {
+        // With n-best pools, rescoring-only passes follow the decoding pass
+        final boolean decodeEpoch = nbestPool == null || epoch % decodingEpochInterval == 0;
+        final int numPasses = decodeEpoch ? 1 + numPoolPasses : Math.max(1, numPoolPasses);
+        for (int pass = 0; pass < numPasses; ++pass) {
+          final boolean rescoreOnly = pass > 0 || ! decodeEpoch;
+          if (pass > 0) {
+            // Finish the previous pass so that each pool is only used by one thread
+            wrapper.join(false);
+            updateId = update(currentWts, updateId, wrapper, updater, nbestLists, false, corpus, prefixDecodingOutputs);
+            nbestLists.clear();
+            if(shuffleDev)
+              ArrayMath.shuffle(indices);
+          }
+          if (rescoreOnly) logger.info("Epoch {} pass {}: rescoring n-best pools", epoch, pass);
+          for (int t = 0; t < numBatches; ++t) {
+            logger.info("Epoch {} batch {} memory free: {}  max: {}", epoch, t, runtime.freeMemory(), 
+                runtime.maxMemory());
+            int[] batch = makeBatch(indices, t, batchSize);
+            int inputId = (epoch*numBatches) + t;
+            int batchId = (pass*numBatches) + t;
+            TranslationModel<IString,String> localTM  = localTMTraining && t > 0 && ! rescoreOnly ? getLocalTM(corpus, (DynamicTranslationModel<String>) decoder.getTranslationModel()) : null;
         
-        ProcessorInput input = makeInput(batch, inputId, currentWts, localTM);
-        wrapper.put(input);
-        logger.info("Threadpool.status: {}", wrapper);
-        if(enforceStrictlySequential)
-          wrapper.join(false);
-        updateId = update(currentWts, updateId, wrapper, updater, nbestLists, false, corpus, prefixDecodingOutputs);
+            ProcessorInput input = makeInput(batch, inputId, currentWts, localTM, 
+                pass+1 == numPasses && t+1 == numBatches, rescoreOnly);
+            wrapper.put(input);
+            logger.info("Threadpool.status: {}", wrapper);
+            if(enforceStrictlySequential)
+              wrapper.join(false);
+            updateId = update(currentWts, updateId, wrapper, updater, nbestLists, false, corpus, prefixDecodingOutputs);
         
-        if((t+1) % weightWriteOutInterval == 0) {
-          String filename = String.format("%s.%d.%d%s", outputWeightPrefix, epoch, t, IOTools.WEIGHTS_FILE_EXTENSION);
-          IOTools.writeWeights(filename, currentWts);
+            if((batchId+1) % weightWriteOutInterval == 0) {
+              String filename = String.format("%s.%d.%d%s", outputWeightPrefix, epoch, batchId, IOTools.WEIGHTS_FILE_EXTENSION);
+              IOTools.writeWeights(filename, currentWts.toCounter());
+            }
+          }
         }
-      }
       
-      // Wait for threadpool shutdown for this epoch and get final gradients
-      boolean isLastEpoch = epoch+1 == numEpochs;
-      wrapper.join(isLastEpoch);
-      updateId = update(currentWts, updateId, wrapper, updater, nbestLists, true, corpus, prefixDecodingOutputs);
+        // Wait for threadpool shutdown for this epoch and get final gradients
+        boolean isLastEpoch = epoch+1 == numEpochs;
+        wrapper.join(isLastEpoch);
+        updateId = update(currentWts, updateId, wrapper, updater, nbestLists, true, corpus, prefixDecodingOutputs);
+      }
       
       // Compute (averaged) intermediate weights for next epoch, and write to file.
       if (doParameterAveraging) {
-        currentWts = new ClassicCounter<String>(wtsAccumulator);
-        Counters.divideInPlace(currentWts, (epoch+1)*numBatches);
+        currentWts = wtsAccumulator.copy();
+        currentWts.scale(1.0 / updateId);
       }
       
       // Write the intermediate state for this epoch
       String epochFilePrefix = String.format("%s.%d", outputWeightPrefix, epoch);
-      IOTools.writeWeights(epochFilePrefix + IOTools.WEIGHTS_FILE_EXTENSION, currentWts);
+      IOTools.writeWeights(epochFilePrefix + IOTools.WEIGHTS_FILE_EXTENSION, currentWts.toCounter());
       IOTools.serialize( epochFilePrefix + STATE_FILE_EXTENSION, updater.getState(), SerializationMode.BIN_GZ);
       
       if(outputSingleBest) {
@@ -747,7 +899,113 @@ public final class OnlineTuner {
       }
     }
     
-    saveFinalWeights(currentWts, maxObjectiveEpoch, numEpochs);
+    if (server != null) server.close();
+    if (nbestPool != null) nbestPool.delete();
+    saveFinalWeights(currentWts.toCounter(), maxObjectiveEpoch, numEpochs);
+  }
+
+  /**
+   * Distributed tuning. Get the next gradient from a worker and update the weight vector.
+   */
+  private int updateFromWorker(WeightVector currentWts, int updateStep, ParameterServer server,
+      OnlineUpdateRule updater, Map<Integer, Sequence<IString>> nbestLists, boolean endOfEpoch) {
+    final ParameterServer.RemoteGradient result = server.takeGradient();
+    logger.info("Update {} gradient cardinality: {}", updateStep, result.gradient.size());
+    
+    updater.update(currentWts, result.gradient, updateStep, endOfEpoch);
+    final int version = server.incrementVersion();
+    
+    // Debug info
+    logger.info("Update {} with gradient from input step {} (staleness: {})", 
+        updateStep, result.inputId, version - 1 - result.readVersion);
+    logger.info("Update {} approximate L2 ||w'-w|| {}", updateStep, result.gradient.l2Norm());
+    logger.info("Update {} cardinality: {}", updateStep, currentWts.cardinality());
+    ++updateStep;
+
+    // Accumulate intermediate weights for parameter averaging
+    if (doParameterAveraging) {
+      wtsAccumulator.add(currentWts);
+    }
+    for (int i = 0; i < result.translationIds.length; ++i) {
+      nbestLists.put(result.translationIds[i], result.oneBest.get(i));
+    }
+    return updateStep;
+  }
+
+  /**
+   * Decode mini-batches for a parameter server until tuning is finished. Each decoder
+   * thread has its own connection to the server. If any thread fails, the other
+   * connections are closed and the failure is rethrown.
+   * 
+   * @param host
+   * @param port
+   * @param scoreMetric
+   * @throws IOException If a connection to the server cannot be opened.
+   */
+  public void runWorker(String host, int port, SentenceLevelMetric<IString, String> scoreMetric) 
+      throws IOException {
+    final int numThreads = decoder.getNumThreads();
+    logger.info("Start of worker for parameter server {}:{}", host, port);
+    logger.info("Number of threads: {}", numThreads);
+    final List<ParameterServerClient> clients = new ArrayList<>(numThreads);
+    try {
+      for (int i = 0; i < numThreads; ++i) clients.add(new ParameterServerClient(host, port));
+    } catch (IOException e) {
+      closeQuietly(clients);
+      throw e;
+    }
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>(numThreads);
+    for (int i = 0; i < numThreads; ++i) {
+      final GradientProcessor processor = new GradientProcessor(optimizer, scoreMetric, null, i);
+      final ParameterServerClient client = clients.get(i);
+      Thread thread = new Thread(() -> {
+        try {
+          ParameterServer.Batch batch;
+          while ((batch = client.nextBatch()) != null) {
+            final WeightVector weights = client.pullWeights();
+            final int readVersion = client.version();
+            ProcessorInput input = makeInput(batch.sourceIds, batch.inputId, weights, null, false, false);
+            ProcessorOutput output = processor.process(input);
+            List<Sequence<IString>> oneBest = output.nbestLists.stream().map(nbestList -> 
+              nbestList.size() > 0 ? nbestList.get(0).translation : Sequences.<IString>emptySequence())
+              .collect(Collectors.toList());
+            client.pushGradient(batch.inputId, readVersion, output.gradient, batch.sourceIds, oneBest);
+            logger.info("Pushed gradient for input step {} (cardinality: {})", batch.inputId, output.gradient.size());
+          }
+        } catch (IOException | RuntimeException e) {
+          // Unblock the other threads. Their errors are a consequence of this one.
+          if (failure.compareAndSet(null, e)) {
+            logger.error("Worker thread failed", e);
+            closeQuietly(clients);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    closeQuietly(clients);
+    if (failure.get() != null) {
+      throw new RuntimeException("Worker for parameter server failed", failure.get());
+    }
+    logger.info("End of worker for parameter server {}:{}", host, port);
+  }
+
+  private static void closeQuietly(List<ParameterServerClient> clients) {
+    for (ParameterServerClient client : clients) {
+      try {
+        client.close();
+      } catch (IOException e) {
+        logger.warn("Could not close parameter server connection", e);
+      }
+    }
   }
   
   private TranslationModel<IString,String> getLocalTM(ParallelCorpus corpus, DynamicTranslationModel<String> backgroundTM) {
@@ -846,8 +1104,8 @@ public final class OnlineTuner {
   /**
    * Make a ProcessorInput object for the thread pool from this mini batch.
    */
-  private ProcessorInput makeInput(int[] batch, int inputId, Counter<String> weights, 
-      TranslationModel<IString,String> localTM) {
+  private ProcessorInput makeInput(int[] batch, int inputId, WeightVector weights, 
+      TranslationModel<IString,String> localTM, boolean endOfEpoch, boolean rescoreOnly) {
     List<Sequence<IString>> sourceList = new ArrayList<Sequence<IString>>(batch.length);
     List<List<Sequence<IString>>> referenceList = new ArrayList<List<Sequence<IString>>>(batch.length);
     for (int sourceId : batch) {
@@ -860,7 +1118,8 @@ public final class OnlineTuner {
         referenceList.add(references.get(sourceId));
       }
     }
-    return new ProcessorInput(sourceList, referenceList, weights, batch, inputId, localTM, localTMTraining, outputPrefixDecoding);
+    return new ProcessorInput(sourceList, referenceList, weights, hogwild, batch, inputId, localTM, 
+        localTMTraining, outputPrefixDecoding, endOfEpoch, rescoreOnly);
   }
 
   /**
@@ -1004,6 +1263,12 @@ public final class OnlineTuner {
     optionMap.put("sb", 0);
     optionMap.put("pt", 1);
     optionMap.put("ifw", 1);
+    optionMap.put("hw", 1);
+    optionMap.put("ps", 1);
+    optionMap.put("psw", 1);
+    optionMap.put("pool", 1);
+    optionMap.put("pdi", 1);
+    optionMap.put("pcs", 1);
     return optionMap;
   }
 
@@ -1042,7 +1307,14 @@ public final class OnlineTuner {
       .append("   -niw       : normalize the initial weights file (default: false)").append(nl)
       .append("   -sb        : Specify for single best output. ").append(nl)
       .append("   -pt path   : Prefix tuning file. Only one reference allowed. Or RANDOM to randomly select prefixes from reference.")
-      .append("   -ifw path  : Additional initial feature weights file in plain text. Values are only used if feature is not already present in the weight vector.");
+      .append("   -ifw path  : Additional initial feature weights file in plain text. Values are only used if feature is not already present in the weight vector.").append(nl)
+      .append("   -hw num    : Hogwild asynchronous updates by the decoder threads. Discard gradients that are more than num updates stale (0: no bound)").append(nl)
+      .append("   -ps port   : Distributed tuning. Serve the weights to worker processes on this port (0: any free port)").append(nl)
+      .append("   -psw host:port : Distributed tuning. Decode for the parameter server at host:port").append(nl)
+      .append("   -pool num  : Accumulate n-best pools across epochs, and make num rescoring passes over the pools after each decoding pass").append(nl)
+      .append("   -pdi num   : With -pool, only decode every num epochs. The other epochs only rescore the pools (default: 1)").append(nl)
+      .append("   -pcs num   : With -pool, maximum number of pooled hypotheses to keep in memory (default: ")
+      .append(DEFAULT_MAX_CACHED_HYPOTHESES).append(")");
     
     return sb.toString();
   }
@@ -1083,12 +1355,31 @@ public final class OnlineTuner {
     boolean normalizeInitialWeights = PropertiesUtils.getBool(opts, "niw", false);
     String prefixTuningFile = opts.getProperty("pt", null);
     String additionalInitialFeatureWeights = opts.getProperty("ifw", null);
+    int hogwildMaxStaleness = PropertiesUtils.getInt(opts, "hw", -1);
+    int parameterServerPort = PropertiesUtils.getInt(opts, "ps", -1);
+    String parameterServerAddress = opts.getProperty("psw", null);
+    int numPoolPasses = PropertiesUtils.getInt(opts, "pool", -1);
+    int poolDecodingInterval = PropertiesUtils.getInt(opts, "pdi", 1);
+    long maxCachedHypotheses = PropertiesUtils.getLong(opts, "pcs", DEFAULT_MAX_CACHED_HYPOTHESES);
     
     // Check option combinations
     if (prefixTuningFile != null && refStr != null) {
       System.err.println("ERROR: Only one reference allowed for prefix tuning.");
       System.exit(-1);
     }
+    if ((parameterServerPort >= 0 || parameterServerAddress != null) && 
+        (trainLocalTM || outputPrefixDecoding || pseudoRefOptions != null)) {
+      System.err.println("ERROR: Distributed tuning does not support local TMs, prefix decoding, or pseudo references.");
+      System.exit(-1);
+    }
+    if (numPoolPasses >= 0 && (parameterServerPort >= 0 || parameterServerAddress != null || pseudoRefOptions != null)) {
+      System.err.println("ERROR: N-best pools do not support distributed tuning or pseudo references.");
+      System.exit(-1);
+    }
+    if (parameterServerAddress != null && ! parameterServerAddress.matches("[^:]+:\\d+")) {
+      System.err.println("ERROR: Parameter server address must be host:port");
+      System.exit(-1);
+    }
     
     // Parse arguments
     String[] parsedArgs = opts.getProperty("","").split("\\s+");
@@ -1124,8 +1415,22 @@ public final class OnlineTuner {
       tuner.outputSingleBest(outputSingleBest);
       tuner.outputPrefixDecoding(outputPrefixDecoding);
       tuner.enforceStrictlySequential(enforceStrictlySequential);
+      tuner.hogwild(hogwildMaxStaleness >= 0, hogwildMaxStaleness);
       tuner.trainLocalTM(trainLocalTM, localTMoutFile);
-      tuner.run(numEpochs, batchSize, slScoreMetric, clMetricString, weightWriteOutInterval);
+      tuner.parameterServer(parameterServerPort);
+      if (numPoolPasses >= 0) tuner.nbestPool(numPoolPasses, poolDecodingInterval, maxCachedHypotheses, tmpPath);
+      if (parameterServerAddress != null) {
+        String[] hostPort = parameterServerAddress.split(":");
+        try {
+          tuner.runWorker(hostPort[0], Integer.parseInt(hostPort[1]), slScoreMetric);
+        } catch (IOException | RuntimeException e) {
+          // Decoder threads may still be running, so exit explicitly with an error
+          logger.fatal("Worker for parameter server failed", e);
+          System.exit(-1);
+        }
+      } else {
+        tuner.run(numEpochs, batchSize, slScoreMetric, clMetricString, weightWriteOutInterval);
+      }
 
       final double elapsedTime = TimingUtils.elapsedSeconds(startTime);
       logger.info("Elapsed time: {} seconds", elapsedTime);
@@ -2,7 +2,7 @@ package edu.stanford.nlp.mt.tune;
 
 import java.io.Serializable;
 
-import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.mt.util.SparseVector;
 
 /**
  * Applies an online update rule to a weight vector given a gradient
@@ -10,9 +10,8 @@ import edu.stanford.nlp.stats.Counter;
  * 
  * @author Spence Green
  *
- * @param <FV>
  */
-public interface OnlineUpdateRule<FV> {
+public interface OnlineUpdateRule {
 
   interface UpdaterState extends Serializable {
     
@@ -27,7 +26,7 @@ public interface OnlineUpdateRule<FV> {
    * @param endOfEpoch
    * @return
    */
-  void update(Counter<FV> weights, Counter<FV> gradient, int timeStep, boolean endOfEpoch);
+  void update(WeightVector weights, SparseVector gradient, int timeStep, boolean endOfEpoch);
   
   /**
    * Get the state of this update rule.
@@ -0,0 +1,301 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+import edu.stanford.nlp.mt.util.SparseVector;
+
+/**
+ * Coordinator for distributed online tuning. The coordinator owns the weight vector,
+ * and <code>OnlineTuner</code> applies the update rule to it. Worker processes connect
+ * with a {@link ParameterServerClient}, take mini-batches from the work queue, pull the
+ * current weights, decode, and push sparse gradients back.
+ *
+ * Feature ids are local to each JVM, so features are sent by name. Each message starts
+ * with an opcode:
+ * <pre>
+ *   NEXT                           -&gt; inputId (-1 if tuning is finished) n sourceId^n
+ *   PULL version                   -&gt; version [n (name weight)^n if the weights changed]
+ *   PUSH inputId version n (name value)^n m (sourceId oneBest)^m  -&gt; ack
+ * </pre>
+ * Strings are sent as length-prefixed UTF-8. Mini-batches held by a worker that disconnects
+ * are returned to the work queue. When closed, the server keeps accepting connections until
+ * every connected worker has been told that tuning is finished.
+ *
+ */
+public class ParameterServer implements AutoCloseable {
+
+  private static final Logger logger = LogManager.getLogger(ParameterServer.class);
+
+  static final int NEXT = 1;
+  static final int PULL = 2;
+  static final int PUSH = 3;
+  static final int FINISHED = -1;
+
+  private static final Batch DONE = new Batch(FINISHED, new int[0]);
+
+  // Wait this long for the workers to finish in close()
+  private static final int CLOSE_TIMEOUT_MS = 10000;
+  private static final int ACCEPT_TIMEOUT_MS = 100;
+
+  private final ServerSocket serverSocket;
+  private final BlockingQueue<Batch> work = new LinkedBlockingQueue<>();
+  private final BlockingQueue<RemoteGradient> gradients = new LinkedBlockingQueue<>();
+  private final AtomicInteger version = new AtomicInteger();
+  private volatile WeightVector weights;
+  private final Thread acceptThread;
+  // Connected workers that have not been sent DONE
+  private final AtomicInteger numUnfinishedWorkers = new AtomicInteger();
+  private volatile boolean closing = false;
+
+  /**
+   * A mini-batch of source sentences.
+   */
+  public static class Batch {
+    public final int inputId;
+    public final int[] sourceIds;
+    public Batch(int inputId, int[] sourceIds) {
+      this.inputId = inputId;
+      this.sourceIds = sourceIds;
+    }
+  }
+
+  /**
+   * A gradient pushed by a worker.
+   */
+  public static class RemoteGradient {
+    public final int inputId;
+    public final int readVersion;
+    public final SparseVector gradient;
+    public final int[] translationIds;
+    public final List<Sequence<IString>> oneBest;
+    public RemoteGradient(int inputId, int readVersion, SparseVector gradient, int[] translationIds,
+        List<Sequence<IString>> oneBest) {
+      this.inputId = inputId;
+      this.readVersion = readVersion;
+      this.gradient = gradient;
+      this.translationIds = translationIds;
+      this.oneBest = oneBest;
+    }
+  }
+
+  /**
+   * Constructor. Starts listening for workers.
+   *
+   * @param port The port, or 0 for any free port.
+   * @param weights
+   * @throws IOException
+   */
+  public ParameterServer(int port, WeightVector weights) throws IOException {
+    this.weights = weights;
+    serverSocket = new ServerSocket(port);
+    serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MS);
+    acceptThread = new Thread(this::accept, "ParameterServer-accept");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+    logger.info("Parameter server listening on port {}", getPort());
+  }
+
+  public int getPort() { return serverSocket.getLocalPort(); }
+
+  /**
+   * Replace the weight vector that is served to the workers.
+   *
+   * @param weights
+   */
+  public void setWeights(WeightVector weights) {
+    this.weights = weights;
+    version.incrementAndGet();
+  }
+
+  /**
+   * Signal that an update was applied to the weight vector.
+   *
+   * @return The new version of the weights.
+   */
+  public int incrementVersion() {
+    return version.incrementAndGet();
+  }
+
+  public int getVersion() { return version.get(); }
+
+  /**
+   * Add a mini-batch to the work queue.
+   *
+   * @param sourceIds
+   * @param inputId
+   */
+  public void addBatch(int[] sourceIds, int inputId) {
+    work.add(new Batch(inputId, sourceIds));
+  }
+
+  /**
+   * Wait for the next gradient from a worker.
+   *
+   * @return
+   */
+  public RemoteGradient takeGradient() {
+    try {
+      return gradients.take();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Tell the workers that tuning is finished and stop listening. Blocks until every
+   * connected worker has been told, or until a timeout.
+   */
+  @Override
+  public synchronized void close() {
+    if (closing) return;
+    closing = true;
+    work.add(DONE);
+    try {
+      acceptThread.join(CLOSE_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (acceptThread.isAlive()) {
+      logger.warn("Closing parameter server with {} unfinished workers", numUnfinishedWorkers.get());
+    }
+    closeSocket();
+  }
+
+  private void closeSocket() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      logger.warn("Could not close parameter server socket", e);
+    }
+  }
+
+  private void accept() {
+    while ( ! serverSocket.isClosed()) {
+      try {
+        final Socket socket = serverSocket.accept();
+        numUnfinishedWorkers.incrementAndGet();
+        Thread handler = new Thread(() -> serve(socket), "ParameterServer-" + socket.getRemoteSocketAddress());
+        handler.setDaemon(true);
+        handler.start();
+      } catch (SocketTimeoutException e) {
+        // Stop once no connection is pending and every worker has been sent DONE
+        if (closing && numUnfinishedWorkers.get() == 0) break;
+      } catch (SocketException e) {
+        // Socket closed
+      } catch (IOException e) {
+        logger.error("Could not accept worker connection", e);
+      }
+    }
+    closeSocket();
+  }
+
+  /**
+   * Serve one worker connection.
+   */
+  private void serve(Socket socket) {
+    logger.info("Worker connected: {}", socket.getRemoteSocketAddress());
+    final Map<Integer,Batch> outstanding = new HashMap<>();
+    boolean finished = false;
+    try (Socket s = socket) {
+      s.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+      while (true) {
+        final int opcode;
+        try {
+          opcode = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        if (opcode == NEXT) {
+          Batch batch = work.take();
+          if (batch == DONE) {
+            // Leave the signal for the other workers
+            work.add(DONE);
+          } else {
+            outstanding.put(batch.inputId, batch);
+          }
+          out.writeInt(batch.inputId);
+          out.writeInt(batch.sourceIds.length);
+          for (int sourceId : batch.sourceIds) out.writeInt(sourceId);
+          if (batch == DONE && ! finished) {
+            finished = true;
+            numUnfinishedWorkers.decrementAndGet();
+          }
+
+        } else if (opcode == PULL) {
+          final int clientVersion = in.readInt();
+          final int currentVersion = version.get();
+          out.writeInt(currentVersion);
+          if (currentVersion != clientVersion) {
+            SparseVector w = weights.nonZeros();
+            out.writeInt(w.size());
+            for (int i = 0, sz = w.size(); i < sz; ++i) {
+              IOTools.writeString(out, FeatureIndex.get(w.id(i)));
+              out.writeDouble(w.value(i));
+            }
+          }
+
+        } else if (opcode == PUSH) {
+          final int inputId = in.readInt();
+          final int readVersion = in.readInt();
+          final int numFeatures = in.readInt();
+          SparseVector.Builder builder = new SparseVector.Builder(numFeatures);
+          for (int i = 0; i < numFeatures; ++i) {
+            final String name = IOTools.readString(in);
+            builder.add(FeatureIndex.indexOf(name), in.readDouble());
+          }
+          final int numTranslations = in.readInt();
+          int[] translationIds = new int[numTranslations];
+          List<Sequence<IString>> oneBest = new ArrayList<>(numTranslations);
+          for (int i = 0; i < numTranslations; ++i) {
+            translationIds[i] = in.readInt();
+            final String translation = IOTools.readString(in);
+            oneBest.add(translation.isEmpty() ? Sequences.emptySequence() : IStrings.tokenize(translation));
+          }
+          outstanding.remove(inputId);
+          gradients.add(new RemoteGradient(inputId, readVersion, builder.build(), translationIds, oneBest));
+          out.writeInt(0);
+
+        } else {
+          throw new IOException("Unknown opcode: " + opcode);
+        }
+        out.flush();
+      }
+
+    } catch (IOException | InterruptedException e) {
+      logger.warn("Worker connection failed: {}", socket.getRemoteSocketAddress(), e);
+    }
+    if ( ! finished) numUnfinishedWorkers.decrementAndGet();
+    if (outstanding.size() > 0) {
+      logger.warn("Returning {} unfinished mini-batches to the work queue", outstanding.size());
+      work.addAll(outstanding.values());
+    }
+    logger.info("Worker disconnected: {}", socket.getRemoteSocketAddress());
+  }
+}
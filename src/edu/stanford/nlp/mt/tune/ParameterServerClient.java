@@ -0,0 +1,125 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.SparseVector;
+
+/**
+ * Worker connection to a {@link ParameterServer}. Not threadsafe. Use one connection
+ * per decoding thread.
+ *
+ */
+public class ParameterServerClient implements AutoCloseable {
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  private int version = -1;
+  private WeightVector weights;
+
+  /**
+   * Constructor.
+   *
+   * @param host
+   * @param port
+   * @throws IOException
+   */
+  public ParameterServerClient(String host, int port) throws IOException {
+    socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  /**
+   * Take the next mini-batch from the work queue. Blocks until a mini-batch is available.
+   *
+   * @return The mini-batch, or null if tuning is finished.
+   * @throws IOException
+   */
+  public ParameterServer.Batch nextBatch() throws IOException {
+    out.writeInt(ParameterServer.NEXT);
+    out.flush();
+    final int inputId = in.readInt();
+    int[] sourceIds = new int[in.readInt()];
+    for (int i = 0; i < sourceIds.length; ++i) sourceIds[i] = in.readInt();
+    return inputId == ParameterServer.FINISHED ? null : new ParameterServer.Batch(inputId, sourceIds);
+  }
+
+  /**
+   * Get the current weights from the server. The weights are only transferred
+   * if they have changed since the last call.
+   *
+   * @return
+   * @throws IOException
+   */
+  public WeightVector pullWeights() throws IOException {
+    out.writeInt(ParameterServer.PULL);
+    out.writeInt(version);
+    out.flush();
+    final int serverVersion = in.readInt();
+    if (serverVersion != version) {
+      final int numFeatures = in.readInt();
+      WeightVector w = new WeightVector();
+      for (int i = 0; i < numFeatures; ++i) {
+        final String name = IOTools.readString(in);
+        w.set(FeatureIndex.indexOf(name), in.readDouble());
+      }
+      weights = w;
+      version = serverVersion;
+    }
+    return weights;
+  }
+
+  /**
+   * The version of the last weights returned by <code>pullWeights()</code>.
+   *
+   * @return
+   */
+  public int version() { return version; }
+
+  /**
+   * Send a gradient and the one-best translations of a mini-batch to the server.
+   *
+   * @param inputId
+   * @param readVersion The version of the weights used to compute the gradient.
+   * @param gradient
+   * @param translationIds
+   * @param oneBest
+   * @throws IOException
+   */
+  public void pushGradient(int inputId, int readVersion, SparseVector gradient, int[] translationIds,
+      List<Sequence<IString>> oneBest) throws IOException {
+    out.writeInt(ParameterServer.PUSH);
+    out.writeInt(inputId);
+    out.writeInt(readVersion);
+    out.writeInt(gradient.size());
+    for (int i = 0, sz = gradient.size(); i < sz; ++i) {
+      IOTools.writeString(out, FeatureIndex.get(gradient.id(i)));
+      out.writeDouble(gradient.value(i));
+    }
+    out.writeInt(translationIds.length);
+    for (int i = 0; i < translationIds.length; ++i) {
+      out.writeInt(translationIds[i]);
+      IOTools.writeString(out, oneBest.get(i).toString());
+    }
+    out.flush();
+    in.readInt();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+}
@@ -0,0 +1,268 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.SparseVector;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Dense weight vector for online tuning indexed by <code>FeatureIndex</code> ids.
+ * Features that are not stored have weight 0, and the vector grows as new
+ * features are set.
+ *
+ * The weights are stored in fixed-size blocks that are never moved once they
+ * are allocated. Growing the vector only allocates new blocks, so threads can
+ * read and update the vector in place without locks (Hogwild-style). Concurrent
+ * updates to the same weight may be lost, but the vector is never corrupted.
+ *
+ * Weights are converted to and from counters over feature names only for
+ * file I/O and for the decoder.
+ *
+ */
+public class WeightVector {
+
+  private static final int BLOCK_BITS = 10;
+  private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+  private volatile double[][] blocks;
+
+  public WeightVector() {
+    this(Math.max(16, FeatureIndex.size()));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param initialCapacity
+   */
+  public WeightVector(int initialCapacity) {
+    blocks = new double[numBlocks(Math.max(1, initialCapacity))][];
+  }
+
+  private WeightVector(double[][] blocks) {
+    this.blocks = blocks;
+  }
+
+  /**
+   * Convert a counter to a weight vector. Feature names that are not in the index are added.
+   *
+   * @param counter
+   * @return
+   */
+  public static WeightVector fromCounter(Counter<String> counter) {
+    WeightVector w = new WeightVector();
+    for (Map.Entry<String, Double> entry : counter.entrySet()) {
+      if (entry.getKey() == null) continue;
+      w.set(FeatureIndex.indexOf(entry.getKey()), entry.getValue());
+    }
+    return w;
+  }
+
+  /**
+   * Convert the non-zero weights to a counter over feature names.
+   *
+   * @return
+   */
+  public Counter<String> toCounter() {
+    Counter<String> counter = new ClassicCounter<>();
+    final double[][] b = blocks;
+    for (int i = 0; i < b.length; ++i) {
+      final double[] block = b[i];
+      if (block == null) continue;
+      for (int j = 0; j < BLOCK_SIZE; ++j) {
+        final double w = block[j];
+        if (w != 0.0) counter.setCount(FeatureIndex.get((i << BLOCK_BITS) | j), w);
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * The weight of a feature.
+   *
+   * @param featureId
+   * @return
+   */
+  public double get(int featureId) {
+    final double[][] b = blocks;
+    final int i = featureId >>> BLOCK_BITS;
+    final double[] block = i < b.length ? b[i] : null;
+    return block == null ? 0.0 : block[featureId & BLOCK_MASK];
+  }
+
+  /**
+   * Set the weight of a feature.
+   *
+   * @param featureId
+   * @param value
+   */
+  public void set(int featureId, double value) {
+    final int i = featureId >>> BLOCK_BITS;
+    final double[][] b = blocks;
+    if (value == 0.0 && (i >= b.length || b[i] == null)) return;
+    block(i)[featureId & BLOCK_MASK] = value;
+  }
+
+  /**
+   * Add a value to the weight of a feature.
+   *
+   * @param featureId
+   * @param value
+   * @return The new weight.
+   */
+  public double increment(int featureId, double value) {
+    return block(featureId >>> BLOCK_BITS)[featureId & BLOCK_MASK] += value;
+  }
+
+  /**
+   * Add a scaled sparse vector.
+   *
+   * @param vector
+   * @param scale
+   */
+  public void add(SparseVector vector, double scale) {
+    for (int i = 0, sz = vector.size(); i < sz; ++i) {
+      final int featureId = vector.id(i);
+      block(featureId >>> BLOCK_BITS)[featureId & BLOCK_MASK] += vector.value(i) * scale;
+    }
+  }
+
+  /**
+   * Add another weight vector.
+   *
+   * @param other
+   */
+  public void add(WeightVector other) {
+    final double[][] otherBlocks = other.blocks;
+    for (int i = 0; i < otherBlocks.length; ++i) {
+      final double[] otherBlock = otherBlocks[i];
+      if (otherBlock == null) continue;
+      final double[] block = block(i);
+      for (int j = 0; j < BLOCK_SIZE; ++j) block[j] += otherBlock[j];
+    }
+  }
+
+  /**
+   * Multiply all weights by a constant.
+   *
+   * @param scale
+   */
+  public void scale(double scale) {
+    for (double[] block : blocks) {
+      if (block == null) continue;
+      for (int j = 0; j < BLOCK_SIZE; ++j) block[j] *= scale;
+    }
+  }
+
+  /**
+   * Inner product with a sparse vector.
+   *
+   * @param vector
+   * @return
+   */
+  public double dot(SparseVector vector) {
+    double sum = 0.0;
+    for (int i = 0, sz = vector.size(); i < sz; ++i) {
+      sum += get(vector.id(i)) * vector.value(i);
+    }
+    return sum;
+  }
+
+  /**
+   * Set all weights to 0.
+   */
+  public void clear() {
+    for (double[] block : blocks) {
+      if (block != null) Arrays.fill(block, 0.0);
+    }
+  }
+
+  /**
+   * Upper bound on the feature ids with non-zero weights.
+   *
+   * @return
+   */
+  public int capacity() {
+    return blocks.length << BLOCK_BITS;
+  }
+
+  /**
+   * Number of non-zero weights.
+   *
+   * @return
+   */
+  public int cardinality() {
+    int n = 0;
+    for (double[] block : blocks) {
+      if (block == null) continue;
+      for (double w : block) if (w != 0.0) ++n;
+    }
+    return n;
+  }
+
+  /**
+   * The non-zero weights as a sparse vector.
+   *
+   * @return
+   */
+  public SparseVector nonZeros() {
+    SparseVector.Builder builder = new SparseVector.Builder();
+    final double[][] b = blocks;
+    for (int i = 0; i < b.length; ++i) {
+      final double[] block = b[i];
+      if (block == null) continue;
+      for (int j = 0; j < BLOCK_SIZE; ++j) {
+        final double w = block[j];
+        if (w != 0.0) builder.add((i << BLOCK_BITS) | j, w);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * A snapshot of the weights. If other threads are updating this vector, then
+   * the snapshot may include some of their updates.
+   *
+   * @return
+   */
+  public WeightVector copy() {
+    final double[][] b = blocks.clone();
+    for (int i = 0; i < b.length; ++i) {
+      if (b[i] != null) b[i] = b[i].clone();
+    }
+    return new WeightVector(b);
+  }
+
+  private static int numBlocks(int capacity) {
+    return ((capacity - 1) >>> BLOCK_BITS) + 1;
+  }
+
+  /**
+   * The block with the given index, which is allocated if necessary.
+   */
+  private double[] block(int i) {
+    final double[][] b = blocks;
+    final double[] block = i < b.length ? b[i] : null;
+    return block == null ? allocateBlock(i) : block;
+  }
+
+  private synchronized double[] allocateBlock(int i) {
+    double[][] b = blocks;
+    if (i >= b.length) {
+      b = Arrays.copyOf(b, Math.max(i + 1, 2 * b.length));
+    }
+    if (b[i] == null) b[i] = new double[BLOCK_SIZE];
+    // Publish the new block through the volatile field
+    blocks = b;
+    return b[i];
+  }
+
+  @Override
+  public String toString() {
+    return toCounter().toString();
+  }
+}
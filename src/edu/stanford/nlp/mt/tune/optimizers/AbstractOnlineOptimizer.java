@@ -13,10 +13,12 @@ import org.apache.logging.log4j.Logger;
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
 import edu.stanford.nlp.mt.tune.OnlineOptimizer;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.WeightVector;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.SparseVector;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 
@@ -85,7 +87,7 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
   }
 
   @Override
-  public OnlineUpdateRule<String> newUpdater() {
+  public OnlineUpdateRule newUpdater() {
     if (this.updaterType.equalsIgnoreCase("adagrad")) {
       return new AdaGradUpdater(learningRate, expectedNumFeatures);
     }
@@ -136,7 +138,7 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
   }
 
   @Override
-  public Counter<String> getGradient(Counter<String> weights,
+  public SparseVector getGradient(WeightVector weights,
       Sequence<IString> source, int sourceId,
       List<RichTranslation<IString, String>> translations,
       List<Sequence<IString>> references, double[] referenceWeights,
@@ -145,38 +147,33 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
   }
 
   @Override
-  public Counter<String> getBatchGradient(Counter<String> weights,
+  public SparseVector getBatchGradient(WeightVector weights,
       List<Sequence<IString>> sources, int[] sourceIds,
       List<List<RichTranslation<IString, String>>> translations,
       List<List<Sequence<IString>>> references,
       double[] referenceWeights,
       SentenceLevelMetric<IString, String> scoreMetric) {
-    Counter<String> batchGradient = new ClassicCounter<String>();
+    SparseVector.Builder batchGradient = new SparseVector.Builder();
 
     for (int i = 0; i < sourceIds.length; i++) {
       if (translations.get(i).size() > 0) {
         // Skip decoder failures.
-        Counter<String> unregularizedGradient = getUnregularizedGradient(weights, sources.get(i), sourceIds[i], translations.get(i), references.get(i), referenceWeights, scoreMetric);
-        batchGradient.addAll(unregularizedGradient);
+        SparseVector unregularizedGradient = getUnregularizedGradient(weights, sources.get(i), sourceIds[i], translations.get(i), references.get(i), referenceWeights, scoreMetric);
+        batchGradient.add(unregularizedGradient, 1.0);
       }
     }
 
     // Add L2 regularization directly into the derivative
     if (this.l2Regularization) {
-      final Set<String> features = new HashSet<String>(weights.keySet());
-      features.addAll(weights.keySet());
       final double dataFraction = sourceIds.length /(double) tuneSetSize;
       final double scaledInvSigmaSquared = dataFraction/(2*sigmaSq);
-      for (String key : features) {
-        double x = weights.getCount(key);
-        batchGradient.incrementCount(key, x * scaledInvSigmaSquared);
-      }
+      batchGradient.add(weights.nonZeros(), scaledInvSigmaSquared);
     }
 
-    return batchGradient;
+    return batchGradient.build();
   }
 
-  abstract public Counter<String> getUnregularizedGradient(Counter<String> weights,
+  abstract public SparseVector getUnregularizedGradient(WeightVector weights,
       Sequence<IString> source, int sourceId,
       List<RichTranslation<IString, String>> translations,
       List<Sequence<IString>> references, double[] referenceWeights,
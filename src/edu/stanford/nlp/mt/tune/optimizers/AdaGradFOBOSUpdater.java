@@ -1,12 +1,15 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
-import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.mt.tune.WeightVector;
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.SparseVector;
 import edu.stanford.nlp.stats.Counter;
 
 /**
@@ -18,7 +21,7 @@ import edu.stanford.nlp.stats.Counter;
  *         Mengqiu Wang
  *
  */
-public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
+public class AdaGradFOBOSUpdater implements OnlineUpdateRule {
 
   private final double rate;
 
@@ -30,7 +33,9 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
   
   public enum Norm { LASSO, aeLASSO; }
 
-  private Counter<String> sumGradSquare;
+  private WeightVector sumGradSquare;
+  // Features that have had a gradient entry, including entries that were 0
+  private BitSet seenFeatures = new BitSet();
   private Norm norm;
   private Counter<String> customL1;
   private Set<String> fixedFeatures;
@@ -46,7 +51,7 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
     this.customL1 = customL1;
     this.fixedFeatures = fixedFeatures;
     
-    sumGradSquare = new ClassicCounter<String>(expectedNumFeatures);
+    sumGradSquare = new WeightVector(expectedNumFeatures);
   }
 
   public AdaGradFOBOSUpdater(double initialRate, int expectedNumFeatures, double lambda) {
@@ -60,8 +65,9 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
   // the gradient here should include L2 regularization, 
   // use the fast version if the L2 regularization is to be handled here.
   @Override
-  public void update(Counter<String> weights,
-		    Counter<String> gradient, int timeStep, boolean endOfEpoch) {
+  public void update(WeightVector weights,
+		    SparseVector gradient, int timeStep, boolean endOfEpoch) {
+    for (int i = 0, sz = gradient.size(); i < sz; ++i) seenFeatures.set(gradient.id(i));
     if (norm == Norm.LASSO)
       updateL1(weights, gradient, timeStep);
     else if (norm == Norm.aeLASSO) {
@@ -70,33 +76,29 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
       throw new UnsupportedOperationException("norm type " + norm + " cannot be recognized in AdaGradFOBOSUpdater");
   }
 
-  public void updateL1(Counter<String> weights,
-		     Counter<String> gradient, int timeStep) {
+  public void updateL1(WeightVector weights,
+		     SparseVector gradient, int timeStep) {
     // w_{t+1} := w_t - nu*g_t
-    for (String feature : gradient.keySet()) {
-      double gValue = gradient.getCount(feature);
-      double sgsValue = sumGradSquare.incrementCount(feature, gValue*gValue);
-      double wValue = weights.getCount(feature);
+    for (int i = 0, sz = gradient.size(); i < sz; ++i) {
+      final int feature = gradient.id(i);
+      double gValue = gradient.value(i);
+      double sgsValue = sumGradSquare.increment(feature, gValue*gValue);
+      double wValue = weights.get(feature);
       double currentrate = rate / (Math.sqrt(sgsValue)+eps);
       double testupdate = wValue - (currentrate * gValue);
       double realupdate = Math.signum(testupdate) * pospart( Math.abs(testupdate) - currentrate*this.lambda );
-      if (realupdate == 0.0) {
-        // Filter zeros
-        weights.remove(feature);
-      } else {
-        weights.setCount(feature, realupdate);
-      }
+      weights.set(feature, realupdate);
     }
   }
 
-  class DefaultHashMap extends HashMap<String,Set<String>> {
+  class DefaultHashMap extends HashMap<String,Set<Integer>> {
     private static final long serialVersionUID = 8802635722798100944L;
 
     @Override
-    public Set<String> get(Object k) {
-      Set<String> v = super.get(k);
+    public Set<Integer> get(Object k) {
+      Set<Integer> v = super.get(k);
       if ((v == null) && !this.containsKey(k)) {
-        Set<String> aSet = new HashSet<>(1);
+        Set<Integer> aSet = new HashSet<>(1);
         this.put((String)k, aSet);
         return aSet;
       } else 
@@ -104,35 +106,36 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
     }
   }
 
-  public void updateElitistLasso(Counter<String> weights,
-		     Counter<String> gradient, int timeStep) {
+  public void updateElitistLasso(WeightVector weights,
+		     SparseVector gradient, int timeStep) {
     String PTFeat = "DiscPT.s+t:";
     String OTHERS = "OTHERS";
     int PTLen = PTFeat.length();
     
-    for (String feature: gradient.keySet())
+    for (int i = 0, sz = gradient.size(); i < sz; ++i)
     {
-        double tempgrad = gradient.getCount(feature);
-        sumGradSquare.incrementCount(feature, tempgrad * tempgrad);
+        double tempgrad = gradient.value(i);
+        sumGradSquare.increment(gradient.id(i), tempgrad * tempgrad);
     }
 
     // Build featureGroups
-    Map<String, Set<String>> featureGroups = new DefaultHashMap();
-    for (String feature: sumGradSquare.keySet())
+    Map<String, Set<Integer>> featureGroups = new DefaultHashMap();
+    for (int featureId = seenFeatures.nextSetBit(0); featureId >= 0; featureId = seenFeatures.nextSetBit(featureId + 1))
     {
+      String feature = FeatureIndex.get(featureId);
     	if(feature.startsWith(PTFeat))
     	{
     	    String strip=feature.substring(PTLen);
     	    String[] sourceTarget = strip.split(">");
     	    String source = sourceTarget[0];
     	    //assert(sourceTarget.length == 2);
-    	    Set<String> currentGroup = featureGroups.get(source);
-    	    currentGroup.add(feature);
+    	    Set<Integer> currentGroup = featureGroups.get(source);
+    	    currentGroup.add(featureId);
     	}
     	else
     	{
-    	    Set<String> currentGroup = featureGroups.get(OTHERS);
-    	    currentGroup.add(feature);
+    	    Set<Integer> currentGroup = featureGroups.get(OTHERS);
+    	    currentGroup.add(featureId);
     	}
     }
 
@@ -144,12 +147,13 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
     // need to iterate over the groups of features twice
     // in first itr, calculate per-group L1-norm
     double gValue, sgsValue,  wValue, currentrate, testupdate, realupdate, tau = 0;
-    for (Set<String> fGroup: featureGroups.values()) {
+    for (Set<Integer> fGroup: featureGroups.values()) {
       double testUpdateAbsSum = 0;
       int groupSize = fGroup.size();
-      Counter<String> testUpdateCache = new ClassicCounter<String>(groupSize);
-      Counter<String> currentRateCache = new ClassicCounter<String>(groupSize);
-      for (String feature: fGroup) {
+      Map<Integer,Double> testUpdateCache = new HashMap<>(groupSize);
+      Map<Integer,Double> currentRateCache = new HashMap<>(groupSize);
+      for (int featureId : fGroup) {
+        String feature = FeatureIndex.get(featureId);
         
         if(fixedFeatures != null && 
             fixedFeatures.size() > 0) {
@@ -163,16 +167,17 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
           if(fixed) continue;
         }
 
-        gValue = gradient.getCount(feature);
-        sgsValue = sumGradSquare.getCount(feature);
-        wValue = weights.getCount(feature);
+        gValue = gradient.get(featureId);
+        sgsValue = sumGradSquare.get(featureId);
+        wValue = weights.get(featureId);
         currentrate = rate / (Math.sqrt(sgsValue)+eps);
         testupdate = wValue - (currentrate * gValue);
         testUpdateAbsSum += Math.abs(testupdate);
-        testUpdateCache.incrementCount(feature, testupdate);
-        currentRateCache.incrementCount(feature, currentrate);
+        testUpdateCache.put(featureId, testupdate);
+        currentRateCache.put(featureId, currentrate);
       }
-      for (String feature: fGroup) {
+      for (int featureId : fGroup) {
+        String feature = FeatureIndex.get(featureId);
         
         if(fixedFeatures != null && 
             fixedFeatures.size() > 0 &&
@@ -180,8 +185,8 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
           continue;
         }
         
-        currentrate = currentRateCache.getCount(feature);
-        testupdate = testUpdateCache.getCount(feature);
+        currentrate = currentRateCache.getOrDefault(featureId, 0.0);
+        testupdate = testUpdateCache.getOrDefault(featureId, 0.0);
         double l1 = this.lambda;
         if(customL1 != null && customL1.size()>0)
           for (String prefix : customL1.keySet())
@@ -197,13 +202,7 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
 
         tau = (currentrate * l1) / (1 + currentrate * l1 * groupSize) * testUpdateAbsSum;
         realupdate = Math.signum(testupdate) * pospart(Math.abs(testupdate) - tau);
-        if (realupdate == 0.0) {
-          // Filter zeros
-          weights.remove(feature);
-          // fGroup.remove(feature);
-        } else {
-          weights.setCount(feature, realupdate);
-        }
+        weights.set(featureId, realupdate);
       }
     }
   }
@@ -214,13 +213,22 @@ public class AdaGradFOBOSUpdater implements OnlineUpdateRule<String> {
 
   @Override
   public UpdaterState getState() {
-    return new AdaGradFOBOSState(sumGradSquare, customL1, fixedFeatures);
+    Counter<String> gradHistory = sumGradSquare.toCounter();
+    for (int featureId = seenFeatures.nextSetBit(0); featureId >= 0; featureId = seenFeatures.nextSetBit(featureId + 1)) {
+      String feature = FeatureIndex.get(featureId);
+      if ( ! gradHistory.containsKey(feature)) gradHistory.setCount(feature, 0.0);
+    }
+    return new AdaGradFOBOSState(gradHistory, customL1, fixedFeatures);
   }
 
   @Override
   public void setState(UpdaterState state) {
     if (state instanceof AdaGradFOBOSState) {
-      sumGradSquare = ((AdaGradFOBOSState) state).gradHistory;
+      sumGradSquare = WeightVector.fromCounter(((AdaGradFOBOSState) state).gradHistory);
+      seenFeatures = new BitSet();
+      for (String feature : ((AdaGradFOBOSState) state).gradHistory.keySet()) {
+        seenFeatures.set(FeatureIndex.indexOf(feature));
+      }
       customL1 = ((AdaGradFOBOSState) state).customReg;
       fixedFeatures = ((AdaGradFOBOSState) state).fixedFeatures;
     }
@@ -1,13 +1,14 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
-import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
-import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.mt.tune.WeightVector;
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.SparseVector;
 import edu.stanford.nlp.stats.Counter;
 
 /**
@@ -21,7 +22,7 @@ import edu.stanford.nlp.stats.Counter;
  * @author Sida Wang
  *
  */
-public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
+public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule {
 
   private static final Logger logger = LogManager.getLogger(AdaGradFastFOBOSUpdater.class.getName());
 
@@ -32,8 +33,8 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
   private final double eps = 1e-3;
   private double L1lambda;
   
-  private Counter<String> sumGradSquare;
-  private Counter<String> lastUpdated;
+  private WeightVector sumGradSquare;
+  private WeightVector lastUpdated;
   private Counter<String> customL1;
   private Set<String> fixedFeatures;
 
@@ -67,31 +68,33 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
       Counter<String> customL1, Set<String> fixedFeatures) {
     this.rate = initialRate;
     this.L1lambda = L1lambda;
-    sumGradSquare = new ClassicCounter<>(expectedNumFeatures);
-    lastUpdated = new ClassicCounter<>(expectedNumFeatures);
+    sumGradSquare = new WeightVector(expectedNumFeatures);
+    lastUpdated = new WeightVector(expectedNumFeatures);
     this.customL1 = customL1;
     this.fixedFeatures = fixedFeatures;
   }
 
   @Override
-  public void update(Counter<String> weights,
-      Counter<String> gradient, int timeStep, boolean endOfEpoch) {
+  public void update(WeightVector weights,
+      SparseVector gradient, int timeStep, boolean endOfEpoch) {
     // Warm restart fields
     timeStep += timeStepOffset;
     lastTimeStep = timeStep;
     
     // Special case: the weight vector is empty (initial update)
     // Special case: gradient is non-zero where the weight is 0
-    Set<String> featuresToUpdate = gradient.keySet();
+    SparseVector featuresToUpdate = gradient;
     if (endOfEpoch) {
-      featuresToUpdate = new HashSet<>(weights.keySet());
-      featuresToUpdate.addAll(gradient.keySet());
+      featuresToUpdate = new SparseVector.Builder(gradient.size())
+          .add(weights.nonZeros(), 0.0).add(gradient, 1.0).build();
       logger.info("Full regularization step for {} features", featuresToUpdate.size());
     }
         
     // w_{t+1} := w_t - nu*g_t
-    Set<String> featuresToRemove = new HashSet<String>();
-    for (String feature : featuresToUpdate) {
+    int numNullified = 0;
+    for (int i = 0, sz = featuresToUpdate.size(); i < sz; ++i) {
+      final int featureId = featuresToUpdate.id(i);
+      final String feature = FeatureIndex.get(featureId);
       
       if(fixedFeatures != null && fixedFeatures.size() > 0) {
         boolean fixed = false;
@@ -104,19 +107,19 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
         if(fixed) continue;
       }
       
-      double gradf = gradient.getCount(feature);
-      double prevrate = rate / (Math.sqrt(sumGradSquare.getCount(feature))+eps);     
+      double gradf = featuresToUpdate.value(i);
+      double prevrate = rate / (Math.sqrt(sumGradSquare.get(featureId))+eps);     
 
       // Do not start decaying the weight of a feature until it has been seen
-      if(sumGradSquare.getCount(feature)==0.0)
+      if(sumGradSquare.get(featureId)==0.0)
         prevrate = 0;
 
-      double sgsValue = sumGradSquare.incrementCount(feature, gradf*gradf);
+      double sgsValue = sumGradSquare.increment(featureId, gradf*gradf);
       double currentrate = rate / (Math.sqrt(sgsValue)+eps);
-      double testupdate = weights.getCount(feature) - (currentrate * gradient.getCount(feature));
-      double lastUpdateTimeStep = lastUpdated.getCount(feature);
+      double testupdate = weights.get(featureId) - (currentrate * gradf);
+      double lastUpdateTimeStep = lastUpdated.get(featureId);
       double idleinterval = timeStep - lastUpdateTimeStep-1;
-      lastUpdated.setCount(feature, (double)timeStep);
+      lastUpdated.set(featureId, (double)timeStep);
 
       // Lookup the regularization strength for this feature
       // TODO(spenceg): This is super-slow. Can we do this more quickly?
@@ -134,33 +137,26 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
       // Update this coordinate in the weight vector
       double trunc = Math.max(0.0, (Math.abs(testupdate) - (currentrate + prevrate*idleinterval)*l1));
       double realupdate = Math.signum(testupdate) * trunc;      
-      if (realupdate == 0.0) {
-        featuresToRemove.add(feature);
-      } else {
-        weights.setCount(feature, realupdate);
-      }
-    }
-    
-    // Filter features that have been nullified
-    logger.info("Nullified features: {}", featuresToRemove.size());
-    for (String feature : featuresToRemove) {
-      weights.remove(feature);
+      if (realupdate == 0.0) ++numNullified;
+      weights.set(featureId, realupdate);
     }
+    logger.info("Nullified features: {}", numNullified);
   }
   
   @Override
   public UpdaterState getState() {
-    return new AdaGradFastFOBOSState(sumGradSquare, customL1, fixedFeatures, lastUpdated, lastTimeStep);
+    return new AdaGradFastFOBOSState(sumGradSquare.toCounter(), customL1, fixedFeatures, 
+        lastUpdated.toCounter(), lastTimeStep);
   }
 
   @Override
   public void setState(UpdaterState state) {
     if (state instanceof AdaGradFastFOBOSState) {
       AdaGradFastFOBOSState adaGradState = (AdaGradFastFOBOSState) state;
-      sumGradSquare = adaGradState.gradHistory;
+      sumGradSquare = WeightVector.fromCounter(adaGradState.gradHistory);
       customL1 = adaGradState.customReg;
       fixedFeatures = adaGradState.fixedFeatures;
-      lastUpdated = adaGradState.lastUp;
+      lastUpdated = WeightVector.fromCounter(adaGradState.lastUp);
       timeStepOffset = adaGradState.timeStep + 1;
     }
   }
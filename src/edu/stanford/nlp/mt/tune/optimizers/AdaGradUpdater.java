@@ -1,9 +1,8 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.WeightVector;
+import edu.stanford.nlp.mt.util.SparseVector;
 import edu.stanford.nlp.stats.Counter;
 
 /**
@@ -12,54 +11,44 @@ import edu.stanford.nlp.stats.Counter;
  * @author Sida Wang
  *
  */
-public class AdaGradUpdater implements OnlineUpdateRule<String> {
+public class AdaGradUpdater implements OnlineUpdateRule {
 
   private final double rate;
 
   // for flexible divisions. Think of 1/eps as the maximum
   // magnification factor over the base learning rate
   private final double eps = 1e-3;
-  private Counter<String> sumGradSquare;
+  private WeightVector sumGradSquare;
 
   public AdaGradUpdater(double initialRate, int expectedNumFeatures) {
     this.rate = initialRate;
-    //sumGradSquare = new OpenAddressCounter<String>(expectedNumFeatures, 1.0f);
+    sumGradSquare = new WeightVector(expectedNumFeatures);
   }
 
   @Override
-  public void update(Counter<String> weights,
-      Counter<String> gradient, int timeStep, boolean endOfEpoch) {
+  public void update(WeightVector weights,
+      SparseVector gradient, int timeStep, boolean endOfEpoch) {
 
     // w_{t+1} := w_t - nu*g_t
-    Set<String> zeroFeatures = new HashSet<String>();
-    for (String feature : gradient.keySet()) {
-      double gradf = gradient.getCount(feature);
-      double sgsValue = sumGradSquare.incrementCount(feature, gradf*gradf);
-      double wValue = weights.getCount(feature);
-      double gValue = gradient.getCount(feature);
+    for (int i = 0, sz = gradient.size(); i < sz; ++i) {
+      final int feature = gradient.id(i);
+      double gValue = gradient.value(i);
+      double sgsValue = sumGradSquare.increment(feature, gValue*gValue);
+      double wValue = weights.get(feature);
       double update = wValue - (rate * gValue/(Math.sqrt(sgsValue)+eps));
-      if (update == 0.0) {
-        zeroFeatures.add(feature);
-      } else {
-        weights.setCount(feature, update);
-      }
-    }
-    
-    // Filter zeros
-    for (String feature : zeroFeatures) {
-      weights.remove(feature);
+      weights.set(feature, update);
     }
   }
 
   @Override
   public UpdaterState getState() {
-    return new AdaGradState(sumGradSquare);
+    return new AdaGradState(sumGradSquare.toCounter());
   }
 
   @Override
   public void setState(UpdaterState state) {
     if (state instanceof AdaGradState) {
-      sumGradSquare = ((AdaGradState) state).gradHistory;
+      sumGradSquare = WeightVector.fromCounter(((AdaGradState) state).gradHistory);
     }
   }
   
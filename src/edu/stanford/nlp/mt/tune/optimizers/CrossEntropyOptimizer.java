@@ -10,12 +10,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
-import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.tune.WeightVector;
+import edu.stanford.nlp.mt.util.FeatureIndex;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
-import edu.stanford.nlp.stats.ClassicCounter;
-import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.mt.util.SparseVector;
 
 
 /**
@@ -62,7 +62,7 @@ public class CrossEntropyOptimizer extends AbstractOnlineOptimizer {
   }	
 
   @Override
-  public Counter<String> getUnregularizedGradient(Counter<String> weights,
+  public SparseVector getUnregularizedGradient(WeightVector weights,
       Sequence<IString> source, int sourceId,
       List<RichTranslation<IString, String>> translations,
       List<Sequence<IString>> references, double[] referenceWeights,
@@ -73,7 +73,7 @@ public class CrossEntropyOptimizer extends AbstractOnlineOptimizer {
     
     if (translations.size() == 0) {
       System.err.printf("NULL GRADIENT FOR source id %d%n", sourceId);
-      return new ClassicCounter<String>();
+      return SparseVector.EMPTY;
     }
     
     // Compute the score for everything in the n-best list
@@ -108,7 +108,7 @@ public class CrossEntropyOptimizer extends AbstractOnlineOptimizer {
 
     if (pNormalizer == 0.0) {
       System.err.printf("NULL GRADIENT FOR source id %d due to 0 BLEU score%n", sourceId);
-      return new ClassicCounter<String>();
+      return SparseVector.EMPTY;
     }
     
     if (printDebugOutput) {
@@ -116,7 +116,7 @@ public class CrossEntropyOptimizer extends AbstractOnlineOptimizer {
           items.size(), metricScoredList.get(0).goldScore, metricScoredList.get(0).t.latticeSourceId);
     }
     
-    Counter<String> gradient = new ClassicCounter<String>(INITIAL_CAPACITY);
+    SparseVector.Builder gradient = new SparseVector.Builder(INITIAL_CAPACITY);
     double logQNormalizer = Math.log(qNormalizer);
     for (RichTranslation<IString, String> translation : translations) {
       double p = items.containsKey(translation.latticeSourceId) ? 
@@ -125,14 +125,15 @@ public class CrossEntropyOptimizer extends AbstractOnlineOptimizer {
       assert ! Double.isNaN(p) : String.format("%d: %f %f", sourceId, items.get(translation.latticeSourceId).goldScore, pNormalizer);
       double diff = Math.exp(logQ) - p;
       if (diff == 0.0) continue;
-      for (FeatureValue<String> f : translation.features) {
-        double g = f.value * diff;
-        assert ! Double.isNaN(g) : String.format("%s %f %f", f.name, f.value, diff);
-        gradient.incrementCount(f.name, g);
+      SparseVector features = translation.getFeatureVector();
+      for (int i = 0, sz = features.size(); i < sz; ++i) {
+        double g = features.value(i) * diff;
+        assert ! Double.isNaN(g) : String.format("%s %f %f", FeatureIndex.get(features.id(i)), features.value(i), diff);
+        gradient.add(features.id(i), g);
       }
     }
     
-    return gradient;
+    return gradient.build();
   }
   
   private static class GoldScoredTranslation implements Comparable<GoldScoredTranslation> {
@@ -4,14 +4,11 @@ import java.util.Iterator;
 import java.util.List;
 
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
-import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.tune.WeightVector;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.RichTranslation;
-import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
-import edu.stanford.nlp.stats.ClassicCounter;
-import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.mt.util.SparseVector;
 
 /**
  * Expected BLEU (Och 2003, Cherry and Foster 2012)
@@ -44,15 +41,15 @@ public class ExpectedBLEUOptimizer extends AbstractOnlineOptimizer {
 
   private double logZ(
       List<RichTranslation<IString, String>> translations,
-      Counter<String> wts) {
+      WeightVector wts) {
     double scores[] = new double[translations.size()];
     int max_i = 0;
 
     Iterator<RichTranslation<IString, String>> iter = translations
         .iterator();
     for (int i = 0; iter.hasNext(); i++) {
-      ScoredFeaturizedTranslation<IString, String> trans = iter.next();
-      scores[i] = OptimizerUtils.scoreTranslation(wts, trans);
+      RichTranslation<IString, String> trans = iter.next();
+      scores[i] = wts.dot(trans.getFeatureVector());
       if (scores[i] > scores[max_i])
         max_i = i;
     }
@@ -66,7 +63,7 @@ public class ExpectedBLEUOptimizer extends AbstractOnlineOptimizer {
   }
 
   @Override
-  public Counter<String> getUnregularizedGradient(Counter<String> weights,
+  public SparseVector getUnregularizedGradient(WeightVector weights,
       Sequence<IString> source, int sourceId,
       List<RichTranslation<IString, String>> translations,
       List<Sequence<IString>> references, double[] referenceWeights,
@@ -75,8 +72,8 @@ public class ExpectedBLEUOptimizer extends AbstractOnlineOptimizer {
     assert references.size() > 0;
     assert scoreMetric != null;
     
-    Counter<String> expectedLossF = new ClassicCounter<String>(INITIAL_CAPACITY);
-    Counter<String> expectedF = new ClassicCounter<String>(INITIAL_CAPACITY);
+    SparseVector.Builder expectedLossF = new SparseVector.Builder(INITIAL_CAPACITY);
+    SparseVector.Builder expectedF = new SparseVector.Builder(INITIAL_CAPACITY);
     double expectedLoss = 0;
 
     double logZ = logZ(translations, weights);
@@ -84,18 +81,19 @@ public class ExpectedBLEUOptimizer extends AbstractOnlineOptimizer {
     double argmaxP = 0;
     double argmaxEval = 0;
     for (RichTranslation<IString,String> trans: translations) {
-      double score =  OptimizerUtils.scoreTranslation(weights, trans);
+      SparseVector features = trans.getFeatureVector();
+      double score = weights.dot(features);
       double logP = score - logZ;
       double p = Math.exp(logP);
       double eval = scoreMetric.score(sourceId, source, references, trans.translation);
       // System.err.printf("score: %.3f p: %.3f eval %.3f\n", score, p, eval);
       double Eeval = p*eval;
       expectedLoss += Eeval;
-      for (FeatureValue<String> feat : trans.features) {
-        double EfeatEval = Eeval*feat.value;
-        double Efeat = p*feat.value;
-        expectedLossF.incrementCount(feat.name, EfeatEval);
-        expectedF.incrementCount(feat.name, Efeat);
+      for (int i = 0, sz = features.size(); i < sz; ++i) {
+        double EfeatEval = Eeval*features.value(i);
+        double Efeat = p*features.value(i);
+        expectedLossF.add(features.id(i), EfeatEval);
+        expectedF.add(features.id(i), Efeat);
       }
 
       if (score > argmaxScore) {
@@ -111,9 +109,9 @@ public class ExpectedBLEUOptimizer extends AbstractOnlineOptimizer {
 //    Counter<String> gradient = new ClassicCounter<String>(expectedLossF);
 //    Counters.subtractInPlace(gradient, expectedLossExpectedF);
 
-    Counters.multiplyInPlace(expectedF, expectedLoss);
-    Counters.subtractInPlace(expectedLossF, expectedF);
-    Counter<String> gradient = expectedLossF;
+    // Negated: -(E[loss*f] - E[loss]*E[f])
+    SparseVector gradient = new SparseVector.Builder(expectedLossF.size())
+        .add(expectedLossF.build(), -1.0).add(expectedF.build(), expectedLoss).build();
     
     if (VERBOSE) {
       System.err.println("======================");
@@ -123,7 +121,6 @@ public class ExpectedBLEUOptimizer extends AbstractOnlineOptimizer {
       System.err.println();
     }
 
-    Counters.multiplyInPlace(gradient, -1);
     return gradient;
   }
 }
@@ -8,12 +8,11 @@ import org.apache.logging.log4j.Logger;
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
 import edu.stanford.nlp.mt.tune.OnlineOptimizer;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.WeightVector;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
-import edu.stanford.nlp.stats.ClassicCounter;
-import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.mt.util.SparseVector;
 
 /**
  * 1-best MIRA training with hope/fear translations. See Crammer et al. (2006),
@@ -42,7 +41,7 @@ public class MIRA1BestHopeFearOptimizer implements OnlineOptimizer<IString,Strin
   }
   
   @Override
-  public OnlineUpdateRule<String> newUpdater() {
+  public OnlineUpdateRule newUpdater() {
     return new MiraUpdater();
   }
 
@@ -50,7 +49,7 @@ public class MIRA1BestHopeFearOptimizer implements OnlineOptimizer<IString,Strin
    * This is an implementation of Fig.2 from Crammer et al. (2006).
    */
   @Override
-  public Counter<String> getGradient(Counter<String> weights, 
+  public SparseVector getGradient(WeightVector weights, 
       Sequence<IString> source,
       int sourceId,
       List<RichTranslation<IString, String>> translations, List<Sequence<IString>> references, 
@@ -82,25 +81,26 @@ public class MIRA1BestHopeFearOptimizer implements OnlineOptimizer<IString,Strin
     final double loss = margin + deltaCost;
     logger.info(String.format("Margin: %.5f dCost: %.5f Loss: %.5f", margin, deltaCost, loss));
 
-    Counter<String> gradient = new ClassicCounter<String>();
+    SparseVector gradient = SparseVector.EMPTY;
 
     // Hinge loss.
     if (loss > 0.0) {
       // Only do an update in this case.
       // Compute the PA-II update, which is the loss divided by the 
       // squared norm of the differences between the feature vectors
-      Counter<String> hopeFeatures = OptimizerUtils.featureValueCollectionToCounter(dHope.hypothesis.features);
-      Counter<String> fearFeatures = OptimizerUtils.featureValueCollectionToCounter(dFear.hypothesis.features);
-      gradient = Counters.diff(hopeFeatures, fearFeatures);
+      SparseVector hopeFeatures = dHope.hypothesis.getFeatureVector();
+      SparseVector fearFeatures = dFear.hypothesis.getFeatureVector();
+      gradient = new SparseVector.Builder(hopeFeatures.size() + fearFeatures.size())
+          .add(hopeFeatures, 1.0).add(fearFeatures, -1.0).build();
       logger.info("Feature difference: {}", gradient.toString());
       
       // Compute the update
-      double sumSquaredFeatureDiff = Counters.sumSquares(gradient);
+      double sumSquaredFeatureDiff = gradient.sumSquares();
       double tau = Math.min(C, loss / sumSquaredFeatureDiff);
       logger.info("tau: {}", tau);
       
       // Update the weights
-      Counters.multiplyInPlace(gradient, tau);
+      gradient = gradient.scale(tau);
     
     } else {
       logger.info("NO UPDATE (loss: {})", loss);
@@ -232,7 +232,7 @@ public class MIRA1BestHopeFearOptimizer implements OnlineOptimizer<IString,Strin
   }
 
   @Override
-  public Counter<String> getBatchGradient(Counter<String> weights,
+  public SparseVector getBatchGradient(WeightVector weights,
       List<Sequence<IString>> sources, int[] sourceIds,
       List<List<RichTranslation<IString, String>>> translations,
       List<List<Sequence<IString>>> references,
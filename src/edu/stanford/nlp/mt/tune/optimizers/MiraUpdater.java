@@ -1,8 +1,8 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
-import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.mt.tune.WeightVector;
+import edu.stanford.nlp.mt.util.SparseVector;
 
 /**
  * A basic Mira update rule.
@@ -10,12 +10,12 @@ import edu.stanford.nlp.stats.Counters;
  * @author Spence Green
  *
  */
-public class MiraUpdater implements OnlineUpdateRule<String> {
+public class MiraUpdater implements OnlineUpdateRule {
 
   @Override
-  public void update(Counter<String> weights,
-      Counter<String> gradient, int timeStep, boolean endOfEpoch) {
-    Counters.addInPlace(weights, gradient);
+  public void update(WeightVector weights,
+      SparseVector gradient, int timeStep, boolean endOfEpoch) {
+    weights.add(gradient, 1.0);
   }
 
   @Override
@@ -17,13 +17,14 @@ import org.apache.logging.log4j.Logger;
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
 import edu.stanford.nlp.mt.tune.OnlineOptimizer;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.WeightVector;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.SparseVector;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.Triple;
 
 /**
@@ -209,17 +210,14 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
 
       // Add selectedV to RVFDataset
       for (Triple<Double, Integer, Integer> selectedPair : selectedV) {
-        Counter<String> plusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            translations.get(selectedPair.second()).features);
-        Counter<String> minusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            translations.get(selectedPair.third()).features);
-        Counter<String> gtVector = new ClassicCounter<String>(plusFeatures);
-        Counters.subtractInPlace(gtVector, minusFeatures);
+        SparseVector plusFeatures = translations.get(selectedPair.second()).getFeatureVector();
+        SparseVector minusFeatures = translations.get(selectedPair.third()).getFeatureVector();
+        SparseVector gtVector = new SparseVector.Builder(plusFeatures.size() + minusFeatures.size())
+            .add(plusFeatures, 1.0).add(minusFeatures, -1.0).build();
 
         dataset.add(new Datum(Label.POSITIVE, gtVector));
 
-        Counter<String> ltVector = new ClassicCounter<String>(minusFeatures);
-        Counters.subtractInPlace(ltVector, plusFeatures);
+        SparseVector ltVector = gtVector.scale(-1.0);
 
         dataset.add(new Datum(Label.NEGATIVE, ltVector));
       }
@@ -271,7 +269,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
    * True online learning, one example at a time.
    */
   @Override
-  public Counter<String> getGradient(Counter<String> weights, Sequence<IString> source, int sourceId,
+  public SparseVector getGradient(WeightVector weights, Sequence<IString> source, int sourceId,
       List<RichTranslation<IString, String>> translations, List<Sequence<IString>> references,
       double[] referenceWeights, SentenceLevelMetric<IString, String> scoreMetric) {
     Objects.requireNonNull(weights);
@@ -282,7 +280,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
 
     // Sample from the n-best list
     List<Datum> dataset = sampleNbestList(sourceId, source, scoreMetric, translations, references);
-    Counter<String> gradient = computeGradient(dataset, weights, 1);
+    SparseVector gradient = computeGradient(dataset, weights, 1);
     if (dataset.isEmpty()) {
       logger.warn("Null gradient for sourceId: {}", sourceId);
     }
@@ -299,7 +297,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
    * Mini-batch learning.
    */
   @Override
-  public Counter<String> getBatchGradient(Counter<String> weights,
+  public SparseVector getBatchGradient(WeightVector weights,
       List<Sequence<IString>> sources, int[] sourceIds,
       List<List<RichTranslation<IString, String>>> translations,
       List<List<Sequence<IString>>> references,
@@ -312,7 +310,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     assert scoreMetric != null;
 
     List<Datum> dataset = sampleNbestLists(sourceIds, sources, scoreMetric, translations, references);
-    Counter<String> gradient = computeGradient(dataset, weights, sourceIds.length);
+    SparseVector gradient = computeGradient(dataset, weights, sourceIds.length);
     if (dataset.isEmpty()) {
       logger.warn("Null gradient for mini-batch: {}", Arrays.toString(sourceIds));
     }
@@ -330,7 +328,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     return gradient;
   }
 
-  private void displayGradient(Counter<String> gradient) {
+  private void displayGradient(SparseVector gradient) {
      System.err.printf("Gradient: ");
      System.err.println(gradient);
   }
@@ -338,16 +336,13 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
   /**
    * Compute the gradient for the specified set of PRO samples.
    */
-  private Counter<String> computeGradient(List<Datum> dataset, Counter<String> weights,
+  private SparseVector computeGradient(List<Datum> dataset, WeightVector weights,
       int batchSize) {
 
-    Counter<String> gradient = new ClassicCounter<String>(weights.keySet().size());
+    SparseVector.Builder gradient = new SparseVector.Builder();
 
     for (Datum datum : dataset) {
-      double sum = 0;
-      for (String feature : datum.vX.keySet()) {
-        sum += weights.getCount(feature)*datum.vX.getCount(feature);
-      }
+      double sum = weights.dot(datum.vX);
 
       double expSum, derivativeIncrement;
 
@@ -359,39 +354,31 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
         derivativeIncrement = -1.0 / (1.0 + (1.0 / expSum));
       }
 
-      for (String feature : datum.vX.keySet()) {
-        double g = datum.vX.getCount(feature)*derivativeIncrement;
-        gradient.incrementCount(feature, g);
-      }
+      gradient.add(datum.vX, derivativeIncrement);
     }
 
     // Add L2 regularization directly into the derivative
     if (this.l2Regularization && dataset.size() > 0) {
-      final Set<String> features = new HashSet<String>(weights.keySet());
-      features.addAll(gradient.keySet());
       final double dataFraction = dataset.size() / ((double) 2*xi*tuneSetSize);
       final double scaledSigmaSquared = sigmaSq / dataFraction;
-      for (String key : features) {
-        double x = weights.getCount(key);
-        gradient.incrementCount(key, x / scaledSigmaSquared);
-      }
+      gradient.add(weights.nonZeros(), 1.0 / scaledSigmaSquared);
     }
 
-    return gradient;
+    return gradient.build();
   }
 
 
   private static class Datum {
     public Label label;
-    public Counter<String> vX;
-    public Datum(Label label, Counter<String> vX) {
+    public SparseVector vX;
+    public Datum(Label label, SparseVector vX) {
       this.label = label;
       this.vX = vX;
     }
   }
 
   @Override
-  public OnlineUpdateRule<String> newUpdater() {
+  public OnlineUpdateRule newUpdater() {
     if(this.updaterType.equalsIgnoreCase("adagrad")) {
       return new AdaGradUpdater(learningRate, expectedNumFeatures);
     }
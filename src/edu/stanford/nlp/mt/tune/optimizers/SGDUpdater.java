@@ -1,8 +1,8 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
-import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.mt.tune.WeightVector;
+import edu.stanford.nlp.mt.util.SparseVector;
 
 /**
  * Basic Stochastic Gradient Descent update rule.
@@ -10,7 +10,7 @@ import edu.stanford.nlp.stats.Counters;
  * @author Spence Green
  *
  */
-public class SGDUpdater implements OnlineUpdateRule<String> {
+public class SGDUpdater implements OnlineUpdateRule {
 
   private final double rate;
   
@@ -19,16 +19,13 @@ public class SGDUpdater implements OnlineUpdateRule<String> {
   }
 
   @Override
-  public void update(Counter<String> weights,
-      Counter<String> gradient, int timeStep, boolean endOfEpoch) {
+  public void update(WeightVector weights,
+      SparseVector gradient, int timeStep, boolean endOfEpoch) {
     // TODO(spenceg) This is kind of hacky, but seems to work.
     final double nu = rate * (double) (1.0/((timeStep/10.0)+1.0));
     
     // w_{t+1} := w_t - nu*g_t
-    Counters.addInPlace(weights, gradient, -nu);
-    
-    // Filter zeros
-    Counters.retainNonZeros(weights);
+    weights.add(gradient, -nu);
   }
 
   @Override
@@ -0,0 +1,97 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints that is indexed by long, so it can hold more than 2^31
+ * elements. The elements are stored in chunks of 2^chunkShift ints. Chunks are
+ * allocated on the first write, and unwritten elements are zero.
+ *
+ * NOTE: This class is not threadsafe.
+ *
+ */
+public final class BigIntList {
+
+  // 2^20 ints (4MB) per chunk
+  public static final int DEFAULT_CHUNK_SHIFT = 20;
+
+  private final int chunkShift;
+  private final int chunkMask;
+  private int[][] chunks = new int[0][];
+  private long size = 0;
+
+  /**
+   * Constructor.
+   */
+  public BigIntList() {
+    this(DEFAULT_CHUNK_SHIFT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param chunkShift Log2 of the chunk size.
+   */
+  public BigIntList(int chunkShift) {
+    if (chunkShift < 1 || chunkShift > 30) throw new IllegalArgumentException("Invalid chunk shift: " + chunkShift);
+    this.chunkShift = chunkShift;
+    this.chunkMask = (1 << chunkShift) - 1;
+  }
+
+  /**
+   * Number of elements.
+   *
+   * @return
+   */
+  public long size() { return size; }
+
+  /**
+   * Append an element.
+   *
+   * @param value
+   */
+  public void add(int value) {
+    extend(size + 1);
+    set(size - 1, value);
+  }
+
+  /**
+   * Grow the list to a size. The new elements are zero.
+   *
+   * @param newSize
+   */
+  public void extend(long newSize) {
+    if (newSize <= size) return;
+    final long numChunks = ((newSize - 1) >>> chunkShift) + 1;
+    if (numChunks > Integer.MAX_VALUE) throw new IllegalArgumentException("List too large: " + newSize);
+    if (numChunks > chunks.length) {
+      chunks = Arrays.copyOf(chunks, (int) Math.min(Integer.MAX_VALUE, Math.max(numChunks, 2L * chunks.length)));
+    }
+    size = newSize;
+  }
+
+  /**
+   * Get an element.
+   *
+   * @param index
+   * @return
+   */
+  public int get(long index) {
+    if (index < 0 || index >= size) throw new IndexOutOfBoundsException(Long.toString(index));
+    final int[] chunk = chunks[(int) (index >>> chunkShift)];
+    return chunk == null ? 0 : chunk[(int) (index & chunkMask)];
+  }
+
+  /**
+   * Set an element.
+   *
+   * @param index
+   * @param value
+   */
+  public void set(long index, int value) {
+    if (index < 0 || index >= size) throw new IndexOutOfBoundsException(Long.toString(index));
+    final int c = (int) (index >>> chunkShift);
+    if (chunks[c] == null) chunks[c] = new int[chunkMask + 1];
+    chunks[c][(int) (index & chunkMask)] = value;
+  }
+}
@@ -2,37 +2,338 @@ package edu.stanford.nlp.mt.util;
 
 import edu.stanford.nlp.util.IntPair;
 
-import java.util.BitSet;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 /**
- * util.BitSet with a faster clone operation, a more readable toString() result
- * (e.g., {1,3-6} instead of {1,3,4,5,6}), and the ability to iterate through
- * bits set to true. Note: The BitSet iterator doesn't allow removal.
- * 
+ * A compact bit set for source coverage. The first 128 bits are stored inline, so
+ * coverage sets of sentences with up to 128 tokens are a single object. Longer
+ * sentences use an additional word array. The hash code is cached.
+ *
+ * The methods follow the contract of java.util.BitSet, and the hash code is the same
+ * as the hash code of a BitSet with the same bits. toString() is more readable
+ * (e.g., {1,3-6} instead of {1,3,4,5,6}), and the set bits can be iterated without
+ * boxing. Note: The iterator doesn't allow removal.
+ *
  * @author danielcer
  * @author Michel Galley
- * 
+ *
  */
-public class CoverageSet extends BitSet implements Iterable<Integer> {
+public class CoverageSet implements Iterable<Integer>, Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 2L;
+
+  private static final int INLINE_WORDS = 2;
+  private static final int INLINE_BITS = INLINE_WORDS * Long.SIZE;
+
+  // Bits 0-63 and 64-127
+  private long word0;
+  private long word1;
+  // Bits from 128, or null
+  private long[] words;
+
+  // 0 if not computed
+  private transient int hashCode;
 
   public CoverageSet(int size) {
-    super(size);
+    if (size < 0) throw new NegativeArraySizeException("size < 0: " + size);
+    if (size > INLINE_BITS) words = new long[wordIndex(size - 1) + 1 - INLINE_WORDS];
+  }
+
+  public CoverageSet() {}
+
+  private static int wordIndex(int bitIndex) {
+    return bitIndex >> 6;
+  }
+
+  private int numWords() {
+    return words == null ? INLINE_WORDS : INLINE_WORDS + words.length;
+  }
+
+  private long word(int i) {
+    if (i == 0) return word0;
+    if (i == 1) return word1;
+    return words == null || i - INLINE_WORDS >= words.length ? 0L : words[i - INLINE_WORDS];
+  }
+
+  private void setWord(int i, long value) {
+    hashCode = 0;
+    if (i == 0) {
+      word0 = value;
+    } else if (i == 1) {
+      word1 = value;
+    } else {
+      ensureWord(i);
+      words[i - INLINE_WORDS] = value;
+    }
+  }
+
+  private void ensureWord(int i) {
+    final int required = i + 1 - INLINE_WORDS;
+    if (words == null) {
+      words = new long[required];
+    } else if (words.length < required) {
+      words = Arrays.copyOf(words, Math.max(2 * words.length, required));
+    }
+  }
+
+  private static void checkIndex(int bitIndex) {
+    if (bitIndex < 0) throw new IndexOutOfBoundsException("bitIndex < 0: " + bitIndex);
+  }
+
+  private static void checkRange(int fromIndex, int toIndex) {
+    checkIndex(fromIndex);
+    if (toIndex < 0) throw new IndexOutOfBoundsException("toIndex < 0: " + toIndex);
+    if (fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + " > toIndex: " + toIndex);
+    }
+  }
+
+  public boolean get(int bitIndex) {
+    checkIndex(bitIndex);
+    return (word(wordIndex(bitIndex)) & (1L << bitIndex)) != 0;
   }
 
-  public CoverageSet() {
-    super();
+  public void set(int bitIndex) {
+    checkIndex(bitIndex);
+    final int i = wordIndex(bitIndex);
+    setWord(i, word(i) | (1L << bitIndex));
+  }
+
+  public void set(int bitIndex, boolean value) {
+    if (value) set(bitIndex);
+    else clear(bitIndex);
+  }
+
+  /**
+   * Set the bits from fromIndex (inclusive) to toIndex (exclusive).
+   *
+   * @param fromIndex
+   * @param toIndex
+   */
+  public void set(int fromIndex, int toIndex) {
+    checkRange(fromIndex, toIndex);
+    if (fromIndex == toIndex) return;
+    final int startWord = wordIndex(fromIndex);
+    final int endWord = wordIndex(toIndex - 1);
+    final long firstMask = -1L << fromIndex;
+    final long lastMask = -1L >>> -toIndex;
+    if (startWord == endWord) {
+      setWord(startWord, word(startWord) | (firstMask & lastMask));
+    } else {
+      setWord(startWord, word(startWord) | firstMask);
+      for (int i = startWord + 1; i < endWord; ++i) setWord(i, -1L);
+      setWord(endWord, word(endWord) | lastMask);
+    }
+  }
+
+  public void clear(int bitIndex) {
+    checkIndex(bitIndex);
+    final int i = wordIndex(bitIndex);
+    if (i < numWords()) setWord(i, word(i) & ~(1L << bitIndex));
+  }
+
+  public void clear() {
+    hashCode = 0;
+    word0 = 0L;
+    word1 = 0L;
+    if (words != null) Arrays.fill(words, 0L);
+  }
+
+  public int cardinality() {
+    int count = Long.bitCount(word0) + Long.bitCount(word1);
+    if (words != null) {
+      for (long word : words) count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  /**
+   * The index of the highest set bit plus one.
+   */
+  public int length() {
+    for (int i = numWords() - 1; i >= 0; --i) {
+      final long word = word(i);
+      if (word != 0) return Long.SIZE * (i + 1) - Long.numberOfLeadingZeros(word);
+    }
+    return 0;
+  }
+
+  /**
+   * The number of bits of space in use.
+   */
+  public int size() {
+    return Long.SIZE * numWords();
+  }
+
+  public boolean isEmpty() {
+    if ((word0 | word1) != 0) return false;
+    if (words != null) {
+      for (long word : words) if (word != 0) return false;
+    }
+    return true;
+  }
+
+  public int nextSetBit(int fromIndex) {
+    checkIndex(fromIndex);
+    int i = wordIndex(fromIndex);
+    final int numWords = numWords();
+    if (i >= numWords) return -1;
+    long word = word(i) & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) return i * Long.SIZE + Long.numberOfTrailingZeros(word);
+      if (++i == numWords) return -1;
+      word = word(i);
+    }
+  }
+
+  public int nextClearBit(int fromIndex) {
+    checkIndex(fromIndex);
+    int i = wordIndex(fromIndex);
+    final int numWords = numWords();
+    if (i >= numWords) return fromIndex;
+    long word = ~word(i) & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) return i * Long.SIZE + Long.numberOfTrailingZeros(word);
+      if (++i == numWords) return i * Long.SIZE;
+      word = ~word(i);
+    }
+  }
+
+  public int previousSetBit(int fromIndex) {
+    if (fromIndex < 0) {
+      if (fromIndex == -1) return -1;
+      throw new IndexOutOfBoundsException("fromIndex < -1: " + fromIndex);
+    }
+    int i = wordIndex(fromIndex);
+    if (i >= numWords()) return length() - 1;
+    long word = word(i) & (-1L >>> -(fromIndex + 1));
+    while (true) {
+      if (word != 0) return (i + 1) * Long.SIZE - 1 - Long.numberOfLeadingZeros(word);
+      if (i-- == 0) return -1;
+      word = word(i);
+    }
+  }
+
+  public int previousClearBit(int fromIndex) {
+    if (fromIndex < 0) {
+      if (fromIndex == -1) return -1;
+      throw new IndexOutOfBoundsException("fromIndex < -1: " + fromIndex);
+    }
+    int i = wordIndex(fromIndex);
+    if (i >= numWords()) return fromIndex;
+    long word = ~word(i) & (-1L >>> -(fromIndex + 1));
+    while (true) {
+      if (word != 0) return (i + 1) * Long.SIZE - 1 - Long.numberOfLeadingZeros(word);
+      if (i-- == 0) return -1;
+      word = ~word(i);
+    }
+  }
+
+  public void or(CoverageSet set) {
+    hashCode = 0;
+    word0 |= set.word0;
+    word1 |= set.word1;
+    if (set.words != null) {
+      for (int i = set.words.length - 1; i >= 0; --i) {
+        if (set.words[i] != 0) setWord(i + INLINE_WORDS, word(i + INLINE_WORDS) | set.words[i]);
+      }
+    }
+  }
+
+  public void and(CoverageSet set) {
+    hashCode = 0;
+    word0 &= set.word0;
+    word1 &= set.word1;
+    if (words != null) {
+      for (int i = 0; i < words.length; ++i) words[i] &= set.word(i + INLINE_WORDS);
+    }
+  }
+
+  public void andNot(CoverageSet set) {
+    hashCode = 0;
+    word0 &= ~set.word0;
+    word1 &= ~set.word1;
+    if (words != null) {
+      for (int i = 0; i < words.length; ++i) words[i] &= ~set.word(i + INLINE_WORDS);
+    }
+  }
+
+  public void xor(CoverageSet set) {
+    hashCode = 0;
+    word0 ^= set.word0;
+    word1 ^= set.word1;
+    if (set.words != null) {
+      for (int i = set.words.length - 1; i >= 0; --i) {
+        if (set.words[i] != 0) setWord(i + INLINE_WORDS, word(i + INLINE_WORDS) ^ set.words[i]);
+      }
+    }
+  }
+
+  public boolean intersects(CoverageSet set) {
+    if ((word0 & set.word0) != 0 || (word1 & set.word1) != 0) return true;
+    if (words != null && set.words != null) {
+      for (int i = 0, sz = Math.min(words.length, set.words.length); i < sz; ++i) {
+        if ((words[i] & set.words[i]) != 0) return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The union of this set and another set, as a new set.
+   *
+   * @param set
+   * @return
+   */
+  public CoverageSet union(CoverageSet set) {
+    final CoverageSet c = clone();
+    c.or(set);
+    return c;
   }
 
   @Override
   public CoverageSet clone() {
-    CoverageSet c = new CoverageSet(this.size());
-    c.or(this);
+    final CoverageSet c = new CoverageSet();
+    c.word0 = word0;
+    c.word1 = word1;
+    if (words != null) c.words = words.clone();
+    c.hashCode = hashCode;
     return c;
   }
 
+  @Override
+  public int hashCode() {
+    int result = hashCode;
+    if (result == 0) {
+      long h = 1234;
+      for (int i = numWords(); --i >= 0; ) h ^= word(i) * (i + 1);
+      result = (int) ((h >> 32) ^ h);
+      hashCode = result;
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    } else if ( ! (o instanceof CoverageSet)) {
+      return false;
+    }
+    final CoverageSet other = (CoverageSet) o;
+    if (word0 != other.word0 || word1 != other.word1) return false;
+    if (words == null && other.words == null) return true;
+    if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) return false;
+    for (int i = INLINE_WORDS, sz = Math.max(numWords(), other.numWords()); i < sz; ++i) {
+      if (word(i) != other.word(i)) return false;
+    }
+    return true;
+  }
+
   public boolean isContiguous() {
     return cardinality() == (length() - nextSetBit(0));
   }
@@ -66,9 +367,12 @@ public class CoverageSet extends BitSet implements Iterable<Integer> {
     return sb.toString();
   }
 
+  /**
+   * Iterates over the set bits. Use nextInt() to avoid boxing.
+   */
   @Override
-  public Iterator<Integer> iterator() {
-    return new Iterator<Integer>() {
+  public PrimitiveIterator.OfInt iterator() {
+    return new PrimitiveIterator.OfInt() {
 
       int idx = nextSetBit(0);
 
@@ -78,7 +382,8 @@ public class CoverageSet extends BitSet implements Iterable<Integer> {
       }
 
       @Override
-      public Integer next() {
+      public int nextInt() {
+        if (idx < 0) throw new NoSuchElementException();
         int ret = idx;
         idx = nextSetBit(idx + 1);
         return ret;
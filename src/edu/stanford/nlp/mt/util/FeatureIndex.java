@@ -0,0 +1,49 @@
+package edu.stanford.nlp.mt.util;
+
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.concurrent.ConcurrentHashIndex;
+
+/**
+ * System-wide mapping from feature names to integer ids.
+ *
+ * Featurizers with a fixed set of feature names resolve them once at construction
+ * and then emit features by id. Scorers index their weight vectors by the same ids.
+ * Ids are contiguous and are never reassigned.
+ *
+ */
+public final class FeatureIndex {
+
+  private static final int INITIAL_CAPACITY = 10000;
+  private static final Index<String> index = new ConcurrentHashIndex<>(INITIAL_CAPACITY);
+
+  private FeatureIndex() {}
+
+  /**
+   * Get the id of a feature name. Adds the name to the index if it is not present.
+   *
+   * @param featureName
+   * @return
+   */
+  public static int indexOf(String featureName) {
+    return index.addToIndex(featureName);
+  }
+
+  /**
+   * Get the feature name associated with an id.
+   *
+   * @param featureId
+   * @return
+   */
+  public static String get(int featureId) {
+    return index.get(featureId);
+  }
+
+  /**
+   * Number of features in the index.
+   *
+   * @return
+   */
+  public static int size() {
+    return index.size();
+  }
+}
@@ -1,7 +1,12 @@
 package edu.stanford.nlp.mt.util;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -40,13 +45,14 @@ public class FeatureValues {
    * @param hyp
    * @return
    */
+  @SuppressWarnings("unchecked")
   public static <TK,FV> FeatureValueCollection<FV> combine(
       Derivation<TK, FV> hyp) {
     Counter<FV> counter = new ClassicCounter<FV>();
     for (; hyp != null; hyp = hyp.parent) {
-      if (hyp.features != null) {
-        for (FeatureValue<FV> feature : hyp.features) {
-          counter.incrementCount(feature.name, feature.value);
+      if (hyp.featureIds != null) {
+        for (int i = 0; i < hyp.featureIds.length; ++i) {
+          counter.incrementCount((FV) FeatureIndex.get(hyp.featureIds[i]), hyp.featureValues[i]);
         }
       }
     }
@@ -58,6 +64,48 @@ public class FeatureValues {
     return combinedList;
   }
 
+  /**
+   * Aggregate feature values stored in a chain of hypotheses when the collection
+   * is first read. Most n-best entries are never inspected, so this avoids resolving
+   * feature names for them.
+   * 
+   * @param hyp
+   * @return
+   */
+  public static <TK,FV> FeatureValueCollection<FV> combineLazily(
+      Derivation<TK, FV> hyp) {
+    return new LazyFeatureValueList<>(hyp);
+  }
+
+  /**
+   * Convert a collection of feature values to a sparse vector. Collections that
+   * are combined lazily read the feature ids from the derivation, so the feature
+   * names are not resolved.
+   * 
+   * @param features
+   * @return
+   */
+  public static <FV> SparseVector toSparseVector(Collection<FeatureValue<FV>> features) {
+    final Collection<?> c = features;
+    if (c instanceof SparseVectorFeatureValues) {
+      return ((SparseVectorFeatureValues) c).vector;
+    }
+    return features instanceof LazyFeatureValueList ? 
+        ((LazyFeatureValueList<?,FV>) features).toSparseVector() : 
+          SparseVector.fromFeatures(features);
+  }
+
+  /**
+   * View a sparse vector as a collection of feature values. The feature names are
+   * resolved when the collection is iterated.
+   * 
+   * @param vector
+   * @return
+   */
+  public static FeatureValueCollection<String> fromSparseVector(SparseVector vector) {
+    return new SparseVectorFeatureValues(vector);
+  }
+
   private static class FeatureValueList<FV2> extends ArrayList<FeatureValue<FV2>> implements FeatureValueCollection<FV2> {
     private static final long serialVersionUID = -586793184334698666L;
     public FeatureValueList(int initialCapacity) {
@@ -69,4 +117,98 @@ public class FeatureValues {
     }
   }
 
+  private static class SparseVectorFeatureValues extends AbstractCollection<FeatureValue<String>> 
+  implements FeatureValueCollection<String> {
+    private static final long serialVersionUID = -2436624405836521071L;
+    private final SparseVector vector;
+
+    public SparseVectorFeatureValues(SparseVector vector) {
+      this.vector = vector;
+    }
+
+    @Override
+    public Iterator<FeatureValue<String>> iterator() {
+      return new Iterator<FeatureValue<String>>() {
+        private int position = 0;
+        @Override
+        public boolean hasNext() {
+          return position < vector.size();
+        }
+        @Override
+        public FeatureValue<String> next() {
+          if ( ! hasNext()) throw new NoSuchElementException();
+          FeatureValue<String> next = new FeatureValue<>(FeatureIndex.get(vector.id(position)), 
+              vector.value(position));
+          ++position;
+          return next;
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return vector.size();
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      // Immutable
+      return this;
+    }
+  }
+
+  private static class LazyFeatureValueList<TK,FV2> extends AbstractCollection<FeatureValue<FV2>> 
+  implements FeatureValueCollection<FV2> {
+    private static final long serialVersionUID = 3393867024406236582L;
+    private transient Derivation<TK,FV2> derivation;
+    private FeatureValueCollection<FV2> features;
+
+    public LazyFeatureValueList(Derivation<TK,FV2> derivation) {
+      this.derivation = derivation;
+    }
+
+    private synchronized FeatureValueCollection<FV2> features() {
+      if (features == null) {
+        features = combine(derivation);
+        derivation = null;
+      }
+      return features;
+    }
+
+    private synchronized SparseVector toSparseVector() {
+      if (derivation == null) return SparseVector.fromFeatures(features);
+      SparseVector.Builder builder = new SparseVector.Builder();
+      for (Derivation<TK,FV2> hyp = derivation; hyp != null; hyp = hyp.parent) {
+        if (hyp.featureIds != null) {
+          for (int i = 0; i < hyp.featureIds.length; ++i) {
+            builder.add(hyp.featureIds[i], hyp.featureValues[i]);
+          }
+        }
+      }
+      return builder.build();
+    }
+
+    @Override
+    public Iterator<FeatureValue<FV2>> iterator() {
+      return features().iterator();
+    }
+
+    @Override
+    public int size() {
+      return features().size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Object clone() throws CloneNotSupportedException {
+      LazyFeatureValueList<TK,FV2> c = (LazyFeatureValueList<TK,FV2>) super.clone();
+      if (features != null) c.features = (FeatureValueCollection<FV2>) features.clone();
+      return c;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+      features();
+      oos.defaultWriteObject();
+    }
+  }
 }
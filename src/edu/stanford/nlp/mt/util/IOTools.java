@@ -2,6 +2,8 @@ package edu.stanford.nlp.mt.util;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -14,6 +16,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -477,6 +480,35 @@ public final class IOTools {
     serialize(filename, wts, SerializationMode.BIN_GZ);
   }
 
+  /**
+   * Write a string as a length-prefixed UTF-8 byte array. Unlike
+   * <code>DataOutput.writeUTF()</code>, the length of the string is not limited to 64KB.
+   *
+   * @param out
+   * @param s
+   * @throws IOException
+   */
+  public static void writeString(DataOutput out, String s) throws IOException {
+    final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a string written by <code>writeString()</code>.
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  public static String readString(DataInput in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) throw new IOException("Invalid string length: " + length);
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
   /**
    * Write an n-best list to file.
    *
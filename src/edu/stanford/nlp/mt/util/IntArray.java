@@ -0,0 +1,165 @@
+package edu.stanford.nlp.mt.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * A read-mostly int array that is either backed by the heap or by a
+ * read-only memory-mapped file region. Mapped arrays are split into chunks
+ * since a single <code>MappedByteBuffer</code> cannot exceed 2GB.
+ *
+ * Mapped arrays are shared through the page cache by every JVM that maps
+ * the same file.
+ *
+ * NOTE: Mapped arrays are read-only.
+ *
+ */
+public final class IntArray implements Serializable {
+
+  private static final long serialVersionUID = 2384316227620137052L;
+
+  // 2^28 ints (1GB) per mapped chunk
+  private static final int CHUNK_SHIFT = 28;
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  private final int[] array;
+  private final transient IntBuffer[] chunks;
+  private final int length;
+
+  private IntArray(int[] array) {
+    this.array = array;
+    this.chunks = null;
+    this.length = array.length;
+  }
+
+  private IntArray(IntBuffer[] chunks, int length) {
+    this.array = null;
+    this.chunks = chunks;
+    this.length = length;
+  }
+
+  /**
+   * Wrap a heap array. The array is not copied.
+   *
+   * @param array
+   * @return
+   */
+  public static IntArray wrap(int[] array) {
+    return new IntArray(array);
+  }
+
+  /**
+   * Map a region of a file as a read-only int array.
+   *
+   * @param channel
+   * @param offset Byte offset of the first element.
+   * @param length Number of elements.
+   * @param order
+   * @return
+   * @throws IOException
+   */
+  public static IntArray map(FileChannel channel, long offset, int length, ByteOrder order) throws IOException {
+    if (length < 0) throw new IllegalArgumentException("Negative array length: " + length);
+    final int numChunks = length == 0 ? 0 : ((length - 1) >>> CHUNK_SHIFT) + 1;
+    IntBuffer[] chunks = new IntBuffer[numChunks];
+    for (int i = 0; i < numChunks; ++i) {
+      int chunkLength = Math.min(CHUNK_SIZE, length - (i << CHUNK_SHIFT));
+      long chunkOffset = offset + (((long) i) << CHUNK_SHIFT) * Integer.BYTES;
+      chunks[i] = channel.map(MapMode.READ_ONLY, chunkOffset, ((long) chunkLength) * Integer.BYTES)
+          .order(order).asIntBuffer();
+    }
+    return new IntArray(chunks, length);
+  }
+
+  /**
+   * Get the value at position i.
+   *
+   * @param i
+   * @return
+   */
+  public int get(int i) {
+    return array != null ? array[i] : chunks[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+  }
+
+  /**
+   * Number of elements.
+   *
+   * @return
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * True if this array is backed by a file mapping.
+   *
+   * @return
+   */
+  public boolean isMapped() {
+    return array == null;
+  }
+
+  /**
+   * Copy a range of values to the heap.
+   *
+   * @param from Inclusive
+   * @param to Exclusive
+   * @return
+   */
+  public int[] copyOfRange(int from, int to) {
+    if (array != null) return Arrays.copyOfRange(array, from, to);
+    if (from > to) throw new IllegalArgumentException(from + " > " + to);
+    if (from < 0 || to > length) throw new ArrayIndexOutOfBoundsException();
+    int[] copy = new int[to - from];
+    for (int i = from; i < to; ++i) copy[i - from] = get(i);
+    return copy;
+  }
+
+  /**
+   * Copy the array to the heap. Returns the backing array if this is a heap array.
+   *
+   * @return
+   */
+  public int[] toArray() {
+    return array != null ? array : copyOfRange(0, length);
+  }
+
+  /**
+   * Write the raw values to a channel at its current position.
+   *
+   * @param channel
+   * @param order
+   * @throws IOException
+   */
+  public void write(FileChannel channel, ByteOrder order) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(order);
+    for (int i = 0; i < length; ++i) {
+      if (buffer.remaining() < Integer.BYTES) {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+      }
+      buffer.putInt(get(i));
+    }
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+  }
+
+  /**
+   * Serialize mapped arrays as heap arrays.
+   *
+   * @return
+   */
+  private Object writeReplace() {
+    return array != null ? this : new IntArray(toArray());
+  }
+}
@@ -1,15 +1,25 @@
 package edu.stanford.nlp.mt.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -27,6 +37,10 @@ import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
 /**
  * An implementation of a parallel suffix array.
  * 
+ * The arrays can either live on the heap or be memory-mapped from a file
+ * written by {@link #writeMapped(String)}. Mapped suffix arrays load instantly,
+ * and the page cache is shared by every process that maps the same file.
+ * 
  * NOTE: The fields are protected, non-final for fast serialization/deserialization.
  * 
  * @author Spence Green
@@ -38,12 +52,33 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
 
   private static final Logger logger = LogManager.getLogger(ParallelSuffixArray.class);
   
-  protected int[] srcBitext;
-  protected int[] f2e;
-  protected int[] tgtBitext;
-  protected int[] e2f;
-  protected int[] srcSuffixArray; 
-  protected int[] tgtSuffixArray;
+  /**
+   * File extension of the memory-mapped format.
+   */
+  public static final String MAPPED_EXTENSION = ".mmap";
+  private static final long MAPPED_MAGIC = 0x5048524153414D50L;
+  private static final int MAPPED_VERSION = 1;
+  private static final int MAPPED_NUM_ARRAYS = 6;
+  private static final int MAPPED_HEADER_SIZE = 4096;
+  
+  // Serialized form is unchanged from when the fields were int[]
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("srcBitext", int[].class),
+    new ObjectStreamField("f2e", int[].class),
+    new ObjectStreamField("tgtBitext", int[].class),
+    new ObjectStreamField("e2f", int[].class),
+    new ObjectStreamField("srcSuffixArray", int[].class),
+    new ObjectStreamField("tgtSuffixArray", int[].class),
+    new ObjectStreamField("numSentences", int.class),
+    new ObjectStreamField("vocabulary", Vocabulary.class)
+  };
+  
+  protected IntArray srcBitext;
+  protected IntArray f2e;
+  protected IntArray tgtBitext;
+  protected IntArray e2f;
+  protected IntArray srcSuffixArray; 
+  protected IntArray tgtSuffixArray;
   
   protected int numSentences;
   protected Vocabulary vocabulary;
@@ -94,9 +129,13 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     kryo.writeObject(output, vocabulary);
   }
 
-  private static void writeArray(int[] arr, Output output) {
-    output.writeInt(arr.length, true);
-    output.writeInts(arr, true);
+  private static void writeArray(IntArray arr, Output output) {
+    output.writeInt(arr.length(), true);
+    if (arr.isMapped()) {
+      for (int i = 0, sz = arr.length(); i < sz; ++i) output.writeInt(arr.get(i), true);
+    } else {
+      output.writeInts(arr.toArray(), true);
+    }
   }
 
   @Override
@@ -111,10 +150,156 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     vocabulary = kryo.readObject(input, Vocabulary.class);
   }
   
-  private static int[] readArray(Input input) {
+  private static IntArray readArray(Input input) {
     int len = input.readInt(true);
-    return input.readInts(len, true);
+    return IntArray.wrap(input.readInts(len, true));
+  }
+  
+  private void writeObject(ObjectOutputStream oos) throws IOException {
+    ObjectOutputStream.PutField fields = oos.putFields();
+    fields.put("srcBitext", srcBitext == null ? null : srcBitext.toArray());
+    fields.put("f2e", f2e == null ? null : f2e.toArray());
+    fields.put("tgtBitext", tgtBitext == null ? null : tgtBitext.toArray());
+    fields.put("e2f", e2f == null ? null : e2f.toArray());
+    fields.put("srcSuffixArray", srcSuffixArray == null ? null : srcSuffixArray.toArray());
+    fields.put("tgtSuffixArray", tgtSuffixArray == null ? null : tgtSuffixArray.toArray());
+    fields.put("numSentences", numSentences);
+    fields.put("vocabulary", vocabulary);
+    oos.writeFields();
+  }
+  
+  private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = ois.readFields();
+    srcBitext = wrapNullable((int[]) fields.get("srcBitext", null));
+    f2e = wrapNullable((int[]) fields.get("f2e", null));
+    tgtBitext = wrapNullable((int[]) fields.get("tgtBitext", null));
+    e2f = wrapNullable((int[]) fields.get("e2f", null));
+    srcSuffixArray = wrapNullable((int[]) fields.get("srcSuffixArray", null));
+    tgtSuffixArray = wrapNullable((int[]) fields.get("tgtSuffixArray", null));
+    numSentences = fields.get("numSentences", 0);
+    vocabulary = (Vocabulary) fields.get("vocabulary", null);
+  }
+  
+  private static IntArray wrapNullable(int[] arr) {
+    return arr == null ? null : IntArray.wrap(arr);
+  }
+  
+  /**
+   * Write the suffix array in the memory-mapped format. The header is followed by the
+   * raw arrays in native byte order, and then by the serialized vocabulary.
+   * 
+   * @param filename
+   * @throws IOException
+   */
+  public void writeMapped(String filename) throws IOException {
+    logger.info("Writing mapped suffix array to {}", filename);
+    TimeKeeper timer = TimingUtils.start();
+    final ByteOrder order = ByteOrder.nativeOrder();
+    final IntArray[] arrays = mappedArrays();
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, 
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long[] offsets = new long[arrays.length];
+      channel.position(MAPPED_HEADER_SIZE);
+      for (int i = 0; i < arrays.length; ++i) {
+        offsets[i] = channel.position();
+        arrays[i].write(channel, order);
+      }
+      
+      final long vocabOffset = channel.position();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (Output output = new Output(bytes)) {
+        Kryo kryo = new Kryo();
+        kryo.setReferences(false);
+        kryo.writeObject(output, vocabulary);
+      }
+      ByteBuffer vocab = ByteBuffer.wrap(bytes.toByteArray());
+      while (vocab.hasRemaining()) channel.write(vocab);
+      
+      ByteBuffer header = ByteBuffer.allocate(MAPPED_HEADER_SIZE);
+      header.putLong(MAPPED_MAGIC).putInt(MAPPED_VERSION);
+      header.putInt(order == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+      header.putInt(numSentences).putInt(arrays.length);
+      for (int i = 0; i < arrays.length; ++i) {
+        header.putLong(offsets[i]).putInt(arrays[i].length());
+      }
+      header.putLong(vocabOffset).putInt(bytes.size());
+      header.rewind();
+      channel.position(0);
+      while (header.hasRemaining()) channel.write(header);
+    }
+    timer.mark("Write");
+    logger.info("Done writing mapped suffix array: {}", timer);
+  }
+  
+  /**
+   * Map a suffix array written by {@link #writeMapped(String)}. Only the vocabulary
+   * is loaded onto the heap.
+   * 
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static ParallelSuffixArray loadMapped(String filename) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    ParallelSuffixArray sa = new ParallelSuffixArray();
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(MAPPED_HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0);
+      header.flip();
+      if (header.remaining() < MAPPED_HEADER_SIZE || header.getLong() != MAPPED_MAGIC) {
+        throw new IOException("Not a mapped suffix array: " + filename);
+      }
+      int version = header.getInt();
+      if (version != MAPPED_VERSION) {
+        throw new IOException(String.format("Unsupported mapped suffix array version %d: %s", version, filename));
+      }
+      final ByteOrder order = header.getInt() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+      sa.numSentences = header.getInt();
+      final int numArrays = header.getInt();
+      if (numArrays != MAPPED_NUM_ARRAYS) throw new IOException("Corrupt header: " + filename);
+      IntArray[] arrays = new IntArray[numArrays];
+      for (int i = 0; i < numArrays; ++i) {
+        long offset = header.getLong();
+        int length = header.getInt();
+        arrays[i] = IntArray.map(channel, offset, length, order);
+      }
+      sa.srcBitext = arrays[0];
+      sa.f2e = arrays[1];
+      sa.tgtBitext = arrays[2];
+      sa.e2f = arrays[3];
+      sa.srcSuffixArray = arrays[4];
+      sa.tgtSuffixArray = arrays[5];
+      
+      long vocabOffset = header.getLong();
+      int vocabLength = header.getInt();
+      ByteBuffer vocab = ByteBuffer.allocate(vocabLength);
+      while (vocab.hasRemaining() && channel.read(vocab, vocabOffset + vocab.position()) >= 0);
+      try (Input input = new Input(vocab.array())) {
+        Kryo kryo = new Kryo();
+        kryo.setReferences(false);
+        sa.vocabulary = kryo.readObject(input, Vocabulary.class);
+      }
+    }
+    timer.mark("Map");
+    logger.info("Mapped suffix array {}: {}", filename, timer);
+    return sa;
   }
+  
+  /**
+   * The arrays in the order of the mapped format.
+   * 
+   * @return
+   */
+  private IntArray[] mappedArrays() {
+    return new IntArray[] { srcBitext, f2e, tgtBitext, e2f, srcSuffixArray, tgtSuffixArray };
+  }
+  
+  /**
+   * True if the underlying arrays are memory-mapped.
+   * 
+   * @return
+   */
+  public boolean isMapped() { return srcBitext != null && srcBitext.isMapped(); }
 
   /**
    * Get the index associated with this suffix array.
@@ -129,8 +314,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @return
    */
   public Stream<SentencePair> stream() {
-    return IntStream.range(0, srcBitext.length).mapToObj(i -> {
-      if (srcBitext[i] < 0) {
+    return IntStream.range(0, srcBitext.length()).mapToObj(i -> {
+      if (srcBitext.get(i) < 0) {
         return new SentencePair(i-1);
       } else {
         return null;
@@ -144,8 +329,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @return
    */
   public Stream<SentencePair> parallelStream() {
-    return IntStream.range(0, srcBitext.length).parallel().mapToObj(i -> {
-      if (srcBitext[i] < 0) {
+    return IntStream.range(0, srcBitext.length()).parallel().mapToObj(i -> {
+      if (srcBitext.get(i) < 0) {
         return new SentencePair(i-1);
       } else {
         return null;
@@ -192,12 +377,12 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     // Create the arrays
     final int srcLength = numSourcePositions + numSentences;
     if (srcLength < 0) throw new RuntimeException("Maximum source bitext size exceeded");
-    srcBitext = new int[srcLength];
-    f2e = new int[srcLength];
+    final int[] srcBitext = new int[srcLength];
+    final int[] f2e = new int[srcLength];
     final int tgtLength = numTargetPositions + numSentences;
     if (tgtLength < 0) throw new RuntimeException("Maximum target bitext size exceeded");
-    tgtBitext = new int[tgtLength];
-    e2f = new int[tgtLength];
+    final int[] tgtBitext = new int[tgtLength];
+    final int[] e2f = new int[tgtLength];
     
     // Create the arrays and read the files again
     try (LineNumberReader fReader = IOTools.getReaderFromFile(source)) {
@@ -227,6 +412,10 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
         }        
       }
     }
+    this.srcBitext = IntArray.wrap(srcBitext);
+    this.f2e = IntArray.wrap(f2e);
+    this.tgtBitext = IntArray.wrap(tgtBitext);
+    this.e2f = IntArray.wrap(e2f);
     this.vocabulary = corpus.getVocabulary();
     assert initialVocabularySize == vocabulary.size();
     timer.mark("Loading corpus");
@@ -246,11 +435,11 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     int numSourcePositions = corpus.numSourcePositions();
     int numTargetPositions = corpus.numTargetPositions();
     int srcLength = numSourcePositions + numSentences;
-    srcBitext = new int[srcLength];
-    f2e = new int[srcLength];
+    final int[] srcBitext = new int[srcLength];
+    final int[] f2e = new int[srcLength];
     int tgtLength = numTargetPositions + numSentences;
-    tgtBitext = new int[tgtLength];
-    e2f = new int[tgtLength];
+    final int[] tgtBitext = new int[tgtLength];
+    final int[] e2f = new int[tgtLength];
     int srcOffset = 0;
     int tgtOffset = 0;
     for (AlignedSentence sentence : corpus) {
@@ -267,6 +456,10 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       ++srcOffset;
       ++tgtOffset;
     }
+    this.srcBitext = IntArray.wrap(srcBitext);
+    this.f2e = IntArray.wrap(f2e);
+    this.tgtBitext = IntArray.wrap(tgtBitext);
+    this.e2f = IntArray.wrap(e2f);
     vocabulary = corpus.getVocabulary();
     timer.mark("Corpus loading");
     logger.info("Done loading corpus: {}", timer);
@@ -296,21 +489,94 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * Create suffix arrays for the parallel corpus.
    */
   public void build() {
+    build(false);
+  }
+  
+  /**
+   * Create suffix arrays for the parallel corpus with the linear-time SA-IS algorithm. The
+   * source and target arrays are built concurrently.
+   * 
+   * @param verify If true, check the arrays against the comparison sort builder. This
+   * is slow, so it should only be used for small corpora.
+   */
+  public void build(boolean verify) {
     logger.info("Building suffix arrays...");
     TimeKeeper timer = TimingUtils.start();
-    int numSourcePositions = srcBitext.length - numSentences;
-    srcSuffixArray = build(srcBitext, numSourcePositions);
-    if (srcSuffixArray.length != numSourcePositions) throw new RuntimeException();
-    timer.mark("Source array");
-    int numTargetPositions = tgtBitext.length - numSentences;
-    tgtSuffixArray = build(tgtBitext, numTargetPositions);
-    if (tgtSuffixArray.length != numTargetPositions) throw new RuntimeException();
-    timer.mark("Target array");
+    final int[] wordRanks = lexicographicRanks();
+    timer.mark("Vocabulary ranks");
+    final int numSourcePositions = srcBitext.length() - numSentences;
+    final int numTargetPositions = tgtBitext.length() - numSentences;
+    final int[] srcBitextArr = srcBitext.toArray();
+    final int[] tgtBitextArr = tgtBitext.toArray();
+    CompletableFuture<int[]> tgtFuture = CompletableFuture.supplyAsync(() -> 
+      buildSAIS(tgtBitextArr, wordRanks));
+    int[] srcSA = buildSAIS(srcBitextArr, wordRanks);
+    int[] tgtSA = tgtFuture.join();
+    if (srcSA.length != numSourcePositions) throw new RuntimeException();
+    if (tgtSA.length != numTargetPositions) throw new RuntimeException();
+    timer.mark("Suffix arrays");
+
+    if (verify) {
+      verify(srcSA, build(srcBitextArr, numSourcePositions), "source");
+      verify(tgtSA, build(tgtBitextArr, numTargetPositions), "target");
+      timer.mark("Verification");
+    }
+    srcSuffixArray = IntArray.wrap(srcSA);
+    tgtSuffixArray = IntArray.wrap(tgtSA);
     logger.info("Done constructing suffix arrays: {}", timer);
   }
   
+  private static void verify(int[] sa, int[] expected, String side) {
+    for (int i = 0; i < expected.length; ++i) {
+      if (sa[i] != expected[i]) {
+        logger.error("{} suffix array mismatch at index {}: {} vs. {}", side, i, sa[i], expected[i]);
+        throw new RuntimeException("Suffix array verification failed for " + side);
+      }
+    }
+    logger.info("Verified {} suffix array of size {}", side, sa.length);
+  }
+  
+  /**
+   * The rank of each vocabulary item in lexicographic order, which is the
+   * order used by the suffix array queries.
+   * 
+   * @return
+   */
+  private int[] lexicographicRanks() {
+    final int vocabSize = vocabulary.size();
+    int[] sortedIds = IntStream.range(0, vocabSize).boxed().parallel()
+        .sorted((x,y) -> vocabulary.get(x).compareTo(vocabulary.get(y)))
+        .mapToInt(i -> i).toArray();
+    int[] ranks = new int[vocabSize];
+    for (int i = 0; i < vocabSize; ++i) ranks[sortedIds[i]] = i;
+    return ranks;
+  }
+  
   /**
-   * Sort the bitext in parallel.
+   * Build a suffix array with SA-IS. Each sentence boundary is mapped to a distinct
+   * symbol that is smaller than every word and increases with the corpus position. This 
+   * reproduces the order of the comparison sort: shorter suffixes precede their extensions,
+   * and ties are broken by corpus position. The boundaries sort to the front of the array 
+   * and are removed.
+   * 
+   * @param bitext
+   * @param wordRanks
+   * @return
+   */
+  private int[] buildSAIS(final int[] bitext, final int[] wordRanks) {
+    final int[] s = new int[bitext.length];
+    int boundaryId = 0;
+    for (int i = 0; i < bitext.length; ++i) {
+      s[i] = bitext[i] < 0 ? boundaryId++ : numSentences + wordRanks[bitext[i]];
+    }
+    assert boundaryId == numSentences;
+    final int upper = numSentences + wordRanks.length - 1;
+    int[] sa = SuffixArrays.sais(s, upper);
+    return Arrays.copyOfRange(sa, numSentences, sa.length);
+  }
+  
+  /**
+   * Sort the bitext in parallel with a comparison sort.
    * 
    * @param bitext
    * @param numPositions
@@ -357,14 +623,14 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @param out
    */
   public void print(boolean isSource, PrintWriter out) {
-    int[] sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
-    int[] bitext = isSource ? this.srcBitext : this.tgtBitext;
-    for (int i = 0; i < sa.length; ++i) {
+    IntArray sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
+    IntArray bitext = isSource ? this.srcBitext : this.tgtBitext;
+    for (int i = 0; i < sa.length(); ++i) {
       StringBuilder sb = new StringBuilder();
       sb.append(i).append(": ");
-      for (int corpusPos = sa[i]; bitext[corpusPos] >= 0; ++corpusPos) {
-        if (corpusPos != sa[i]) sb.append(" ");
-        sb.append(vocabulary.get(bitext[corpusPos]));
+      for (int corpusPos = sa.get(i); bitext.get(corpusPos) >= 0; ++corpusPos) {
+        if (corpusPos != sa.get(i)) sb.append(" ");
+        sb.append(vocabulary.get(bitext.get(corpusPos)));
       }
       out.println(sb.toString());
     }
@@ -382,17 +648,17 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    */
   public Map<Span,SuffixArraySample> lookupFrequentSourceNgrams(int sampleSize, int minOccurrences) {
     if (sampleSize >= minOccurrences) throw new IllegalArgumentException();
-    if (srcSuffixArray.length == 0) return Collections.emptyMap();
+    if (srcSuffixArray.length() == 0) return Collections.emptyMap();
     logger.info("Building query cache with threshold {}", minOccurrences);
     Map<Span,SuffixArraySample> queryCache = new HashMap<>(1000);
     int nCnt = 1, nnCnt = 1, nnnCnt = 1;
     int nStart = 0, nnStart = 0, nnnStart = 0;
-    Suffix firstSuffix = new Suffix(srcSuffixArray[0], true);
+    Suffix firstSuffix = new Suffix(srcSuffixArray.get(0), true);
     Span nSpan = new Span(firstSuffix, 1), 
         nnSpan = new Span(firstSuffix, 2), 
         nnnSpan = new Span(firstSuffix, 3);
-    for (int i = 1; i < srcSuffixArray.length; ++i) {
-      Suffix suffix = new Suffix(srcSuffixArray[i], true);
+    for (int i = 1; i < srcSuffixArray.length(); ++i) {
+      Suffix suffix = new Suffix(srcSuffixArray.get(i), true);
       Span nSpanThis = new Span(suffix, 1);
       Span nnSpanThis = new Span(suffix, 2);
       Span nnnSpanThis = new Span(suffix, 3);
@@ -419,10 +685,10 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     Arrays.fill(tgtCountLBCache, -1);
     this.tgtCountUBCache = new int[vocabulary.size()];
     Arrays.fill(tgtCountUBCache, -1);
-    int lastId = tgtBitext[tgtSuffixArray[0]];
+    int lastId = tgtBitext.get(tgtSuffixArray.get(0));
     
-    for (int i = 0; i < tgtSuffixArray.length; ++i) {
-      int tgtId = tgtBitext[tgtSuffixArray[i]];
+    for (int i = 0; i < tgtSuffixArray.length(); ++i) {
+      int tgtId = tgtBitext.get(tgtSuffixArray.get(i));
       assert tgtId >= 0;
       if (tgtCountLBCache[tgtId] < 0) {
         tgtCountLBCache[tgtId] = i;
@@ -435,8 +701,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     }
     
     // final update
-    tgtCountUBCache[lastId] = tgtSuffixArray.length;
-    assert tgtCountUBCache[lastId] >= tgtCountLBCache[lastId] : String.format("%d %d final", tgtSuffixArray.length, lastId);
+    tgtCountUBCache[lastId] = tgtSuffixArray.length();
+    assert tgtCountUBCache[lastId] >= tgtCountLBCache[lastId] : String.format("%d %d final", tgtSuffixArray.length(), lastId);
     
     logger.info("Finished building count() cache.");
     
@@ -454,8 +720,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       assert stepSize > 0;
       final List<SentencePair> hits = new ArrayList<>(sampleSize);
       for (int i = startSa; i < endSa && hits.size() < sampleSize; i += stepSize) {
-        int corpusPosition = srcSuffixArray[i];
-        assert srcBitext[corpusPosition] >= 0;
+        int corpusPosition = srcSuffixArray.get(i);
+        assert srcBitext.get(corpusPosition) >= 0;
         hits.add(new SentencePair(corpusPosition));
       }
       queryCache.put(currentSpan, new SuffixArraySample(hits, startSa, endSa-1));
@@ -515,9 +781,9 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    */
   public int numSentences() { return numSentences; }
 
-  public int sourceSASize() { return srcSuffixArray.length; }
+  public int sourceSASize() { return srcSuffixArray.length(); }
   
-  public int targetSASize() { return tgtSuffixArray.length; }
+  public int targetSASize() { return tgtSuffixArray.length(); }
   
   /**
    * Find a lower or upper bound in the suffix array.
@@ -529,18 +795,18 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @return
    */
   private int findBound(final int[] query, boolean isSource, boolean lowerBound, int startFrom) {
-    int[] sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
-    return findBound(query, isSource, lowerBound, startFrom, sa.length - 1);
+    IntArray sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
+    return findBound(query, isSource, lowerBound, startFrom, sa.length() - 1);
   }
   
   private int findBound(final int[] query, boolean isSource, boolean lowerBound, int lo, int hi) {
-    int[] sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
+    IntArray sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
     int low = lo;
     int high = hi;
     while(low <= high) {
       final int mid = (low + high) >>> 1;
-      assert mid < sa.length;
-      final int corpusPos = sa[mid];
+      assert mid < sa.length();
+      final int corpusPos = sa.get(mid);
       assert corpusPos >= 0;
       final Suffix midSuffix = new Suffix(corpusPos, isSource);
       final int cmp = midSuffix.compare(query);
@@ -557,7 +823,7 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
         // Check to see if this is the bound, then search
         if (lowerBound) {
           if (mid == 0) return 0;
-          Suffix leftSuffix = new Suffix(sa[mid-1], isSource);
+          Suffix leftSuffix = new Suffix(sa.get(mid-1), isSource);
           int cmp2 = leftSuffix.compare(query);
           if (cmp2 > 0) return mid;
           // Search left
@@ -565,8 +831,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
           high = mid - 1;
 
         } else {
-          if (mid == sa.length - 1) return mid;
-          Suffix rightSuffix = new Suffix(sa[mid+1], isSource);
+          if (mid == sa.length() - 1) return mid;
+          Suffix rightSuffix = new Suffix(sa.get(mid+1), isSource);
           int cmp2 = rightSuffix.compare(query);
           if (cmp2 < 0) return mid;
           // Search right
@@ -594,22 +860,22 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     }
     
     public int get(int i) {
-      int[] bitext = isSource ? srcBitext : tgtBitext;
+      IntArray bitext = isSource ? srcBitext : tgtBitext;
       int bitextPos = this.pos + i;
-      if (bitextPos < 0 || bitextPos >= bitext.length || bitext[bitextPos] < 0) {
+      if (bitextPos < 0 || bitextPos >= bitext.length() || bitext.get(bitextPos) < 0) {
         return -1;
       } else {
-        return bitext[bitextPos];
+        return bitext.get(bitextPos);
       }
     }
 
     public int compare(int[] query) {
-      int[] bitext = isSource ? srcBitext : tgtBitext;
+      IntArray bitext = isSource ? srcBitext : tgtBitext;
       boolean consumedQuery = false;
-      for (int i = 0, j = pos; i < query.length && bitext[j] >= 0; ++i, ++j) {
+      for (int i = 0, j = pos; i < query.length && bitext.get(j) >= 0; ++i, ++j) {
         consumedQuery = (i == query.length-1);
         int xId = query[i];
-        int yId = bitext[j];
+        int yId = bitext.get(j);
         if (xId != yId) {
           return vocabulary.get(xId).compareTo(vocabulary.get(yId));
         }
@@ -737,7 +1003,7 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     // Stratified sample through the list of positions
     List<SentencePair> samples = new ArrayList<>(maxSamples);
     for (int i = lb; i <= ub && samples.size() < maxSamples; i += stepSize) {
-      SentencePair sp = new SentencePair(srcSuffixArray[i]);
+      SentencePair sp = new SentencePair(srcSuffixArray.get(i));
       if(!exactMatch || sp.sourceLength() == sourceQuery.length) samples.add(sp);
     }
     return new SuffixArraySample(samples, lb, ub);
@@ -765,7 +1031,7 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     // Stratified sample through the list of positions
     List<SentencePair> samples = new ArrayList<>(maxSamples);
     for (int i = lb; i <= ub && samples.size() < maxSamples; i += stepSize) {
-      samples.add(new SentencePair(tgtSuffixArray[i], true));
+      samples.add(new SentencePair(tgtSuffixArray.get(i), true));
     }
     return new SuffixArraySample(samples, lb, ub);
   }
@@ -792,24 +1058,24 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     private SentencePair(int corpusPosition) {
       // Find source span
       int j = corpusPosition;
-      assert srcBitext[j] >= 0;
+      assert srcBitext.get(j) >= 0;
       // Walk forward
-      while (srcBitext[j] >= 0) j++;
+      while (srcBitext.get(j) >= 0) j++;
       srcEndExclusive = j;
       // Walk backward
       j = corpusPosition - 1;
-      while (j >= 0 && srcBitext[j] >= 0) j--;
+      while (j >= 0 && srcBitext.get(j) >= 0) j--;
       srcStartInclusive = j + 1;
       assert corpusPosition >= srcStartInclusive : String.format("%d %d", corpusPosition, srcStartInclusive);
       
       // Find the target span
-      tgtStartInclusive = j == -1 ? 0 : fromSentenceOffset(srcBitext[j]) + 1;
-      tgtEndExclusive = fromSentenceOffset(srcBitext[srcEndExclusive]);
+      tgtStartInclusive = j == -1 ? 0 : fromSentenceOffset(srcBitext.get(j)) + 1;
+      tgtEndExclusive = fromSentenceOffset(srcBitext.get(srcEndExclusive));
       assert tgtStartInclusive < tgtEndExclusive : String.format("tgt: %d %d", tgtStartInclusive, 
           tgtEndExclusive);
       assert tgtEndExclusive > 0 : String.valueOf(tgtEndExclusive);
-      assert fromSentenceOffset(tgtBitext[tgtEndExclusive]) == srcEndExclusive : String.format("%d %d", 
-          fromSentenceOffset(tgtBitext[tgtEndExclusive]), srcEndExclusive);
+      assert fromSentenceOffset(tgtBitext.get(tgtEndExclusive)) == srcEndExclusive : String.format("%d %d", 
+          fromSentenceOffset(tgtBitext.get(tgtEndExclusive)), srcEndExclusive);
       
       // Set the start of the query
       wordPosition = corpusPosition - srcStartInclusive;
@@ -820,24 +1086,24 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     private SentencePair(int corpusPosition, boolean isTarget) {
       // Find source span
       int j = corpusPosition;
-      assert tgtBitext[j] >= 0;
+      assert tgtBitext.get(j) >= 0;
       // Walk forward
-      while (tgtBitext[j] >= 0) j++;
+      while (tgtBitext.get(j) >= 0) j++;
       tgtEndExclusive = j;
       // Walk backward
       j = corpusPosition - 1;
-      while (j >= 0 && tgtBitext[j] >= 0) j--;
+      while (j >= 0 && tgtBitext.get(j) >= 0) j--;
       tgtStartInclusive = j + 1;
       assert corpusPosition >= tgtStartInclusive : String.format("%d %d", corpusPosition, tgtStartInclusive);
       
       // Find the target span
-      srcStartInclusive = j == -1 ? 0 : fromSentenceOffset(tgtBitext[j]) + 1;
-      srcEndExclusive = fromSentenceOffset(tgtBitext[tgtEndExclusive]);
+      srcStartInclusive = j == -1 ? 0 : fromSentenceOffset(tgtBitext.get(j)) + 1;
+      srcEndExclusive = fromSentenceOffset(tgtBitext.get(tgtEndExclusive));
       assert srcStartInclusive < srcEndExclusive : String.format("tgt: %d %d", srcStartInclusive, 
           srcEndExclusive);
       assert srcEndExclusive > 0 : String.valueOf(srcEndExclusive);
-      assert fromSentenceOffset(srcBitext[srcEndExclusive]) == tgtEndExclusive : String.format("%d %d", 
-          fromSentenceOffset(srcBitext[srcEndExclusive]), tgtEndExclusive);
+      assert fromSentenceOffset(srcBitext.get(srcEndExclusive)) == tgtEndExclusive : String.format("%d %d", 
+          fromSentenceOffset(srcBitext.get(srcEndExclusive)), tgtEndExclusive);
       
       // Set the start of the query
       wordPosition = corpusPosition - tgtStartInclusive;
@@ -854,13 +1120,13 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     public int source(int i) {
       int bitextPos = srcStartInclusive + i;
       if (bitextPos < 0 || bitextPos >= srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return srcBitext[bitextPos];
+      return srcBitext.get(bitextPos);
     }
     
     public int target(int i) {
       int bitextPos = tgtStartInclusive + i;
       if (bitextPos < tgtStartInclusive || bitextPos >= tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return tgtBitext[bitextPos];
+      return tgtBitext.get(bitextPos);
     }
     
     public int[] f2e(int startInclusive, int endExclusive) {
@@ -868,13 +1134,13 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       int bitextStartInclusive = srcStartInclusive + startInclusive;
       int bitextEndExclusive = srcStartInclusive + endExclusive;
       if (bitextStartInclusive < srcStartInclusive || bitextEndExclusive > srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return Arrays.copyOfRange(f2e, bitextStartInclusive, bitextEndExclusive);
+      return f2e.copyOfRange(bitextStartInclusive, bitextEndExclusive);
     }
     
     public int[] f2e(int i) {
       int bitextPos = srcStartInclusive + i;
       if (bitextPos < srcStartInclusive || bitextPos >= srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return AlignedSentence.expand(f2e[bitextPos]);
+      return AlignedSentence.expand(f2e.get(bitextPos));
     }
     
     public int[] e2f(int startInclusive, int endExclusive) {
@@ -882,25 +1148,34 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       int bitextStartInclusive = tgtStartInclusive + startInclusive;
       int bitextEndExclusive = tgtStartInclusive + endExclusive;
       if (bitextStartInclusive < tgtStartInclusive || bitextEndExclusive > tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return Arrays.copyOfRange(e2f, bitextStartInclusive, bitextEndExclusive);
+      return e2f.copyOfRange(bitextStartInclusive, bitextEndExclusive);
     }
     
     public int[] e2f(int i) {
       int bitextPos = tgtStartInclusive + i;
       if (bitextPos < tgtStartInclusive || bitextPos >= tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return AlignedSentence.expand(e2f[bitextPos]);
+      return AlignedSentence.expand(e2f.get(bitextPos));
     }
     
     public boolean isSourceUnaligned(int i) {
       int bitextPos = srcStartInclusive + i;
       if (bitextPos < srcStartInclusive || bitextPos >= srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return f2e[bitextPos] == 0;
+      return f2e.get(bitextPos) == 0;
     }
     
     public boolean isTargetUnaligned(int i) {
       int bitextPos = tgtStartInclusive + i;
       if (bitextPos < tgtStartInclusive || bitextPos >= tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return e2f[bitextPos] == 0;
+      return e2f.get(bitextPos) == 0;
+    }
+    
+    /**
+     * The suffix array that contains this sentence pair.
+     * 
+     * @return
+     */
+    public ParallelSuffixArray getSuffixArray() {
+      return ParallelSuffixArray.this;
     }
     
     public ParallelSuffixArrayEntry getParallelEntry() {
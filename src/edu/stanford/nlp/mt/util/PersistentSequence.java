@@ -0,0 +1,213 @@
+package edu.stanford.nlp.mt.util;
+
+import java.lang.reflect.Array;
+import java.util.Iterator;
+
+/**
+ * A persistent sequence that is built by appending phrases. Each sequence points to
+ * the sequence that it extends and holds the appended phrase, so {@link #concat(Sequence)}
+ * is O(1) and does not copy the prefix. Derivations that share a prefix share its storage.
+ *
+ * Tokens near the end of the sequence (e.g., the context of a language model) are read
+ * without copying. Operations that need the whole sequence (iteration, hashing, equality)
+ * flatten it to an array once, and the array is cached.
+ *
+ * @param <T>
+ */
+public class PersistentSequence<T> extends AbstractSequence<T> {
+
+  private static final long serialVersionUID = -1407426311395082263L;
+
+  // Random access walks at most this many phrases before the sequence is flattened.
+  private static final int MAX_WALK = 16;
+
+  private final PersistentSequence<T> parent;
+  private final Sequence<T> phrase;
+  private final int size;
+  private transient volatile Sequence<T> flat;
+  private transient volatile int hashCode;
+
+  /**
+   * Constructor.
+   *
+   * @param sequence The initial sequence.
+   */
+  public PersistentSequence(Sequence<T> sequence) {
+    this(null, sequence);
+  }
+
+  private PersistentSequence(PersistentSequence<T> parent, Sequence<T> phrase) {
+    this.parent = parent;
+    this.phrase = phrase;
+    this.size = (parent == null ? 0 : parent.size) + phrase.size();
+  }
+
+  /**
+   * The empty sequence.
+   *
+   * @return
+   */
+  public static <T> PersistentSequence<T> empty() {
+    return new PersistentSequence<>(Sequences.emptySequence());
+  }
+
+  @Override
+  public T get(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException(String.format("length: %d index: %d", size, i));
+    }
+    PersistentSequence<T> node = this;
+    for (int steps = 0; steps < MAX_WALK; ++steps) {
+      final Sequence<T> nodeFlat = node.flat;
+      if (nodeFlat != null) return nodeFlat.get(i);
+      final int start = node.size - node.phrase.size();
+      if (i >= start) return node.phrase.get(i - start);
+      node = node.parent;
+    }
+    return flat().get(i);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The last tokens of the sequence. The cost is proportional to the length
+   * of the suffix, not the length of the sequence.
+   *
+   * @param length
+   * @return
+   */
+  public Sequence<T> suffix(int length) {
+    if (length < 0 || length > size) {
+      throw new IndexOutOfBoundsException(String.format("length: %d suffix length: %d", size, length));
+    }
+    if (length <= phrase.size()) return phrase.subsequence(phrase.size() - length, phrase.size());
+    final Sequence<T> f = flat;
+    if (f != null) return f.subsequence(size - length, size);
+    final T[] elements = newArray(length);
+    int end = length;
+    for (PersistentSequence<T> node = this; end > 0; node = node.parent) {
+      final int n = Math.min(end, node.phrase.size());
+      for (int i = 0; i < n; ++i) {
+        elements[end - n + i] = node.phrase.get(node.phrase.size() - n + i);
+      }
+      end -= n;
+    }
+    return new ArraySequence<>(true, elements);
+  }
+
+  @SuppressWarnings("unchecked")
+  private T[] newArray(int length) {
+    for (PersistentSequence<T> node = this; node != null; node = node.parent) {
+      if (node.phrase.size() > 0) {
+        return (T[]) Array.newInstance(node.phrase.elements().getClass().getComponentType(), length);
+      }
+    }
+    return (T[]) new Object[length];
+  }
+
+  /**
+   * Flatten the sequence to an array, reusing the array of the longest flattened prefix.
+   */
+  private Sequence<T> flat() {
+    Sequence<T> f = flat;
+    if (f == null) {
+      final T[] elements = size == 0 ? phrase.elements() : newArray(size);
+      int end = size;
+      for (PersistentSequence<T> node = this; end > 0; node = node.parent) {
+        final Sequence<T> nodeFlat = node.flat;
+        if (nodeFlat != null) {
+          System.arraycopy(nodeFlat.elements(), 0, elements, 0, end);
+          break;
+        }
+        final int n = node.phrase.size();
+        if (n > 0) {
+          System.arraycopy(node.phrase.elements(), 0, elements, end - n, n);
+          end -= n;
+        }
+      }
+      f = new ArraySequence<>(true, elements);
+      flat = f;
+    }
+    return f;
+  }
+
+  @Override
+  public Sequence<T> subsequence(int start, int end) {
+    if (start == 0 && end == size) return this;
+    if (parent != null && start == 0 && end == parent.size) return parent;
+    final int phraseStart = size - phrase.size();
+    if (start >= phraseStart && end <= size) {
+      return phrase.subsequence(start - phraseStart, end - phraseStart);
+    }
+    return flat().subsequence(start, end);
+  }
+
+  @Override
+  public T[] elements() {
+    return flat().elements();
+  }
+
+  @Override
+  public Sequence<T> concat(Sequence<T> other) {
+    return new PersistentSequence<>(this, other);
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return flat().iterator();
+  }
+
+  @Override
+  public boolean startsWith(Sequence<T> prefix) {
+    return flat().startsWith(prefix);
+  }
+
+  @Override
+  public boolean contains(Sequence<T> subsequence) {
+    return flat().contains(subsequence);
+  }
+
+  @Override
+  public boolean contains(T element) {
+    return flat().contains(element);
+  }
+
+  @Override
+  public int compareTo(Sequence<T> o) {
+    return flat().compareTo(o instanceof PersistentSequence ? ((PersistentSequence<T>) o).flat() : o);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hashCode;
+    if (h == 0) {
+      h = flat().hashCode();
+      hashCode = h;
+    }
+    return h;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    } else if (o instanceof PersistentSequence) {
+      PersistentSequence<?> other = (PersistentSequence<?>) o;
+      return size == other.size && hashCode() == other.hashCode() && flat().equals(other.flat());
+    } else {
+      return flat().equals(o);
+    }
+  }
+
+  /**
+   * Serialize as an array sequence.
+   *
+   * @return
+   */
+  private Object writeReplace() {
+    return flat();
+  }
+}
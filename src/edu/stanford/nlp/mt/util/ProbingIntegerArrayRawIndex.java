@@ -20,6 +20,18 @@ public class ProbingIntegerArrayRawIndex implements IntegerArrayRawIndex {
     init(1024);
   }
 
+  /**
+   * Constructor. Allocates enough buckets for the expected number of keys, so
+   * that bulk loading does not rehash.
+   * 
+   * @param expectedSize
+   */
+  public ProbingIntegerArrayRawIndex(int expectedSize) {
+    size = 0;
+    long buckets = Math.max(1024L, Long.highestOneBit((long) (expectedSize / LOAD) + 1) << 1);
+    init((int) Math.min(buckets, 1 << 30));
+  }
+
   private void init(int buckets) {
     hashedKeys = new long[buckets];
     values = new int[buckets];
@@ -42,7 +54,17 @@ public class ProbingIntegerArrayRawIndex implements IntegerArrayRawIndex {
   }
 
   public int findOrInsert(int[] key) {
-    long hashed = hash(key);
+    return findOrInsertHashed(hash(key));
+  }
+
+  /**
+   * Insert a key that was hashed with {@link #hash(int[], int)}. Hashing is the
+   * expensive part of insertion, and can be done in parallel by the caller.
+   * 
+   * @param hashed
+   * @return
+   */
+  public int findOrInsertHashed(long hashed) {
     int i;
     for (i = ideal(hashed); ; ++i) {
       if (i == values.length)
@@ -74,6 +96,17 @@ public class ProbingIntegerArrayRawIndex implements IntegerArrayRawIndex {
   private static long hash(int[] key) {
     return MurmurHash2.hash64(key, key.length, 1);
   }
+  
+  /**
+   * Hash the first length elements of a key.
+   * 
+   * @param key
+   * @param length
+   * @return
+   */
+  public static long hash(int[] key, int length) {
+    return MurmurHash2.hash64(key, length, 1);
+  }
   private int ideal(long hashed) {
     return ((int)hashed) & mask;
   }
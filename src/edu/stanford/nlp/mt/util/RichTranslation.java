@@ -27,6 +27,7 @@ public class RichTranslation<TK, FV> extends ScoredFeaturizedTranslation<TK, FV>
   public Sequence<TK> source;
   private final transient Featurizable<TK, FV> featurizable;
   private String f2eAlignment;
+  private transient volatile SparseVector featureVector;
 
   /**
    * Constructor.
@@ -84,6 +85,21 @@ public class RichTranslation<TK, FV> extends ScoredFeaturizedTranslation<TK, FV>
    */
   public Featurizable<TK, FV> getFeaturizable() { return featurizable; }
 
+  /**
+   * The features of this translation as a sparse vector indexed by
+   * <code>FeatureIndex</code> ids. The vector is computed once.
+   *
+   * @return
+   */
+  public SparseVector getFeatureVector() {
+    SparseVector v = featureVector;
+    if (v == null) {
+      v = features == null ? SparseVector.EMPTY : FeatureValues.toSparseVector(features);
+      featureVector = v;
+    }
+    return v;
+  }
+
   /**
    * Prints untokenized Moses n-best list for a given input segment. The n-best
    * list is currently not tokenized since tokenization would break the
@@ -0,0 +1,335 @@
+package edu.stanford.nlp.mt.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Immutable sparse vector of feature values indexed by <code>FeatureIndex</code> ids.
+ * The ids are stored in ascending order in a parallel array with the values, so
+ * vector arithmetic does not hash or box feature names. Use a {@link Builder} to
+ * accumulate a vector.
+ *
+ */
+public class SparseVector implements Serializable {
+
+  private static final long serialVersionUID = 2934721357123482210L;
+
+  public static final SparseVector EMPTY = new SparseVector(new int[0], new double[0]);
+
+  private final int[] ids;
+  private final double[] values;
+
+  private SparseVector(int[] ids, double[] values) {
+    this.ids = ids;
+    this.values = values;
+  }
+
+  /**
+   * Number of entries in the vector.
+   *
+   * @return
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  public boolean isEmpty() {
+    return ids.length == 0;
+  }
+
+  /**
+   * The feature id of the i-th entry.
+   *
+   * @param i
+   * @return
+   */
+  public int id(int i) {
+    return ids[i];
+  }
+
+  /**
+   * The value of the i-th entry.
+   *
+   * @param i
+   * @return
+   */
+  public double value(int i) {
+    return values[i];
+  }
+
+  /**
+   * The value of a feature, or 0 if the feature is not in the vector.
+   *
+   * @param featureId
+   * @return
+   */
+  public double get(int featureId) {
+    final int i = Arrays.binarySearch(ids, featureId);
+    return i < 0 ? 0.0 : values[i];
+  }
+
+  /**
+   * Inner product with a dense vector indexed by feature id.
+   *
+   * @param weights
+   * @return
+   */
+  public double dot(double[] weights) {
+    double sum = 0.0;
+    for (int i = 0; i < ids.length; ++i) {
+      if (ids[i] < weights.length) sum += weights[ids[i]] * values[i];
+    }
+    return sum;
+  }
+
+  /**
+   * Sum of the squared values.
+   *
+   * @return
+   */
+  public double sumSquares() {
+    double sum = 0.0;
+    for (double v : values) sum += v * v;
+    return sum;
+  }
+
+  public double l2Norm() {
+    return Math.sqrt(sumSquares());
+  }
+
+  /**
+   * A copy of this vector with the values multiplied by a constant.
+   *
+   * @param scale
+   * @return
+   */
+  public SparseVector scale(double scale) {
+    final double[] scaled = new double[values.length];
+    for (int i = 0; i < values.length; ++i) scaled[i] = values[i] * scale;
+    return new SparseVector(ids, scaled);
+  }
+
+  /**
+   * A copy of this vector with the entries whose feature ids pass the filter.
+   *
+   * @param filter
+   * @return
+   */
+  public SparseVector filter(IntPredicate filter) {
+    int[] newIds = new int[ids.length];
+    double[] newValues = new double[values.length];
+    int sz = 0;
+    for (int i = 0; i < ids.length; ++i) {
+      if (filter.test(ids[i])) {
+        newIds[sz] = ids[i];
+        newValues[sz++] = values[i];
+      }
+    }
+    return sz == ids.length ? this :
+      new SparseVector(Arrays.copyOf(newIds, sz), Arrays.copyOf(newValues, sz));
+  }
+
+  /**
+   * Convert a counter to a vector. Feature names that are not in the index are added.
+   *
+   * @param counter
+   * @return
+   */
+  public static SparseVector fromCounter(Counter<String> counter) {
+    Builder builder = new Builder(counter.size());
+    for (Map.Entry<String, Double> entry : counter.entrySet()) {
+      if (entry.getKey() == null) continue;
+      builder.add(FeatureIndex.indexOf(entry.getKey()), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Convert a collection of feature values to a vector.
+   *
+   * @param features
+   * @return
+   */
+  public static <FV> SparseVector fromFeatures(Collection<FeatureValue<FV>> features) {
+    Builder builder = new Builder(features.size());
+    builder.add(features, 1.0);
+    return builder.build();
+  }
+
+  /**
+   * Convert this vector to a counter over feature names.
+   *
+   * @return
+   */
+  public Counter<String> toCounter() {
+    Counter<String> counter = new ClassicCounter<>(ids.length);
+    for (int i = 0; i < ids.length; ++i) {
+      counter.setCount(FeatureIndex.get(ids[i]), values[i]);
+    }
+    return counter;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < ids.length; ++i) {
+      if (i > 0) sb.append(", ");
+      sb.append(FeatureIndex.get(ids[i])).append('=').append(values[i]);
+    }
+    return sb.append('}').toString();
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(ids) + Arrays.hashCode(values);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    } else if ( ! (o instanceof SparseVector)) {
+      return false;
+    } else {
+      SparseVector other = (SparseVector) o;
+      return Arrays.equals(ids, other.ids) && Arrays.equals(values, other.values);
+    }
+  }
+
+  /**
+   * Accumulates a sparse vector in an open addressing table keyed by feature id.
+   * Features that are added with a value of 0 are kept in the vector.
+   *
+   */
+  public static class Builder {
+    private static final int EMPTY_KEY = -1;
+    private static final double LOAD_FACTOR = 0.5;
+
+    private int[] keys;
+    private double[] values;
+    private int size = 0;
+
+    public Builder() {
+      this(16);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize
+     */
+    public Builder(int expectedSize) {
+      int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+      keys = new int[capacity];
+      values = new double[capacity];
+      Arrays.fill(keys, EMPTY_KEY);
+    }
+
+    /**
+     * Add a value to a feature.
+     *
+     * @param featureId
+     * @param value
+     * @return
+     */
+    public Builder add(int featureId, double value) {
+      if (featureId < 0) throw new IllegalArgumentException("Invalid feature id: " + featureId);
+      int i = slot(featureId);
+      if (keys[i] == EMPTY_KEY) {
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+          rehash();
+          i = slot(featureId);
+        }
+        keys[i] = featureId;
+        ++size;
+      }
+      values[i] += value;
+      return this;
+    }
+
+    /**
+     * Add a scaled vector.
+     *
+     * @param vector
+     * @param scale
+     * @return
+     */
+    public Builder add(SparseVector vector, double scale) {
+      for (int i = 0; i < vector.ids.length; ++i) {
+        add(vector.ids[i], vector.values[i] * scale);
+      }
+      return this;
+    }
+
+    /**
+     * Add a scaled collection of feature values.
+     *
+     * @param features
+     * @param scale
+     * @return
+     */
+    public <FV> Builder add(Collection<FeatureValue<FV>> features, double scale) {
+      for (FeatureValue<FV> feature : features) {
+        add(FeatureIndex.indexOf(feature.name.toString()), feature.value * scale);
+      }
+      return this;
+    }
+
+    /**
+     * Number of features in the vector.
+     *
+     * @return
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Make the vector. The builder can still be used afterwards.
+     *
+     * @return
+     */
+    public SparseVector build() {
+      final int[] ids = new int[size];
+      for (int i = 0, j = 0; i < keys.length; ++i) {
+        if (keys[i] != EMPTY_KEY) ids[j++] = keys[i];
+      }
+      Arrays.sort(ids);
+      final double[] vectorValues = new double[size];
+      for (int j = 0; j < size; ++j) {
+        vectorValues[j] = values[slot(ids[j])];
+      }
+      return new SparseVector(ids, vectorValues);
+    }
+
+    private int slot(int featureId) {
+      final int mask = keys.length - 1;
+      int i = (featureId * 0x9E3779B9) & mask;
+      while (keys[i] != EMPTY_KEY && keys[i] != featureId) {
+        i = (i + 1) & mask;
+      }
+      return i;
+    }
+
+    private void rehash() {
+      final int[] oldKeys = keys;
+      final double[] oldValues = values;
+      keys = new int[oldKeys.length * 2];
+      values = new double[oldKeys.length * 2];
+      Arrays.fill(keys, EMPTY_KEY);
+      for (int i = 0; i < oldKeys.length; ++i) {
+        if (oldKeys[i] != EMPTY_KEY) {
+          final int j = slot(oldKeys[i]);
+          keys[j] = oldKeys[i];
+          values[j] = oldValues[i];
+        }
+      }
+    }
+  }
+}
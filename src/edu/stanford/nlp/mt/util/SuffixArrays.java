@@ -0,0 +1,162 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.Arrays;
+
+/**
+ * Linear-time suffix array construction by induced sorting (SA-IS).
+ *
+ * See: G. Nong, S. Zhang, and W. H. Chan. 2009. Linear suffix array construction by
+ * almost pure induced-sorting. In DCC.
+ *
+ * The input is an integer-coded string over the alphabet [0,upper]. The end of the
+ * string is treated as a virtual sentinel that is smaller than every symbol.
+ *
+ */
+public final class SuffixArrays {
+
+  // Below this length, comparison sorting is faster.
+  private static final int THRESHOLD_NAIVE = 10;
+
+  private SuffixArrays() {}
+
+  /**
+   * Build the suffix array of s.
+   *
+   * @param s Symbols in the range [0,upper]
+   * @param upper The maximum symbol value
+   * @return
+   */
+  public static int[] sais(final int[] s, final int upper) {
+    final int n = s.length;
+    if (n == 0) return new int[0];
+    if (n == 1) return new int[] { 0 };
+    if (n == 2) return s[0] < s[1] ? new int[] { 0, 1 } : new int[] { 1, 0 };
+    if (n < THRESHOLD_NAIVE) return naive(s);
+
+    // S-type (true) and L-type (false) suffixes
+    final boolean[] ls = new boolean[n];
+    for (int i = n - 2; i >= 0; i--) {
+      ls[i] = (s[i] == s[i + 1]) ? ls[i + 1] : (s[i] < s[i + 1]);
+    }
+
+    // Bucket boundaries
+    final int[] sumL = new int[upper + 2];
+    final int[] sumS = new int[upper + 2];
+    for (int i = 0; i < n; i++) {
+      if ( ! ls[i]) {
+        sumS[s[i]]++;
+      } else {
+        sumL[s[i] + 1]++;
+      }
+    }
+    for (int i = 0; i <= upper; i++) {
+      sumS[i] += sumL[i];
+      if (i < upper) sumL[i + 1] += sumS[i];
+    }
+
+    // Leftmost S-type positions
+    final int[] lmsMap = new int[n + 1];
+    Arrays.fill(lmsMap, -1);
+    int m = 0;
+    for (int i = 1; i < n; i++) {
+      if ( ! ls[i - 1] && ls[i]) lmsMap[i] = m++;
+    }
+    final int[] lms = new int[m];
+    for (int i = 1, j = 0; i < n; i++) {
+      if ( ! ls[i - 1] && ls[i]) lms[j++] = i;
+    }
+
+    final int[] sa = new int[n];
+    final int[] buf = new int[upper + 2];
+    induce(s, upper, ls, sumL, sumS, lms, sa, buf);
+
+    if (m > 0) {
+      // Name the sorted LMS substrings and recurse on the reduced string
+      final int[] sortedLms = new int[m];
+      for (int i = 0, j = 0; i < n; i++) {
+        int v = sa[i];
+        if (lmsMap[v] != -1) sortedLms[j++] = v;
+      }
+      final int[] recS = new int[m];
+      int recUpper = 0;
+      recS[lmsMap[sortedLms[0]]] = 0;
+      for (int i = 1; i < m; i++) {
+        int l = sortedLms[i - 1], r = sortedLms[i];
+        int endL = (lmsMap[l] + 1 < m) ? lms[lmsMap[l] + 1] : n;
+        int endR = (lmsMap[r] + 1 < m) ? lms[lmsMap[r] + 1] : n;
+        boolean same = true;
+        if (endL - l != endR - r) {
+          same = false;
+        } else {
+          while (l < endL) {
+            if (s[l] != s[r]) break;
+            l++;
+            r++;
+          }
+          if (l == n || s[l] != s[r]) same = false;
+        }
+        if ( ! same) recUpper++;
+        recS[lmsMap[sortedLms[i]]] = recUpper;
+      }
+
+      final int[] recSa = sais(recS, recUpper);
+      for (int i = 0; i < m; i++) {
+        sortedLms[i] = lms[recSa[i]];
+      }
+      induce(s, upper, ls, sumL, sumS, sortedLms, sa, buf);
+    }
+    return sa;
+  }
+
+  /**
+   * Induce the order of L-type and S-type suffixes from the LMS suffixes.
+   */
+  private static void induce(int[] s, int upper, boolean[] ls, int[] sumL, int[] sumS,
+      int[] lms, int[] sa, int[] buf) {
+    final int n = s.length;
+    Arrays.fill(sa, -1);
+    System.arraycopy(sumS, 0, buf, 0, upper + 1);
+    for (int d : lms) {
+      if (d == n) continue;
+      sa[buf[s[d]]++] = d;
+    }
+    System.arraycopy(sumL, 0, buf, 0, upper + 1);
+    sa[buf[s[n - 1]]++] = n - 1;
+    for (int i = 0; i < n; i++) {
+      int v = sa[i];
+      if (v >= 1 && ! ls[v - 1]) {
+        sa[buf[s[v - 1]]++] = v - 1;
+      }
+    }
+    System.arraycopy(sumL, 0, buf, 0, upper + 1);
+    for (int i = n - 1; i >= 0; i--) {
+      int v = sa[i];
+      if (v >= 1 && ls[v - 1]) {
+        sa[--buf[s[v - 1] + 1]] = v - 1;
+      }
+    }
+  }
+
+  /**
+   * Comparison sort for short strings.
+   *
+   * @param s
+   * @return
+   */
+  private static int[] naive(final int[] s) {
+    final int n = s.length;
+    Integer[] sa = new Integer[n];
+    for (int i = 0; i < n; ++i) sa[i] = i;
+    Arrays.sort(sa, (x, y) -> {
+      if (x.intValue() == y.intValue()) return 0;
+      int l = x, r = y;
+      while (l < n && r < n) {
+        if (s[l] != s[r]) return s[l] < s[r] ? -1 : 1;
+        l++;
+        r++;
+      }
+      return l == n ? -1 : 1;
+    });
+    return Arrays.stream(sa).mapToInt(i -> i).toArray();
+  }
+}
@@ -0,0 +1,123 @@
+package edu.stanford.nlp.mt.decoder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.Inferer.NbestMode;
+import edu.stanford.nlp.mt.decoder.util.OutputSpace;
+import edu.stanford.nlp.mt.decoder.util.OutputSpaceFactory;
+import edu.stanford.nlp.mt.tm.TranslationModel;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit tests for n-best extraction.
+ *
+ */
+public class AbstractBeamInfererTest {
+
+  private static final String INPUT = "不 , 就 是 多少 事 , 全 有 了 。";
+
+  private static Phrasal phrasal;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("LM", 0.5);
+    weights.setCount("TM:FPT.0", 0.2);
+    weights.setCount("TM:FPT.2", 0.2);
+    weights.setCount("TM:FPT.4", -0.3);
+    weights.setCount("WordPenalty", -0.2);
+    weights.setCount("LinearDistortion", -0.1);
+    File weightsFile = File.createTempFile("weights", ".bin");
+    weightsFile.deleteOnExit();
+    IOTools.writeWeights(weightsFile.getPath(), weights);
+
+    Map<String,List<String>> config = new HashMap<>();
+    config.put(Phrasal.TRANSLATION_TABLE_OPT, Arrays.asList("test-resources/inputs/dev12tune.phrase-table.gz"));
+    config.put(Phrasal.LANGUAGE_MODEL_OPT, Arrays.asList("test-resources/inputs/mt06.flt_giga.lm.gz"));
+    config.put(Phrasal.WEIGHTS_FILE, Arrays.asList(weightsFile.getPath()));
+    config.put(Phrasal.OPTION_LIMIT_OPT, Arrays.asList("20"));
+    config.put(Phrasal.DISTORTION_LIMIT, Arrays.asList("5"));
+    config.put(Phrasal.BEAM_SIZE, Arrays.asList("200"));
+    phrasal = Phrasal.loadDecoder(config);
+  }
+
+  private static InputProperties inputProperties() {
+    InputProperties inputProperties = new InputProperties();
+    inputProperties.put(InputProperty.RuleQueryLimit, 20);
+    return inputProperties;
+  }
+
+  private static OutputSpace<IString,String> outputSpace() {
+    TranslationModel<IString,String> tm = phrasal.getTranslationModel();
+    return OutputSpaceFactory.getOutputSpace(0, null, false, tm.maxLengthSource(),
+        tm.maxLengthTarget(), false, false);
+  }
+
+  private static List<String> extract(boolean distinct, int size) {
+    Iterator<RichTranslation<IString,String>> iterator = phrasal.getInferer(0).nbestIterator(
+        IStrings.tokenize(INPUT), 0, inputProperties(), outputSpace(), null, distinct);
+    List<String> translations = new ArrayList<>(size);
+    while (translations.size() < size && iterator.hasNext()) {
+      RichTranslation<IString,String> translation = iterator.next();
+      translations.add(translation.translation + " ||| " + translation.score);
+    }
+    return translations;
+  }
+
+  @Test
+  public void testEarlyTermination() {
+    Sequence<IString> source = IStrings.tokenize(INPUT);
+    List<RichTranslation<IString,String>> nbest = phrasal.getInferer(0).nbest(source, 0,
+        inputProperties(), outputSpace(), null, 100, false, NbestMode.Standard);
+    assertEquals(100, nbest.size());
+    List<String> all = extract(false, 100);
+    Set<String> expected = new HashSet<>();
+    for (RichTranslation<IString,String> translation : nbest) {
+      expected.add(translation.translation + " ||| " + translation.score);
+    }
+    assertEquals(expected, new HashSet<>(all));
+
+    // Stopping early gives a prefix of the longer list
+    List<String> first = extract(false, 3);
+    assertEquals(all.subList(0, 3), first);
+  }
+
+  @Test
+  public void testDistinct() {
+    // The distinct list keeps the first path for each target
+    List<String> all = extract(false, 2000);
+    List<String> expected = new ArrayList<>();
+    Set<String> targets = new HashSet<>();
+    for (String translation : all) {
+      if (targets.add(translation.substring(0, translation.indexOf(" ||| ")))) expected.add(translation);
+    }
+    final int size = 200;
+    assertTrue(expected.size() > size);
+    // Some targets repeat among the first paths
+    assertTrue(all.indexOf(expected.get(size - 1)) > size - 1);
+    assertEquals(expected.subList(0, size), extract(true, size));
+  }
+}
@@ -0,0 +1,231 @@
+package edu.stanford.nlp.mt.decoder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.feat.sparse.RuleIndicator;
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Compares parallel cube pruning to sequential cube pruning.
+ *
+ */
+public class CubePruningDecoderTest {
+
+  private static final String[] INPUTS = {
+    "就 是 不 知道 , 的 事 必须 做到 。",
+    "社会 的 法律 是 为了 权力 ?",
+    "不 , 就 是 多少 事 , 全 有 了 。",
+    "和 使 社会 的 事 行 不 行 ?",
+  };
+
+  private static final int NBEST_SIZE = 50;
+
+  private static String weightsFile;
+  // Only the length and distortion are weighted, so many derivations tie
+  private static String tiedWeightsFile;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("WordPenalty", -0.2);
+    weights.setCount("LinearDistortion", -0.1);
+    tiedWeightsFile = writeWeights(weights);
+    weights.setCount("LM", 0.5);
+    weights.setCount("TM:FPT.0", 0.2);
+    weights.setCount("TM:FPT.1", 0.1);
+    weights.setCount("TM:FPT.2", 0.2);
+    weights.setCount("TM:FPT.3", 0.1);
+    weights.setCount("TM:FPT.4", -0.3);
+    weights.setCount("TM:FPT.5", 0.05);
+    weights.setCount("TM:FPT.6", 0.1);
+    weightsFile = writeWeights(weights);
+  }
+
+  private static String writeWeights(Counter<String> weights) throws IOException {
+    File file = File.createTempFile("weights", ".bin");
+    file.deleteOnExit();
+    IOTools.writeWeights(file.getPath(), weights);
+    return file.getPath();
+  }
+
+  /**
+   * Load a decoder with the given options, which are pairs of option names and values.
+   */
+  private static Phrasal load(String weightsFile, String... options) {
+    Map<String,List<String>> config = new HashMap<>();
+    config.put(Phrasal.TRANSLATION_TABLE_OPT, Arrays.asList("test-resources/inputs/dev12tune.phrase-table.gz"));
+    config.put(Phrasal.LANGUAGE_MODEL_OPT, Arrays.asList("test-resources/inputs/mt06.flt_giga.lm.gz"));
+    config.put(Phrasal.WEIGHTS_FILE, Arrays.asList(weightsFile));
+    config.put(Phrasal.OPTION_LIMIT_OPT, Arrays.asList("20"));
+    config.put(Phrasal.DISTORTION_LIMIT, Arrays.asList("5"));
+    config.put(Phrasal.BEAM_SIZE, Arrays.asList("200"));
+    for (int i = 0; i < options.length; i += 2) config.put(options[i], Arrays.asList(options[i + 1]));
+    return Phrasal.loadDecoder(config);
+  }
+
+  /**
+   * Decode the inputs twice with the given options, and return the n-best lists formatted
+   * as lines of the n-best list file.
+   */
+  private static List<String> decode(String weightsFile, String... options) {
+    return decode(load(weightsFile, options));
+  }
+
+  /**
+   * Decode the inputs twice on the first decoding thread, and return the n-best lists
+   * formatted as lines of the n-best list file.
+   */
+  private static List<String> decode(Phrasal phrasal) {
+    List<String> output = new ArrayList<>();
+    // Decode twice, so that the worker featurizers are reused for a later sentence
+    for (int pass = 0; pass < 2; ++pass) {
+      for (int i = 0; i < INPUTS.length; ++i) {
+        for (RichTranslation<IString,String> translation : phrasal.decode(IStrings.tokenize(INPUTS[i]),
+            i, 0, NBEST_SIZE, null, new InputProperties())) {
+          StringBuilder sb = new StringBuilder();
+          sb.append(i).append(" ||| ").append(translation.translation);
+          sb.append(" ||| ").append(Double.toString(translation.score)).append(" |||");
+          for (FeatureValue<String> feature : translation.features) {
+            sb.append(' ').append(feature.name).append('=').append(Double.toString(feature.value));
+          }
+          sb.append(" ||| ").append(translation.alignmentString());
+          sb.append(" ||| ").append(translation.historyString());
+          output.add(sb.toString());
+        }
+      }
+    }
+    return output;
+  }
+
+  @Test
+  public void testParallelSearch() {
+    List<String> sequential = decode(weightsFile);
+    assertEquals(2 * INPUTS.length * NBEST_SIZE, sequential.size());
+    assertEquals(sequential, decode(weightsFile, Phrasal.SEARCH_THREADS, "4"));
+  }
+
+  @Test
+  public void testParallelSearchWithTies() {
+    List<String> sequential = decode(tiedWeightsFile);
+    assertEquals(2 * INPUTS.length * NBEST_SIZE, sequential.size());
+    assertEquals(sequential, decode(tiedWeightsFile, Phrasal.SEARCH_THREADS, "4"));
+  }
+
+  @Test
+  public void testParallelSearchWithSparseFeatures() throws IOException {
+    // Index the rule indicator features after the initial size of the scorer's weight
+    // table, and weight all of them
+    for (int i = 0; i < 1024; ++i) FeatureIndex.indexOf("CubePruningDecoderTest:unweighted" + i);
+    final String ruleIndicator = RuleIndicator.class.getName() + "()";
+    decode(weightsFile, Phrasal.ADDITIONAL_FEATURIZERS, ruleIndicator);
+    Counter<String> weights = IOTools.readWeights(weightsFile);
+    int maxWeightedId = -1;
+    for (int id = 0, size = FeatureIndex.size(); id < size; ++id) {
+      String name = FeatureIndex.get(id);
+      if (name.startsWith("DPT:")) {
+        weights.setCount(name, ((name.hashCode() & 0xff) - 128) / 1000.0);
+        maxWeightedId = id;
+      }
+    }
+    assertTrue(maxWeightedId > 1024);
+    String sparseWeightsFile = writeWeights(weights);
+    List<String> sequential = decode(sparseWeightsFile, Phrasal.ADDITIONAL_FEATURIZERS, ruleIndicator);
+    assertEquals(2 * INPUTS.length * NBEST_SIZE, sequential.size());
+    assertEquals(sequential, decode(sparseWeightsFile, Phrasal.ADDITIONAL_FEATURIZERS, ruleIndicator, 
+        Phrasal.SEARCH_THREADS, "4"));
+  }
+
+  @Test
+  public void testLazyFeaturization() {
+    // A small search space, so the beams never fill up and both searches pop every item
+    String[] options = { Phrasal.OPTION_LIMIT_OPT, "3", Phrasal.DISTORTION_LIMIT, "2", 
+        Phrasal.BEAM_SIZE, "100000" };
+    List<String> eager = decode(weightsFile, options);
+    assertEquals(2 * INPUTS.length * NBEST_SIZE, eager.size());
+    List<String> lazyOptions = new ArrayList<>(Arrays.asList(options));
+    lazyOptions.addAll(Arrays.asList(Phrasal.LAZY_FEATURIZATION, "true"));
+    assertEquals(eager, decode(weightsFile, lazyOptions.toArray(new String[0])));
+  }
+
+  @Test
+  public void testPopLimit() {
+    List<String> unlimited = decode(weightsFile, Phrasal.LAZY_FEATURIZATION, "true");
+    assertEquals(2 * INPUTS.length * NBEST_SIZE, unlimited.size());
+    // A few pops per beam leave few derivations to extract
+    List<String> limited = decode(weightsFile, Phrasal.LAZY_FEATURIZATION, "true", Phrasal.POP_LIMIT, "4");
+    assertFalse(limited.isEmpty());
+    assertTrue(limited.size() < unlimited.size());
+  }
+
+  @Test
+  public void testLazyFeaturizationWithFullBeams() {
+    // Every beam fills up, so the lazy search pops only part of the search space
+    Phrasal phrasal = load(weightsFile, Phrasal.BEAM_SIZE, "10");
+    double[] eager = oneBestScores(decode(phrasal));
+    assertEquals(0, searchDecoder(phrasal).getPopLimitHits());
+
+    // The lazy search generates successors when an item is first popped, so it
+    // explores a different part of the search space and can find a better 1-best.
+    phrasal = load(weightsFile, Phrasal.BEAM_SIZE, "10", Phrasal.LAZY_FEATURIZATION, "true");
+    double[] lazy = oneBestScores(decode(phrasal));
+    assertFalse(Arrays.equals(eager, lazy));
+    assertEquals(0, searchDecoder(phrasal).getPopLimitHits());
+    // Estimated scores are inexact, so lazy items enter the beams out of order
+    assertTrue(searchDecoder(phrasal).getSearchErrors() > 0);
+
+    // One pop per beam is a greedy search. The pop limit cuts every beam that
+    // could hold more than one derivation, and no beam can have a search error.
+    phrasal = load(weightsFile, Phrasal.BEAM_SIZE, "10", Phrasal.LAZY_FEATURIZATION, "true", 
+        Phrasal.POP_LIMIT, "1");
+    double[] greedy = oneBestScores(decode(phrasal));
+    assertTrue(searchDecoder(phrasal).getPopLimitHits() > 0);
+    assertEquals(0, searchDecoder(phrasal).getSearchErrors());
+    for (int i = 0; i < INPUTS.length; ++i) {
+      assertTrue(greedy[i] + " > " + eager[i], greedy[i] <= eager[i] + 1e-9);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static CubePruningDecoder<IString,String> searchDecoder(Phrasal phrasal) {
+    return (CubePruningDecoder<IString,String>) phrasal.getInferer(0);
+  }
+
+  /**
+   * The score of the first entry of each n-best list, or negative infinity if the
+   * decoder failed on the input.
+   */
+  private static double[] oneBestScores(List<String> nbestLists) {
+    double[] scores = new double[INPUTS.length];
+    Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+    boolean[] seen = new boolean[INPUTS.length];
+    for (String line : nbestLists) {
+      String[] fields = line.split(" \\|\\|\\| ");
+      int i = Integer.parseInt(fields[0]);
+      if ( ! seen[i]) {
+        scores[i] = Double.parseDouble(fields[2].trim());
+        seen[i] = true;
+      }
+    }
+    return scores;
+  }
+}
@@ -0,0 +1,44 @@
+package edu.stanford.nlp.mt.decoder.h;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.CoverageSet;
+
+/**
+ * Unit test for the span future cost table.
+ *
+ */
+public class SpanScoresTest {
+
+  @Test
+  public void testGapDeltaMatchesRescoring() {
+    Random random = new Random(11);
+    final int length = 20;
+    SpanScores scores = new SpanScores(length);
+    for (int i = 0; i < length; ++i) {
+      for (int j = i; j < length; ++j) {
+        scores.setScore(i, j, -random.nextInt(100));
+      }
+    }
+    for (int trial = 0; trial < 1000; ++trial) {
+      CoverageSet parent = new CoverageSet(length);
+      for (int i = 0; i < length; ++i) {
+        if (random.nextInt(3) == 0) parent.set(i);
+      }
+      // Possibly discontinuous rule that may overlap the parent coverage
+      CoverageSet rule = new CoverageSet(length);
+      int start = random.nextInt(length);
+      int end = Math.min(length, start + 1 + random.nextInt(5));
+      for (int i = start; i < end; ++i) {
+        if (i == start || random.nextBoolean()) rule.set(i);
+      }
+      CoverageSet coverage = parent.union(rule);
+      double expected = scores.gapScore(coverage, length) - scores.gapScore(parent, length);
+      assertEquals(expected, scores.gapDelta(parent, coverage, rule, length), 1e-9);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package edu.stanford.nlp.mt.decoder.recomb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHash.Status;
+import edu.stanford.nlp.mt.decoder.util.State;
+
+/**
+ * Unit test for the recombination hash.
+ *
+ */
+public class RecombinationHashTest {
+
+  private static class Hyp implements State<Hyp> {
+    final int key;
+    final double score;
+
+    Hyp(int key, double score) {
+      this.key = key;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(Hyp o) {
+      return Double.compare(o.score, score);
+    }
+
+    @Override
+    public double score() { return score; }
+
+    @Override
+    public double partialScore() { return score; }
+
+    @Override
+    public State<Hyp> parent() { return null; }
+
+    @Override
+    public int depth() { return 0; }
+  }
+
+  // Few signatures, so that many keys collide
+  private static class KeyFilter implements RecombinationFilter<Hyp> {
+    @Override
+    public boolean combinable(Hyp hypA, Hyp hypB) {
+      return hypA.key == hypB.key;
+    }
+
+    @Override
+    public long recombinationHashCode(Hyp hyp) {
+      return hyp.key % 7;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      return super.clone();
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    RecombinationHash<Hyp> hash = new RecombinationHash<>(new KeyFilter());
+    Hyp a = new Hyp(1, -1.0);
+    assertEquals(Status.NOVEL, hash.update(a));
+    assertEquals(Status.SELF, hash.update(a));
+    assertEquals(Status.NOVEL, hash.update(new Hyp(8, -1.0)));
+    Hyp worse = new Hyp(1, -2.0);
+    assertEquals(Status.COMBINABLE, hash.update(worse));
+    assertTrue(hash.getLastRedundant() == worse);
+    Hyp better = new Hyp(1, 0.0);
+    assertEquals(Status.BETTER, hash.update(better));
+    assertTrue(hash.getLastRedundant() == a);
+    assertTrue(hash.isBest(better));
+    assertFalse(hash.isBest(a));
+    assertEquals(2, hash.size());
+  }
+
+  @Test
+  public void testRemove() {
+    RecombinationHash<Hyp> hash = new RecombinationHash<>(new KeyFilter());
+    Random random = new Random(7);
+    List<Hyp> hyps = new ArrayList<>();
+    for (int i = 0; i < 5000; ++i) {
+      Hyp hyp = new Hyp(i, random.nextDouble());
+      hyps.add(hyp);
+      assertEquals(Status.NOVEL, hash.update(hyp));
+    }
+    Set<Hyp> removed = new HashSet<>();
+    for (int i = 0; i < 3000; ++i) {
+      Hyp hyp = hyps.get(random.nextInt(hyps.size()));
+      hash.remove(hyp, removed.contains(hyp));
+      removed.add(hyp);
+    }
+    assertEquals(hyps.size() - removed.size(), hash.size());
+    assertEquals(hash.size(), hash.derivations().size());
+    for (Hyp hyp : hyps) {
+      assertEquals( ! removed.contains(hyp), hash.isBest(hyp));
+    }
+  }
+}
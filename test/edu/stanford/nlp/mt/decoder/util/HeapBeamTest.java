@@ -0,0 +1,185 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
+import edu.stanford.nlp.mt.util.IString;
+
+/**
+ * Unit test for the heap beam.
+ *
+ */
+public class HeapBeamTest {
+
+  private static class Hyp implements State<Hyp> {
+    final int key;
+    final double score;
+
+    Hyp(int key, double score) {
+      this.key = key;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(Hyp o) {
+      int cmp = Double.compare(o.score, score);
+      return cmp == 0 ? Integer.compare(key, o.key) : cmp;
+    }
+
+    @Override
+    public double score() { return score; }
+
+    @Override
+    public double partialScore() { return score; }
+
+    @Override
+    public State<Hyp> parent() { return null; }
+
+    @Override
+    public int depth() { return 0; }
+  }
+
+  private static class KeyFilter implements RecombinationFilter<Hyp> {
+    @Override
+    public boolean combinable(Hyp hypA, Hyp hypB) {
+      return hypA.key == hypB.key;
+    }
+
+    @Override
+    public long recombinationHashCode(Hyp hyp) {
+      return hyp.key;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      return super.clone();
+    }
+  }
+
+  @Test
+  public void testHistogramPruning() {
+    final int capacity = 50;
+    Beam<Hyp> beam = new HeapBeam<>(capacity, new KeyFilter());
+    Random random = new Random(11);
+    List<Hyp> hyps = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      Hyp hyp = new Hyp(i, random.nextGaussian());
+      hyps.add(hyp);
+      beam.put(hyp);
+      assertEquals(Math.min(i + 1, capacity), beam.size());
+    }
+    Collections.sort(hyps);
+    Iterator<Hyp> iterator = beam.iterator();
+    for (int i = 0; i < capacity; ++i) {
+      assertTrue(hyps.get(i) == iterator.next());
+    }
+    assertFalse(iterator.hasNext());
+    assertEquals(hyps.get(0).score, beam.bestScore(), 0.0);
+    assertTrue(hyps.get(capacity - 1) == beam.removeWorst());
+    for (int i = 0; i < capacity - 1; ++i) {
+      assertTrue(hyps.get(i) == beam.remove());
+    }
+    assertNull(beam.remove());
+  }
+
+  @Test
+  public void testRecombination() {
+    Beam<Hyp> beam = new HeapBeam<>(10, new KeyFilter());
+    Hyp a = new Hyp(1, -2.0);
+    assertNull(beam.put(a));
+    Hyp worse = new Hyp(1, -3.0);
+    assertTrue(worse == beam.put(worse));
+    Hyp better = new Hyp(1, -1.0);
+    assertTrue(a == beam.put(better));
+    assertEquals(1, beam.size());
+    assertEquals(2, beam.recombined());
+    assertTrue(better == beam.remove());
+  }
+
+  @Test
+  public void testRecombinationInFullBeam() {
+    // Recombine random keys while the heap is full and reordering
+    final int capacity = 20;
+    Beam<Hyp> beam = new HeapBeam<>(capacity, new KeyFilter());
+    Random random = new Random(7);
+    Hyp[] best = new Hyp[50];
+    for (int i = 0; i < 5000; ++i) {
+      Hyp hyp = new Hyp(random.nextInt(best.length), random.nextGaussian());
+      beam.put(hyp);
+      if (best[hyp.key] == null || hyp.compareTo(best[hyp.key]) < 0) best[hyp.key] = hyp;
+    }
+    List<Hyp> expected = new ArrayList<>();
+    for (Hyp hyp : best) if (hyp != null) expected.add(hyp);
+    Collections.sort(expected);
+    // Pruned keys may come back, so only the best hypothesis is certain
+    assertEquals(capacity, beam.size());
+    assertTrue(expected.get(0) == beam.remove());
+    Set<Integer> keys = new HashSet<>();
+    keys.add(expected.get(0).key);
+    Hyp previous = expected.get(0);
+    while (beam.size() > 0) {
+      Hyp hyp = beam.remove();
+      assertTrue("Recombined hypothesis left in the beam", keys.add(hyp.key));
+      assertTrue(previous.compareTo(hyp) < 0);
+      assertTrue(hyp.compareTo(best[hyp.key]) >= 0);
+      previous = hyp;
+    }
+  }
+
+  @Test
+  public void testThresholdPruning() {
+    HeapBeam<Hyp> beam = new HeapBeam<>(10, 1.0, new KeyFilter(), null);
+    beam.put(new Hyp(1, -2.0));
+    beam.put(new Hyp(2, -2.5));
+    assertEquals(2, beam.size());
+    assertFalse(beam.admits(-3.5));
+    Hyp best = new Hyp(3, -1.2);
+    beam.put(best);
+    assertEquals(2, beam.size());
+    assertTrue(best == beam.remove());
+  }
+
+  @Test
+  public void testAdmitsIsOnlyAnEstimate() {
+    // A full beam rejects the score estimate of an antecedent, but the successor scores
+    // better than its antecedent's estimate, as it can when the heuristic is not admissible.
+    // Early pruning would drop a successor that put() admits.
+    HeapBeam<Hyp> beam = new HeapBeam<>(2, new KeyFilter());
+    beam.put(new Hyp(1, -1.0));
+    beam.put(new Hyp(2, -2.0));
+    final double antecedentEstimate = -2.5;
+    assertFalse(beam.admits(antecedentEstimate));
+    Hyp successor = new Hyp(3, -1.5);
+    assertNotNull(beam.put(successor));
+    assertEquals(2, beam.size());
+    Iterator<Hyp> iterator = beam.iterator();
+    iterator.next();
+    assertTrue(successor == iterator.next());
+  }
+
+  @Test
+  public void testBeamFactoryThreshold() {
+    Beam<Derivation<IString,String>> beam = BeamFactory.factory(BeamFactory.BeamType.heapbeam, 
+        null, 10, null, 1.0);
+    assertTrue(beam instanceof HeapBeam);
+    assertTrue(beam.admits(0.0));
+    beam = BeamFactory.factory(BeamFactory.BeamType.heapbeam, null, 10, null);
+    assertTrue(beam instanceof HeapBeam);
+    try {
+      BeamFactory.factory(BeamFactory.BeamType.treebeam, null, 10, null, 1.0);
+      fail("Threshold accepted by a tree beam");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.feat.FeatureBuffer;
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Test case.
+ *
+ */
+public class ScorerTest {
+
+  private static Counter<String> weights() {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("LM", 0.5);
+    weights.setCount("TM:FPT.0", 0.2);
+    weights.setCount("WordPenalty", -0.3);
+    return weights;
+  }
+
+  private static List<FeatureValue<String>> features() {
+    List<FeatureValue<String>> features = new ArrayList<>();
+    features.add(new FeatureValue<>("LM", -12.5));
+    features.add(new FeatureValue<>("WordPenalty", -3.0));
+    features.add(new FeatureValue<>("ScorerTest:unweighted", 7.0));
+    features.add(new FeatureValue<>("TM:FPT.0", -1.25));
+    return features;
+  }
+
+  private static void assertSameScore(Scorer<String> scorer) {
+    FeatureBuffer buffer = new FeatureBuffer(1);
+    buffer.addAll(features());
+    assertEquals(4, buffer.size());
+    assertEquals(scorer.getIncrementalScore(features()),
+        scorer.getIncrementalScore(buffer.featureIds(), buffer.featureValues(), buffer.size()), 0.0);
+  }
+
+  @Test
+  public void testDenseScorer() {
+    assertSameScore(new DenseScorer(weights()));
+  }
+
+  @Test
+  public void testSparseScorer() {
+    SparseScorer scorer = new SparseScorer(weights());
+    assertSameScore(scorer);
+    Counter<String> weights = weights();
+    weights.setCount("ScorerTest:unweighted", 1.0);
+    scorer.updateWeights(weights);
+    assertSameScore(scorer);
+  }
+
+  @Test
+  public void testUpdateDoesNotIndexWeights() {
+    SparseScorer scorer = new SparseScorer(weights());
+    assertSameScore(scorer);
+    final int indexSize = FeatureIndex.size();
+    Counter<String> weights = weights();
+    for (int i = 0; i < 100; ++i) weights.setCount("ScorerTest:sparse" + i, 1.0);
+    scorer.updateWeights(weights);
+    assertEquals(indexSize, FeatureIndex.size());
+    weights.setCount("LM", 2.0);
+    scorer.updateWeights(weights);
+    assertSameScore(scorer);
+  }
+
+  @Test
+  public void testConcurrentScoring() throws Exception {
+    // Enough sparse features to grow the weight tables past their initial size
+    final int numFeatures = 5000;
+    Counter<String> weights = weights();
+    List<FeatureValue<String>> features = new ArrayList<>();
+    for (int i = 0; i < numFeatures; ++i) {
+      String name = "ScorerTest:concurrent" + i;
+      weights.setCount(name, (i % 7) - 3.0);
+      features.add(new FeatureValue<>(name, 1.0 + (i % 3)));
+    }
+    FeatureBuffer buffer = new FeatureBuffer(numFeatures);
+    buffer.addAll(features);
+    assertTrue(FeatureIndex.size() > 1024);
+    final int[] featureIds = buffer.toFeatureIds();
+    final double[] featureValues = buffer.toFeatureValues();
+
+    List<Scorer<String>> scorers = new ArrayList<>();
+    scorers.add(new SparseScorer(weights));
+    scorers.add(new DenseScorer(weights));
+    ExecutorService threadPool = Executors.newFixedThreadPool(8);
+    try {
+      for (Scorer<String> scorer : scorers) {
+        final double expected = scorer.getIncrementalScore(features);
+        for (int epoch = 0; epoch < 10; ++epoch) {
+          scorer.updateWeights(weights);
+          // Each thread scores a different prefix, so the threads resolve different ids
+          List<Future<Boolean>> results = new ArrayList<>();
+          for (int t = 0; t < 8; ++t) {
+            final int size = numFeatures - 600 * t;
+            final double expectedPrefix = scorer.getIncrementalScore(features.subList(0, size));
+            results.add(threadPool.submit(() -> 
+              scorer.getIncrementalScore(featureIds, featureValues, size) == expectedPrefix
+                && scorer.getIncrementalScore(featureIds, featureValues, numFeatures) == expected));
+          }
+          for (Future<Boolean> result : results) assertTrue(result.get());
+        }
+      }
+    } finally {
+      threadPool.shutdown();
+    }
+  }
+
+  @Test
+  public void testUniformScorer() {
+    assertSameScore(new UniformScorer<String>());
+  }
+}
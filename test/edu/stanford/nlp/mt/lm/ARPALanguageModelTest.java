@@ -1,6 +1,8 @@
 package edu.stanford.nlp.mt.lm;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -44,4 +46,31 @@ public class ARPALanguageModelTest {
     double score = lm.score(paddedSequence, 1, null).getScore();
     assertTrue(NumericalPrecision.equals(score, -72.46472558379173, 1e-6));
   }
+
+  @Test
+  public void testScoreBatch() throws IOException {
+    ARPALanguageModel gigaLm = (ARPALanguageModel) LanguageModelFactory
+        .load("test-resources/inputs/mt06.flt_giga.lm.gz");
+    String sent = "the president said that the united states will not accept xyzzy";
+    Sequence<IString> paddedSequence = Sequences.wrapStartEnd(IStrings.tokenize(sent.toLowerCase()), 
+        gigaLm.getStartToken(), gigaLm.getEndToken());
+    
+    // Extend each prefix of the sentence by the rest of the sentence
+    List<Sequence<IString>> sequences = new ArrayList<>();
+    int[] startIndices = new int[paddedSequence.size() - 1];
+    LMState[] priorStates = new LMState[paddedSequence.size() - 1];
+    sequences.add(paddedSequence);
+    startIndices[0] = 1;
+    for (int i = 2; i < paddedSequence.size(); ++i) {
+      priorStates[i - 1] = gigaLm.score(paddedSequence.subsequence(0, i), 1, null);
+      sequences.add(paddedSequence.subsequence(i, paddedSequence.size()));
+    }
+    LMState[] states = gigaLm.scoreBatch(sequences, startIndices, priorStates);
+    assertEquals(sequences.size(), states.length);
+    for (int i = 0; i < states.length; ++i) {
+      LMState expected = gigaLm.score(sequences.get(i), startIndices[i], priorStates[i]);
+      assertEquals(expected.getScore(), states[i].getScore(), 0.0);
+      assertEquals(expected, states[i]);
+    }
+  }
 }
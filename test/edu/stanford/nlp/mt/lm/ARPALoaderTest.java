@@ -0,0 +1,67 @@
+package edu.stanford.nlp.mt.lm;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the ARPA loader's number parser.
+ *
+ */
+public class ARPALoaderTest {
+
+  private static void assertParsesLike(String number) {
+    byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+    assertEquals(number, Float.floatToIntBits(Float.parseFloat(number)),
+        Float.floatToIntBits(ARPALoader.parseFloat(bytes, 0, bytes.length)));
+  }
+
+  @Test
+  public void testRandomDecimals() {
+    Random random = new Random(7);
+    for (int i = 0; i < 1000000; ++i) {
+      int numDigits = 1 + random.nextInt(15);
+      StringBuilder sb = new StringBuilder();
+      if (random.nextBoolean()) sb.append('-');
+      int fractionDigits = random.nextInt(numDigits + 1);
+      if (fractionDigits == numDigits) sb.append('0');
+      for (int j = 0; j < numDigits; ++j) {
+        if (j == numDigits - fractionDigits) sb.append('.');
+        sb.append((char) ('0' + random.nextInt(10)));
+      }
+      assertParsesLike(sb.toString());
+    }
+  }
+
+  @Test
+  public void testNearFloatMidpoints() {
+    // Decimals closest to the midpoint between two floats. Rounding these to double first
+    // and then to float can differ from rounding directly to float.
+    Random random = new Random(11);
+    MathContext context = new MathContext(15);
+    for (int i = 0; i < 200000; ++i) {
+      float f = random.nextFloat() * (random.nextBoolean() ? 100.0f : 1.0f);
+      if (f == 0.0f) continue;
+      double midpoint = ((double) f + (double) Math.nextUp(f)) / 2.0;
+      String number = new BigDecimal(midpoint).round(context).toPlainString();
+      assertParsesLike(number);
+      assertParsesLike("-" + number);
+    }
+  }
+
+  @Test
+  public void testSpecialForms() {
+    assertParsesLike("0");
+    assertParsesLike("-0.0");
+    assertParsesLike("-1.5e-3");
+    assertParsesLike("-99");
+    assertParsesLike("0.1234567890123456789");
+    byte[] inf = "-inf".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(Float.NEGATIVE_INFINITY, ARPALoader.parseFloat(inf, 0, inf.length), 0.0f);
+  }
+}
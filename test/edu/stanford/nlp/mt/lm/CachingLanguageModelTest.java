@@ -0,0 +1,95 @@
+package edu.stanford.nlp.mt.lm;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+
+/**
+ * Unit tests for the language model query cache.
+ *
+ */
+public class CachingLanguageModelTest {
+
+  private static final String ARPA_FILE = "test-resources/inputs/mt06.flt_giga.lm.gz";
+
+  private static LanguageModel<IString> lm;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    lm = LanguageModelFactory.load(ARPA_FILE);
+  }
+
+  private static Sequence<IString> sentence() {
+    return Sequences.wrapStartEnd(IStrings.tokenize("the president said that the united states will not accept"),
+        lm.getStartToken(), lm.getEndToken());
+  }
+
+  @Test
+  public void testExactScores() {
+    CachingLanguageModel<IString> cached = new CachingLanguageModel<>(lm, 4096);
+    Sequence<IString> seq = sentence();
+    for (int pass = 0; pass < 2; ++pass) {
+      LMState state = null, cachedState = null;
+      for (int i = 0; i < seq.size(); ++i) {
+        Sequence<IString> phrase = seq.subsequence(i, i + 1);
+        int startIndex = i == 0 ? 1 : 0;
+        state = lm.score(phrase, startIndex, state);
+        cachedState = cached.score(phrase, startIndex, cachedState);
+        assertEquals(state.getScore(), cachedState.getScore(), 0.0);
+        assertEquals(state, cachedState);
+      }
+    }
+    // The second pass is mostly answered by the cache
+    assertTrue(cached.hitRate() > 0.4);
+  }
+
+  @Test
+  public void testScoreBatch() {
+    CachingLanguageModel<IString> cached = new CachingLanguageModel<>(lm, 64);
+    Sequence<IString> seq = sentence();
+    List<Sequence<IString>> sequences = new ArrayList<>();
+    int[] startIndices = new int[seq.size() - 1];
+    LMState[] priorStates = new LMState[seq.size() - 1];
+    for (int i = 1; i < seq.size(); ++i) {
+      priorStates[i - 1] = lm.score(seq.subsequence(0, i), 1, null);
+      sequences.add(seq.subsequence(i, seq.size()));
+    }
+    // Prime half of the queries
+    for (int i = 0; i < sequences.size(); i += 2) {
+      cached.score(sequences.get(i), startIndices[i], priorStates[i]);
+    }
+    LMState[] states = cached.scoreBatch(sequences, startIndices, priorStates);
+    for (int i = 0; i < states.length; ++i) {
+      LMState expected = lm.score(sequences.get(i), startIndices[i], priorStates[i]);
+      assertEquals(expected.getScore(), states[i].getScore(), 0.0);
+      assertEquals(expected, states[i]);
+    }
+  }
+
+  @Test
+  public void testCapacityOne() {
+    CachingLanguageModel<IString> cached = new CachingLanguageModel<>(lm, 1);
+    Sequence<IString> seq = sentence();
+    for (int pass = 0; pass < 2; ++pass) {
+      LMState state = null, cachedState = null;
+      for (int i = 0; i < seq.size(); ++i) {
+        Sequence<IString> phrase = seq.subsequence(i, i + 1);
+        int startIndex = i == 0 ? 1 : 0;
+        state = lm.score(phrase, startIndex, state);
+        cachedState = cached.score(phrase, startIndex, cachedState);
+        assertEquals(state.getScore(), cachedState.getScore(), 0.0);
+        assertEquals(state, cachedState);
+      }
+    }
+  }
+}
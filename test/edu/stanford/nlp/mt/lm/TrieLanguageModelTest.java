@@ -0,0 +1,85 @@
+package edu.stanford.nlp.mt.lm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+
+/**
+ * Unit tests for the trie language model.
+ *
+ */
+public class TrieLanguageModelTest {
+
+  private static final String ARPA_FILE = "test-resources/inputs/mt06.flt_giga.lm.gz";
+
+  private static final String[] SENTENCES = {
+    "the president said that the united states will not accept",
+    "this is a test sentence to be scored by the language model",
+    "xyzzy foo the bar of china"
+  };
+
+  private static ARPALanguageModel arpa;
+  private static TrieLanguageModel trie;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    arpa = new ARPALanguageModel(ARPA_FILE);
+    trie = TrieLanguageModel.fromARPA(ARPA_FILE, TrieLanguageModel.NO_QUANTIZATION,
+        TrieLanguageModel.NO_QUANTIZATION);
+  }
+
+  private static double score(LanguageModel<IString> lm, String sentence) {
+    Sequence<IString> seq = Sequences.wrapStartEnd(IStrings.tokenize(sentence),
+        lm.getStartToken(), lm.getEndToken());
+    return lm.score(seq, 1, null).getScore();
+  }
+
+  @Test
+  public void testMatchesARPA() {
+    assertEquals(arpa.order(), trie.order());
+    for (String sentence : SENTENCES) {
+      assertEquals(score(arpa, sentence), score(trie, sentence), 1e-4);
+    }
+  }
+
+  @Test
+  public void testIncrementalScore() {
+    for (String sentence : SENTENCES) {
+      Sequence<IString> seq = Sequences.wrapStartEnd(IStrings.tokenize(sentence),
+          trie.getStartToken(), trie.getEndToken());
+      LMState state = trie.score(seq.subsequence(0, 2), 1, null);
+      double sum = state.getScore();
+      for (int i = 2; i < seq.size(); ++i) {
+        state = trie.score(seq.subsequence(i, i + 1), 0, state);
+        sum += state.getScore();
+      }
+      assertEquals(score(trie, sentence), sum, 1e-4);
+    }
+  }
+
+  @Test
+  public void testBinaryRoundTrip() throws IOException {
+    TrieLanguageModel quantized = TrieLanguageModel.fromARPA(ARPA_FILE,
+        TrieLanguageModel.DEFAULT_PROB_BITS, TrieLanguageModel.DEFAULT_BOW_BITS);
+    File file = File.createTempFile("trielm", ".bin");
+    file.deleteOnExit();
+    quantized.writeBinary(file.getPath());
+    assertTrue(TrieLanguageModel.isBinary(file.getPath()));
+    LanguageModel<IString> mapped = LanguageModelFactory.load(LanguageModelFactory.TRIE_LM_TAG + file.getPath());
+    for (String sentence : SENTENCES) {
+      double expected = score(quantized, sentence);
+      assertEquals(expected, score(mapped, sentence), 1e-9);
+      // Quantization error is small relative to the sentence score
+      assertEquals(score(arpa, sentence), expected, 0.01 * Math.abs(expected));
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit tests for the memory-mapped phrase table.
+ *
+ */
+public class MappedPhraseTableTest {
+
+  private static final String PHRASE_TABLE = "test-resources/inputs/dev12tune.phrase-table.gz";
+
+  private static final String[] SOURCES = {
+    "的",
+    ",",
+    "就 是",
+    ", 就",
+    ", 就 是",
+    "xyzzy",
+    "的 xyzzy"
+  };
+
+  private static CompiledPhraseTable<String> text;
+  private static MappedPhraseTable<String> mapped;
+  private static MappedPhraseTable<String> quantized;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    text = new CompiledPhraseTable<>(PHRASE_TABLE);
+    mapped = new MappedPhraseTable<>(compile(MappedPhraseTable.NO_QUANTIZATION));
+    quantized = new MappedPhraseTable<>(compile(MappedPhraseTable.DEFAULT_SCORE_BITS));
+  }
+
+  private static String compile(int scoreBits) throws IOException {
+    File file = File.createTempFile("phrasetable", ".bin");
+    file.deleteOnExit();
+    MappedPhraseTable.compile(PHRASE_TABLE, file.getPath(), scoreBits);
+    assertTrue(MappedPhraseTable.isBinary(file.getPath()));
+    return file.getPath();
+  }
+
+  @Test
+  public void testMatchesText() {
+    assertEquals(text.maxLengthSource(), mapped.maxLengthSource());
+    assertEquals(text.maxLengthTarget(), mapped.maxLengthTarget());
+    assertEquals(text.getFeatureNames(), mapped.getFeatureNames());
+    for (String source : SOURCES) {
+      Sequence<IString> sourceSequence = IStrings.tokenize(source);
+      List<Rule<IString>> expected = text.query(sourceSequence);
+      List<Rule<IString>> actual = mapped.query(sourceSequence);
+      if (expected == null) {
+        assertNull(actual);
+        continue;
+      }
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        Rule<IString> e = expected.get(i);
+        Rule<IString> a = actual.get(i);
+        assertEquals(e.target, a.target);
+        assertEquals(e.source, a.source);
+        assertArrayEquals(e.scores, a.scores, 0.0f);
+        assertEquals(String.valueOf(e.alignment), String.valueOf(a.alignment));
+        assertEquals(a.id, mapped.getId(sourceSequence, a.target));
+      }
+    }
+  }
+
+  @Test
+  public void testQuantizedScores() {
+    double error = 0.0;
+    int numScores = 0;
+    for (String source : SOURCES) {
+      Sequence<IString> sourceSequence = IStrings.tokenize(source);
+      List<Rule<IString>> expected = mapped.query(sourceSequence);
+      List<Rule<IString>> actual = quantized.query(sourceSequence);
+      if (expected == null) {
+        assertNull(actual);
+        continue;
+      }
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).target, actual.get(i).target);
+        float[] e = expected.get(i).scores;
+        float[] a = actual.get(i).scores;
+        for (int j = 0; j < e.length; ++j) {
+          error += Math.abs(e[j] - a[j]);
+          ++numScores;
+        }
+      }
+    }
+    // Quantization error is small on average
+    assertTrue(error / numScores < 0.1);
+  }
+
+  @Test
+  public void testChunkedCompile() throws IOException {
+    // Word lists in chunks of 4 words give the same file as the default chunks
+    File file = File.createTempFile("phrasetable", ".bin");
+    file.deleteOnExit();
+    MappedPhraseTable.compile(PHRASE_TABLE, file.getPath(), MappedPhraseTable.DEFAULT_SCORE_BITS, 2);
+    File expected = new File(compile(MappedPhraseTable.DEFAULT_SCORE_BITS));
+    assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(file.toPath()));
+  }
+}
@@ -0,0 +1,107 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the parallel phrase table loader.
+ *
+ */
+public class PhraseTableLoaderTest {
+
+  private static final int NUM_LINES = 50000;
+  private static final int LONG_LINE = 20000;
+  private static final int BAD_LINE = 40000;
+
+  private static List<String> lines;
+
+  @BeforeClass
+  public static void setUp() {
+    // Several blocks of short lines, with a line longer than a block in the middle
+    lines = new ArrayList<>(NUM_LINES);
+    for (int i = 1; i <= NUM_LINES; ++i) {
+      if (i == LONG_LINE) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 600000) sb.append("lange zeile ||| long line ||| ");
+        lines.add(sb.toString());
+      } else {
+        lines.add(String.format("quelle %d ||| source %d ||| 0.%d", i, i, i % 997));
+      }
+    }
+  }
+
+  /**
+   * Write the lines to a temporary file. Odd lines end with CRLF, and the last
+   * line does not have a newline.
+   */
+  private static String write(List<String> lines, boolean gzip) throws IOException {
+    File file = File.createTempFile("phrasetable", gzip ? ".gz" : ".txt");
+    file.deleteOnExit();
+    try (OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+      for (int i = 0; i < lines.size(); ++i) {
+        out.write(lines.get(i).getBytes(StandardCharsets.UTF_8));
+        if (i < lines.size() - 1) out.write(i % 2 == 0 ? "\r\n".getBytes(StandardCharsets.UTF_8) : "\n".getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return file.getPath();
+  }
+
+  private static void assertLoads(String filename, int numThreads) throws IOException {
+    final List<String> entries = new ArrayList<>();
+    PhraseTableLoader<String> loader = new PhraseTableLoader<>(filename, numThreads);
+    final int numLines = loader.load(line -> line, (entry, lineNumber) -> {
+      assertEquals(entries.size() + 1, lineNumber);
+      entries.add(entry);
+    });
+    assertEquals(lines.size(), numLines);
+    assertEquals(lines, entries);
+  }
+
+  @Test
+  public void testText() throws IOException {
+    String filename = write(lines, false);
+    assertLoads(filename, 1);
+    assertLoads(filename, 4);
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    String filename = write(lines, true);
+    assertLoads(filename, 1);
+    assertLoads(filename, 4);
+  }
+
+  @Test
+  public void testErrorLineNumber() throws IOException {
+    List<String> badLines = new ArrayList<>(lines);
+    badLines.set(BAD_LINE - 1, "bad");
+    String filename = write(badLines, false);
+    for (int numThreads : new int[] { 1, 4 }) {
+      final List<String> entries = new ArrayList<>();
+      PhraseTableLoader<String> loader = new PhraseTableLoader<>(filename, numThreads);
+      try {
+        loader.load(line -> {
+          if (line.equals("bad")) throw new IllegalArgumentException(line);
+          return line;
+        }, (entry, lineNumber) -> entries.add(entry));
+        fail("Expected a parse error");
+      } catch (RuntimeException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Error on line " + BAD_LINE + " "));
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+      // The entries before the error are handled in order
+      assertEquals(lines.subList(0, BAD_LINE - 1), entries);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for the work-stealing query scheduler.
+ *
+ */
+public class QuerySchedulerTest {
+
+  @After
+  public void tearDown() {
+    // Restore the default shared scheduler
+    QueryScheduler.configure(Runtime.getRuntime().availableProcessors(), QueryScheduler.DEFAULT_MAX_QUEUED);
+  }
+
+  private static List<Callable<Integer>> tasks(int n) {
+    List<Callable<Integer>> tasks = new ArrayList<>(n);
+    for (int i = 0; i < n; ++i) {
+      final int id = i;
+      tasks.add(() -> id);
+    }
+    return tasks;
+  }
+
+  private static void assertInOrder(int n, List<Integer> results) {
+    assertEquals(n, results.size());
+    for (int i = 0; i < n; ++i) assertEquals(i, results.get(i).intValue());
+  }
+
+  @Test
+  public void testResultOrder() throws InterruptedException, ExecutionException {
+    QueryScheduler scheduler = new QueryScheduler(4, QueryScheduler.DEFAULT_MAX_QUEUED);
+    assertInOrder(1, scheduler.invokeAll(tasks(1)));
+    assertInOrder(100, scheduler.invokeAll(tasks(100)));
+    // Back-pressure: the caller runs the whole batch
+    QueryScheduler full = new QueryScheduler(4, 0);
+    assertInOrder(100, full.invokeAll(tasks(100)));
+  }
+
+  @Test
+  public void testEachTaskRunsOnce() throws InterruptedException, ExecutionException {
+    QueryScheduler scheduler = new QueryScheduler(4, QueryScheduler.DEFAULT_MAX_QUEUED);
+    final int numTasks = 1000;
+    for (int batch = 0; batch < 50; ++batch) {
+      final AtomicIntegerArray runs = new AtomicIntegerArray(numTasks);
+      List<Callable<Integer>> tasks = new ArrayList<>(numTasks);
+      for (int i = 0; i < numTasks; ++i) {
+        final int id = i;
+        tasks.add(() -> {
+          runs.incrementAndGet(id);
+          return id;
+        });
+      }
+      assertInOrder(numTasks, scheduler.invokeAll(tasks));
+      for (int i = 0; i < numTasks; ++i) assertEquals(1, runs.get(i));
+    }
+  }
+
+  @Test
+  public void testException() throws InterruptedException {
+    QueryScheduler scheduler = new QueryScheduler(4, QueryScheduler.DEFAULT_MAX_QUEUED);
+    List<Callable<Integer>> tasks = tasks(100);
+    // One task for a worker and one for the caller
+    for (int i : new int[] { 0, 99 }) {
+      List<Callable<Integer>> failing = new ArrayList<>(tasks);
+      failing.set(i, () -> { throw new IllegalStateException("task " + i); });
+      try {
+        scheduler.invokeAll(failing);
+        fail("Expected an ExecutionException");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertEquals("task " + i, e.getCause().getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void testConfigureDuringBatch() throws InterruptedException, ExecutionException {
+    QueryScheduler.configure(2, QueryScheduler.DEFAULT_MAX_QUEUED);
+    QueryScheduler scheduler = QueryScheduler.get();
+    final int numTasks = 100;
+    List<Callable<Integer>> tasks = new ArrayList<>(numTasks);
+    for (int i = 0; i < numTasks - 1; ++i) {
+      final int id = i;
+      tasks.add(() -> {
+        Thread.sleep(1);
+        return id;
+      });
+    }
+    // The caller runs the last task first, after the others have been submitted to the pool,
+    // which is then shut down.
+    tasks.add(() -> {
+      QueryScheduler.configure(2, QueryScheduler.DEFAULT_MAX_QUEUED);
+      return numTasks - 1;
+    });
+    assertInOrder(numTasks, scheduler.invokeAll(tasks));
+    assertNotSame(scheduler, QueryScheduler.get());
+
+    // The pool of a replaced scheduler rejects new tasks, so the caller runs them
+    assertInOrder(numTasks, scheduler.invokeAll(tasks(numTasks)));
+  }
+}
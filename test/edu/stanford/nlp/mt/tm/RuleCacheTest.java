@@ -0,0 +1,109 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tm.DynamicTranslationModel.FeatureTemplate;
+import edu.stanford.nlp.mt.train.DynamicTMBuilder;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit tests for the rule cache of the dynamic translation model.
+ *
+ */
+public class RuleCacheTest {
+
+  private static List<Rule<IString>> rules(int n) {
+    List<Rule<IString>> rules = new ArrayList<>(n);
+    for (int i = 0; i < n; ++i) {
+      rules.add(new Rule<>(new float[] { i }, new String[] { "p" }, IStrings.tokenize("t" + i),
+          IStrings.tokenize("s"), null, "test"));
+    }
+    return rules;
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    RuleCache cache = new RuleCache(100);
+    Sequence<IString> source = IStrings.tokenize("a b");
+    assertNull(cache.get(source, FeatureTemplate.DENSE, 100));
+    cache.put(source, FeatureTemplate.DENSE, 100, rules(2), new int[] { 1, 2 }, false);
+    RuleCache.Entry entry = cache.get(source, FeatureTemplate.DENSE, 100);
+    assertNotNull(entry);
+    assertEquals(2, entry.rules.size());
+    assertArrayEquals(new int[] { 1, 2 }, entry.bounds);
+    assertFalse(entry.miss);
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(1, cache.stats().missCount());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testKey() {
+    RuleCache cache = new RuleCache(100);
+    Sequence<IString> source = IStrings.tokenize("a b");
+    cache.put(source, FeatureTemplate.DENSE, 100, rules(1), null, false);
+    assertNotNull(cache.get(IStrings.tokenize("a b"), FeatureTemplate.DENSE, 100));
+    assertNull(cache.get(source, FeatureTemplate.DENSE_EXT, 100));
+    assertNull(cache.get(source, FeatureTemplate.DENSE, 50));
+    assertNull(cache.get(IStrings.tokenize("a"), FeatureTemplate.DENSE, 100));
+  }
+
+  @Test
+  public void testEviction() {
+    final long capacity = 100;
+    RuleCache cache = new RuleCache(capacity);
+    for (int i = 0; i < 100; ++i) {
+      Sequence<IString> source = IStrings.tokenize("s" + i);
+      // Frequent spans are admitted when the cache is full
+      cache.get(source, FeatureTemplate.DENSE, 100);
+      cache.get(source, FeatureTemplate.DENSE, 100);
+      cache.put(source, FeatureTemplate.DENSE, 100, rules(3), null, false);
+    }
+    assertTrue(cache.stats().evictionCount() > 0);
+    assertEquals(0, cache.rejectionCount());
+    // Each entry has weight 4
+    assertTrue(cache.size() * 4 <= capacity);
+    assertNotNull(cache.get(IStrings.tokenize("s99"), FeatureTemplate.DENSE, 100));
+  }
+
+  @Test
+  public void testAdmission() {
+    RuleCache cache = new RuleCache(10);
+    cache.put(IStrings.tokenize("a"), FeatureTemplate.DENSE, 100, rules(9), null, false);
+    assertEquals(1, cache.size());
+    // A new span is rejected when the cache is full
+    cache.put(IStrings.tokenize("b"), FeatureTemplate.DENSE, 100, rules(9), null, false);
+    assertEquals(1, cache.rejectionCount());
+    assertNull(cache.get(IStrings.tokenize("b"), FeatureTemplate.DENSE, 100));
+  }
+
+  @Test
+  public void testInvalidateOnForegroundConfiguration() {
+    DynamicTranslationModel<String> background = build();
+    DynamicTranslationModel<String> foreground = build();
+    foreground.setRuleCacheSize(1000);
+    foreground.getRules(IStrings.tokenize("the house"), new InputProperties(), 0, null);
+    assertTrue(foreground.getRuleCache().size() > 0);
+    foreground.configureAsForegroundTM(background, FeatureTemplate.DENSE_EXT, "foreground");
+    assertEquals(0, foreground.getRuleCache().size());
+  }
+
+  private static DynamicTranslationModel<String> build() {
+    ParallelCorpus corpus = new ParallelCorpus();
+    corpus.add("the house is small", "das haus ist klein", "0-0 1-1 2-2 3-3");
+    corpus.add("the house", "das haus", "0-0 1-1");
+    DynamicTranslationModel<String> tm = new DynamicTMBuilder(corpus).build();
+    tm.initialize(true);
+    return tm;
+  }
+}
@@ -0,0 +1,111 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.train.DynamicTMBuilder;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.ParallelSuffixArrayEntry;
+
+/**
+ * Compares a sharded translation model to a single-index model built from the same bitext.
+ *
+ */
+public class ShardedDynamicTranslationModelTest {
+
+  private static final String[][] BITEXT = {
+    { "the house is small", "das haus ist klein", "0-0 1-1 2-2 3-3" },
+    { "the house is big", "das haus ist gross", "0-0 1-1 2-2 3-3" },
+    { "the book is small", "das buch ist klein", "0-0 1-1 2-2 3-3" },
+    { "a house", "ein haus", "0-0 1-1" },
+    { "the small house", "das kleine haus", "0-0 1-1 2-2" },
+    { "the house is old", "das haus ist alt", "0-0 1-1 2-2 3-3" },
+    { "a book is small", "ein buch ist klein", "0-0 1-1 2-2 3-3" },
+    { "the house", "das haus", "0-0 1-1" },
+    { "the big book", "das grosse buch", "0-0 1-1 2-2" },
+    { "a small house is old", "ein kleines haus ist alt", "0-0 1-1 2-2 3-3 4-4" },
+  };
+
+  private static final String[] QUERIES = {
+    "the house is small",
+    "a small house",
+    "the big book is old",
+    "xyzzy house",
+  };
+
+  private static DynamicTranslationModel<String> single;
+  private static ShardedDynamicTranslationModel<String> sharded;
+
+  @BeforeClass
+  public static void setUp() {
+    single = build(0, BITEXT.length);
+    final int half = BITEXT.length / 2;
+    sharded = new ShardedDynamicTranslationModel<>(Arrays.asList(build(0, half),
+        build(half, BITEXT.length)), DynamicTranslationModel.DEFAULT_NAME);
+  }
+
+  private static DynamicTranslationModel<String> build(int start, int end) {
+    ParallelCorpus corpus = new ParallelCorpus();
+    for (int i = start; i < end; ++i) corpus.add(BITEXT[i][0], BITEXT[i][1], BITEXT[i][2]);
+    DynamicTranslationModel<String> tm = new DynamicTMBuilder(corpus).build();
+    tm.initialize(true);
+    return tm;
+  }
+
+  @Test
+  public void testBitextSize() {
+    assertEquals(2, sharded.numShards());
+    assertEquals(single.bitextSize(), sharded.bitextSize());
+  }
+
+  @Test
+  public void testSampling() {
+    for (String query : QUERIES) {
+      for (String word : query.split(" ")) {
+        assertEquals(entries(single.lookupSource(word, 100, false)),
+            entries(sharded.lookupSource(word, 100, false)));
+        assertEquals(single.getSourceLexCount(new IString(word)),
+            sharded.getSourceLexCount(new IString(word)));
+      }
+    }
+  }
+
+  @Test
+  public void testRules() {
+    assertFalse(rules(single, QUERIES[0]).isEmpty());
+    for (String query : QUERIES) {
+      assertEquals(query, rules(single, query), rules(sharded, query));
+    }
+  }
+
+  private static List<String> entries(List<ParallelSuffixArrayEntry> entries) {
+    List<String> strings = new ArrayList<>(entries.size());
+    for (ParallelSuffixArrayEntry e : entries) {
+      strings.add(String.join(" ", e.source) + " ||| " + String.join(" ", e.target));
+    }
+    Collections.sort(strings);
+    return strings;
+  }
+
+  private static List<String> rules(DynamicTranslationModel<String> tm, String query) {
+    List<ConcreteRule<IString,String>> rules = tm.getRules(IStrings.tokenize(query),
+        new InputProperties(), 0, null);
+    List<String> strings = new ArrayList<>(rules.size());
+    for (ConcreteRule<IString,String> rule : rules) {
+      strings.add(String.format("%s ||| %s ||| %s ||| %s", rule.sourceCoverage,
+          rule.abstractRule.target, rule.abstractRule.alignment, Arrays.toString(rule.abstractRule.scores)));
+    }
+    Collections.sort(strings);
+    return strings;
+  }
+}
@@ -0,0 +1,94 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.FeatureValues;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.SparseVector;
+
+/**
+ * Unit test for n-best pools.
+ *
+ */
+public class NbestPoolTest {
+
+  private static RichTranslation<IString,String> translation(String target, SparseVector features) {
+    RichTranslation<IString,String> t = new RichTranslation<>(null, 0.0,
+        FeatureValues.fromSparseVector(features), 0);
+    t.translation = IStrings.tokenize(target);
+    return t;
+  }
+
+  @Test
+  public void testAccumulateAndRescore() throws IOException {
+    final int a = FeatureIndex.indexOf("NbestPoolTest.a");
+    final int b = FeatureIndex.indexOf("NbestPoolTest.b");
+    File directory = Files.createTempDirectory("nbest-pool-test").toFile();
+    // Keep few hypotheses in memory so that the other pool is read from disk
+    NbestPool pool = new NbestPool(directory, 2);
+    try {
+      SparseVector f1 = new SparseVector.Builder().add(a, 1.0).build();
+      SparseVector f2 = new SparseVector.Builder().add(b, 1.0).build();
+      assertEquals(2, pool.add(0, Arrays.asList(translation("x y", f1), translation("x z", f2))));
+      assertEquals(1, pool.add(1, Arrays.asList(translation("w", f1))));
+      assertEquals(1, pool.numCachedHypotheses());
+      assertEquals(1, pool.add(0, Arrays.asList(translation("x y", f1), translation("x y", f2))));
+      assertEquals(3, pool.get(0).size());
+      assertEquals(3, pool.numCachedHypotheses());
+
+      WeightVector weights = new WeightVector();
+      weights.set(a, -1.0);
+      weights.set(b, 2.0);
+      List<RichTranslation<IString,String>> nbestList = pool.rescore(0, weights);
+      assertEquals(3, nbestList.size());
+      assertEquals(2.0, nbestList.get(0).score, 0.0);
+      assertEquals(-1.0, nbestList.get(2).score, 0.0);
+      assertEquals("x y", nbestList.get(2).translation.toString());
+      assertEquals(f1, nbestList.get(2).getFeatureVector());
+    } finally {
+      pool.delete();
+    }
+    assertFalse(directory.exists());
+  }
+
+  @Test
+  public void testAppend() throws IOException {
+    final int a = FeatureIndex.indexOf("NbestPoolTest.a");
+    final int b = FeatureIndex.indexOf("NbestPoolTest.b");
+    File directory = Files.createTempDirectory("nbest-pool-test").toFile();
+    NbestPool pool = new NbestPool(directory, 0);
+    try {
+      SparseVector f1 = new SparseVector.Builder().add(a, 1.0).build();
+      SparseVector f2 = new SparseVector.Builder().add(b, 2.0).build();
+      SparseVector f3 = new SparseVector.Builder().add(a, 3.0).add(b, 1.0).build();
+      pool.add(0, Arrays.asList(translation("x", f1)));
+      final File file = new File(directory, "0.pool");
+      final byte[] firstBlock = Files.readAllBytes(file.toPath());
+      pool.add(0, Arrays.asList(translation("x", f1), translation("y", f2)));
+      pool.add(0, Arrays.asList(translation("z", f3)));
+      // The first block is not rewritten
+      final byte[] bytes = Files.readAllBytes(file.toPath());
+      assertTrue(bytes.length > firstBlock.length);
+      assertArrayEquals(firstBlock, Arrays.copyOf(bytes, firstBlock.length));
+
+      // Each block has its own name table
+      List<NbestPool.Hypothesis> hyps = new NbestPool(directory, 0).get(0);
+      assertEquals(Arrays.asList(new NbestPool.Hypothesis(IStrings.tokenize("x"), f1),
+          new NbestPool.Hypothesis(IStrings.tokenize("y"), f2),
+          new NbestPool.Hypothesis(IStrings.tokenize("z"), f3)), hyps);
+    } finally {
+      pool.delete();
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.SparseVector;
+
+/**
+ * Unit test for the parameter server protocol over localhost.
+ *
+ */
+public class ParameterServerTest {
+
+  private static final String WEIGHT = "ParameterServerTest.w";
+  private static final String BATCH_PREFIX = "ParameterServerTest.batch";
+  private static final String HOLDING = "HOLDING ";
+
+  /**
+   * Worker process. Decodes mini-batches like <code>OnlineTuner.runWorker()</code>, but the
+   * gradient only records the mini-batch and the weight that was read. With the argument
+   * <code>hold</code>, the worker takes one mini-batch and waits to be killed.
+   */
+  public static class Worker {
+    public static void main(String[] args) throws Exception {
+      final int port = Integer.parseInt(args[0]);
+      final boolean hold = args[1].equals("hold");
+      try (ParameterServerClient client = new ParameterServerClient("localhost", port)) {
+        ParameterServer.Batch batch;
+        while ((batch = client.nextBatch()) != null) {
+          if (hold) {
+            System.out.println(HOLDING + batch.inputId);
+            System.out.flush();
+            Thread.sleep(Long.MAX_VALUE);
+          }
+          final WeightVector weights = client.pullWeights();
+          final int readVersion = client.version();
+          SparseVector gradient = new SparseVector.Builder()
+              .add(FeatureIndex.indexOf(BATCH_PREFIX + batch.inputId), 1.0)
+              .add(FeatureIndex.indexOf(WEIGHT), 1.0 + weights.get(FeatureIndex.indexOf(WEIGHT)))
+              .build();
+          List<Sequence<IString>> oneBest = new ArrayList<>();
+          for (int sourceId : batch.sourceIds) oneBest.add(IStrings.tokenize("translation " + sourceId));
+          // Give the other worker a chance to take a mini-batch
+          Thread.sleep(10);
+          client.pushGradient(batch.inputId, readVersion, gradient, batch.sourceIds, oneBest);
+        }
+      }
+    }
+  }
+
+  private static Process startWorker(int port, String mode) throws IOException {
+    final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        Worker.class.getName(), Integer.toString(port), mode);
+    builder.redirectError(Redirect.INHERIT);
+    if ( ! mode.equals("hold")) builder.redirectOutput(Redirect.INHERIT);
+    return builder.start();
+  }
+
+  /**
+   * Receive the gradients of one epoch, and check that each mini-batch arrives exactly once.
+   */
+  private static void receiveEpoch(ParameterServer server, int firstInputId, int numBatches, 
+      double weight) {
+    final int[] counts = new int[numBatches];
+    for (int i = 0; i < numBatches; ++i) {
+      ParameterServer.RemoteGradient received = server.takeGradient();
+      final int t = received.inputId - firstInputId;
+      assertTrue("Unexpected input id: " + received.inputId, t >= 0 && t < numBatches);
+      ++counts[t];
+      assertEquals(1.0, received.gradient.get(FeatureIndex.indexOf(BATCH_PREFIX + received.inputId)), 0.0);
+      assertEquals(1.0 + weight, received.gradient.get(FeatureIndex.indexOf(WEIGHT)), 0.0);
+      assertArrayEquals(new int[] {received.inputId}, received.translationIds);
+      assertEquals("translation " + received.inputId, received.oneBest.get(0).toString());
+    }
+    for (int t = 0; t < numBatches; ++t) {
+      assertEquals("Gradients for input id " + (firstInputId + t), 1, counts[t]);
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testWorkerProcesses() throws Exception {
+    final int numBatches = 20;
+    final List<Process> workers = new ArrayList<>();
+    Process holder = null;
+    try (ParameterServer server = new ParameterServer(0, new WeightVector())) {
+      for (int t = 0; t < numBatches; ++t) server.addBatch(new int[] {t}, t);
+
+      // A worker that dies while it holds a mini-batch
+      holder = startWorker(server.getPort(), "hold");
+      BufferedReader reader = new BufferedReader(new InputStreamReader(holder.getInputStream(), 
+          StandardCharsets.UTF_8));
+      String line = reader.readLine();
+      while (line != null && ! line.startsWith(HOLDING)) line = reader.readLine();
+      assertNotNull("Worker exited without a mini-batch", line);
+      final int heldId = Integer.parseInt(line.substring(HOLDING.length()).trim());
+      assertTrue(heldId >= 0 && heldId < numBatches);
+
+      workers.add(startWorker(server.getPort(), "work"));
+      workers.add(startWorker(server.getPort(), "work"));
+      holder.destroyForcibly();
+      holder.waitFor();
+
+      // The held mini-batch is returned to the work queue
+      receiveEpoch(server, 0, numBatches, 0.0);
+
+      // Second epoch with new weights
+      WeightVector weights = new WeightVector();
+      weights.set(FeatureIndex.indexOf(WEIGHT), 2.0);
+      server.setWeights(weights);
+      for (int t = 0; t < numBatches; ++t) server.addBatch(new int[] {numBatches + t}, numBatches + t);
+      receiveEpoch(server, numBatches, numBatches, 2.0);
+
+      // close() returns once both workers have been told that tuning is finished
+      Thread closer = new Thread(server::close);
+      closer.start();
+      closer.join(30000);
+      assertFalse("close() did not finish", closer.isAlive());
+      for (Process worker : workers) {
+        assertTrue("Worker did not exit", worker.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(0, worker.exitValue());
+      }
+    } finally {
+      if (holder != null) holder.destroyForcibly();
+      for (Process worker : workers) worker.destroyForcibly();
+    }
+  }
+
+  @Test
+  public void testPullAndPush() throws IOException {
+    final int a = FeatureIndex.indexOf("ParameterServerTest.a");
+    final int b = FeatureIndex.indexOf("ParameterServerTest.b");
+    WeightVector weights = new WeightVector();
+    weights.set(a, 1.0);
+    try (ParameterServer server = new ParameterServer(0, weights);
+        ParameterServerClient client = new ParameterServerClient("localhost", server.getPort())) {
+      server.addBatch(new int[] {3, 7}, 0);
+      ParameterServer.Batch batch = client.nextBatch();
+      assertEquals(0, batch.inputId);
+      assertArrayEquals(new int[] {3, 7}, batch.sourceIds);
+
+      WeightVector pulled = client.pullWeights();
+      assertEquals(1.0, pulled.get(a), 0.0);
+      assertSame(pulled, client.pullWeights());
+
+      SparseVector gradient = new SparseVector.Builder().add(a, 0.5).add(b, -2.0).build();
+      client.pushGradient(batch.inputId, client.version(), gradient, new int[] {3},
+          Collections.singletonList(IStrings.tokenize("a translation")));
+      ParameterServer.RemoteGradient received = server.takeGradient();
+      assertEquals(gradient, received.gradient);
+      assertEquals(client.version(), received.readVersion);
+      assertEquals("a translation", received.oneBest.get(0).toString());
+
+      weights.add(received.gradient, 1.0);
+      server.incrementVersion();
+      WeightVector updated = client.pullWeights();
+      assertNotSame(pulled, updated);
+      assertEquals(1.5, updated.get(a), 0.0);
+      assertEquals(-2.0, updated.get(b), 0.0);
+    }
+  }
+
+  @Test
+  public void testLongTranslation() throws IOException {
+    // Longer than the 64KB limit of writeUTF()
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 100000) sb.append("ein sehr langer satz ");
+    final String translation = sb.toString().trim();
+    try (ParameterServer server = new ParameterServer(0, new WeightVector());
+        ParameterServerClient client = new ParameterServerClient("localhost", server.getPort())) {
+      client.pushGradient(0, client.version(), new SparseVector.Builder().build(), new int[] {0},
+          Collections.singletonList(IStrings.tokenize(translation)));
+      assertEquals(translation, server.takeGradient().oneBest.get(0).toString());
+    }
+  }
+
+  @Test
+  public void testFinished() throws IOException, InterruptedException {
+    try (ParameterServer server = new ParameterServer(0, new WeightVector());
+        ParameterServerClient client = new ParameterServerClient("localhost", server.getPort())) {
+      // Make sure that the connection was accepted
+      client.pullWeights();
+      // close() waits until the worker has been told that tuning is finished
+      Thread closer = new Thread(server::close);
+      closer.start();
+      assertNull(client.nextBatch());
+      assertNull(client.nextBatch());
+      closer.join();
+    }
+  }
+}
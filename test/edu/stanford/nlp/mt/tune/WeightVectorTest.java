@@ -0,0 +1,53 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.SparseVector;
+
+/**
+ * Unit test for the weight vector.
+ *
+ */
+public class WeightVectorTest {
+
+  @Test
+  public void testGrowth() {
+    WeightVector w = new WeightVector(1);
+    w.set(5000, 2.0);
+    w.set(100000, 0.0);
+    assertEquals(2.0, w.get(5000), 0.0);
+    assertEquals(0.0, w.get(100000), 0.0);
+    assertEquals(1, w.cardinality());
+    w.add(new SparseVector.Builder().add(3, 1.0).add(5000, 1.0).build(), 2.0);
+    assertEquals(4.0, w.get(5000), 0.0);
+    assertEquals(2.0, w.get(3), 0.0);
+
+    WeightVector copy = w.copy();
+    w.scale(0.5);
+    assertEquals(4.0, copy.get(5000), 0.0);
+    assertEquals(2.0, w.get(5000), 0.0);
+  }
+
+  @Test
+  public void testConcurrentUpdatesWhileGrowing() throws InterruptedException {
+    final int numThreads = 4;
+    final int numFeatures = 50000;
+    final WeightVector w = new WeightVector(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; ++t) {
+      final int offset = t;
+      // Each thread updates disjoint features, so no update may be lost
+      threads.add(new Thread(() -> {
+        for (int i = offset; i < numFeatures; i += numThreads) w.increment(i, i);
+      }));
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    for (int i = 0; i < numFeatures; ++i) assertEquals(i, w.get(i), 0.0);
+  }
+}
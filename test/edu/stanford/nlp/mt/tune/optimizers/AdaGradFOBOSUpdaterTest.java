@@ -0,0 +1,76 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tune.WeightVector;
+import edu.stanford.nlp.mt.util.FeatureIndex;
+import edu.stanford.nlp.mt.util.SparseVector;
+
+/**
+ * Unit test for the elitist lasso of the AdaGrad FOBOS update rule.
+ *
+ */
+public class AdaGradFOBOSUpdaterTest {
+
+  private static final double RATE = 0.1;
+  private static final double LAMBDA = 0.5;
+  private static final double EPS = 1e-3;
+
+  private static double shrink(double testUpdate, double currentRate, int groupSize, double absSum) {
+    final double tau = (currentRate * LAMBDA) / (1 + currentRate * LAMBDA * groupSize) * absSum;
+    return Math.signum(testUpdate) * Math.max(0.0, Math.abs(testUpdate) - tau);
+  }
+
+  @Test
+  public void testZeroGradientEntriesJoinTheGroup() {
+    final int a = FeatureIndex.indexOf("AdaGradFOBOSUpdaterTest.a");
+    final int b = FeatureIndex.indexOf("AdaGradFOBOSUpdaterTest.b");
+    AdaGradFOBOSUpdater updater = new AdaGradFOBOSUpdater(RATE, 10, LAMBDA, 
+        AdaGradFOBOSUpdater.Norm.aeLASSO, null);
+    WeightVector weights = new WeightVector();
+    weights.set(b, 0.5);
+    // b has a gradient entry of 0, so it has no gradient history
+    updater.update(weights, new SparseVector.Builder().add(a, 1.0).add(b, 0.0).build(), 0, false);
+
+    final double rateA = RATE / (1.0 + EPS);
+    final double rateB = RATE / EPS;
+    final double testUpdateA = -rateA;
+    final double testUpdateB = 0.5;
+    final double absSum = Math.abs(testUpdateA) + Math.abs(testUpdateB);
+    assertEquals(shrink(testUpdateA, rateA, 2, absSum), weights.get(a), 1e-12);
+    assertEquals(shrink(testUpdateB, rateB, 2, absSum), weights.get(b), 1e-12);
+
+    // b stays in the group in later updates without a gradient entry
+    final double wA = weights.get(a);
+    weights.set(b, 0.25);
+    updater.update(weights, new SparseVector.Builder().add(a, 1.0).build(), 1, false);
+    final double rateA2 = RATE / (Math.sqrt(2.0) + EPS);
+    final double testUpdateA2 = wA - rateA2;
+    final double absSum2 = Math.abs(testUpdateA2) + 0.25;
+    assertEquals(shrink(testUpdateA2, rateA2, 2, absSum2), weights.get(a), 1e-12);
+    assertEquals(shrink(0.25, rateB, 2, absSum2), weights.get(b), 1e-12);
+  }
+
+  @Test
+  public void testStateKeepsZeroHistory() {
+    final int a = FeatureIndex.indexOf("AdaGradFOBOSUpdaterTest.c");
+    final int b = FeatureIndex.indexOf("AdaGradFOBOSUpdaterTest.d");
+    AdaGradFOBOSUpdater updater = new AdaGradFOBOSUpdater(RATE, 10, LAMBDA, 
+        AdaGradFOBOSUpdater.Norm.aeLASSO, null);
+    updater.update(new WeightVector(), new SparseVector.Builder().add(a, 1.0).add(b, 0.0).build(), 0, false);
+
+    AdaGradFOBOSUpdater restored = new AdaGradFOBOSUpdater(RATE, 10, LAMBDA, 
+        AdaGradFOBOSUpdater.Norm.aeLASSO, null);
+    restored.setState(updater.getState());
+    WeightVector weights = new WeightVector();
+    weights.set(b, 0.5);
+    WeightVector expected = weights.copy();
+    SparseVector gradient = new SparseVector.Builder().add(a, 1.0).build();
+    updater.update(expected, gradient, 1, false);
+    restored.update(weights, gradient, 1, false);
+    assertEquals(expected.get(a), weights.get(a), 0.0);
+    assertEquals(expected.get(b), weights.get(b), 0.0);
+  }
+}
@@ -0,0 +1,44 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the long-indexed int list.
+ *
+ */
+public class BigIntListTest {
+
+  @Test
+  public void testAdd() {
+    BigIntList list = new BigIntList(2);
+    for (int i = 0; i < 100; ++i) list.add(i * 7);
+    assertEquals(100, list.size());
+    for (int i = 0; i < 100; ++i) assertEquals(i * 7, list.get(i));
+  }
+
+  @Test
+  public void testPast2To31() {
+    // Only the chunks that are written are allocated
+    BigIntList list = new BigIntList(20);
+    final long boundary = 1L << 31;
+    list.extend(boundary);
+    list.set(boundary - 1, -1);
+    list.add(42);
+    list.add(43);
+    assertEquals(boundary + 2, list.size());
+    assertEquals(-1, list.get(boundary - 1));
+    assertEquals(42, list.get(boundary));
+    assertEquals(43, list.get(boundary + 1));
+    assertEquals(0, list.get(0));
+    assertEquals(0, list.get(boundary - 2));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    BigIntList list = new BigIntList();
+    list.add(1);
+    list.get(1);
+  }
+}
@@ -1,6 +1,8 @@
 package edu.stanford.nlp.mt.util;
 
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.Random;
 
 import edu.stanford.nlp.mt.util.CoverageSet;
 
@@ -58,4 +60,63 @@ public class CoverageSetTest  extends TestCase {
 		   assertTrue(bit.intValue() == bitOrderedSet[i]);
 	   }
    }
+   
+   public void testMatchesBitSet() {
+     Random random = new Random(7);
+     for (int size : new int[] {10, 64, 100, 128, 200, 300}) {
+       for (int trial = 0; trial < 50; ++trial) {
+         CoverageSet a = new CoverageSet(size), b = new CoverageSet();
+         BitSet aBits = new BitSet(size), bBits = new BitSet();
+         for (int i = 0; i < size / 4; ++i) {
+           int bit = random.nextInt(size);
+           a.set(bit); aBits.set(bit);
+           bit = random.nextInt(size);
+           b.set(bit); bBits.set(bit);
+         }
+         int from = random.nextInt(size), to = from + random.nextInt(size - from + 1);
+         b.set(from, to); bBits.set(from, to);
+         
+         assertEquals(aBits.hashCode(), a.hashCode());
+         assertEquals(aBits.cardinality(), a.cardinality());
+         assertEquals(aBits.length(), a.length());
+         assertEquals(aBits.intersects(bBits), a.intersects(b));
+         for (int i = 0; i <= size + 64; ++i) {
+           assertEquals(aBits.get(i), a.get(i));
+           assertEquals(aBits.nextSetBit(i), a.nextSetBit(i));
+           assertEquals(aBits.nextClearBit(i), a.nextClearBit(i));
+           assertEquals(aBits.previousSetBit(i), a.previousSetBit(i));
+           assertEquals(aBits.previousClearBit(i), a.previousClearBit(i));
+         }
+         
+         CoverageSet union = a.union(b);
+         BitSet unionBits = (BitSet) aBits.clone();
+         unionBits.or(bBits);
+         assertEquals(unionBits.hashCode(), union.hashCode());
+         assertEquals(unionBits.toString().replace(" ", ""), toBitString(union));
+         assertEquals(a.clone(), a);
+         assertFalse(union.equals(a) != unionBits.equals(aBits));
+         
+         CoverageSet xor = a.clone();
+         xor.xor(b);
+         BitSet xorBits = (BitSet) aBits.clone();
+         xorBits.xor(bBits);
+         assertEquals(xorBits.hashCode(), xor.hashCode());
+         assertEquals(xorBits.cardinality(), xor.cardinality());
+         
+         a.and(b);
+         aBits.and(bBits);
+         assertEquals(aBits.hashCode(), a.hashCode());
+         assertEquals(aBits.isEmpty(), a.isEmpty());
+       }
+     }
+   }
+   
+   private static String toBitString(CoverageSet cs) {
+     StringBuilder sb = new StringBuilder("{");
+     for (int i = cs.nextSetBit(0); i >= 0; i = cs.nextSetBit(i + 1)) {
+       if (sb.length() > 1) sb.append(",");
+       sb.append(i);
+     }
+     return sb.append("}").toString();
+   }
 }
@@ -0,0 +1,97 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SuffixArraySample;
+
+/**
+ * Unit tests for the parallel suffix array.
+ *
+ */
+public class ParallelSuffixArrayTest {
+
+  private ParallelSuffixArray sa;
+
+  @Before
+  public void setUp() {
+    ParallelCorpus corpus = new ParallelCorpus();
+    corpus.add("the cat sat", "le chat assis", "0-0 1-1 2-2");
+    corpus.add("the dog sat", "le chien assis", "0-0 1-1 2-2");
+    corpus.add("a cat", "un chat", "0-0 1-1");
+    sa = new ParallelSuffixArray(corpus);
+    sa.build();
+  }
+
+  private int[] toIds(String phrase) {
+    return Arrays.stream(phrase.split("\\s+")).mapToInt(s -> sa.getVocabulary().indexOf(s)).toArray();
+  }
+
+  @Test
+  public void testCount() {
+    assertEquals(2, sa.count(toIds("cat"), true));
+    assertEquals(2, sa.count(toIds("the"), true));
+    assertEquals(1, sa.count(toIds("the dog"), true));
+    assertEquals(2, sa.count(toIds("assis"), false));
+  }
+
+  @Test
+  public void testMappedRoundTrip() throws IOException {
+    File file = File.createTempFile("psa", ParallelSuffixArray.MAPPED_EXTENSION);
+    file.deleteOnExit();
+    sa.writeMapped(file.getPath());
+    ParallelSuffixArray mapped = ParallelSuffixArray.loadMapped(file.getPath());
+    assertTrue(mapped.isMapped());
+    assertEquals(sa.numSentences(), mapped.numSentences());
+    assertEquals(sa.sourceSASize(), mapped.sourceSASize());
+    assertEquals(sa.targetSASize(), mapped.targetSASize());
+    assertEquals(sa.getVocabulary().size(), mapped.getVocabulary().size());
+    for (String query : new String[] { "cat", "the", "the cat sat", "sat", "a cat" }) {
+      int[] ids = toIds(query);
+      assertEquals(sa.count(ids, true), mapped.count(ids, true));
+      SuffixArraySample expected = sa.sample(ids, 10);
+      SuffixArraySample actual = mapped.sample(ids, 10);
+      assertEquals(expected.lb, actual.lb);
+      assertEquals(expected.ub, actual.ub);
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.samples.get(i).toString(), actual.samples.get(i).toString());
+      }
+    }
+  }
+
+  @Test
+  public void testSAISMatchesComparisonSort() {
+    // Small vocabulary so that long repeated substrings are common
+    String[] words = { "a", "b", "c", "aa", "B" };
+    Random random = new Random(42);
+    ParallelCorpus corpus = new ParallelCorpus();
+    for (int i = 0; i < 200; ++i) {
+      int len = 1 + random.nextInt(8);
+      StringBuilder src = new StringBuilder();
+      StringBuilder tgt = new StringBuilder();
+      StringBuilder align = new StringBuilder();
+      for (int j = 0; j < len; ++j) {
+        if (j > 0) {
+          src.append(" ");
+          tgt.append(" ");
+          align.append(" ");
+        }
+        src.append(words[random.nextInt(words.length)]);
+        tgt.append(words[random.nextInt(2)]);
+        align.append(j).append("-").append(j);
+      }
+      corpus.add(src.toString(), tgt.toString(), align.toString());
+    }
+    ParallelSuffixArray sa = new ParallelSuffixArray(corpus);
+    // Throws if the arrays differ
+    sa.build(true);
+    assertEquals(corpus.numSourcePositions(), sa.sourceSASize());
+  }
+}
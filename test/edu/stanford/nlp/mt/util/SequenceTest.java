@@ -32,4 +32,34 @@ public class SequenceTest {
     assertTrue(TokenUtils.END_TOKEN.equals(padStartEnd.subsequence(seq.size() + 1, padStartEnd.size()).get(0)));
     assertTrue(seq.equals(padStartEnd.subsequence(1, seq.size() + 1)));
   }
+
+  @Test
+  public void testPersistentSequence() {
+    Sequence<IString> expected = IStrings.tokenize("");
+    Sequence<IString> seq = PersistentSequence.empty();
+    assertTrue(seq.equals(expected));
+    String[] phrases = {"Lorem ipsum", "sit", "", "dolor amet consectetur"};
+    for (int n = 0; n < 20; ++n) {
+      Sequence<IString> phrase = IStrings.tokenize(phrases[n % phrases.length]);
+      Sequence<IString> prefix = seq;
+      expected = expected.concat(phrase);
+      seq = seq.concat(phrase);
+      assertTrue(seq instanceof PersistentSequence);
+      assertEquals(expected.size(), seq.size());
+      assertTrue(seq.equals(expected));
+      assertTrue(expected.equals(seq));
+      assertEquals(expected.hashCode(), seq.hashCode());
+      assertEquals(expected.toString(), seq.toString());
+      assertTrue(prefix.equals(seq.subsequence(0, prefix.size())));
+      for (int i = 0; i < seq.size(); ++i) {
+        assertEquals(expected.get(i), seq.get(i));
+        assertTrue(expected.subsequence(i, seq.size()).equals(seq.subsequence(i, seq.size())));
+        assertTrue(expected.subsequence(0, i).equals(seq.subsequence(0, i)));
+      }
+      for (int k = 0; k <= seq.size(); ++k) {
+        assertTrue(expected.subsequence(seq.size() - k, seq.size()).equals(
+            ((PersistentSequence<IString>) seq).suffix(k)));
+      }
+    }
+  }
 }
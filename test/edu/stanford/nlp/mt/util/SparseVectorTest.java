@@ -0,0 +1,71 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test for sparse feature vectors.
+ *
+ */
+public class SparseVectorTest {
+
+  @Test
+  public void testBuilderMatchesCounter() {
+    Random random = new Random(7);
+    SparseVector.Builder builder = new SparseVector.Builder(2);
+    Counter<Integer> expected = new ClassicCounter<>();
+    for (int i = 0; i < 5000; ++i) {
+      int id = random.nextInt(1000);
+      double value = random.nextGaussian();
+      builder.add(id, value);
+      expected.incrementCount(id, value);
+    }
+    SparseVector v = builder.build();
+    assertEquals(expected.size(), v.size());
+    for (int i = 0; i < v.size(); ++i) {
+      if (i > 0) assertTrue(v.id(i - 1) < v.id(i));
+      assertEquals(expected.getCount(v.id(i)), v.value(i), 1e-9);
+      assertEquals(v.value(i), v.get(v.id(i)), 0.0);
+    }
+    assertEquals(0.0, v.get(1000), 0.0);
+  }
+
+  @Test
+  public void testArithmetic() {
+    SparseVector a = new SparseVector.Builder().add(3, 1.0).add(1, 2.0).build();
+    SparseVector b = new SparseVector.Builder().add(1, 1.0).add(7, -1.0).build();
+    SparseVector diff = new SparseVector.Builder().add(a, 1.0).add(b, -1.0).build();
+    assertEquals(3, diff.size());
+    assertEquals(1.0, diff.get(1), 0.0);
+    assertEquals(1.0, diff.get(3), 0.0);
+    assertEquals(1.0, diff.get(7), 0.0);
+    assertEquals(3.0, diff.sumSquares(), 0.0);
+    assertEquals(-2.0, diff.scale(-2.0).get(3), 0.0);
+
+    double[] weights = {0.0, 2.0, 0.0, 3.0};
+    assertEquals(7.0, a.dot(weights), 0.0);
+    assertEquals(2.0, b.dot(weights), 0.0);
+
+    SparseVector filtered = diff.filter(id -> id != 3);
+    assertEquals(2, filtered.size());
+    assertEquals(0.0, filtered.get(3), 0.0);
+    assertSame(diff, diff.filter(id -> true));
+  }
+
+  @Test
+  public void testCounterConversion() {
+    Counter<String> counter = new ClassicCounter<>();
+    counter.setCount("SparseVectorTest.a", 1.5);
+    counter.setCount("SparseVectorTest.b", -0.5);
+    SparseVector v = SparseVector.fromCounter(counter);
+    assertEquals(2, v.size());
+    assertEquals(1.5, v.get(FeatureIndex.indexOf("SparseVectorTest.a")), 0.0);
+    assertEquals(counter, v.toCounter());
+  }
+}